@@ -0,0 +1,93 @@
+package es.ciemat.csv;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/** PDF de entrada de las pruebas de rendimiento.
+ * Los PDF sint&eacute;ticos se generan una &uacute;nica vez por proceso con
+ * {@link SignedPdfGenerator}. Como nombre de PDF puede indicarse tambi&eacute;n la ruta de un
+ * fichero PDF real, que se carga tal cual.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+final class BenchmarkFixtures {
+
+	/** PDF sint&eacute;ticos disponibles. */
+	enum Fixture {
+		/** Una p&aacute;gina de texto con una firma. */
+		SMALL(1, 1, 0),
+		/** Veinte p&aacute;ginas con una imagen de 256 KB cada una y tres firmas. */
+		LARGE(20, 3, 256),
+		/** Mil p&aacute;ginas de texto con dos firmas. */
+		MANYPAGES(1000, 2, 0),
+		/** Diez p&aacute;ginas con una imagen de 256 KB cada una y veinticuatro firmas. */
+		MANYSIGNATURES(10, 24, 256);
+
+		final int pages;
+		final int signatures;
+		final int imageKb;
+
+		Fixture(final int p, final int s, final int kb) {
+			this.pages = p;
+			this.signatures = s;
+			this.imageKb = kb;
+		}
+	}
+
+	private static final Map<String, byte[]> PDFS = new ConcurrentHashMap<>();
+
+	/** Referencia al registro del servicio, para que no se pierda su nivel. */
+	private static final Logger CSV_LOGGER = Logger.getLogger("es.ciemat.csv"); //$NON-NLS-1$
+
+	private static volatile boolean configured = false;
+
+	private BenchmarkFixtures() {
+		// No instanciable
+	}
+
+	/** Carga la configuraci&oacute;n del servicio y limita su registro a los avisos, para que
+	 * la escritura de trazas no distorsione las medidas. */
+	static synchronized void configure() {
+		if (!configured) {
+			CSV_LOGGER.setLevel(Level.WARNING);
+			new ServiceConfig().contextInitialized(null);
+			configured = true;
+		}
+	}
+
+	/** Obtiene un PDF de entrada.
+	 * @param name Nombre de un PDF sint&eacute;tico (ver {@link Fixture}) o ruta de un
+	 *             fichero PDF.
+	 * @return PDF de entrada. No debe modificarse.
+	 * @throws IOException Si no se puede generar o cargar el PDF. */
+	static byte[] get(final String name) throws IOException {
+		byte[] pdf = PDFS.get(name);
+		if (pdf == null) {
+			configure();
+			pdf = load(name);
+			PDFS.put(name, pdf);
+		}
+		return pdf;
+	}
+
+	private static byte[] load(final String name) throws IOException {
+		final Fixture fixture;
+		try {
+			fixture = Fixture.valueOf(name.toUpperCase(Locale.ROOT));
+		}
+		catch (final IllegalArgumentException e) {
+			return Files.readAllBytes(Paths.get(name));
+		}
+		return SignedPdfGenerator.generate(
+			fixture.pages,
+			fixture.signatures,
+			fixture.imageKb,
+			new CsvSignerSealer()
+		);
+	}
+
+}
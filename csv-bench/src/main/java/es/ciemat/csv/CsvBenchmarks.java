@@ -0,0 +1,39 @@
+package es.ciemat.csv;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/** Lanzador de las pruebas de rendimiento.
+ * Admite las mismas opciones que el lanzador de JMH (por ejemplo <code>StampBenchmark -p
+ * pdf=small</code> o <code>-p pdf=/ruta/documento.pdf</code>) y a&ntilde;ade siempre el
+ * perfilador de memoria, de forma que junto a los tiempos se informa de los octetos
+ * reservados por operaci&oacute;n (<code>gc.alloc.rate.norm</code>).
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class CsvBenchmarks {
+
+	private CsvBenchmarks() {
+		// No instanciable
+	}
+
+	/** Ejecuta las pruebas de rendimiento.
+	 * @param args Opciones de JMH.
+	 * @throws Exception Si las opciones no son v&aacute;lidas o falla la ejecuci&oacute;n
+	 *                   de las pruebas. */
+	public static void main(final String[] args) throws Exception {
+		final CommandLineOptions cmd = new CommandLineOptions(args);
+		if (cmd.shouldHelp() || cmd.shouldList() || cmd.shouldListProfilers() || cmd.shouldListResultFormats()) {
+			Main.main(args);
+			return;
+		}
+		final Options opts = new OptionsBuilder()
+			.parent(cmd)
+			.addProfiler(GCProfiler.class)
+			.build();
+		new Runner(opts).run();
+	}
+
+}
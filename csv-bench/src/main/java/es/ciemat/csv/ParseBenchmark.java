@@ -0,0 +1,102 @@
+package es.ciemat.csv;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.aowagie.text.pdf.PRTokeniser;
+import com.aowagie.text.pdf.PdfContentParser;
+import com.aowagie.text.pdf.PdfReader;
+import com.aowagie.text.pdf.RandomAccessFileOrArray;
+
+/** Pruebas de rendimiento del an&aacute;lisis l&eacute;xico de PDF: lectura de todos los
+ * objetos del documento y de las instrucciones del contenido de sus p&aacute;ginas.
+ * Los PDF reales se indican con rutas relativas al directorio de <code>csv-bench</code>.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+
+	/** PDF de entrada: nombre de un PDF sint&eacute;tico o ruta de un fichero. */
+	@Param({
+		"manypages", //$NON-NLS-1$
+		"../csv/src/test/resources/cosigned.pdf", //$NON-NLS-1$
+		"../csv/src/test/resources/withID_2738541743003151295.pdf" //$NON-NLS-1$
+	})
+	public String pdf;
+
+	private byte[] bytes;
+	private final List<byte[]> contents = new ArrayList<>();
+
+	/** Carga el PDF de entrada y el contenido de sus p&aacute;ginas.
+	 * @throws Exception En cualquier error. */
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		this.bytes = BenchmarkFixtures.get(this.pdf);
+		final PdfReader reader = new PdfReader(this.bytes);
+		try {
+			final RandomAccessFileOrArray file = reader.getSafeFile();
+			for (int i = 1; i <= reader.getNumberOfPages(); i++) {
+				this.contents.add(reader.getPageContent(i, file));
+			}
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	/** Lectura de todos los objetos del PDF.
+	 * @return N&uacute;mero de objetos le&iacute;dos.
+	 * @throws IOException En cualquier error. */
+	@Benchmark
+	public int readObjects() throws IOException {
+		final PdfReader reader = new PdfReader(this.bytes);
+		try {
+			int count = 0;
+			for (int i = 0; i < reader.getXrefSize(); i++) {
+				if (reader.getPdfObject(i) != null) {
+					count++;
+				}
+			}
+			return count;
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	/** Lectura de las instrucciones del contenido de todas las p&aacute;ginas.
+	 * @return N&uacute;mero de operandos y operadores le&iacute;dos.
+	 * @throws IOException En cualquier error. */
+	@Benchmark
+	public int parseContent() throws IOException {
+		final ArrayList<?> operands = new ArrayList<>();
+		int count = 0;
+		for (final byte[] content : this.contents) {
+			final PdfContentParser parser = new PdfContentParser(new PRTokeniser(content));
+			while (!parser.parse(operands).isEmpty()) {
+				count += operands.size();
+			}
+		}
+		return count;
+	}
+
+}
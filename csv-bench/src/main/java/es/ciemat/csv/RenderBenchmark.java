@@ -0,0 +1,69 @@
+package es.ciemat.csv;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.aowagie.text.pdf.PdfReader;
+
+import es.gob.afirma.core.signers.AOSimpleSignInfo;
+
+/** Pruebas de rendimiento de la generaci&oacute;n de la imagen del CSV seg&uacute;n el
+ * n&uacute;mero de firmas del PDF.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RenderBenchmark {
+
+	/** N&uacute;mero de firmas que aparecen en el CSV. */
+	@Param({ "1", "5", "20" })
+	public int signatures;
+
+	private AOSimpleSignInfo[] infos;
+	private String pdfId;
+
+	/** Obtiene los firmantes de un PDF sint&eacute;tico y los repite hasta el n&uacute;mero
+	 * de firmas indicado.
+	 * @throws Exception En cualquier error. */
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		final byte[] pdf = BenchmarkFixtures.get(BenchmarkFixtures.Fixture.SMALL.name());
+		this.pdfId = PdfExtraUtil.getPdfId(pdf);
+		final PdfReader reader = new PdfReader(pdf);
+		final AOSimpleSignInfo[] fixtureInfos;
+		try {
+			fixtureInfos = PipelinedPdfCsvStamper.getSignInfos(reader);
+		}
+		finally {
+			reader.close();
+		}
+		this.infos = new AOSimpleSignInfo[this.signatures];
+		Arrays.fill(this.infos, fixtureInfos[0]);
+	}
+
+	/** Generaci&oacute;n de la imagen JPEG del CSV.
+	 * @return Imagen JPEG.
+	 * @throws IOException En cualquier error. */
+	@Benchmark
+	public byte[] createCsvAsJpeg() throws IOException {
+		return PdfExtraUtil.createCsvAsJpeg(this.pdfId, this.infos, null);
+	}
+
+}
@@ -0,0 +1,157 @@
+package es.ciemat.csv;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import com.aowagie.text.Document;
+import com.aowagie.text.DocumentException;
+import com.aowagie.text.Image;
+import com.aowagie.text.Paragraph;
+import com.aowagie.text.pdf.PdfReader;
+import com.aowagie.text.pdf.PdfStamper;
+import com.aowagie.text.pdf.PdfWriter;
+
+/** Generador de PDF firmados sint&eacute;ticos para las pruebas de rendimiento.
+ * Crea un PDF con el n&uacute;mero de p&aacute;ginas indicado, con texto y opcionalmente una
+ * imagen distinta por p&aacute;gina, y le a&ntilde;ade el n&uacute;mero de firmas indicado como
+ * revisiones incrementales, firmadas con el sello configurado en
+ * <code>csvsignerconfig.properties</code>.
+ * Puede usarse tambi&eacute;n desde l&iacute;nea de comandos:
+ * <pre>
+ * java -cp target/benchmarks.jar es.ciemat.csv.SignedPdfGenerator salida.pdf p&aacute;ginas [firmas] [KB de imagen por p&aacute;gina]
+ * </pre>
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class SignedPdfGenerator {
+
+	private static final String TEXT =
+		"Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor incididunt ut " + //$NON-NLS-1$
+		"labore et dolore magna aliqua. Ut enim ad minim veniam, quis nostrud exercitation ullamco " + //$NON-NLS-1$
+		"laboris nisi ut aliquip ex ea commodo consequat."; //$NON-NLS-1$
+
+	/** P&aacute;rrafos de texto por p&aacute;gina. */
+	private static final int PARAGRAPHS_PER_PAGE = 8;
+
+	private SignedPdfGenerator() {
+		// No instanciable
+	}
+
+	/** Genera un PDF firmado.
+	 * @param pages N&uacute;mero de p&aacute;ginas.
+	 * @param signatures N&uacute;mero de firmas.
+	 * @param imageKb Tama&ntilde;o aproximado en KB de la imagen de cada p&aacute;gina, o
+	 *                0 para no incluir im&aacute;genes.
+	 * @param signer Firmador con el que se a&ntilde;aden las firmas.
+	 * @return PDF firmado.
+	 * @throws IOException Si hay problemas generando o firmando el PDF. */
+	static byte[] generate(final int pages,
+			               final int signatures,
+			               final int imageKb,
+			               final CsvStamperSigner signer) throws IOException {
+		byte[] pdf = createPdf(pages, imageKb);
+		for (int i = 0; i < signatures; i++) {
+			pdf = sign(pdf, signer);
+		}
+		return pdf;
+	}
+
+	/** Crea un PDF sin firmar.
+	 * @param pages N&uacute;mero de p&aacute;ginas.
+	 * @param imageKb Tama&ntilde;o aproximado en KB de la imagen de cada p&aacute;gina, o
+	 *                0 para no incluir im&aacute;genes.
+	 * @return PDF creado.
+	 * @throws IOException Si hay problemas generando el PDF. */
+	static byte[] createPdf(final int pages, final int imageKb) throws IOException {
+		final Random rnd = new Random(pages);
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final Document doc = new Document();
+		try {
+			PdfWriter.getInstance(doc, baos);
+			doc.open();
+			for (int i = 1; i <= pages; i++) {
+				doc.add(new Paragraph("Pagina " + i)); //$NON-NLS-1$
+				for (int j = 0; j < PARAGRAPHS_PER_PAGE; j++) {
+					doc.add(new Paragraph(TEXT));
+				}
+				if (imageKb > 0) {
+					final Image img = Image.getInstance(createJpeg(imageKb, rnd));
+					img.scaleToFit(400, 300);
+					doc.add(img);
+				}
+				doc.newPage();
+			}
+			doc.close();
+		}
+		catch (final DocumentException e) {
+			throw new IOException("Error creando el PDF de pruebas: " + e, e); //$NON-NLS-1$
+		}
+		return baos.toByteArray();
+	}
+
+	/** A&ntilde;ade una firma a un PDF como nueva revisi&oacute;n, conservando las anteriores.
+	 * @param pdf PDF de entrada.
+	 * @param signer Firmador.
+	 * @return PDF con la nueva firma.
+	 * @throws IOException Si hay problemas firmando el PDF. */
+	static byte[] sign(final byte[] pdf, final CsvStamperSigner signer) throws IOException {
+		final PdfReader reader = new PdfReader(pdf);
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream(pdf.length + PdfSealer.SIGNATURE_RESERVED_SIZE * 3);
+		try {
+			signer.signPdf(PdfStamper.createSignature(reader, baos, '\0', null, true));
+		}
+		catch (final DocumentException e) {
+			throw new IOException("Error firmando el PDF de pruebas: " + e, e); //$NON-NLS-1$
+		}
+		finally {
+			reader.close();
+		}
+		return baos.toByteArray();
+	}
+
+	/** Crea una imagen JPEG de ruido, que apenas se comprime, del tama&ntilde;o aproximado indicado.
+	 * @param kb Tama&ntilde;o aproximado en KB.
+	 * @param rnd Generador de n&uacute;meros aleatorios.
+	 * @return Imagen JPEG.
+	 * @throws IOException Si no se puede codificar la imagen. */
+	private static byte[] createJpeg(final int kb, final Random rnd) throws IOException {
+		// El ruido en JPEG con la calidad por defecto ocupa unos 0,7 octetos por pixel
+		final int side = Math.max(8, (int) Math.sqrt(kb * 1024 / 0.7));
+		final BufferedImage img = new BufferedImage(side, side, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < side; y++) {
+			for (int x = 0; x < side; x++) {
+				img.setRGB(x, y, rnd.nextInt(0x1000000));
+			}
+		}
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream(kb * 1024);
+		ImageIO.write(img, "jpg", baos); //$NON-NLS-1$
+		return baos.toByteArray();
+	}
+
+	/** Genera un PDF firmado y lo guarda en disco.
+	 * @param args Fichero de salida, n&uacute;mero de p&aacute;ginas y, opcionalmente,
+	 *             n&uacute;mero de firmas (1 por defecto) y KB de imagen por p&aacute;gina
+	 *             (0 por defecto).
+	 * @throws IOException Si hay problemas generando o guardando el PDF. */
+	public static void main(final String[] args) throws IOException {
+		if (args == null || args.length < 2) {
+			System.err.println("Uso: SignedPdfGenerator salida.pdf paginas [firmas] [KB de imagen por pagina]"); //$NON-NLS-1$
+			return;
+		}
+		final Path out = Paths.get(args[0]);
+		final int pages = Integer.parseInt(args[1]);
+		final int signatures = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+		final int imageKb = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+		final byte[] pdf = generate(pages, signatures, imageKb, new CsvSignerSealer());
+		Files.write(out, pdf);
+		System.out.println(
+			"Generado " + out + ": " + pages + " paginas, " + signatures + " firmas, " + pdf.length + " octetos" //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+		);
+	}
+
+}
@@ -0,0 +1,171 @@
+package es.ciemat.csv;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.aowagie.text.pdf.PdfReader;
+import com.aowagie.text.pdf.RandomAccessFileOrArray;
+
+import es.ciemat.csv.PdfExtraUtil.PdfId;
+import es.gob.afirma.core.signers.AOSimpleSignInfo;
+
+/** Pruebas de rendimiento de cada paso de la estampaci&oacute;n del CSV y del proceso
+ * completo, sobre PDF de distintos tama&ntilde;os.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StampBenchmark {
+
+	/** PDF de entrada: nombre de un PDF sint&eacute;tico o ruta de un fichero. */
+	@Param({ "small", "large", "manypages" })
+	public String pdf;
+
+	private byte[] signedPdf;
+	private byte[] flatPdf;
+	private byte[] csvJpeg;
+	private String pdfId;
+	private CsvSigner signer;
+
+	/** Prepara los PDF de entrada y los resultados de los pasos previos a cada paso medido.
+	 * @throws Exception En cualquier error. */
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		this.signedPdf = BenchmarkFixtures.get(this.pdf);
+		this.signer = ServiceConfig.getCsvSigner();
+		this.pdfId = PdfExtraUtil.getPdfId(this.signedPdf);
+		this.flatPdf = PdfExtraUtil.removeSignaturesFromPdf(this.signedPdf);
+		this.csvJpeg = PdfExtraUtil.createCsvAsJpeg(this.pdfId, scanSigners(), null);
+	}
+
+	/** C&aacute;lculo del identificador del PDF.
+	 * @return Identificador.
+	 * @throws IOException En cualquier error. */
+	@Benchmark
+	public String getPdfId() throws IOException {
+		return PdfExtraUtil.getPdfId(this.signedPdf);
+	}
+
+	/** Apertura y an&aacute;lisis del PDF.
+	 * @return N&uacute;mero de p&aacute;ginas.
+	 * @throws IOException En cualquier error. */
+	@Benchmark
+	public int openReader() throws IOException {
+		final PdfReader reader = new PdfReader(this.signedPdf);
+		try {
+			return reader.getNumberOfPages();
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	/** Apertura del PDF y obtenci&oacute;n de sus firmantes.
+	 * @return Informaci&oacute;n de las firmas.
+	 * @throws IOException En cualquier error. */
+	@Benchmark
+	public AOSimpleSignInfo[] scanSigners() throws IOException {
+		final PdfReader reader = new PdfReader(this.signedPdf);
+		try {
+			return PipelinedPdfCsvStamper.getSignInfos(reader);
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	/** Apertura del PDF en modo de lectura parcial.
+	 * @return N&uacute;mero de p&aacute;ginas.
+	 * @throws IOException En cualquier error. */
+	@Benchmark
+	public int openReaderPartial() throws IOException {
+		final PdfReader reader = new PdfReader(new RandomAccessFileOrArray(this.signedPdf), null);
+		reader.setPartialCache(true);
+		try {
+			return reader.getNumberOfPages();
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	/** Apertura del PDF en modo de lectura parcial y obtenci&oacute;n de sus firmantes.
+	 * @return Informaci&oacute;n de las firmas.
+	 * @throws IOException En cualquier error. */
+	@Benchmark
+	public AOSimpleSignInfo[] scanSignersPartial() throws IOException {
+		final PdfReader reader = new PdfReader(new RandomAccessFileOrArray(this.signedPdf), null);
+		reader.setPartialCache(true);
+		try {
+			return PipelinedPdfCsvStamper.getSignInfos(reader);
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	/** Eliminaci&oacute;n de las firmas del PDF.
+	 * @return PDF sin firmas.
+	 * @throws IOException En cualquier error. */
+	@Benchmark
+	public byte[] removeSignatures() throws IOException {
+		return PdfExtraUtil.removeSignaturesFromPdf(this.signedPdf);
+	}
+
+	/** Inserci&oacute;n de la imagen del CSV en el PDF sin firmas.
+	 * @return PDF con la imagen.
+	 * @throws Exception En cualquier error. */
+	@Benchmark
+	public byte[] addImage() throws Exception {
+		return PdfExtraUtil.addImageToPdf(
+			this.flatPdf,
+			this.csvJpeg,
+			SimplePdfCsvStamper.CSV_LEFT,
+			SimplePdfCsvStamper.CSV_BOTTOM,
+			SimplePdfCsvStamper.CSV_PAGE,
+			PdfExtraUtil.getLink(this.pdfId)
+		);
+	}
+
+	/** Sellado del PDF.
+	 * @return PDF sellado.
+	 * @throws IOException En cualquier error. */
+	@Benchmark
+	public byte[] signPdf() throws IOException {
+		return this.signer.signPdf(this.flatPdf);
+	}
+
+	/** Estampaci&oacute;n completa del CSV con {@link SimplePdfCsvStamper}.
+	 * @return PDF con el CSV.
+	 * @throws Exception En cualquier error. */
+	@Benchmark
+	public PdfId stampCsv() throws Exception {
+		return SimplePdfCsvStamper.stampCsv(this.signedPdf, this.pdfId);
+	}
+
+	/** Estampaci&oacute;n completa del CSV en una &uacute;nica pasada con
+	 * {@link PipelinedPdfCsvStamper}.
+	 * @return PDF con el CSV.
+	 * @throws Exception En cualquier error. */
+	@Benchmark
+	public PdfId stampCsvPipelined() throws Exception {
+		return PipelinedPdfCsvStamper.stampCsv(this.signedPdf);
+	}
+
+}
@@ -0,0 +1,109 @@
+package es.ciemat.csv;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import es.ciemat.csv.PdfExtraUtil.PdfId;
+
+/** Pruebas de rendimiento del almacenamiento y la recuperaci&oacute;n de PDF en el sistema
+ * de ficheros.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class StorerBenchmark {
+
+	/** N&uacute;mero de documentos distintos que se almacenan y recuperan por turno. */
+	private static final int DOCUMENTS = 64;
+
+	/** Tama&ntilde;o en KB de cada PDF. */
+	@Param({ "64", "4096" })
+	public int sizeKb;
+
+	private Path root;
+	private FileSystemCsvStorer storer;
+	private byte[] pdfWithCsv;
+	private byte[] pdfOriginal;
+	private final String[] ids = new String[DOCUMENTS];
+	private int next = 0;
+
+	/** Crea el almac&eacute;n en un directorio temporal con los documentos a recuperar.
+	 * @throws Exception En cualquier error. */
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		BenchmarkFixtures.configure();
+		final Random rnd = new Random(this.sizeKb);
+		this.pdfWithCsv = new byte[this.sizeKb * 1024];
+		this.pdfOriginal = new byte[this.sizeKb * 1024];
+		rnd.nextBytes(this.pdfWithCsv);
+		rnd.nextBytes(this.pdfOriginal);
+		this.root = Files.createTempDirectory("csvbench"); //$NON-NLS-1$
+		this.storer = new FileSystemCsvStorer(this.root);
+		for (int i = 0; i < DOCUMENTS; i++) {
+			this.ids[i] = "bench/" + i + "+=="; //$NON-NLS-1$ //$NON-NLS-2$
+			this.storer.storePdfWithCsv(new PdfId(this.pdfWithCsv, this.ids[i]), this.pdfOriginal);
+		}
+	}
+
+	/** Borra el directorio temporal.
+	 * @throws IOException Si no se puede borrar. */
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		Files.walkFileTree(this.root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+			@Override
+			public FileVisitResult postVisitDirectory(final Path d, final IOException e) throws IOException {
+				Files.delete(d);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private String nextId() {
+		this.next = (this.next + 1) % DOCUMENTS;
+		return this.ids[this.next];
+	}
+
+	/** Almacenamiento del PDF con CSV y del original, sobrescribiendo uno existente.
+	 * @throws CsvStorerException En cualquier error. */
+	@Benchmark
+	public void store() throws CsvStorerException {
+		this.storer.storePdfWithCsv(new PdfId(this.pdfWithCsv, nextId()), this.pdfOriginal);
+	}
+
+	/** Recuperaci&oacute;n de un PDF con CSV.
+	 * @return PDF con CSV.
+	 * @throws Exception En cualquier error. */
+	@Benchmark
+	public byte[] retrieve() throws Exception {
+		return this.storer.retrievePdfWithCsv(new PdfId(nextId()));
+	}
+
+}
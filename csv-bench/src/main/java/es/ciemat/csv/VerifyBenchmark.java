@@ -0,0 +1,104 @@
+package es.ciemat.csv;
+
+import java.security.SignatureException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.aowagie.text.pdf.AcroFields;
+import com.aowagie.text.pdf.PdfPKCS7;
+import com.aowagie.text.pdf.PdfReader;
+
+/** Pruebas de rendimiento de la verificaci&oacute;n completa de las firmas de un PDF, firma
+ * a firma y conjunta (leyendo una &uacute;nica vez los rangos firmados), en un hilo y en
+ * paralelo.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VerifyBenchmark {
+
+	/** PDF de entrada: nombre de un PDF sint&eacute;tico o ruta de un fichero. */
+	@Param({ "large", "manysignatures" })
+	public String pdf;
+
+	private PdfReader reader;
+	private ExecutorService executor;
+
+	/** Abre el PDF de entrada y crea el ejecutor para la verificaci&oacute;n en paralelo.
+	 * @throws Exception En cualquier error. */
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		this.reader = new PdfReader(BenchmarkFixtures.get(this.pdf));
+		this.executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+	}
+
+	/** Cierra el PDF y detiene el ejecutor. */
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		this.reader.close();
+		this.executor.shutdown();
+	}
+
+	/** Verificaci&oacute;n de cada firma por separado.
+	 * @return N&uacute;mero de firmas v&aacute;lidas.
+	 * @throws SignatureException En cualquier error. */
+	@Benchmark
+	public int verifyEach() throws SignatureException {
+		final AcroFields af = this.reader.getAcroFields();
+		final List<String> names = af.getSignatureNames();
+		int valid = 0;
+		for (final String name : names) {
+			if (af.verifySignature(name).verify()) {
+				valid++;
+			}
+		}
+		return valid;
+	}
+
+	/** Verificaci&oacute;n conjunta de las firmas en el hilo actual.
+	 * @return N&uacute;mero de firmas v&aacute;lidas.
+	 * @throws SignatureException En cualquier error. */
+	@Benchmark
+	public int verifyShared() throws SignatureException {
+		return countValid(this.reader.getAcroFields().verifySignatures(null, null));
+	}
+
+	/** Verificaci&oacute;n conjunta de las firmas en paralelo.
+	 * @return N&uacute;mero de firmas v&aacute;lidas.
+	 * @throws SignatureException En cualquier error. */
+	@Benchmark
+	public int verifySharedParallel() throws SignatureException {
+		return countValid(this.reader.getAcroFields().verifySignatures(null, this.executor));
+	}
+
+	private static int countValid(final Map<String, PdfPKCS7> pkcs7s) throws SignatureException {
+		int valid = 0;
+		for (final PdfPKCS7 pkcs7 : pkcs7s.values()) {
+			if (pkcs7.verify()) {
+				valid++;
+			}
+		}
+		return valid;
+	}
+
+}
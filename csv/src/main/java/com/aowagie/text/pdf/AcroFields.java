@@ -54,8 +54,13 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.w3c.dom.Node;
 
@@ -2153,12 +2158,12 @@ public class AcroFields {
             if (rangeSize < 2) {
 				continue;
 			}
-            final int length = ro.getAsNumber(rangeSize - 1).intValue() + ro.getAsNumber(rangeSize - 2).intValue();
-            sorter.add(new Object[]{entry.getKey(), new int[]{length, 0}});
+            final long length = ro.getAsNumber(rangeSize - 1).longValue() + ro.getAsNumber(rangeSize - 2).longValue();
+            sorter.add(new Object[]{entry.getKey(), new long[]{length, 0}});
         }
         Collections.sort(sorter, new AcroFields.SorterComparator());
         if (!sorter.isEmpty()) {
-            if (((int[])((Object[])sorter.get(sorter.size() - 1))[1])[0] == this.reader.getFileLength()) {
+            if (((long[])((Object[])sorter.get(sorter.size() - 1))[1])[0] == this.reader.getFileLength()) {
 				this.totalRevisions = sorter.size();
 			} else {
 				this.totalRevisions = sorter.size() + 1;
@@ -2166,7 +2171,7 @@ public class AcroFields {
             for (int k = 0; k < sorter.size(); ++k) {
                 final Object objs[] = (Object[])sorter.get(k);
                 final String name = (String)objs[0];
-                final int p[] = (int[])objs[1];
+                final long p[] = (long[])objs[1];
                 p[1] = k + 1;
                 this.sigNames.put(name, p);
             }
@@ -2225,7 +2230,7 @@ public class AcroFields {
         if (!this.sigNames.containsKey(name)) {
 			return false;
 		}
-        return ((int[])this.sigNames.get(name))[0] == this.reader.getFileLength();
+        return ((long[])this.sigNames.get(name))[0] == this.reader.getFileLength();
     }
 
     /**
@@ -2301,26 +2306,7 @@ public class AcroFields {
 				pk = new PdfPKCS7(contents.getOriginalBytes(), provider);
 			}
             updateByteRange(pk, v);
-            PdfString str = v.getAsString(PdfName.M);
-            if (str != null) {
-				pk.setSignDate(PdfDate.decode(str.toString()));
-			}
-            final PdfObject obj = PdfReader.getPdfObject(v.get(PdfName.NAME));
-            if (obj != null) {
-              if (obj.isString()) {
-				pk.setSignName(((PdfString)obj).toUnicodeString());
-			} else if(obj.isName()) {
-				pk.setSignName(PdfName.decodeName(obj.toString()));
-			}
-            }
-            str = v.getAsString(PdfName.REASON);
-            if (str != null) {
-				pk.setReason(str.toUnicodeString());
-			}
-            str = v.getAsString(PdfName.LOCATION);
-            if (str != null) {
-				pk.setLocation(str.toUnicodeString());
-			}
+            setSignatureInfo(pk, v);
             return pk;
         }
         catch (final Exception e) {
@@ -2328,6 +2314,135 @@ public class AcroFields {
         }
     }
 
+    private static void setSignatureInfo(final PdfPKCS7 pk, final PdfDictionary v) {
+        PdfString str = v.getAsString(PdfName.M);
+        if (str != null) {
+			pk.setSignDate(PdfDate.decode(str.toString()));
+		}
+        final PdfObject obj = PdfReader.getPdfObject(v.get(PdfName.NAME));
+        if (obj != null) {
+          if (obj.isString()) {
+			pk.setSignName(((PdfString)obj).toUnicodeString());
+		} else if(obj.isName()) {
+			pk.setSignName(PdfName.decodeName(obj.toString()));
+		}
+        }
+        str = v.getAsString(PdfName.REASON);
+        if (str != null) {
+			pk.setReason(str.toUnicodeString());
+		}
+        str = v.getAsString(PdfName.LOCATION);
+        if (str != null) {
+			pk.setLocation(str.toUnicodeString());
+		}
+    }
+
+    /**
+     * Verifies all the signatures of the document. It gives the same results as calling
+     * {@link #verifySignature(String, String)} and {@link PdfPKCS7#verify()} for each signature,
+     * but the signed bytes are read only once for all the signatures (most of them are shared
+     * when the signatures are in incremental revisions), and the signatures are decoded and
+     * verified in parallel if an executor is given.
+     * @param provider the provider or <code>null</code> for the default provider
+     * @param executor the executor to decode and verify the signatures in parallel, or
+     * <code>null</code> to do it in the calling thread
+     * @return a <CODE>PdfPKCS7</CODE> for each signature field, in revision order, with
+     * {@link PdfPKCS7#verify()} already done
+     */
+    public Map<String, PdfPKCS7> verifySignatures(final String provider, final ExecutorService executor) {
+        final List<String> names = getSignatureNames();
+        Collections.sort(names, new Comparator<String>() {
+            @Override
+            public int compare(final String n1, final String n2) {
+                return getRevision(n1) - getRevision(n2);
+            }
+        });
+        final int size = names.size();
+        final PdfDictionary dics[] = new PdfDictionary[size];
+        final PdfPKCS7 pks[] = new PdfPKCS7[size];
+        try {
+            // The dictionaries are read here, as the reader can't be used from several threads
+            final List<Callable<Object>> decode = new ArrayList<Callable<Object>>(size);
+            for (int k = 0; k < size; ++k) {
+                final PdfDictionary v = getSignatureDictionary(names.get(k));
+                if (v == null) {
+                    continue;
+                }
+                dics[k] = v;
+                final byte contents[] = v.getAsString(PdfName.CONTENTS).getOriginalBytes();
+                final byte cert[] = PdfName.ADBE_X509_RSA_SHA1.equals(v.getAsName(PdfName.SUBFILTER)) ?
+                        v.getAsString(PdfName.CERT).getBytes() : null;
+                final int idx = k;
+                decode.add(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        pks[idx] = cert != null ?
+                                new PdfPKCS7(contents, cert, provider) : new PdfPKCS7(contents, provider);
+                        return null;
+                    }
+                });
+            }
+            invokeAll(executor, decode);
+
+            final SignatureDigester digester = new SignatureDigester();
+            final List<Callable<Object>> verify = new ArrayList<Callable<Object>>(size);
+            for (int k = 0; k < size; ++k) {
+                if (pks[k] == null) {
+                    continue;
+                }
+                setSignatureInfo(pks[k], dics[k]);
+                digester.add(pks[k], dics[k].getAsArray(PdfName.BYTERANGE));
+                final PdfPKCS7 pk = pks[k];
+                verify.add(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        pk.verify();
+                        return null;
+                    }
+                });
+            }
+            final RandomAccessFileOrArray rf = this.reader.getSafeFile();
+            try {
+                rf.reOpen();
+                digester.digest(rf);
+            }
+            finally {
+                try{rf.close();}catch(final Exception e){}
+            }
+            invokeAll(executor, verify);
+        }
+        catch (final Exception e) {
+            throw new ExceptionConverter(e);
+        }
+        final Map<String, PdfPKCS7> result = new LinkedHashMap<String, PdfPKCS7>();
+        for (int k = 0; k < size; ++k) {
+            if (pks[k] != null) {
+                result.put(names.get(k), pks[k]);
+            }
+        }
+        return result;
+    }
+
+    private static void invokeAll(final ExecutorService executor, final List<Callable<Object>> tasks) throws Exception {
+        if (executor == null || tasks.size() < 2) {
+            for (final Callable<Object> task : tasks) {
+                task.call();
+            }
+            return;
+        }
+        for (final Future<Object> future : executor.invokeAll(tasks)) {
+            try {
+                future.get();
+            }
+            catch (final ExecutionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception)e.getCause();
+                }
+                throw e;
+            }
+        }
+    }
+
     private void updateByteRange(final PdfPKCS7 pkcs7, final PdfDictionary v) {
         final PdfArray b = v.getAsArray(PdfName.BYTERANGE);
         final RandomAccessFileOrArray rf = this.reader.getSafeFile();
@@ -2335,11 +2450,11 @@ public class AcroFields {
             rf.reOpen();
             final byte buf[] = new byte[8192];
             for (int k = 0; k < b.size(); ++k) {
-                final int start = b.getAsNumber(k).intValue();
-                int length = b.getAsNumber(++k).intValue();
+                final long start = b.getAsNumber(k).longValue();
+                long length = b.getAsNumber(++k).longValue();
                 rf.seek(start);
                 while (length > 0) {
-                    final int rd = rf.read(buf, 0, Math.min(length, buf.length));
+                    final int rd = rf.read(buf, 0, (int)Math.min(length, buf.length));
                     if (rd <= 0) {
 						break;
 					}
@@ -2385,7 +2500,7 @@ public class AcroFields {
         if (!this.sigNames.containsKey(field)) {
 			return 0;
 		}
-        return ((int[])this.sigNames.get(field))[1];
+        return (int)((long[])this.sigNames.get(field))[1];
     }
 
     /**
@@ -2402,7 +2517,7 @@ public class AcroFields {
         if (!this.sigNames.containsKey(field)) {
 			return null;
 		}
-        final int length = ((int[])this.sigNames.get(field))[0];
+        final long length = ((long[])this.sigNames.get(field))[0];
         final RandomAccessFileOrArray raf = this.reader.getSafeFile();
         raf.reOpen();
         raf.seek(0);
@@ -2513,11 +2628,11 @@ public class AcroFields {
     private static class RevisionStream extends InputStream {
         private final byte b[] = new byte[1];
         private final RandomAccessFileOrArray raf;
-        private final int length;
-        private int rangePosition = 0;
+        private final long length;
+        private long rangePosition = 0;
         private boolean closed;
 
-        private RevisionStream(final RandomAccessFileOrArray raf, final int length) {
+        private RevisionStream(final RandomAccessFileOrArray raf, final long length) {
             this.raf = raf;
             this.length = length;
         }
@@ -2545,7 +2660,7 @@ public class AcroFields {
                 close();
                 return -1;
             }
-            final int elen = Math.min(len, this.length - this.rangePosition);
+            final int elen = (int)Math.min(len, this.length - this.rangePosition);
             this.raf.readFully(b, off, elen);
             this.rangePosition += elen;
             return elen;
@@ -2563,9 +2678,9 @@ public class AcroFields {
     private static class SorterComparator implements Comparator {
         @Override
 		public int compare(final Object o1, final Object o2) {
-            final int n1 = ((int[])((Object[])o1)[1])[0];
-            final int n2 = ((int[])((Object[])o2)[1])[0];
-            return n1 - n2;
+            final long n1 = ((long[])((Object[])o1)[1])[0];
+            final long n2 = ((long[])((Object[])o2)[1])[0];
+            return n1 < n2 ? -1 : n1 == n2 ? 0 : 1;
         }
     }
 
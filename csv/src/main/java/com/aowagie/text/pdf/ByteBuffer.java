@@ -236,6 +236,15 @@ public class ByteBuffer extends OutputStream {
         return append((double)i);
     }
 
+    /**
+     * Appends the string representation of a <CODE>long</CODE>, like a file offset.
+     * @param l the <CODE>long</CODE> to be appended
+     * @return a reference to this <CODE>ByteBuffer</CODE> object
+     */
+    public ByteBuffer append(final long l) {
+        return append(String.valueOf(l));
+    }
+
     public ByteBuffer append(final byte b) {
         return append_i(b);
     }
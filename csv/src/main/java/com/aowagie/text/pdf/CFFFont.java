@@ -242,7 +242,7 @@ class CFFFont {
 
     int getPosition() {
         try {
-            return this.buf.getFilePointer();
+            return (int)this.buf.getFilePointer();
         }
         catch (final Exception e) {
             throw new ExceptionConverter(e);
@@ -52,7 +52,6 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.lang.reflect.Method;
-import java.nio.BufferUnderflowException;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.security.AccessController;
@@ -60,14 +59,24 @@ import java.security.PrivilegedAction;
 
 /**
  * A {@link java.nio.MappedByteBuffer} wrapped as a {@link java.io.RandomAccessFile}
+ * <P>
+ * The file is mapped as a sequence of segments of the same size, a power of two,
+ * so files larger than 2 GB can be read.
  *
  * @author Joakim Sandstroem
  * Created on 6.9.2006
  */
 class MappedRandomAccessFile {
 
-    private MappedByteBuffer mappedByteBuffer = null;
+    /** The default segment size is 1 GB. */
+    static final int DEFAULT_SEGMENT_SHIFT = 30;
+
+    private final int segmentShift;
+    private final long segmentMask;
+    private MappedByteBuffer segments[] = null;
     private FileChannel channel = null;
+    private long length;
+    private long pos;
 
     /**
      * Constructs a new MappedRandomAccessFile instance
@@ -77,8 +86,26 @@ class MappedRandomAccessFile {
      * @throws IOException
      */
     public MappedRandomAccessFile(final String filename, final String mode)
+    throws FileNotFoundException, IOException {
+        this(filename, mode, DEFAULT_SEGMENT_SHIFT);
+    }
+
+    /**
+     * Constructs a new MappedRandomAccessFile instance with a given segment size
+     * @param filename String
+     * @param mode String r, w or rw
+     * @param segmentShift the segment size is <CODE>1 &lt;&lt; segmentShift</CODE> bytes
+     * @throws FileNotFoundException
+     * @throws IOException
+     */
+    MappedRandomAccessFile(final String filename, final String mode, final int segmentShift)
     throws FileNotFoundException, IOException {
 
+        if (segmentShift < 1 || segmentShift > 30) {
+            throw new IllegalArgumentException("Invalid segment shift: " + segmentShift);
+        }
+        this.segmentShift = segmentShift;
+        this.segmentMask = (1L << segmentShift) - 1;
         if (mode.equals("rw")) {
 			init(
                     new java.io.RandomAccessFile(filename, mode).getChannel(),
@@ -92,7 +119,7 @@ class MappedRandomAccessFile {
     }
 
     /**
-     * initializes the channel and mapped bytebuffer
+     * initializes the channel and the mapped segments
      * @param channel FileChannel
      * @param mapMode FileChannel.MapMode
      * @throws IOException
@@ -101,8 +128,19 @@ class MappedRandomAccessFile {
     throws IOException {
 
         this.channel = channel;
-        this.mappedByteBuffer = channel.map(mapMode, 0L, channel.size());
-        this.mappedByteBuffer.load();
+        try {
+            this.length = channel.size();
+            final int n = (int)((this.length + this.segmentMask) >>> this.segmentShift);
+            this.segments = new MappedByteBuffer[n];
+            for (int k = 0; k < n; ++k) {
+                final long start = (long)k << this.segmentShift;
+                this.segments[k] = channel.map(mapMode, start, Math.min(this.length - start, this.segmentMask + 1));
+            }
+        }
+        catch (final IOException e) {
+            close();
+            throw e;
+        }
     }
 
     /**
@@ -117,14 +155,12 @@ class MappedRandomAccessFile {
      * @return int next integer or -1 on EOF
      */
     public int read() {
-        try {
-            final byte b = this.mappedByteBuffer.get();
-            final int n = b & 0xff;
-
-            return n;
-        } catch (final BufferUnderflowException e) {
+        if (this.pos >= this.length) {
             return -1; // EOF
         }
+        final int n = this.segments[(int)(this.pos >>> this.segmentShift)].get((int)(this.pos & this.segmentMask)) & 0xff;
+        ++this.pos;
+        return n;
     }
 
     /**
@@ -134,19 +170,25 @@ class MappedRandomAccessFile {
      * @param len int length
      * @return int bytes read or -1 on EOF
      */
-    public int read(final byte bytes[], final int off, int len) {
-        final int pos = this.mappedByteBuffer.position();
-        final int limit = this.mappedByteBuffer.limit();
-        if (pos == limit)
-		 {
-			return -1; // EOF
-		}
-        final int newlimit = pos + len - off;
-        if (newlimit > limit) {
-            len = limit - pos; // don't read beyond EOF
+    public int read(final byte bytes[], int off, int len) {
+        if (this.pos >= this.length) {
+            return -1; // EOF
+        }
+        if (len > this.length - this.pos) {
+            len = (int)(this.length - this.pos); // don't read beyond EOF
+        }
+        final int total = len;
+        while (len > 0) {
+            final MappedByteBuffer segment = this.segments[(int)(this.pos >>> this.segmentShift)];
+            final int start = (int)(this.pos & this.segmentMask);
+            final int n = Math.min(len, segment.limit() - start);
+            segment.position(start);
+            segment.get(bytes, off, n);
+            off += n;
+            len -= n;
+            this.pos += n;
         }
-        this.mappedByteBuffer.get(bytes, off, len);
-        return len;
+        return total;
     }
 
     /**
@@ -154,7 +196,7 @@ class MappedRandomAccessFile {
      * @return long
      */
     public long getFilePointer() {
-        return this.mappedByteBuffer.position();
+        return this.pos;
     }
 
     /**
@@ -162,7 +204,10 @@ class MappedRandomAccessFile {
      * @param pos long position
      */
     public void seek(final long pos) {
-        this.mappedByteBuffer.position((int) pos);
+        if (pos < 0 || pos > this.length) {
+            throw new IllegalArgumentException("Invalid position: " + pos);
+        }
+        this.pos = pos;
     }
 
     /**
@@ -170,16 +215,20 @@ class MappedRandomAccessFile {
      * @return long length
      */
     public long length() {
-        return this.mappedByteBuffer.limit();
+        return this.length;
     }
 
     /**
      * @see java.io.RandomAccessFile#close()
-     * Cleans the mapped bytebuffer and closes the channel
+     * Cleans the mapped segments and closes the channel
      */
     public void close() throws IOException {
-        clean(this.mappedByteBuffer);
-        this.mappedByteBuffer = null;
+        if (this.segments != null) {
+            for (final MappedByteBuffer segment : this.segments) {
+                clean(segment);
+            }
+        }
+        this.segments = null;
         if (this.channel != null) {
 			this.channel.close();
 		}
@@ -55,7 +55,7 @@ import java.io.OutputStream;
 public class OutputStreamCounter extends OutputStream {
 
     private final OutputStream out;
-    private int counter = 0;
+    private long counter = 0;
 
     /** Creates a new instance of OutputStreamCounter */
     public OutputStreamCounter(final OutputStream out) {
@@ -165,7 +165,7 @@ public class OutputStreamCounter extends OutputStream {
         this.out.write(b, off, len);
     }
 
-    public int getCounter() {
+    public long getCounter() {
         return this.counter;
     }
 
@@ -61,7 +61,7 @@ import com.aowagie.text.ExceptionConverter;
 public class PRStream extends PdfStream {
 
     private PdfReader reader;
-    private int offset;
+    private long offset;
     private int length;
 
     //added by ujihara for decryption
@@ -90,7 +90,7 @@ public class PRStream extends PdfStream {
         this.reader = reader;
     }
 
-    PRStream(final PdfReader reader, final int offset) {
+    PRStream(final PdfReader reader, final long offset) {
         this.reader = reader;
         this.offset = offset;
     }
@@ -187,7 +187,7 @@ public class PRStream extends PdfStream {
         put(PdfName.LENGTH, new PdfNumber(length));
     }
 
-    public int getOffset() {
+    public long getOffset() {
         return this.offset;
     }
 
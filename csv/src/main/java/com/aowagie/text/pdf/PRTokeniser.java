@@ -50,7 +50,14 @@
 package com.aowagie.text.pdf;
 
 import java.io.IOException;
+import java.util.Arrays;
 /**
+ * Splits a PDF into tokens.
+ * <P>
+ * The tokens are kept as bytes in a buffer reused from token to token, and
+ * the <CODE>String</CODE> value of a token is only created when asked for.
+ * Numbers, names and keywords can be read straight from the bytes with
+ * {@link #getNumber()}, {@link #getName(boolean)} and {@link #tokenEquals(String)}.
  *
  * @author  Paulo Soares (psoares@consiste.pt)
  */
@@ -96,10 +103,28 @@ public class PRTokeniser {
 
     private static final String EMPTY = "";
 
+    /** Initial size of the token buffer, and the size it goes back to after a long token. */
+    private static final int TOKEN_SIZE = 64;
+    private static final int MAX_TOKEN_SIZE = 65536;
+    /** Maximum number of non standard names shared by the objects read. */
+    private static final int MAX_NAMES = 4096;
+
+    private static final double POW10[] = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15
+    };
 
     private final RandomAccessFileOrArray file;
     private int type;
+    private byte token[] = new byte[TOKEN_SIZE];
+    private int tokenLength;
+    /** The value of the token as a <CODE>String</CODE>, or <CODE>null</CODE> if not created yet. */
     private String stringValue;
+    /** The first two numbers of a possible reference. */
+    private byte number1[] = new byte[TOKEN_SIZE];
+    private int number1Length;
+    private byte number2[] = new byte[TOKEN_SIZE];
+    private int number2Length;
+    private PdfNameTable names;
     private int reference;
     private int generation;
     private boolean hexString;
@@ -116,11 +141,11 @@ public class PRTokeniser {
         this.file = file;
     }
 
-    public void seek(final int pos) throws IOException {
+    public void seek(final long pos) throws IOException {
         this.file.seek(pos);
     }
 
-    public int getFilePointer() throws IOException {
+    public long getFilePointer() throws IOException {
         return this.file.getFilePointer();
     }
 
@@ -128,7 +153,7 @@ public class PRTokeniser {
         this.file.close();
     }
 
-    int length() throws IOException {
+    long length() throws IOException {
         return this.file.length();
     }
 
@@ -144,17 +169,17 @@ public class PRTokeniser {
         return this.file;
     }
 
-    String readString(int size) throws IOException {
-        final StringBuffer buf = new StringBuffer();
-        int ch;
-        while (size-- > 0) {
-            ch = this.file.read();
+    String readString(final int size) throws IOException {
+        final byte buf[] = new byte[Math.max(size, 0)];
+        int n = 0;
+        while (n < buf.length) {
+            final int ch = this.file.read();
             if (ch == -1) {
 				break;
 			}
-            buf.append((char)ch);
+            buf[n++] = (byte)ch;
         }
-        return buf.toString();
+        return toString(buf, n);
     }
 
     static final boolean isWhitespace(final int ch) {
@@ -170,9 +195,77 @@ public class PRTokeniser {
     }
 
     public String getStringValue() {
+        if (this.stringValue == null) {
+            this.stringValue = toString(this.token, this.tokenLength);
+        }
         return this.stringValue;
     }
 
+    /**
+     * Checks the value of the current token without creating its <CODE>String</CODE>.
+     * @param value the value to compare with
+     * @return <CODE>true</CODE> if the token has this value
+     */
+    boolean tokenEquals(final String value) {
+        if (value.length() != this.tokenLength) {
+            return false;
+        }
+        for (int k = 0; k < this.tokenLength; ++k) {
+            if ((this.token[k] & 0xff) != value.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the current token, of type <CODE>TK_NUMBER</CODE>, as a number.
+     * @return the number
+     */
+    PdfNumber getNumber() {
+        final double value = parseNumber(this.token, this.tokenLength);
+        if (Double.isNaN(value)) {
+            return new PdfNumber(getStringValue());
+        }
+        return new PdfNumber(Arrays.copyOf(this.token, this.tokenLength), value);
+    }
+
+    /**
+     * Gets the current token, of type <CODE>TK_NAME</CODE>, as a name.
+     * @param shared <CODE>true</CODE> to return the same instance for all the names
+     * with the same value, which must not be modified, <CODE>false</CODE> to return
+     * a new instance
+     * @return the name
+     */
+    PdfName getName(final boolean shared) {
+        if (!shared) {
+            return new PdfName(PdfName.encodeName(this.token, this.tokenLength));
+        }
+        PdfName name = PdfName.getStaticName(this.token, this.tokenLength);
+        if (name != null) {
+            return name;
+        }
+        if (this.names == null) {
+            this.names = new PdfNameTable(64);
+        }
+        name = this.names.get(this.token, this.tokenLength);
+        if (name == null) {
+            name = new PdfName(PdfName.encodeName(this.token, this.tokenLength));
+            if (this.names.size() < MAX_NAMES) {
+                this.names.put(this.token, this.tokenLength, name);
+            }
+        }
+        return name;
+    }
+
+    /**
+     * Gets the bytes of the current token.
+     * @return a copy of the bytes
+     */
+    byte[] getTokenBytes() {
+        return Arrays.copyOf(this.token, this.tokenLength);
+    }
+
     public int getReference() {
         return this.reference;
     }
@@ -212,9 +305,9 @@ public class PRTokeniser {
         this.file.setStartOffset(idx);
     }
 
-    public int getStartxref() throws IOException {
-        final int size = Math.min(1024, this.file.length());
-        final int pos = this.file.length() - size;
+    public long getStartxref() throws IOException {
+        final int size = (int)Math.min(1024, this.file.length());
+        final long pos = this.file.length() - size;
         this.file.seek(pos);
         final String str = readString(1024);
         final int idx = str.lastIndexOf("startxref");
@@ -239,9 +332,7 @@ public class PRTokeniser {
 
     void nextValidToken() throws IOException {
         int level = 0;
-        String n1 = null;
-        String n2 = null;
-        int ptr = 0;
+        long ptr = 0;
         while (nextToken()) {
             if (this.type == TK_COMMENT) {
 				continue;
@@ -253,7 +344,11 @@ public class PRTokeniser {
 						return;
 					}
                     ptr = this.file.getFilePointer();
-                    n1 = this.stringValue;
+                    if (this.number1.length < this.tokenLength) {
+                        this.number1 = new byte[this.tokenLength];
+                    }
+                    System.arraycopy(this.token, 0, this.number1, 0, this.tokenLength);
+                    this.number1Length = this.tokenLength;
                     ++level;
                     break;
                 }
@@ -261,25 +356,27 @@ public class PRTokeniser {
                 {
                     if (this.type != TK_NUMBER) {
                         this.file.seek(ptr);
-                        this.type = TK_NUMBER;
-                        this.stringValue = n1;
+                        backToNumber1();
                         return;
                     }
-                    n2 = this.stringValue;
+                    if (this.number2.length < this.tokenLength) {
+                        this.number2 = new byte[this.tokenLength];
+                    }
+                    System.arraycopy(this.token, 0, this.number2, 0, this.tokenLength);
+                    this.number2Length = this.tokenLength;
                     ++level;
                     break;
                 }
                 default:
                 {
-                    if (this.type != TK_OTHER || !this.stringValue.equals("R")) {
+                    if (this.type != TK_OTHER || !tokenEquals("R")) {
                         this.file.seek(ptr);
-                        this.type = TK_NUMBER;
-                        this.stringValue = n1;
+                        backToNumber1();
                         return;
                     }
                     this.type = TK_REF;
-                    this.reference = Integer.parseInt(n1);
-                    this.generation = Integer.parseInt(n2);
+                    this.reference = parseInt(this.number1, this.number1Length);
+                    this.generation = parseInt(this.number2, this.number2Length);
                     return;
                 }
             }
@@ -289,6 +386,23 @@ public class PRTokeniser {
         // case can occur inside an Object Stream.
     }
 
+    private void backToNumber1() {
+        this.type = TK_NUMBER;
+        if (this.token.length < this.number1Length) {
+            this.token = new byte[this.number1Length];
+        }
+        System.arraycopy(this.number1, 0, this.token, 0, this.number1Length);
+        this.tokenLength = this.number1Length;
+        this.stringValue = null;
+    }
+
+    private void append(final int ch) {
+        if (this.tokenLength == this.token.length) {
+            this.token = Arrays.copyOf(this.token, this.tokenLength * 2);
+        }
+        this.token[this.tokenLength++] = (byte)ch;
+    }
+
     boolean nextToken() throws IOException {
         int ch = 0;
         do {
@@ -298,11 +412,14 @@ public class PRTokeniser {
 			return false;
 		}
 
-        // Note:  We have to initialize stringValue here, after we've looked for the end of the stream,
+        // Note:  We have to initialize the token here, after we've looked for the end of the stream,
         // to ensure that we don't lose the value of a token that might end exactly at the end
         // of the stream
-        StringBuffer outBuf = null;
-        this.stringValue = EMPTY;
+        this.tokenLength = 0;
+        this.stringValue = null;
+        if (this.token.length > MAX_TOKEN_SIZE) {
+            this.token = new byte[TOKEN_SIZE];
+        }
 
         switch (ch) {
             case '[':
@@ -313,7 +430,6 @@ public class PRTokeniser {
                 break;
             case '/':
             {
-                outBuf = new StringBuffer();
                 this.type = TK_NAME;
                 while (true) {
                     ch = this.file.read();
@@ -323,7 +439,7 @@ public class PRTokeniser {
                     if (ch == '#') {
                         ch = (getHex(this.file.read()) << 4) + getHex(this.file.read());
                     }
-                    outBuf.append((char)ch);
+                    append(ch);
                 }
                 backOnePosition(ch);
                 break;
@@ -342,7 +458,6 @@ public class PRTokeniser {
                     this.type = TK_START_DIC;
                     break;
                 }
-                outBuf = new StringBuffer();
                 this.type = TK_STRING;
                 this.hexString = true;
                 int v2 = 0;
@@ -363,7 +478,7 @@ public class PRTokeniser {
 					}
                     if (v2 == '>') {
                         ch = v1 << 4;
-                        outBuf.append((char)ch);
+                        append(ch);
                         break;
                     }
                     v2 = getHex(v2);
@@ -371,7 +486,7 @@ public class PRTokeniser {
 						break;
 					}
                     ch = (v1 << 4) + v2;
-                    outBuf.append((char)ch);
+                    append(ch);
                     v1 = this.file.read();
                 }
                 if (v1 < 0 || v2 < 0) {
@@ -387,7 +502,6 @@ public class PRTokeniser {
                 break;
             case '(':
             {
-                outBuf = new StringBuffer();
                 this.type = TK_STRING;
                 this.hexString = false;
                 int nesting = 0;
@@ -479,7 +593,7 @@ public class PRTokeniser {
                     if (nesting == -1) {
 						break;
 					}
-                    outBuf.append((char)ch);
+                    append(ch);
                 }
                 if (ch == -1) {
 					throwError("Error reading string");
@@ -488,18 +602,17 @@ public class PRTokeniser {
             }
             default:
             {
-                outBuf = new StringBuffer();
                 if (ch == '-' || ch == '+' || ch == '.' || ch >= '0' && ch <= '9') {
                     this.type = TK_NUMBER;
                     do {
-                        outBuf.append((char)ch);
+                        append(ch);
                         ch = this.file.read();
                     } while (ch != -1 && (ch >= '0' && ch <= '9' || ch == '.'));
                 }
                 else {
                     this.type = TK_OTHER;
                     do {
-                        outBuf.append((char)ch);
+                        append(ch);
                         ch = this.file.read();
                     } while (!delims[ch + 1]);
                 }
@@ -507,14 +620,108 @@ public class PRTokeniser {
                 break;
             }
         }
-        if (outBuf != null) {
-			this.stringValue = outBuf.toString();
-		}
         return true;
     }
 
     int intValue() {
-        return Integer.parseInt(this.stringValue);
+        return parseInt(this.token, this.tokenLength);
+    }
+
+    long longValue() {
+        final long value = parseDigits(this.token, this.tokenLength, 18);
+        if (value == Long.MIN_VALUE) {
+            return Long.parseLong(getStringValue());
+        }
+        return value;
+    }
+
+    private static int parseInt(final byte b[], final int len) {
+        final long value = parseDigits(b, len, 9);
+        if (value == Long.MIN_VALUE) {
+            return Integer.parseInt(toString(b, len));
+        }
+        return (int)value;
+    }
+
+    /**
+     * Parses an integer with an optional sign.
+     * @param b the bytes
+     * @param len the number of bytes
+     * @param maxDigits the maximum number of digits, so the value can't overflow
+     * @return the value, or <CODE>Long.MIN_VALUE</CODE> if the bytes are not such an integer
+     */
+    private static long parseDigits(final byte b[], final int len, final int maxDigits) {
+        int k = 0;
+        if (len > 0 && (b[0] == '-' || b[0] == '+')) {
+            k = 1;
+        }
+        if (len == k || len - k > maxDigits) {
+            return Long.MIN_VALUE;
+        }
+        long value = 0;
+        for (int i = k; i < len; ++i) {
+            final int c = b[i];
+            if (c < '0' || c > '9') {
+                return Long.MIN_VALUE;
+            }
+            value = value * 10 + c - '0';
+        }
+        return b[0] == '-' ? -value : value;
+    }
+
+    /**
+     * Parses a real number with up to 15 digits. Both the digits, as an integer, and the
+     * power of ten to divide them by are exact doubles, so the quotient is the correctly
+     * rounded value, as given by <CODE>Double.parseDouble</CODE>.
+     * @param b the bytes
+     * @param len the number of bytes
+     * @return the value, or <CODE>NaN</CODE> if the bytes are not such a number
+     */
+    private static double parseNumber(final byte b[], final int len) {
+        int k = 0;
+        if (len > 0 && (b[0] == '-' || b[0] == '+')) {
+            k = 1;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int decimals = -1;
+        for (; k < len; ++k) {
+            final int c = b[k];
+            if (c == '.') {
+                if (decimals >= 0) {
+                    return Double.NaN;
+                }
+                decimals = 0;
+            }
+            else if (c >= '0' && c <= '9') {
+                if (++digits > 15) {
+                    return Double.NaN;
+                }
+                mantissa = mantissa * 10 + c - '0';
+                if (decimals >= 0) {
+                    ++decimals;
+                }
+            }
+            else {
+                return Double.NaN;
+            }
+        }
+        if (digits == 0) {
+            return Double.NaN;
+        }
+        final double value = decimals > 0 ? mantissa / POW10[decimals] : mantissa;
+        return b[0] == '-' ? -value : value;
+    }
+
+    private static String toString(final byte b[], final int len) {
+        if (len == 0) {
+            return EMPTY;
+        }
+        final char c[] = new char[len];
+        for (int k = 0; k < len; ++k) {
+            c[k] = (char)(b[k] & 0xff);
+        }
+        return new String(c);
     }
 
     boolean readLineSegment(final byte input[]) throws IOException {
@@ -538,7 +745,7 @@ public class PRTokeniser {
                     break;
                 case '\r':
                     eol = true;
-                    final int cur = getFilePointer();
+                    final long cur = getFilePointer();
                     if (read() != '\n') {
                         seek(cur);
                     }
@@ -566,7 +773,7 @@ public class PRTokeniser {
                         break;
                     case '\r':
                         eol = true;
-                        final int cur = getFilePointer();
+                        final long cur = getFilePointer();
                         if (read() != '\n') {
                             seek(cur);
                         }
@@ -601,7 +808,7 @@ public class PRTokeniser {
             if (!tk.nextToken()) {
 				return null;
 			}
-            if (!tk.getStringValue().equals("obj")) {
+            if (!tk.tokenEquals("obj")) {
 				return null;
 			}
             return new int[]{num, gen};
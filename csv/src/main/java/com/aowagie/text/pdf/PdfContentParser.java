@@ -132,7 +132,7 @@ public class PdfContentParser {
                 if (this.tokeniser.getTokenType() != PRTokeniser.TK_NAME) {
 					throw new IOException("Dictionary key is not a name.");
 				}
-                final PdfName name = new PdfName(this.tokeniser.getStringValue(), false);
+                final PdfName name = this.tokeniser.getName(true);
                 final PdfObject obj = readPRObject();
                 final int type = obj.type();
                 if (-type == PRTokeniser.TK_END_DIC) {
@@ -188,11 +188,11 @@ public class PdfContentParser {
                 final PdfString str = new PdfString(this.tokeniser.getStringValue(), null).setHexWriting(this.tokeniser.isHexString());
                 return str;
             case PRTokeniser.TK_NAME:
-                return new PdfName(this.tokeniser.getStringValue(), false);
+                return this.tokeniser.getName(true);
             case PRTokeniser.TK_NUMBER:
-                return new PdfNumber(this.tokeniser.getStringValue());
+                return this.tokeniser.getNumber();
             case PRTokeniser.TK_OTHER:
-                return new PdfLiteral(COMMAND_TYPE, this.tokeniser.getStringValue());
+                return new PdfLiteral(COMMAND_TYPE, this.tokeniser.getTokenBytes());
             default:
                 return new PdfLiteral(-type, this.tokeniser.getStringValue());
         }
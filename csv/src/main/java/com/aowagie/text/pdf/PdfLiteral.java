@@ -58,7 +58,7 @@ public class PdfLiteral extends PdfObject {
     /**
      * Holds value of property position.
      */
-    private int position;
+    private long position;
 
     public PdfLiteral(final String text) {
         super(0, text);
@@ -78,6 +78,10 @@ public class PdfLiteral extends PdfObject {
         super(type, text);
     }
 
+    PdfLiteral(final int type, final byte b[]) {
+        super(type, b);
+    }
+
 
 
     @Override
@@ -92,7 +96,7 @@ public class PdfLiteral extends PdfObject {
      * Getter for property position.
      * @return Value of property position.
      */
-    public int getPosition() {
+    public long getPosition() {
         return this.position;
     }
 
@@ -52,6 +52,7 @@ package com.aowagie.text.pdf;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 
 /**
@@ -1724,6 +1725,11 @@ public class PdfName extends PdfObject implements Comparable{
      */
     public static Map staticNames;
 
+    /**
+     * The static names keyed on the bytes of their decoded form.
+     */
+    private static PdfNameTable staticTable;
+
     /**
      * Use reflection to cache all the static public final names so
      * future <code>PdfName</code> additions don't have to be "added twice".
@@ -1747,6 +1753,16 @@ public class PdfName extends PdfObject implements Comparable{
         } catch (final Exception e) {
             e.printStackTrace();
         }
+        staticTable = new PdfNameTable(staticNames.size());
+        for (final Iterator it = staticNames.entrySet().iterator(); it.hasNext();) {
+            final Map.Entry entry = (Map.Entry)it.next();
+            final String key = (String)entry.getKey();
+            final byte b[] = new byte[key.length()];
+            for (int k = 0; k < b.length; ++k) {
+                b[k] = (byte)key.charAt(k);
+            }
+            staticTable.put(b, b.length, (PdfName)entry.getValue());
+        }
     }
     // CLASS VARIABLES
 
@@ -1874,41 +1890,71 @@ public class PdfName extends PdfObject implements Comparable{
     	final int length = name.length();
     	final ByteBuffer buf = new ByteBuffer(length + 20);
     	buf.append('/');
-    	char c;
     	final char chars[] = name.toCharArray();
     	for (int k = 0; k < length; k++) {
-    		c = (char)(chars[k] & 0xff);
-    		// Escape special characters
-    		switch (c) {
-    			case ' ':
-    			case '%':
-    			case '(':
-    			case ')':
-    			case '<':
-    			case '>':
-    			case '[':
-    			case ']':
-    			case '{':
-    			case '}':
-    			case '/':
-    			case '#':
+    		appendEncoded(buf, (char)(chars[k] & 0xff));
+    	}
+    	return buf.toByteArray();
+    }
+
+    /**
+     * Encodes a plain name given as the bytes of its unescaped form, as
+     * {@link #encodeName(String)} does.
+     *
+     * @param name the bytes of the name
+     * @param length the number of bytes
+     * @return the encoded name
+     */
+    static byte[] encodeName(final byte name[], final int length) {
+    	final ByteBuffer buf = new ByteBuffer(length + 20);
+    	buf.append('/');
+    	for (int k = 0; k < length; k++) {
+    		appendEncoded(buf, (char)(name[k] & 0xff));
+    	}
+    	return buf.toByteArray();
+    }
+
+    /**
+     * Gets the static name whose unescaped form has these bytes.
+     *
+     * @param name the bytes of the name
+     * @param length the number of bytes
+     * @return the static name, or <CODE>null</CODE> if there is none
+     */
+    static PdfName getStaticName(final byte name[], final int length) {
+    	return staticTable.get(name, length);
+    }
+
+    private static void appendEncoded(final ByteBuffer buf, final char c) {
+    	// Escape special characters
+    	switch (c) {
+    		case ' ':
+    		case '%':
+    		case '(':
+    		case ')':
+    		case '<':
+    		case '>':
+    		case '[':
+    		case ']':
+    		case '{':
+    		case '}':
+    		case '/':
+    		case '#':
+    			buf.append('#');
+    			buf.append(Integer.toString(c, 16));
+    			break;
+    		default:
+    			if (c >= 32 && c <= 126) {
+					buf.append(c);
+				} else {
     				buf.append('#');
+    				if (c < 16) {
+						buf.append('0');
+					}
     				buf.append(Integer.toString(c, 16));
-    				break;
-    			default:
-    				if (c >= 32 && c <= 126) {
-						buf.append(c);
-					} else {
-    					buf.append('#');
-    					if (c < 16) {
-							buf.append('0');
-						}
-    					buf.append(Integer.toString(c, 16));
-    				}
-    				break;
     			}
-    		}
-    	return buf.toByteArray();
+    			break;
+    	}
     }
 
     /**
@@ -0,0 +1,119 @@
+package com.aowagie.text.pdf;
+
+/**
+ * A table of names keyed on the bytes of their decoded form, as read by
+ * {@link PRTokeniser}, so a name can be looked up without creating a
+ * <CODE>String</CODE> or a <CODE>PdfName</CODE> first.
+ * <P>
+ * The table is not synchronized. A table that is no longer modified can be
+ * shared between threads once it has been safely published.
+ */
+final class PdfNameTable {
+
+    private byte keys[][];
+    private PdfName values[];
+    private int size;
+
+    /**
+     * Creates a table.
+     * @param capacity the expected number of names
+     */
+    PdfNameTable(final int capacity) {
+        int n = 16;
+        while (n < capacity * 2) {
+            n <<= 1;
+        }
+        this.keys = new byte[n][];
+        this.values = new PdfName[n];
+    }
+
+    /**
+     * Gets the number of names in the table.
+     * @return the number of names
+     */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Gets a name.
+     * @param b the bytes of the decoded name
+     * @param len the number of bytes
+     * @return the name, or <CODE>null</CODE> if it is not in the table
+     */
+    PdfName get(final byte b[], final int len) {
+        final int mask = this.keys.length - 1;
+        for (int i = hash(b, len) & mask; ; i = i + 1 & mask) {
+            final byte key[] = this.keys[i];
+            if (key == null) {
+                return null;
+            }
+            if (matches(key, b, len)) {
+                return this.values[i];
+            }
+        }
+    }
+
+    /**
+     * Adds a name, unless a name with the same bytes is already in the table.
+     * @param b the bytes of the decoded name
+     * @param len the number of bytes
+     * @param name the name
+     */
+    void put(final byte b[], final int len, final PdfName name) {
+        if ((this.size + 1) * 2 > this.keys.length) {
+            rehash();
+        }
+        final int mask = this.keys.length - 1;
+        int i = hash(b, len) & mask;
+        while (this.keys[i] != null) {
+            if (matches(this.keys[i], b, len)) {
+                return;
+            }
+            i = i + 1 & mask;
+        }
+        final byte key[] = new byte[len];
+        System.arraycopy(b, 0, key, 0, len);
+        this.keys[i] = key;
+        this.values[i] = name;
+        ++this.size;
+    }
+
+    private void rehash() {
+        final byte oldKeys[][] = this.keys;
+        final PdfName oldValues[] = this.values;
+        this.keys = new byte[oldKeys.length * 2][];
+        this.values = new PdfName[oldKeys.length * 2];
+        final int mask = this.keys.length - 1;
+        for (int k = 0; k < oldKeys.length; ++k) {
+            if (oldKeys[k] != null) {
+                int i = hash(oldKeys[k], oldKeys[k].length) & mask;
+                while (this.keys[i] != null) {
+                    i = i + 1 & mask;
+                }
+                this.keys[i] = oldKeys[k];
+                this.values[i] = oldValues[k];
+            }
+        }
+    }
+
+    private static int hash(final byte b[], final int len) {
+        int h = 0;
+        for (int k = 0; k < len; ++k) {
+            h = 31 * h + (b[k] & 0xff);
+        }
+        return h ^ h >>> 16;
+    }
+
+    private static boolean matches(final byte key[], final byte b[], final int len) {
+        if (key.length != len) {
+            return false;
+        }
+        for (int k = 0; k < len; ++k) {
+            if (key[k] != b[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
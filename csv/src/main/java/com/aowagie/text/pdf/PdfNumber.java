@@ -88,6 +88,17 @@ public class PdfNumber extends PdfObject {
         }
     }
 
+    /**
+     * Constructs a <CODE>PdfNumber</CODE>-object from its content, already parsed.
+     *
+     * @param content    the bytes of the number as read, not copied
+     * @param value      value of the new <CODE>PdfNumber</CODE>-object
+     */
+    PdfNumber(final byte content[], final double value) {
+        super(NUMBER, content);
+        this.value = value;
+    }
+
     /**
      * Constructs a new <CODE>PdfNumber</CODE>-object of type integer.
      *
@@ -99,6 +110,18 @@ public class PdfNumber extends PdfObject {
         setContent(String.valueOf(value));
     }
 
+    /**
+     * Constructs a new <CODE>PdfNumber</CODE>-object of type integer
+     * for values that may not fit in an <CODE>int</CODE>, like file offsets.
+     *
+     * @param value    value of the new <CODE>PdfNumber</CODE>-object
+     */
+    public PdfNumber(final long value) {
+        super(NUMBER);
+        this.value = value;
+        setContent(String.valueOf(value));
+    }
+
     /**
      * Constructs a new <CODE>PdfNumber</CODE>-object of type real.
      *
@@ -130,6 +153,15 @@ public class PdfNumber extends PdfObject {
         return (int) this.value;
     }
 
+    /**
+     * Returns the primitive <CODE>long</CODE> value of this object.
+     *
+     * @return The value as <CODE>long</CODE>
+     */
+    public long longValue() {
+        return (long) this.value;
+    }
+
     /**
      * Returns the primitive <CODE>double</CODE> value of this object.
      *
@@ -82,6 +82,7 @@ import java.util.Set;
 
 import org.spongycastle.asn1.ASN1Encodable;
 import org.spongycastle.asn1.ASN1EncodableVector;
+import org.spongycastle.asn1.ASN1Encoding;
 import org.spongycastle.asn1.ASN1Enumerated;
 import org.spongycastle.asn1.ASN1InputStream;
 import org.spongycastle.asn1.ASN1Integer;
@@ -141,6 +142,7 @@ public class PdfPKCS7 {
     private boolean verifyResult;
     private byte externalDigest[];
     private byte externalRSAdata[];
+    private byte documentDigest[];
     private String provider;
 
     private static final String ID_PKCS7_DATA = "1.2.840.113549.1.7.1";
@@ -177,6 +179,9 @@ public class PdfPKCS7 {
     private static final HashMap algorithmNames = new LinkedHashMap();
     private static final HashMap allowedDigests = new LinkedHashMap();
 
+    /** The cacerts key stores already loaded, by provider, with the modification time of the file. */
+    private static final HashMap cacerts = new HashMap();
+
     static {
         digestNames.put("1.2.840.113549.2.5", "MD5");
         digestNames.put("1.2.840.113549.2.2", "MD2");
@@ -597,7 +602,7 @@ public class PdfPKCS7 {
      * @throws NoSuchProviderException on error
      * @throws NoSuchAlgorithmException on error
      */
-    PdfPKCS7(final PrivateKey privKey, final Certificate[] certChain, final CRL[] crlList,
+    public PdfPKCS7(final PrivateKey privKey, final Certificate[] certChain, final CRL[] crlList,
                     final String hashAlgorithm, final String provider, final boolean hasRSAdata)
       throws InvalidKeyException, NoSuchProviderException,
       NoSuchAlgorithmException
@@ -674,7 +679,7 @@ public class PdfPKCS7 {
      * @param len the data length
      * @throws SignatureException on error
      */
-    void update(final byte[] buf, final int off, final int len) throws SignatureException {
+    public void update(final byte[] buf, final int off, final int len) throws SignatureException {
         if (this.RSAdata != null || this.digestAttr != null) {
 			this.messageDigest.update(buf, off, len);
 		}
@@ -683,6 +688,29 @@ public class PdfPKCS7 {
 		}
     }
 
+    /**
+     * Gets the digest the signed data is fed to when verifying, so the data can be
+     * hashed elsewhere and the result set with {@link #setDocumentDigest(byte[])}.
+     * @return the digest or <CODE>null</CODE> if the signature is computed directly
+     * over the data, in which case {@link #update(byte[], int, int)} must be used
+     */
+    MessageDigest getDocumentMessageDigest() {
+        if (this.RSAdata != null || this.digestAttr != null) {
+			return this.messageDigest;
+		}
+        return null;
+    }
+
+    /**
+     * Sets the digest of the signed data, computed with an instance of the
+     * algorithm of {@link #getDocumentMessageDigest()}, instead of calling
+     * {@link #update(byte[], int, int)}.
+     * @param digest the digest of the signed data
+     */
+    void setDocumentDigest(final byte digest[]) {
+        this.documentDigest = digest;
+    }
+
     /**
      * Get all the X.509 certificates associated with this PKCS#7 object in no particular order.
      * Other certificates, from OCSP for example, will also be included.
@@ -792,15 +820,34 @@ public class PdfPKCS7 {
 
 
 
+    /**
+     * Loads the default root certificates at &lt;java.home&gt;/lib/security/cacerts
+     * using the default provider.
+     * @return a <CODE>KeyStore</CODE>
+     */
+    public static KeyStore loadCacertsKeyStore() {
+        return loadCacertsKeyStore(null);
+    }
+
     /**
      * Loads the default root certificates at &lt;java.home&gt;/lib/security/cacerts.
+     * The key store is parsed once and kept until the file changes, so the
+     * <CODE>KeyStore</CODE> returned is shared and must not be modified.
      * @param provider the provider or <code>null</code> for the default provider
      * @return a <CODE>KeyStore</CODE>
      */
-    private static KeyStore loadCacertsKeyStore(final String provider) {
+    public static KeyStore loadCacertsKeyStore(final String provider) {
         File file = new File(System.getProperty("java.home"), "lib");
         file = new File(file, "security");
         file = new File(file, "cacerts");
+        final String key = provider == null ? "" : provider;
+        final long modified = file.lastModified();
+        synchronized (cacerts) {
+            final Object cached[] = (Object[])cacerts.get(key);
+            if (cached != null && ((Long)cached[0]).longValue() == modified) {
+                return (KeyStore)cached[1];
+            }
+        }
         FileInputStream fin = null;
         try {
             fin = new FileInputStream(file);
@@ -811,6 +858,9 @@ public class PdfPKCS7 {
 				k = KeyStore.getInstance("JKS", provider);
 			}
             k.load(fin, null);
+            synchronized (cacerts) {
+                cacerts.put(key, new Object[]{Long.valueOf(modified), k});
+            }
             return k;
         }
         catch (final Exception e) {
@@ -973,6 +1023,17 @@ public class PdfPKCS7 {
         return getEncodedPKCS7(null, null, null, null);
     }
 
+    /**
+     * Gets the bytes for the PKCS7SignedData object. Optionally the authenticatedAttributes
+     * in the signerInfo can also be set. If either of the parameters is <CODE>null</CODE>, none will be used.
+     * @param secondDigest the digest in the authenticatedAttributes
+     * @param signingTime the signing time in the authenticatedAttributes
+     * @return the bytes for the PKCS7SignedData object
+     */
+    public byte[] getEncodedPKCS7(final byte secondDigest[], final Calendar signingTime) {
+        return getEncodedPKCS7(secondDigest, signingTime, null, null);
+    }
+
 
 
     /**
@@ -1151,6 +1212,25 @@ public class PdfPKCS7 {
 
 
 
+    /**
+     * When using authenticatedAttributes the authentication process is different.
+     * The document digest is generated and put inside the attribute. The signing is done over the DER encoded
+     * authenticatedAttributes. This method provides that encoding and the parameters must be
+     * exactly the same as in {@link #getEncodedPKCS7(byte[],Calendar)}.
+     * @param secondDigest the content digest
+     * @param signingTime the signing time
+     * @param ocsp the OCSP response or <CODE>null</CODE>
+     * @return the byte array representation of the authenticatedAttributes ready to be signed
+     */
+    public byte[] getAuthenticatedAttributeBytes(final byte secondDigest[], final Calendar signingTime, final byte[] ocsp) {
+        try {
+            return getAuthenticatedAttributeSet(secondDigest, signingTime, ocsp).getEncoded(ASN1Encoding.DER);
+        }
+        catch (final Exception e) {
+            throw new ExceptionConverter(e);
+        }
+    }
+
     private DERSet getAuthenticatedAttributeSet(final byte secondDigest[], final Calendar signingTime, final byte[] ocsp) {
         try {
             final ASN1EncodableVector attribute = new ASN1EncodableVector();
@@ -1539,15 +1619,16 @@ public class PdfPKCS7 {
 		}
         if (this.sigAttr != null) {
             this.sig.update(this.sigAttr);
+            byte msd[] = this.documentDigest != null ? this.documentDigest : this.messageDigest.digest();
             if (this.RSAdata != null) {
-                final byte msd[] = this.messageDigest.digest();
                 this.messageDigest.update(msd);
+                msd = this.messageDigest.digest();
             }
-            this.verifyResult = Arrays.equals(this.messageDigest.digest(), this.digestAttr) && this.sig.verify(this.digest);
+            this.verifyResult = Arrays.equals(msd, this.digestAttr) && this.sig.verify(this.digest);
         }
         else {
             if (this.RSAdata != null) {
-				this.sig.update(this.messageDigest.digest());
+				this.sig.update(this.documentDigest != null ? this.documentDigest : this.messageDigest.digest());
 			}
             this.verifyResult = this.sig.verify(this.digest);
         }
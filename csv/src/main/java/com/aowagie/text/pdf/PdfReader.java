@@ -51,9 +51,10 @@ package com.aowagie.text.pdf;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.SoftReference;
 import java.net.URL;
 import java.security.Key;
 import java.security.MessageDigest;
@@ -101,9 +102,10 @@ public class PdfReader implements PdfViewerPreferences {
     // type 0 -> -1, 0
     // type 1 -> offset, 0
     // type 2 -> index, obj num
-    private int xref[];
+    // Offsets are long so files larger than 2 GB can be read
+    private long xref[];
     private HashMap objStmMark;
-    private IntHashtable objStmToOffset;
+    private HashMap objStmToOffset;
     private boolean newXrefType;
     private ArrayList xrefObj;
     private PdfDictionary rootPages;
@@ -116,8 +118,8 @@ public class PdfReader implements PdfViewerPreferences {
     private boolean rebuilt = false;
     private int freeXref;
     private boolean tampered = false;
-    private int lastXref;
-    private int eofPos;
+    private long lastXref;
+    private long eofPos;
     private char pdfVersion;
     private PdfEncryption decrypt;
     private byte password[] = null; //added by ujihara for decryption
@@ -132,10 +134,11 @@ public class PdfReader implements PdfViewerPreferences {
     private int pValue;
     private int objNum;
     private int objGen;
-    private int fileLength;
+    private long fileLength;
     private boolean hybridXref;
     private int lastXrefPartial = -1;
     private boolean partial;
+    private SoftReference partialCache[];
 
     private PRIndirectReference cryptoRef;
 	private final PdfViewerPreferencesImp viewerPreferences = new PdfViewerPreferencesImp();
@@ -187,6 +190,25 @@ public class PdfReader implements PdfViewerPreferences {
         readPdf();
     }
 
+    /** Reads a PDF document in partial mode. Only the cross reference table, the trailer and
+     * the catalog are read when opening the document; every other object is read from the
+     * file when it is requested and released after use, so opening a large document costs
+     * about the same as opening a small one. The file is kept open until {@link #close()}.
+     * <p>
+     * A file path can be opened with <CODE>new RandomAccessFileOrArray(filename)</CODE>,
+     * which maps the file in memory, and a document already in memory with
+     * <CODE>new RandomAccessFileOrArray(bytes)</CODE>.
+     * @param raf the document
+     * @param ownerPassword the password to read the document, or <CODE>null</CODE>
+     * @throws IOException on error
+     */
+    public PdfReader(final RandomAccessFileOrArray raf, final byte ownerPassword[]) throws IOException {
+        this.password = ownerPassword;
+        this.partial = true;
+        this.tokens = new PRTokeniser(raf);
+        readPdfPartial();
+    }
+
     /** Reads and parses a PDF document.
      * @param filename the file name of the document
      * @param certificate the certificate to read the document
@@ -276,6 +298,31 @@ public class PdfReader implements PdfViewerPreferences {
         this.ownerPasswordUsed = reader.ownerPasswordUsed;
     }
 
+    /** Checks if the document was opened in partial mode.
+     * @return <CODE>true</CODE> if the document was opened in partial mode
+     */
+    public boolean isPartial() {
+        return this.partial;
+    }
+
+    /** Sets whether the objects read in partial mode are kept in a memory sensitive cache.
+     * Without the cache every object is read again from the file each time it is requested
+     * after being released; with it, released objects are kept until the garbage collector
+     * needs their memory. It has no effect if the document was not opened in partial mode.
+     * @param cache <CODE>true</CODE> to keep the released objects in a cache
+     */
+    public void setPartialCache(final boolean cache) {
+        if (!this.partial) {
+        	return;
+        }
+        if (!cache) {
+        	this.partialCache = null;
+        }
+        else if (this.partialCache == null) {
+        	this.partialCache = new SoftReference[this.xrefObj.size()];
+        }
+    }
+
     /** Gets a new file instance of the original PDF
      * document.
      * @return a new file instance of the original PDF document
@@ -907,7 +954,18 @@ public class PdfReader implements PdfViewerPreferences {
             if (idx * 2 >= this.xref.length) {
 				return null;
 			}
-            obj = readSingleObject(idx);
+            final SoftReference cached = this.partialCache != null && idx < this.partialCache.length ?
+        		this.partialCache[idx] : null;
+            obj = cached != null ? (PdfObject)cached.get() : null;
+            if (obj != null) {
+            	this.xrefObj.set(idx, obj);
+            }
+            else {
+            	obj = readSingleObject(idx);
+            	if (obj != null && this.partialCache != null && idx < this.partialCache.length) {
+            		this.partialCache[idx] = new SoftReference(obj);
+            	}
+            }
             this.lastXrefPartial = -1;
             if (obj != null) {
 				this.lastXrefPartial = idx;
@@ -980,10 +1038,10 @@ public class PdfReader implements PdfViewerPreferences {
         this.xrefObj.addAll(Collections.nCopies(this.xref.length / 2, null));
         readDecryptedDocObj();
         if (this.objStmToOffset != null) {
-            final int keys[] = this.objStmToOffset.getKeys();
-            for (final int key : keys) {
-                final int n = key;
-                this.objStmToOffset.put(n, this.xref[n * 2]);
+            for (final Iterator i = this.objStmToOffset.entrySet().iterator(); i.hasNext();) {
+                final Map.Entry entry = (Map.Entry)i.next();
+                final int n = ((Integer)entry.getKey()).intValue();
+                entry.setValue(Long.valueOf(this.xref[n * 2]));
                 this.xref[n * 2] = -1;
             }
         }
@@ -992,12 +1050,12 @@ public class PdfReader implements PdfViewerPreferences {
     private PdfObject readSingleObject(final int k) throws IOException {
         this.strings.clear();
         final int k2 = k * 2;
-        int pos = this.xref[k2];
+        long pos = this.xref[k2];
         if (pos < 0) {
 			return null;
 		}
         if (this.xref[k2 + 1] > 0) {
-			pos = this.objStmToOffset.get(this.xref[k2 + 1]);
+			pos = ((Long)this.objStmToOffset.get(Integer.valueOf((int)this.xref[k2 + 1]))).longValue();
 		}
         if (pos == 0) {
 			return null;
@@ -1014,7 +1072,7 @@ public class PdfReader implements PdfViewerPreferences {
 		}
         this.objGen = this.tokens.intValue();
         this.tokens.nextValidToken();
-        if (!this.tokens.getStringValue().equals("obj")) { //$NON-NLS-1$
+        if (!this.tokens.tokenEquals("obj")) { //$NON-NLS-1$
 			this.tokens.throwError("Token 'obj' expected."); //$NON-NLS-1$
 		}
         PdfObject obj;
@@ -1032,7 +1090,7 @@ public class PdfReader implements PdfViewerPreferences {
             obj = null;
         }
         if (this.xref[k2 + 1] > 0) {
-            obj = readOneObjStm((PRStream)obj, this.xref[k2]);
+            obj = readOneObjStm((PRStream)obj, (int)this.xref[k2]);
         }
         this.xrefObj.set(k, obj);
         return obj;
@@ -1084,7 +1142,7 @@ public class PdfReader implements PdfViewerPreferences {
         this.xrefObj = new ArrayList(this.xref.length / 2);
         this.xrefObj.addAll(Collections.nCopies(this.xref.length / 2, null));
         for (int k = 2; k < this.xref.length; k += 2) {
-            final int pos = this.xref[k];
+            final long pos = this.xref[k];
             if (pos <= 0 || this.xref[k + 1] > 0) {
 				continue;
 			}
@@ -1100,7 +1158,7 @@ public class PdfReader implements PdfViewerPreferences {
 			}
             this.objGen = this.tokens.intValue();
             this.tokens.nextValidToken();
-            if (!this.tokens.getStringValue().equals("obj")) { //$NON-NLS-1$
+            if (!this.tokens.tokenEquals("obj")) { //$NON-NLS-1$
 				this.tokens.throwError("Token 'obj' expected."); //$NON-NLS-1$
 			}
             PdfObject obj;
@@ -1133,14 +1191,14 @@ public class PdfReader implements PdfViewerPreferences {
     }
 
     private void checkPRStreamLength(final PRStream stream) throws IOException {
-        final int fileLength = this.tokens.length();
-        final int start = stream.getOffset();
+        final long fileLength = this.tokens.length();
+        final long start = stream.getOffset();
         boolean calc = false;
         int streamLength = 0;
         final PdfObject obj = getPdfObjectRelease(stream.get(PdfName.LENGTH));
         if (obj != null && obj.type() == PdfObject.NUMBER) {
             streamLength = ((PdfNumber)obj).intValue();
-            if (streamLength + start > fileLength - 20) {
+            if (streamLength < 0 || streamLength + start > fileLength - 20) {
 				calc = true;
 			} else {
                 this.tokens.seek(start + streamLength);
@@ -1159,12 +1217,12 @@ public class PdfReader implements PdfViewerPreferences {
             final byte tline[] = new byte[16];
             this.tokens.seek(start);
             while (true) {
-                int pos = this.tokens.getFilePointer();
+                long pos = this.tokens.getFilePointer();
                 if (!this.tokens.readLineSegment(tline)) {
 					break;
 				}
                 if (equalsn(tline, endstream)) {
-                    streamLength = pos - start;
+                    streamLength = (int)(pos - start);
                     break;
                 }
                 if (equalsn(tline, endobj)) {
@@ -1174,7 +1232,7 @@ public class PdfReader implements PdfViewerPreferences {
                     if (index >= 0) {
 						pos = pos - 16 + index;
 					}
-                    streamLength = pos - start;
+                    streamLength = (int)(pos - start);
                     break;
                 }
             }
@@ -1256,10 +1314,10 @@ public class PdfReader implements PdfViewerPreferences {
 			return;
 		}
         if (this.xref == null) {
-			this.xref = new int[size];
+			this.xref = new long[size];
 		} else {
             if (this.xref.length < size) {
-                final int xref2[] = new int[size];
+                final long xref2[] = new long[size];
                 System.arraycopy(this.xref, 0, xref2, 0, this.xref.length);
                 this.xref = xref2;
             }
@@ -1271,14 +1329,14 @@ public class PdfReader implements PdfViewerPreferences {
         this.newXrefType = false;
         this.tokens.seek(this.tokens.getStartxref());
         this.tokens.nextToken();
-        if (!this.tokens.getStringValue().equals("startxref")) { //$NON-NLS-1$
+        if (!this.tokens.tokenEquals("startxref")) { //$NON-NLS-1$
 			throw new InvalidPdfException("startxref not found."); //$NON-NLS-1$
 		}
         this.tokens.nextToken();
         if (this.tokens.getTokenType() != PRTokeniser.TK_NUMBER) {
 			throw new InvalidPdfException("startxref is not followed by a number."); //$NON-NLS-1$
 		}
-        final int startxref = this.tokens.intValue();
+        final long startxref = this.tokens.longValue();
         this.lastXref = startxref;
         this.eofPos = this.tokens.getFilePointer();
         try {
@@ -1297,23 +1355,23 @@ public class PdfReader implements PdfViewerPreferences {
             if (prev == null) {
 				break;
 			}
-            this.tokens.seek(prev.intValue());
+            this.tokens.seek(prev.longValue());
             trailer2 = readXrefSection();
         }
     }
 
     private PdfDictionary readXrefSection() throws IOException {
         this.tokens.nextValidToken();
-        if (!this.tokens.getStringValue().equals("xref")) { //$NON-NLS-1$
+        if (!this.tokens.tokenEquals("xref")) { //$NON-NLS-1$
 			this.tokens.throwError("xref subsection not found"); //$NON-NLS-1$
 		}
         int start = 0;
         int end = 0;
-        int pos = 0;
+        long pos = 0;
         int gen = 0;
         while (true) {
             this.tokens.nextValidToken();
-            if (this.tokens.getStringValue().equals("trailer")) { //$NON-NLS-1$
+            if (this.tokens.tokenEquals("trailer")) { //$NON-NLS-1$
 				break;
 			}
             if (this.tokens.getTokenType() != PRTokeniser.TK_NUMBER) {
@@ -1326,9 +1384,9 @@ public class PdfReader implements PdfViewerPreferences {
 			}
             end = this.tokens.intValue() + start;
             if (start == 1) { // fix incorrect start number
-                final int back = this.tokens.getFilePointer();
+                final long back = this.tokens.getFilePointer();
                 this.tokens.nextValidToken();
-                pos = this.tokens.intValue();
+                pos = this.tokens.longValue();
                 this.tokens.nextValidToken();
                 gen = this.tokens.intValue();
                 if (pos == 0 && gen == PdfWriter.GENERATION_MAX) {
@@ -1340,19 +1398,19 @@ public class PdfReader implements PdfViewerPreferences {
             ensureXrefSize(end * 2);
             for (int k = start; k < end; ++k) {
                 this.tokens.nextValidToken();
-                pos = this.tokens.intValue();
+                pos = this.tokens.longValue();
                 this.tokens.nextValidToken();
                 gen = this.tokens.intValue();
                 this.tokens.nextValidToken();
                 final int p = k * 2;
-                if (this.tokens.getStringValue().equals("n")) { //$NON-NLS-1$
+                if (this.tokens.tokenEquals("n")) { //$NON-NLS-1$
                     if (this.xref[p] == 0 && this.xref[p + 1] == 0) {
 //                        if (pos == 0)
 //                            tokens.throwError("File position 0 cross-reference entry in this xref subsection");
                         this.xref[p] = pos;
                     }
                 }
-                else if (this.tokens.getStringValue().equals("f")) { //$NON-NLS-1$
+                else if (this.tokens.tokenEquals("f")) { //$NON-NLS-1$
                     if (this.xref[p] == 0 && this.xref[p + 1] == 0) {
 						this.xref[p] = -1;
 					}
@@ -1366,7 +1424,7 @@ public class PdfReader implements PdfViewerPreferences {
         ensureXrefSize(xrefSize.intValue() * 2);
         final PdfObject xrs = trailer.get(PdfName.XREFSTM);
         if (xrs != null && xrs.isNumber()) {
-            final int loc = ((PdfNumber)xrs).intValue();
+            final long loc = ((PdfNumber)xrs).longValue();
             try {
                 readXRefStream(loc);
                 this.newXrefType = true;
@@ -1380,7 +1438,7 @@ public class PdfReader implements PdfViewerPreferences {
         return trailer;
     }
 
-    private boolean readXRefStream(final int ptr) throws IOException {
+    private boolean readXRefStream(final long ptr) throws IOException {
         this.tokens.seek(ptr);
         int thisStream = 0;
         if (!this.tokens.nextToken()) {
@@ -1393,7 +1451,7 @@ public class PdfReader implements PdfViewerPreferences {
         if (!this.tokens.nextToken() || this.tokens.getTokenType() != PRTokeniser.TK_NUMBER) {
 			return false;
 		}
-        if (!this.tokens.nextToken() || !this.tokens.getStringValue().equals("obj")) { //$NON-NLS-1$
+        if (!this.tokens.nextToken() || !this.tokens.tokenEquals("obj")) { //$NON-NLS-1$
 			return false;
 		}
         final PdfObject object = readPRObject();
@@ -1421,10 +1479,10 @@ public class PdfReader implements PdfViewerPreferences {
 			index = (PdfArray)obj;
 		}
         final PdfArray w = (PdfArray)stm.get(PdfName.W);
-        int prev = -1;
+        long prev = -1;
         obj = stm.get(PdfName.PREV);
         if (obj != null) {
-			prev = ((PdfNumber)obj).intValue();
+			prev = ((PdfNumber)obj).longValue();
 		}
         // Each xref pair is a position
         // type 0 -> -1, 0
@@ -1435,7 +1493,7 @@ public class PdfReader implements PdfViewerPreferences {
 			this.objStmMark = new LinkedHashMap();
 		}
         if (this.objStmToOffset == null && this.partial) {
-			this.objStmToOffset = new IntHashtable();
+			this.objStmToOffset = new HashMap();
 		}
         final byte b[] = getStreamBytes(stm, this.tokens.getFile());
         int bptr = 0;
@@ -1455,7 +1513,8 @@ public class PdfReader implements PdfViewerPreferences {
 						type = (type << 8) + (b[bptr++] & 0xff);
 					}
                 }
-                int field2 = 0;
+                // Offsets may take up to 8 bytes
+                long field2 = 0;
                 for (int k = 0; k < wc[1]; ++k) {
 					field2 = (field2 << 8) + (b[bptr++] & 0xff);
 				}
@@ -1476,10 +1535,10 @@ public class PdfReader implements PdfViewerPreferences {
                             this.xref[base] = field3;
                             this.xref[base + 1] = field2;
                             if (this.partial) {
-                                this.objStmToOffset.put(field2, 0);
+                                this.objStmToOffset.put(Integer.valueOf((int)field2), null);
                             }
                             else {
-                                final Integer on = Integer.valueOf(field2);
+                                final Integer on = Integer.valueOf((int)field2);
                                 IntHashtable seq = (IntHashtable)this.objStmMark.get(on);
                                 if (seq == null) {
                                     seq = new IntHashtable();
@@ -1510,12 +1569,12 @@ public class PdfReader implements PdfViewerPreferences {
         this.hybridXref = false;
         this.newXrefType = false;
         this.tokens.seek(0);
-        int xr[][] = new int[1024][];
+        long xr[][] = new long[1024][];
         int top = 0;
         this.trailer = null;
         final byte line[] = new byte[64];
         for (;;) {
-            int pos = this.tokens.getFilePointer();
+            long pos = this.tokens.getFilePointer();
             if (!this.tokens.readLineSegment(line)) {
 				break;
 			}
@@ -1547,7 +1606,7 @@ public class PdfReader implements PdfViewerPreferences {
                 final int gen = obj[1];
                 if (num >= xr.length) {
                     final int newLength = num * 2;
-                    final int xr2[][] = new int[newLength][];
+                    final long xr2[][] = new long[newLength][];
                     System.arraycopy(xr, 0, xr2, 0, top);
                     xr = xr2;
                 }
@@ -1555,17 +1614,16 @@ public class PdfReader implements PdfViewerPreferences {
 					top = num + 1;
 				}
                 if (xr[num] == null || gen >= xr[num][1]) {
-                    obj[0] = pos;
-                    xr[num] = obj;
+                    xr[num] = new long[]{pos, gen};
                 }
             }
         }
         if (this.trailer == null) {
 			throw new InvalidPdfException("trailer not found."); //$NON-NLS-1$
 		}
-        this.xref = new int[top * 2];
+        this.xref = new long[top * 2];
         for (int k = 0; k < top; ++k) {
-            final int obj[] = xr[k];
+            final long obj[] = xr[k];
             if (obj != null) {
 				this.xref[k * 2] = obj[0];
 			}
@@ -1582,7 +1640,7 @@ public class PdfReader implements PdfViewerPreferences {
             if (this.tokens.getTokenType() != PRTokeniser.TK_NAME) {
 				this.tokens.throwError("Dictionary key is not a name."); //$NON-NLS-1$
 			}
-            final PdfName name = new PdfName(this.tokens.getStringValue(), false);
+            final PdfName name = this.tokens.getName(true);
             final PdfObject obj = readPRObject();
             final int type = obj.type();
             if (-type == PRTokeniser.TK_END_DIC) {
@@ -1625,14 +1683,14 @@ public class PdfReader implements PdfViewerPreferences {
                 ++this.readDepth;
                 final PdfDictionary dic = readDictionary();
                 --this.readDepth;
-                final int pos = this.tokens.getFilePointer();
+                final long pos = this.tokens.getFilePointer();
                 // be careful in the trailer. May not be a "next" token.
                 boolean hasNext;
                 do {
                     hasNext = this.tokens.nextToken();
                 } while (hasNext && this.tokens.getTokenType() == PRTokeniser.TK_COMMENT);
 
-                if (hasNext && this.tokens.getStringValue().equals("stream")) { //$NON-NLS-1$
+                if (hasNext && this.tokens.tokenEquals("stream")) { //$NON-NLS-1$
                     //skip whitespaces
                     int ch;
                     do {
@@ -1663,7 +1721,7 @@ public class PdfReader implements PdfViewerPreferences {
                 return arr;
             }
             case PRTokeniser.TK_NUMBER:
-                return new PdfNumber(this.tokens.getStringValue());
+                return this.tokens.getNumber();
             case PRTokeniser.TK_STRING:
                 final PdfString str = new PdfString(this.tokens.getStringValue(), null).setHexWriting(this.tokens.isHexString());
                 // crypto handling
@@ -1673,34 +1731,27 @@ public class PdfReader implements PdfViewerPreferences {
 				}
 
                 return str;
-            case PRTokeniser.TK_NAME: {
-                final PdfName cachedName = (PdfName)PdfName.staticNames.get( this.tokens.getStringValue() );
-                if (this.readDepth > 0 && cachedName != null) {
-                    return cachedName;
-                } else {
-                    // an indirect name (how odd...), or a non-standard one
-                    return new PdfName(this.tokens.getStringValue(), false);
-                }
-            }
+            case PRTokeniser.TK_NAME:
+                // an indirect name (how odd...) gets its own instance
+                return this.tokens.getName(this.readDepth > 0);
             case PRTokeniser.TK_REF:
                 final int num = this.tokens.getReference();
                 final PRIndirectReference ref = new PRIndirectReference(this, num, this.tokens.getGeneration());
                 return ref;
             default:
-                final String sv = this.tokens.getStringValue();
-                if ("null".equals(sv)) { //$NON-NLS-1$
+                if (this.tokens.tokenEquals("null")) { //$NON-NLS-1$
                     if (this.readDepth == 0) {
                         return new PdfNull();
                     } //else
                     return PdfNull.PDFNULL;
                 }
-                else if ("true".equals(sv)) { //$NON-NLS-1$
+                else if (this.tokens.tokenEquals("true")) { //$NON-NLS-1$
                     if (this.readDepth == 0) {
                         return new PdfBoolean( true );
                     } //else
                     return PdfBoolean.PDFTRUE;
                 }
-                else if ("false".equals(sv)) { //$NON-NLS-1$
+                else if (this.tokens.tokenEquals("false")) { //$NON-NLS-1$
                     if (this.readDepth == 0) {
                         return new PdfBoolean( false );
                     } //else
@@ -1710,138 +1761,6 @@ public class PdfReader implements PdfViewerPreferences {
         }
     }
 
-    /** Decodes a stream that has the FlateDecode filter.
-     * @param in the input data
-     * @return the decoded data
-     */
-    private static byte[] FlateDecode(final byte in[]) {
-        final byte b[] = FlateDecode(in, true);
-        if (b == null) {
-			return FlateDecode(in, false);
-		}
-        return b;
-    }
-
-    /**
-     * @param in
-     * @param dicPar
-     * @return a byte array
-     */
-    private static byte[] decodePredictor(final byte in[], final PdfObject dicPar) {
-        if (dicPar == null || !dicPar.isDictionary()) {
-			return in;
-		}
-        final PdfDictionary dic = (PdfDictionary)dicPar;
-        PdfObject obj = getPdfObject(dic.get(PdfName.PREDICTOR));
-        if (obj == null || !obj.isNumber()) {
-			return in;
-		}
-        final int predictor = ((PdfNumber)obj).intValue();
-        if (predictor < 10) {
-			return in;
-		}
-        int width = 1;
-        obj = getPdfObject(dic.get(PdfName.COLUMNS));
-        if (obj != null && obj.isNumber()) {
-			width = ((PdfNumber)obj).intValue();
-		}
-        int colors = 1;
-        obj = getPdfObject(dic.get(PdfName.COLORS));
-        if (obj != null && obj.isNumber()) {
-			colors = ((PdfNumber)obj).intValue();
-		}
-        int bpc = 8;
-        obj = getPdfObject(dic.get(PdfName.BITSPERCOMPONENT));
-        if (obj != null && obj.isNumber()) {
-			bpc = ((PdfNumber)obj).intValue();
-		}
-        final DataInputStream dataStream = new DataInputStream(new ByteArrayInputStream(in));
-        final ByteArrayOutputStream fout = new ByteArrayOutputStream(in.length);
-        final int bytesPerPixel = colors * bpc / 8;
-        final int bytesPerRow = (colors*width*bpc + 7)/8;
-        byte[] curr = new byte[bytesPerRow];
-        byte[] prior = new byte[bytesPerRow];
-
-        // Decode the (sub)image row-by-row
-        while (true) {
-            // Read the filter type byte and a row of data
-            int filter = 0;
-            try {
-                filter = dataStream.read();
-                if (filter < 0) {
-                    return fout.toByteArray();
-                }
-                dataStream.readFully(curr, 0, bytesPerRow);
-            } catch (final Exception e) {
-                return fout.toByteArray();
-            }
-
-            switch (filter) {
-                case 0: //PNG_FILTER_NONE
-                    break;
-                case 1: //PNG_FILTER_SUB
-                    for (int i = bytesPerPixel; i < bytesPerRow; i++) {
-                        curr[i] += curr[i - bytesPerPixel];
-                    }
-                    break;
-                case 2: //PNG_FILTER_UP
-                    for (int i = 0; i < bytesPerRow; i++) {
-                        curr[i] += prior[i];
-                    }
-                    break;
-                case 3: //PNG_FILTER_AVERAGE
-                    for (int i = 0; i < bytesPerPixel; i++) {
-                        curr[i] += prior[i] / 2;
-                    }
-                    for (int i = bytesPerPixel; i < bytesPerRow; i++) {
-                        curr[i] += ((curr[i - bytesPerPixel] & 0xff) + (prior[i] & 0xff))/2;
-                    }
-                    break;
-                case 4: //PNG_FILTER_PAETH
-                    for (int i = 0; i < bytesPerPixel; i++) {
-                        curr[i] += prior[i];
-                    }
-
-                    for (int i = bytesPerPixel; i < bytesPerRow; i++) {
-                        final int a = curr[i - bytesPerPixel] & 0xff;
-                        final int b = prior[i] & 0xff;
-                        final int c = prior[i - bytesPerPixel] & 0xff;
-
-                        final int p = a + b - c;
-                        final int pa = Math.abs(p - a);
-                        final int pb = Math.abs(p - b);
-                        final int pc = Math.abs(p - c);
-
-                        int ret;
-
-                        if (pa <= pb && pa <= pc) {
-                            ret = a;
-                        } else if (pb <= pc) {
-                            ret = b;
-                        } else {
-                            ret = c;
-                        }
-                        curr[i] += (byte)ret;
-                    }
-                    break;
-                default:
-                    // Error -- unknown filter type
-                    throw new RuntimeException("PNG filter unknown."); //$NON-NLS-1$
-            }
-            try {
-                fout.write(curr);
-            }
-            catch (final IOException ioe) {
-                // Never happens
-            }
-
-            // Swap curr and prior
-            final byte[] tmp = prior;
-            prior = curr;
-            curr = tmp;
-        }
-    }
-
     /** A helper to FlateDecode.
      * @param in the input data
      * @param strict <CODE>true</CODE> to read a correct stream. <CODE>false</CODE>
@@ -1870,112 +1789,6 @@ public class PdfReader implements PdfViewerPreferences {
         }
     }
 
-    /** Decodes a stream that has the ASCIIHexDecode filter.
-     * @param in the input data
-     * @return the decoded data
-     */
-    private static byte[] ASCIIHexDecode(final byte in[]) {
-        final ByteArrayOutputStream out = new ByteArrayOutputStream();
-        boolean first = true;
-        int n1 = 0;
-        for (final byte element : in) {
-            final int ch = element & 0xff;
-            if (ch == '>') {
-				break;
-			}
-            if (PRTokeniser.isWhitespace(ch)) {
-				continue;
-			}
-            final int n = PRTokeniser.getHex(ch);
-            if (n == -1) {
-				throw new RuntimeException("Illegal character in ASCIIHexDecode."); //$NON-NLS-1$
-			}
-            if (first) {
-				n1 = n;
-			} else {
-				out.write((byte)((n1 << 4) + n));
-			}
-            first = !first;
-        }
-        if (!first) {
-			out.write((byte)(n1 << 4));
-		}
-        return out.toByteArray();
-    }
-
-    /** Decodes a stream that has the ASCII85Decode filter.
-     * @param in the input data
-     * @return the decoded data
-     */
-    private static byte[] ASCII85Decode(final byte in[]) {
-        final ByteArrayOutputStream out = new ByteArrayOutputStream();
-        int state = 0;
-        final int chn[] = new int[5];
-        for (final byte element : in) {
-            final int ch = element & 0xff;
-            if (ch == '~') {
-				break;
-			}
-            if (PRTokeniser.isWhitespace(ch)) {
-				continue;
-			}
-            if (ch == 'z' && state == 0) {
-                out.write(0);
-                out.write(0);
-                out.write(0);
-                out.write(0);
-                continue;
-            }
-            if (ch < '!' || ch > 'u') {
-				throw new RuntimeException("Illegal character in ASCII85Decode."); //$NON-NLS-1$
-			}
-            chn[state] = ch - '!';
-            ++state;
-            if (state == 5) {
-                state = 0;
-                int r = 0;
-                for (int j = 0; j < 5; ++j) {
-					r = r * 85 + chn[j];
-				}
-                out.write((byte)(r >> 24));
-                out.write((byte)(r >> 16));
-                out.write((byte)(r >> 8));
-                out.write((byte)r);
-            }
-        }
-        int r = 0;
-        // We'll ignore the next two lines for the sake of perpetuating broken PDFs
-//        if (state == 1)
-//            throw new RuntimeException("Illegal length in ASCII85Decode.");
-        if (state == 2) {
-            r = chn[0] * 85 * 85 * 85 * 85 + chn[1] * 85 * 85 * 85 + 85 * 85 * 85  + 85 * 85 + 85;
-            out.write((byte)(r >> 24));
-        }
-        else if (state == 3) {
-            r = chn[0] * 85 * 85 * 85 * 85 + chn[1] * 85 * 85 * 85  + chn[2] * 85 * 85 + 85 * 85 + 85;
-            out.write((byte)(r >> 24));
-            out.write((byte)(r >> 16));
-        }
-        else if (state == 4) {
-            r = chn[0] * 85 * 85 * 85 * 85 + chn[1] * 85 * 85 * 85  + chn[2] * 85 * 85  + chn[3] * 85 + 85;
-            out.write((byte)(r >> 24));
-            out.write((byte)(r >> 16));
-            out.write((byte)(r >> 8));
-        }
-        return out.toByteArray();
-    }
-
-    /** Decodes a stream that has the LZWDecode filter.
-     * @param in the input data
-     * @return the decoded data
-     */
-    private static byte[] LZWDecode(final byte in[]) {
-        final ByteArrayOutputStream out = new ByteArrayOutputStream();
-        final LZWDecoder lzw = new LZWDecoder();
-        lzw.decode(in, out);
-        return out.toByteArray();
-    }
-
     /** Checks if the document had errors and was rebuilt.
      * @return true if rebuilt.
      *
@@ -2135,8 +1948,56 @@ public class PdfReader implements PdfViewerPreferences {
      * @return the stream content
      */
     private static byte[] getStreamBytes(final PRStream stream, final RandomAccessFileOrArray file) throws IOException {
+        if (!hasDecodeFilters(stream)) {
+            return getStreamBytesRaw(stream, file);
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(stream.getLength(), 32));
+        final InputStream in = getStreamInputStream(stream, file);
+        try {
+            StreamDecoder.copy(in, out);
+        }
+        finally {
+            in.close();
+        }
+        return out.toByteArray();
+    }
+
+    /** Get the content from a stream applying the required filters and writes it to a sink.
+     * The content is decoded as it is read, so the memory used doesn't depend on the size
+     * of the stream.
+     * @param stream the stream
+     * @param out the sink for the stream content, left open
+     * @throws IOException on error
+     */
+    public static void getStreamBytes(final PRStream stream, final OutputStream out) throws IOException {
+        final RandomAccessFileOrArray rf = stream.getReader().getSafeFile();
+        try {
+            rf.reOpen();
+            getStreamBytes(stream, rf, out);
+        }
+        finally {
+            try{rf.close();}catch(final Exception e){}
+        }
+    }
+
+    /** Get the content from a stream applying the required filters and writes it to a sink.
+     * @param stream the stream
+     * @param file the location where the stream is, already open
+     * @param out the sink for the stream content, left open
+     * @throws IOException on error
+     */
+    public static void getStreamBytes(final PRStream stream, final RandomAccessFileOrArray file, final OutputStream out) throws IOException {
+        final InputStream in = getStreamInputStream(stream, file);
+        try {
+            StreamDecoder.copy(in, out);
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    private static ArrayList getFilters(final PRStream stream) {
         final PdfObject filter = getPdfObjectRelease(stream.get(PdfName.FILTER));
-        byte[] b = getStreamBytesRaw(stream, file);
         ArrayList filters = new ArrayList();
         if (filter != null) {
             if (filter.isName()) {
@@ -2145,6 +2006,32 @@ public class PdfReader implements PdfViewerPreferences {
 				filters = ((PdfArray)filter).getArrayList();
 			}
         }
+        return filters;
+    }
+
+    /** Checks if a stream has any filter other than <CODE>/Crypt</CODE>.
+     * @param stream the stream
+     * @return <CODE>true</CODE> if the stream content must be decoded
+     */
+    private static boolean hasDecodeFilters(final PRStream stream) {
+        final ArrayList filters = getFilters(stream);
+        for (int k = 0; k < filters.size(); ++k) {
+            final PdfObject obj = getPdfObjectRelease((PdfObject)filters.get(k));
+            if (obj == null || !obj.toString().equals("/Crypt")) { //$NON-NLS-1$
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Gets a stream that decodes the content of a PDF stream as it is read.
+     * @param stream the stream
+     * @param file the location where the stream is, already open
+     * @throws IOException on error
+     * @return the decoded stream content
+     */
+    private static InputStream getStreamInputStream(final PRStream stream, final RandomAccessFileOrArray file) throws IOException {
+        final ArrayList filters = getFilters(stream);
         ArrayList dp = new ArrayList();
         PdfObject dpo = getPdfObjectRelease(stream.get(PdfName.DECODEPARMS));
         if (dpo == null || !dpo.isDictionary() && !dpo.isArray()) {
@@ -2157,35 +2044,69 @@ public class PdfReader implements PdfViewerPreferences {
 				dp = ((PdfArray)dpo).getArrayList();
 			}
         }
+        InputStream in = getStreamInputStreamRaw(stream, file, filters);
         String name;
         for (int j = 0; j < filters.size(); ++j) {
             name = ((PdfName)getPdfObjectRelease((PdfObject)filters.get(j))).toString();
             if (name.equals("/FlateDecode") || name.equals("/Fl")) { //$NON-NLS-1$ //$NON-NLS-2$
-                b = FlateDecode(b);
-                PdfObject dicParam = null;
+                in = new StreamDecoder.FlateInputStream(in);
                 if (j < dp.size()) {
-                    dicParam = (PdfObject)dp.get(j);
-                    b = decodePredictor(b, dicParam);
+                    in = decodePredictor(in, (PdfObject)dp.get(j));
                 }
             }
             else if (name.equals("/ASCIIHexDecode") || name.equals("/AHx")) { //$NON-NLS-1$ //$NON-NLS-2$
-				b = ASCIIHexDecode(b);
+				in = new StreamDecoder.ASCIIHexInputStream(in);
 			} else if (name.equals("/ASCII85Decode") || name.equals("/A85")) { //$NON-NLS-1$ //$NON-NLS-2$
-				b = ASCII85Decode(b);
+				in = new StreamDecoder.ASCII85InputStream(in);
 			} else if (name.equals("/LZWDecode")) { //$NON-NLS-1$
-                b = LZWDecode(b);
-                PdfObject dicParam = null;
+                in = new StreamDecoder.LZWInputStream(in);
                 if (j < dp.size()) {
-                    dicParam = (PdfObject)dp.get(j);
-                    b = decodePredictor(b, dicParam);
+                    in = decodePredictor(in, (PdfObject)dp.get(j));
                 }
             }
             else if (name.equals("/Crypt")) { //$NON-NLS-1$
             } else {
+                in.close();
 				throw new UnsupportedPdfException("The filter " + name + " is not supported."); //$NON-NLS-1$ //$NON-NLS-2$
 			}
         }
-        return b;
+        return in;
+    }
+
+    /**
+     * @param in the data to decode
+     * @param dicPar the decode parameters
+     * @return the decoded data
+     */
+    private static InputStream decodePredictor(final InputStream in, final PdfObject dicPar) {
+        if (dicPar == null || !dicPar.isDictionary()) {
+			return in;
+		}
+        final PdfDictionary dic = (PdfDictionary)dicPar;
+        PdfObject obj = getPdfObject(dic.get(PdfName.PREDICTOR));
+        if (obj == null || !obj.isNumber()) {
+			return in;
+		}
+        final int predictor = ((PdfNumber)obj).intValue();
+        if (predictor < 10) {
+			return in;
+		}
+        int width = 1;
+        obj = getPdfObject(dic.get(PdfName.COLUMNS));
+        if (obj != null && obj.isNumber()) {
+			width = ((PdfNumber)obj).intValue();
+		}
+        int colors = 1;
+        obj = getPdfObject(dic.get(PdfName.COLORS));
+        if (obj != null && obj.isNumber()) {
+			colors = ((PdfNumber)obj).intValue();
+		}
+        int bpc = 8;
+        obj = getPdfObject(dic.get(PdfName.BITSPERCOMPONENT));
+        if (obj != null && obj.isNumber()) {
+			bpc = ((PdfNumber)obj).intValue();
+		}
+        return new StreamDecoder.PredictorInputStream(in, width, colors, bpc);
     }
 
     /** Get the content from a stream applying the required filters.
@@ -2247,6 +2168,40 @@ public class PdfReader implements PdfViewerPreferences {
         return b;
     }
 
+    /** Gets a stream that reads the content of a PDF stream without applying any filter.
+     * @param stream the stream
+     * @param file the location where the stream is, already open
+     * @param filters the filters of the stream
+     * @return the stream content
+     */
+    private static InputStream getStreamInputStreamRaw(final PRStream stream, final RandomAccessFileOrArray file, final ArrayList filters) {
+        if (stream.getOffset() < 0) {
+			return new ByteArrayInputStream(stream.getBytes());
+		}
+        final InputStream in = new StreamDecoder.RangeInputStream(file, stream.getOffset(), stream.getLength());
+        final StandardDecryption decryptor = getDecryptor(stream, stream.getReader(), filters);
+        return decryptor == null ? in : new StreamDecoder.DecryptInputStream(in, decryptor);
+    }
+
+    /** Gets the decryptor of a stream.
+     * @return the decryptor, or <CODE>null</CODE> if the document is not encrypted or the
+     * stream has its own <CODE>/Crypt</CODE> filter
+     */
+    private static StandardDecryption getDecryptor(final PRStream stream, final PdfReader reader, final ArrayList filters) {
+        final PdfEncryption decrypt = reader.getDecrypt();
+        if (decrypt == null) {
+            return null;
+        }
+        for (int k = 0; k < filters.size(); ++k) {
+            final PdfObject obj = getPdfObjectRelease((PdfObject)filters.get(k));
+            if (obj != null && obj.toString().equals("/Crypt")) { //$NON-NLS-1$
+                return null;
+            }
+        }
+        decrypt.setHashKey(stream.getObjNum(), stream.getObjGen());
+        return decrypt.getDecryptor();
+    }
+
     /** Get the content from a stream as it is without applying any filter.
      * @param stream the stream
      * @throws IOException on error
@@ -2365,7 +2320,7 @@ public class PdfReader implements PdfViewerPreferences {
      * Gets the byte address of the last xref table.
      * @return the byte address of the last xref table
      */
-    public int getLastXref() {
+    public long getLastXref() {
         return this.lastXref;
     }
 
@@ -2381,7 +2336,7 @@ public class PdfReader implements PdfViewerPreferences {
      * Gets the byte address of the %%EOF marker.
      * @return the byte address of the %%EOF marker
      */
-    public int getEofPos() {
+    public long getEofPos() {
         return this.eofPos;
     }
 
@@ -2837,6 +2792,7 @@ public class PdfReader implements PdfViewerPreferences {
         if (!this.partial) {
 			return;
 		}
+        this.partialCache = null;
         try {
             this.tokens.close();
         }
@@ -3110,7 +3066,7 @@ public class PdfReader implements PdfViewerPreferences {
      * Getter for property fileLength.
      * @return Value of property fileLength.
      */
-    public int getFileLength() {
+    public long getFileLength() {
         return this.fileLength;
     }
 
@@ -3130,6 +3086,12 @@ public class PdfReader implements PdfViewerPreferences {
         private int lastPageRead = -1;
         private int sizep;
         private boolean keepPages;
+        // Partial mode: inherited attributes of each page, merged every time the page is read
+        private PdfDictionary inheritedp[];
+        // Partial mode: sequential walk of the page tree. Pages below walkedp are already
+        // located, walkp holds the pending kids of each node of the current branch
+        private int walkedp;
+        private ArrayList walkp;
 
         private PageRefs(final PdfReader reader) throws IOException {
             this.reader = reader;
@@ -3137,6 +3099,7 @@ public class PdfReader implements PdfViewerPreferences {
                 this.refsp = new IntHashtable();
                 final PdfNumber npages = (PdfNumber)PdfReader.getPdfObjectRelease(reader.rootPages.get(PdfName.COUNT));
                 this.sizep = npages.intValue();
+                this.inheritedp = new PdfDictionary[this.sizep];
             }
             else {
                 readPages();
@@ -3152,7 +3115,9 @@ public class PdfReader implements PdfViewerPreferences {
                     this.refsn.set(k, duplicatePdfObject((PdfObject)this.refsn.get(k), reader));
                 }
             } else {
-				this.refsp = (IntHashtable)other.refsp.clone();
+                // The pages are located again, the inherited attributes belong to the other reader
+				this.refsp = new IntHashtable();
+				this.inheritedp = new PdfDictionary[this.sizep];
 			}
         }
 
@@ -3184,7 +3149,21 @@ public class PdfReader implements PdfViewerPreferences {
          */
         public PdfDictionary getPageN(final int pageNum) {
             final PRIndirectReference ref = getPageOrigRef(pageNum);
-            return (PdfDictionary)PdfReader.getPdfObject(ref);
+            if (this.refsp == null || ref == null) {
+                return (PdfDictionary)PdfReader.getPdfObject(ref);
+            }
+            final PdfDictionary page = (PdfDictionary)PdfReader.getPdfObject(ref);
+            // The page is released later by releasePage() only if it was read now
+            final boolean read = this.reader.lastXrefPartial == ref.getNumber();
+            this.reader.lastXrefPartial = -1;
+            if (read && !this.keepPages) {
+                this.lastPageRead = pageNum - 1;
+            }
+            final PdfDictionary inh = pageNum - 1 < this.inheritedp.length ? this.inheritedp[pageNum - 1] : null;
+            if (page != null && inh != null) {
+                page.mergeDifferent(inh);
+            }
+            return page;
         }
 
         /**
@@ -3212,30 +3191,23 @@ public class PdfReader implements PdfViewerPreferences {
                 if (this.refsn != null) {
 					return (PRIndirectReference)this.refsn.get(pageNum);
 				} else {
-                    final int n = this.refsp.get(pageNum);
+                    if (this.lastPageRead != pageNum) {
+                        this.lastPageRead = -1;
+                    }
+                    int n = this.refsp.get(pageNum);
                     if (n == 0) {
-                        final PRIndirectReference ref = getSinglePage(pageNum);
-                        if (this.reader.lastXrefPartial == -1) {
-							this.lastPageRead = -1;
-						} else {
-							this.lastPageRead = pageNum;
-						}
-                        this.reader.lastXrefPartial = -1;
-                        this.refsp.put(pageNum, ref.getNumber());
-                        if (this.keepPages) {
-							this.lastPageRead = -1;
-						}
-                        return ref;
+                        // Pages are usually read in order, so the tree is walked once
+                        // locating every page on the way instead of once for each page
+                        walkPages(pageNum);
+                        n = this.refsp.get(pageNum);
                     }
-                    else {
-                        if (this.lastPageRead != pageNum) {
-							this.lastPageRead = -1;
-						}
-                        if (this.keepPages) {
-							this.lastPageRead = -1;
-						}
-                        return new PRIndirectReference(this.reader, n);
+                    if (n == 0) {
+                        final PRIndirectReference ref = getSinglePage(pageNum);
+                        this.reader.releaseLastXrefPartial();
+                        n = ref.getNumber();
+                        this.refsp.put(pageNum, n);
                     }
+                    return new PRIndirectReference(this.reader, n);
                 }
             }
             catch (final Exception e) {
@@ -3248,7 +3220,6 @@ public class PdfReader implements PdfViewerPreferences {
 				return;
 			}
             this.keepPages = true;
-            this.refsp.clear();
         }
 
         /**
@@ -3268,7 +3239,7 @@ public class PdfReader implements PdfViewerPreferences {
             this.lastPageRead = -1;
             this.reader.lastXrefPartial = this.refsp.get(pageNum);
             this.reader.releaseLastXrefPartial();
-            this.refsp.remove(pageNum);
+            // The page number stays located, it takes less memory than walking the tree again
         }
 
         /**
@@ -3293,6 +3264,16 @@ public class PdfReader implements PdfViewerPreferences {
             else {
                 ++this.sizep;
                 this.lastPageRead = -1;
+                // The sequential walk no longer matches the page numbers
+                this.walkp = null;
+                this.walkedp = Integer.MAX_VALUE;
+                final PdfDictionary inh[] = new PdfDictionary[this.sizep];
+                final int shifted = Math.min(pageNum, this.inheritedp.length);
+                System.arraycopy(this.inheritedp, 0, inh, 0, shifted);
+                if (shifted < this.inheritedp.length) {
+                    System.arraycopy(this.inheritedp, shifted, inh, shifted + 1, this.inheritedp.length - shifted);
+                }
+                this.inheritedp = inh;
                 if (pageNum >= size()) {
                     this.refsp.put(size(), ref.getNumber());
                 }
@@ -3363,6 +3344,79 @@ public class PdfReader implements PdfViewerPreferences {
             }
         }
 
+        /** Walks the page tree in order from the last page located up to the given page,
+         * locating every page on the way. Subtrees that end before the given page are
+         * skipped, and their pages are left to {@link #getSinglePage(int)}.
+         * @param n the page number, 0 is the first
+         */
+        private void walkPages(final int n) {
+            if (n < this.walkedp) {
+                return;
+            }
+            if (this.walkp == null) {
+                this.walkp = new ArrayList();
+                pushWalkNode(this.reader.rootPages, new PdfDictionary());
+            }
+            while (this.walkedp <= n && !this.walkp.isEmpty()) {
+                final Object node[] = (Object[])this.walkp.get(this.walkp.size() - 1);
+                final PdfArray kids = (PdfArray)node[0];
+                final int next[] = (int[])node[1];
+                if (next[0] >= kids.size()) {
+                    this.walkp.remove(this.walkp.size() - 1);
+                    continue;
+                }
+                final PdfObject kid = kids.getPdfObject(next[0]++);
+                if (!(kid instanceof PRIndirectReference)) {
+                    continue;
+                }
+                final PRIndirectReference ref = (PRIndirectReference)kid;
+                final PdfDictionary dic = (PdfDictionary)getPdfObject(ref);
+                final int last = this.reader.lastXrefPartial;
+                final PdfObject count = dic == null ? null : getPdfObjectRelease(dic.get(PdfName.COUNT));
+                this.reader.lastXrefPartial = last;
+                if (dic == null) {
+                    continue;
+                }
+                if (count == null) {
+                    if (this.walkedp < this.sizep) {
+                        this.refsp.put(this.walkedp, ref.getNumber());
+                        this.inheritedp[this.walkedp] = (PdfDictionary)node[2];
+                    }
+                    ++this.walkedp;
+                }
+                else {
+                    final int acn = count.type() == PdfObject.NUMBER ? ((PdfNumber)count).intValue() : 0;
+                    if (this.walkedp + acn <= n) {
+                        this.walkedp += acn;
+                    }
+                    else {
+                        pushWalkNode(dic, (PdfDictionary)node[2]);
+                    }
+                }
+                this.reader.lastXrefPartial = last;
+                this.reader.releaseLastXrefPartial();
+            }
+        }
+
+        private void pushWalkNode(final PdfDictionary nodePages, final PdfDictionary parentInh) {
+            final PdfArray kids = (PdfArray)PdfReader.getPdfObjectRelease(nodePages.get(PdfName.KIDS));
+            if (kids == null) {
+                return;
+            }
+            PdfDictionary inh = parentInh;
+            for (final PdfName pageInhCandidate : pageInhCandidates) {
+                final PdfObject obj = nodePages.get(pageInhCandidate);
+                if (obj != null) {
+                    if (inh == parentInh) {
+                        inh = new PdfDictionary();
+                        inh.putAll(parentInh);
+                    }
+                    inh.put(pageInhCandidate, obj);
+                }
+            }
+            this.walkp.add(new Object[] { kids, new int[1], inh });
+        }
+
         private PRIndirectReference getSinglePage(final int n) {
             final PdfDictionary acc = new PdfDictionary();
             PdfDictionary top = this.reader.rootPages;
@@ -3388,6 +3442,9 @@ public class PdfReader implements PdfViewerPreferences {
                     if (n < base + acn) {
                         if (count == null) {
                             dic.mergeDifferent(acc);
+                            if (n < this.inheritedp.length) {
+                                this.inheritedp[n] = acc;
+                            }
                             return ref;
                         }
                         this.reader.releaseLastXrefPartial();
@@ -133,7 +133,7 @@ public class PdfSignatureAppearance {
     private PdfStamper stamper;
     private boolean preClosed = false;
     private PdfSigGenericPKCS sigStandard;
-    private int range[];
+    private long range[];
     private RandomAccessFile raf;
     private byte bout[];
     private int boutLen;
@@ -1025,13 +1025,13 @@ public class PdfSignatureAppearance {
 
         this.writer.close(this.stamper.getMoreInfo(), globalDate!=null ? globalDate : new GregorianCalendar());
 
-        this.range = new int[this.exclusionLocations.size() * 2];
-        final int byteRangePosition = ((PdfLiteral)this.exclusionLocations.get(PdfName.BYTERANGE)).getPosition();
+        this.range = new long[this.exclusionLocations.size() * 2];
+        final long byteRangePosition = ((PdfLiteral)this.exclusionLocations.get(PdfName.BYTERANGE)).getPosition();
         this.exclusionLocations.remove(PdfName.BYTERANGE);
         int idx = 1;
         for (final Iterator it = this.exclusionLocations.values().iterator(); it.hasNext();) {
             final PdfLiteral lit = (PdfLiteral)it.next();
-            final int n = lit.getPosition();
+            final long n = lit.getPosition();
             this.range[idx++] = n;
             this.range[idx++] = lit.getPosLength() + n;
         }
@@ -1046,20 +1046,20 @@ public class PdfSignatureAppearance {
             this.range[this.range.length - 1] = this.boutLen - this.range[this.range.length - 2];
             final ByteBuffer bf = new ByteBuffer();
             bf.append('[');
-            for (final int element : this.range) {
+            for (final long element : this.range) {
 				bf.append(element).append(' ');
 			}
             bf.append(']');
-            System.arraycopy(bf.getBuffer(), 0, this.bout, byteRangePosition, bf.size());
+            System.arraycopy(bf.getBuffer(), 0, this.bout, (int)byteRangePosition, bf.size());
         }
         else {
             try {
                 this.raf = new RandomAccessFile(this.tempFile, "rw"); //$NON-NLS-1$
-                final int boutLen = (int)this.raf.length();
+                final long boutLen = this.raf.length();
                 this.range[this.range.length - 1] = boutLen - this.range[this.range.length - 2];
                 final ByteBuffer bf = new ByteBuffer();
                 bf.append('[');
-                for (final int element : this.range) {
+                for (final long element : this.range) {
 					bf.append(element).append(' ');
 				}
                 bf.append(']');
@@ -1104,7 +1104,7 @@ public class PdfSignatureAppearance {
 					throw new IllegalArgumentException("The key " + key.toString() + " is too big. Is " + bf.size() + ", reserved " + lit.getPosLength()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 				}
                 if (this.tempFile == null) {
-					System.arraycopy(bf.getBuffer(), 0, this.bout, lit.getPosition(), bf.size());
+					System.arraycopy(bf.getBuffer(), 0, this.bout, (int)lit.getPosition(), bf.size());
 				} else {
                     this.raf.seek(lit.getPosition());
                     this.raf.write(bf.getBuffer(), 0, bf.size());
@@ -1119,10 +1119,10 @@ public class PdfSignatureAppearance {
             else {
                 if (this.originalout != null) {
                     this.raf.seek(0);
-                    int length = (int)this.raf.length();
+                    long length = this.raf.length();
                     final byte buf[] = new byte[8192];
                     while (length > 0) {
-                        final int r = this.raf.read(buf, 0, Math.min(buf.length, length));
+                        final int r = this.raf.read(buf, 0, (int)Math.min(buf.length, length));
                         if (r < 0) {
 							throw new EOFException("Unexpected EOF"); //$NON-NLS-1$
 						}
@@ -1434,10 +1434,10 @@ public class PdfSignatureAppearance {
         private final byte b[] = new byte[1];
         private final RandomAccessFile raf;
         private final byte bout[];
-        private final int range[];
-        private int rangePosition = 0;
+        private final long range[];
+        private long rangePosition = 0;
 
-        private RangeStream(final RandomAccessFile raf, final byte bout[], final int range[]) {
+        private RangeStream(final RandomAccessFile raf, final byte bout[], final long range[]) {
             this.raf = raf;
             this.bout = bout;
             this.range = range;
@@ -1472,15 +1472,15 @@ public class PdfSignatureAppearance {
                 return -1;
             }
             for (int k = 0; k < this.range.length; k += 2) {
-                final int start = this.range[k];
-                final int end = start + this.range[k + 1];
+                final long start = this.range[k];
+                final long end = start + this.range[k + 1];
                 if (this.rangePosition < start) {
 					this.rangePosition = start;
 				}
                 if (this.rangePosition >= start && this.rangePosition < end) {
-                    final int lenf = Math.min(len, end - this.rangePosition);
+                    final int lenf = (int)Math.min(len, end - this.rangePosition);
                     if (this.raf == null) {
-						System.arraycopy(this.bout, this.rangePosition, b, off, lenf);
+						System.arraycopy(this.bout, (int)this.rangePosition, b, off, lenf);
 					} else {
                         this.raf.seek(this.rangePosition);
                         this.raf.readFully(b, off, lenf);
@@ -109,11 +109,28 @@ public class PdfStamper implements PdfViewerPreferences, PdfEncryptionSettings {
      * @param os the output stream
      * @param pdfVersion the new pdf version or '\0' to keep the same version as the original
      * document
-     * @param append if <CODE>true</CODE> appends the document changes as a new revision. This is
-     * only useful for multiple signatures as nothing is gained in speed or memory
+     * @param append if <CODE>true</CODE> appends the document changes as a new revision. The
+     * original bytes are copied unchanged and only the new and modified objects are written,
+     * so existing signatures remain valid
      * @throws DocumentException on error
      * @throws IOException on error. */
-    private PdfStamper(final PdfReader reader, final OutputStream os, final char pdfVersion, final boolean append, final Calendar globalDate) throws DocumentException, IOException {
+    public PdfStamper(final PdfReader reader, final OutputStream os, final char pdfVersion, final boolean append) throws DocumentException, IOException {
+        this(reader, os, pdfVersion, append, new GregorianCalendar());
+    }
+
+    /** Starts the process of adding extra content to an existing PDF
+     * document, possibly as a new revision.
+     * @param reader the original document. It cannot be reused
+     * @param os the output stream
+     * @param pdfVersion the new pdf version or '\0' to keep the same version as the original
+     * document
+     * @param append if <CODE>true</CODE> appends the document changes as a new revision. The
+     * original bytes are copied unchanged and only the new and modified objects are written,
+     * so existing signatures remain valid
+     * @param globalDate date used for the document info and metadata
+     * @throws DocumentException on error
+     * @throws IOException on error. */
+    public PdfStamper(final PdfReader reader, final OutputStream os, final char pdfVersion, final boolean append, final Calendar globalDate) throws DocumentException, IOException {
         this.stamper = new PdfStamperImp(reader, os, pdfVersion, append, globalDate);
     }
 
@@ -542,8 +559,8 @@ public class PdfStamper implements PdfViewerPreferences, PdfEncryptionSettings {
 				tempFile = File.createTempFile("pdf", null, tempFile); //$NON-NLS-1$
 			}
             final FileOutputStream fout = new FileOutputStream(tempFile);
-            stp = new PdfStamper(reader, fout, pdfVersion, append, globalDate);
-            stp.sigApp = new PdfSignatureAppearance(stp.stamper, globalDate);
+            stp = new PdfStamper(reader, fout, pdfVersion, append, gDate);
+            stp.sigApp = new PdfSignatureAppearance(stp.stamper, gDate);
             stp.sigApp.setTempFile(tempFile);
         }
         stp.sigApp.setOriginalout(os);
@@ -161,7 +161,7 @@ public class PdfWriter extends DocWriter implements
             private final int type;
 
             /**	Byte offset in the PDF file. */
-            private final int offset;
+            private final long offset;
 
             private final int refnum;
             /**	generation of the object. */
@@ -175,7 +175,7 @@ public class PdfWriter extends DocWriter implements
              * @param	generation	generation number of the object
              */
 
-            private PdfCrossReference(final int refnum, final int offset, final int generation) {
+            private PdfCrossReference(final int refnum, final long offset, final int generation) {
                 this.type = 0;
                 this.offset = offset;
                 this.refnum = refnum;
@@ -188,14 +188,14 @@ public class PdfWriter extends DocWriter implements
              * @param	offset		byte offset of the object
              */
 
-            private PdfCrossReference(final int refnum, final int offset) {
+            private PdfCrossReference(final int refnum, final long offset) {
                 this.type = 1;
                 this.offset = offset;
                 this.refnum = refnum;
                 this.generation = 0;
             }
 
-            private PdfCrossReference(final int type, final int refnum, final int offset, final int generation) {
+            private PdfCrossReference(final int type, final int refnum, final long offset, final int generation) {
                 this.type = type;
                 this.offset = offset;
                 this.refnum = refnum;
@@ -213,6 +213,10 @@ public class PdfWriter extends DocWriter implements
              */
 
             private void toPdf(final OutputStream os) throws IOException {
+                // A cross-reference table entry has room for 10 digits only
+                if (this.offset > MAX_TABLE_OFFSET) {
+                    throw new IOException("The offset " + this.offset + " does not fit in a cross-reference table; use full compression.");
+                }
                 final StringBuffer off = new StringBuffer("0000000000").append(this.offset);
                 off.delete(0, off.length() - 10);
                 final StringBuffer gen = new StringBuffer("00000").append(this.generation);
@@ -271,13 +275,16 @@ public class PdfWriter extends DocWriter implements
 
         private static final int OBJSINSTREAM = 200;
 
+        /** Largest offset of a cross-reference table entry. */
+        private static final long MAX_TABLE_OFFSET = 9999999999L;
+
         // membervariables
 
         /** array containing the cross-reference table of the normal objects. */
         private final TreeSet xrefs;
         private int refnum;
         /** the current byte position in the body. */
-        private int position;
+        private long position;
         private final PdfWriter writer;
         private ByteBuffer index;
         private ByteBuffer streamObjects;
@@ -436,7 +443,7 @@ public class PdfWriter extends DocWriter implements
          * @return		an offset
          */
 
-        int offset() {
+        long offset() {
             return this.position;
         }
 
@@ -461,7 +468,7 @@ public class PdfWriter extends DocWriter implements
          * @throws IOException
          */
 
-        void writeCrossReferenceTable(final OutputStream os, final PdfIndirectReference root, final PdfIndirectReference info, final PdfIndirectReference encryption, final PdfObject fileID, final int prevxref) throws IOException {
+        void writeCrossReferenceTable(final OutputStream os, final PdfIndirectReference root, final PdfIndirectReference info, final PdfIndirectReference encryption, final PdfObject fileID, final long prevxref) throws IOException {
             int refNumber = 0;
             if (this.writer.isFullCompression()) {
                 flushObjStm();
@@ -486,8 +493,8 @@ public class PdfWriter extends DocWriter implements
             sections.add(Integer.valueOf(first));
             sections.add(Integer.valueOf(len));
             if (this.writer.isFullCompression()) {
-                int mid = 4;
-                int mask = 0xff000000;
+                int mid = 8;
+                long mask = 0xff00000000000000L;
                 for (; mid > 1; --mid) {
                     if ((mask & this.position) != 0) {
 						break;
@@ -560,7 +567,7 @@ public class PdfWriter extends DocWriter implements
 
         // membervariables
 
-        private final int offset;
+        private final long offset;
 
         // constructors
 
@@ -576,7 +583,7 @@ public class PdfWriter extends DocWriter implements
          * @param prevxref
          */
 
-        PdfTrailer(final int size, final int offset, final PdfIndirectReference root, final PdfIndirectReference info, final PdfIndirectReference encryption, final PdfObject fileID, final int prevxref) {
+        PdfTrailer(final int size, final long offset, final PdfIndirectReference root, final PdfIndirectReference info, final PdfIndirectReference encryption, final PdfObject fileID, final long prevxref) {
             this.offset = offset;
             put(PdfName.SIZE, new PdfNumber(size));
             put(PdfName.ROOT, root);
@@ -1105,7 +1112,7 @@ public class PdfWriter extends DocWriter implements
 //	Open and Close methods + method that create the PDF
 
     /** A number referring to the previous Cross-Reference Table. */
-    protected int prevxref = 0;
+    protected long prevxref = 0;
 
     /**
      * Signals that the <CODE>Document</CODE> has been opened and that
@@ -2132,7 +2139,7 @@ public class PdfWriter extends DocWriter implements
      * the current size is needed.
      * @return the approximate size without fonts or templates
      */
-    public int getCurrentDocumentSize() {
+    public long getCurrentDocumentSize() {
         return this.body.offset() + this.body.size() * 20 + 0x48;
     }
 
@@ -79,7 +79,7 @@ public class RandomAccessFileOrArray implements DataInput {
     private boolean isBack = false;
 
     /** Holds value of property startOffset. */
-    private int startOffset = 0;
+    private long startOffset = 0;
 
     public RandomAccessFileOrArray(final String filename) throws IOException {
     	this(filename, false, Document.plainRandomAccess);
@@ -265,20 +265,16 @@ public class RandomAccessFileOrArray implements DataInput {
                 adj = 1;
             }
         }
-        int pos;
-        int len;
-        int newpos;
-
-        pos = getFilePointer();
-        len = length();
-        newpos = pos + n;
+        final long pos = getFilePointer();
+        final long len = length();
+        long newpos = pos + n;
         if (newpos > len) {
             newpos = len;
         }
         seek(newpos);
 
         /* return the actual number of bytes skipped */
-        return newpos - pos + adj;
+        return (int)(newpos - pos) + adj;
     }
 
     public void reOpen() throws IOException {
@@ -318,16 +314,28 @@ public class RandomAccessFileOrArray implements DataInput {
         }
     }
 
-    public int length() throws IOException {
+    /** Gets the length of the data. Files larger than 2 GB are supported.
+     * @return the length in bytes
+     * @throws IOException on error
+     */
+    public long length() throws IOException {
         if (this.arrayIn == null) {
             insureOpen();
-            return (int)(this.plainRandomAccess ? this.trf.length() : this.rf.length()) - this.startOffset;
+            return (this.plainRandomAccess ? this.trf.length() : this.rf.length()) - this.startOffset;
         } else {
 			return this.arrayIn.length - this.startOffset;
 		}
     }
 
-    public void seek(int pos) throws IOException {
+    public void seek(final int pos) throws IOException {
+        seek((long)pos);
+    }
+
+    /** Sets the read position. Files larger than 2 GB are supported.
+     * @param pos the position, from the start offset
+     * @throws IOException on error
+     */
+    public void seek(long pos) throws IOException {
         pos += this.startOffset;
         this.isBack = false;
         if (this.arrayIn == null) {
@@ -338,19 +346,19 @@ public class RandomAccessFileOrArray implements DataInput {
 				this.rf.seek(pos);
 			}
         } else {
-			this.arrayInPtr = pos;
+			this.arrayInPtr = (int)Math.min(pos, this.arrayIn.length);
 		}
     }
 
-    public void seek(final long pos) throws IOException {
-        seek((int)pos);
-    }
-
-    public int getFilePointer() throws IOException {
+    /** Gets the read position. Files larger than 2 GB are supported.
+     * @return the position, from the start offset
+     * @throws IOException on error
+     */
+    public long getFilePointer() throws IOException {
         insureOpen();
         final int n = this.isBack ? 1 : 0;
         if (this.arrayIn == null) {
-            return (int)(this.plainRandomAccess ? this.trf.getFilePointer() : this.rf.getFilePointer()) - n - this.startOffset;
+            return (this.plainRandomAccess ? this.trf.getFilePointer() : this.rf.getFilePointer()) - n - this.startOffset;
         } else {
 			return this.arrayInPtr - n - this.startOffset;
 		}
@@ -604,7 +612,7 @@ public class RandomAccessFileOrArray implements DataInput {
                     break;
                 case '\r':
                     eol = true;
-                    final int cur = getFilePointer();
+                    final long cur = getFilePointer();
                     if (read() != '\n') {
                         seek(cur);
                     }
@@ -630,7 +638,7 @@ public class RandomAccessFileOrArray implements DataInput {
      * @return Value of property startOffset.
      *
      */
-    public int getStartOffset() {
+    public long getStartOffset() {
         return this.startOffset;
     }
 
@@ -638,7 +646,7 @@ public class RandomAccessFileOrArray implements DataInput {
      * @param startOffset New value of property startOffset.
      *
      */
-    public void setStartOffset(final int startOffset) {
+    public void setStartOffset(final long startOffset) {
         this.startOffset = startOffset;
     }
 
@@ -0,0 +1,295 @@
+package com.aowagie.text.pdf;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Hashes the byte ranges of several signatures reading the document only once.
+ * <P>
+ * In a document with incremental signatures each signature covers almost all the
+ * bytes covered by the previous one, so hashing each <CODE>/ByteRange</CODE> on its
+ * own reads and hashes the start of the document once per signature. Here the
+ * boundaries of all the byte ranges are sorted and the document is read once, from
+ * boundary to boundary. The signatures that have hashed the same bytes so far share
+ * a digest, which is cloned when some of them skip the next bytes and the others
+ * don't.
+ * <P>
+ * Signatures computed directly over the data, or whose digest can't be cloned, are
+ * hashed on their own in the same pass. Byte ranges that are not in ascending order
+ * are hashed on their own after the pass.
+ */
+final class SignatureDigester {
+
+    private static final int BUFFER_SIZE = 65536;
+
+    /** A signature and its byte ranges, as start and end pairs. */
+    private static final class Entry {
+        private final PdfPKCS7 pkcs7;
+        private final long ranges[];
+        /** Index of the first range not completely read. */
+        private int next;
+        private Group group;
+
+        private Entry(final PdfPKCS7 pkcs7, final long ranges[]) {
+            this.pkcs7 = pkcs7;
+            this.ranges = ranges;
+        }
+
+        private boolean includes(final long pos) {
+            return this.next < this.ranges.length && this.ranges[this.next] <= pos;
+        }
+    }
+
+    /**
+     * Signatures that have hashed the same bytes, and their digest. If the digest is
+     * <CODE>null</CODE> the group has a single signature, which is fed the bytes
+     * with {@link PdfPKCS7#update(byte[], int, int)}.
+     */
+    private static final class Group {
+        private final ArrayList entries = new ArrayList();
+        private final MessageDigest digest;
+
+        private Group(final MessageDigest digest) {
+            this.digest = digest;
+        }
+
+        private void add(final Entry entry) {
+            this.entries.add(entry);
+            entry.group = this;
+        }
+
+        private void update(final byte buf[], final int len) throws SignatureException {
+            if (this.digest != null) {
+                this.digest.update(buf, 0, len);
+            }
+            else {
+                ((Entry)this.entries.get(0)).pkcs7.update(buf, 0, len);
+            }
+        }
+    }
+
+    private final ArrayList entries = new ArrayList();
+    private final ArrayList irregular = new ArrayList();
+
+    /**
+     * Adds a signature to hash.
+     * @param pkcs7 the signature
+     * @param byteRange the <CODE>/ByteRange</CODE> of the signature
+     */
+    void add(final PdfPKCS7 pkcs7, final PdfArray byteRange) {
+        final long ranges[] = new long[byteRange.size() / 2 * 2];
+        boolean ascending = true;
+        long last = 0;
+        int n = 0;
+        for (int k = 0; k < ranges.length; k += 2) {
+            final long start = byteRange.getAsNumber(k).longValue();
+            final long length = byteRange.getAsNumber(k + 1).longValue();
+            if (start < 0 || start < last) {
+                ascending = false;
+            }
+            if (length > 0) {
+                ranges[n++] = start;
+                ranges[n++] = start + length;
+                last = start + length;
+            }
+        }
+        if (ascending) {
+            this.entries.add(new Entry(pkcs7, Arrays.copyOf(ranges, n)));
+        }
+        else {
+            this.irregular.add(new Object[]{pkcs7, byteRange});
+        }
+    }
+
+    /**
+     * Hashes the byte ranges of all the signatures added. Each signature gets the
+     * digest of its byte ranges, ready for {@link PdfPKCS7#verify()}.
+     * @param rf the document, already open
+     * @throws IOException on error
+     * @throws SignatureException on error
+     */
+    void digest(final RandomAccessFileOrArray rf) throws IOException, SignatureException {
+        final ArrayList groups = createGroups();
+
+        // Boundaries of all the ranges, sorted
+        int n = 0;
+        for (int k = 0; k < this.entries.size(); ++k) {
+            n += ((Entry)this.entries.get(k)).ranges.length;
+        }
+        long bounds[] = new long[n];
+        n = 0;
+        for (int k = 0; k < this.entries.size(); ++k) {
+            final long ranges[] = ((Entry)this.entries.get(k)).ranges;
+            System.arraycopy(ranges, 0, bounds, n, ranges.length);
+            n += ranges.length;
+        }
+        Arrays.sort(bounds);
+        n = 0;
+        for (int k = 0; k < bounds.length; ++k) {
+            if (n == 0 || bounds[k] != bounds[n - 1]) {
+                bounds[n++] = bounds[k];
+            }
+        }
+        bounds = Arrays.copyOf(bounds, n);
+
+        final byte buf[] = new byte[BUFFER_SIZE];
+        final ArrayList reading = new ArrayList();
+        final ArrayList skipping = new ArrayList();
+        long pos = -1;
+        boolean eof = false;
+        for (int b = 0; b + 1 < bounds.length; ++b) {
+            final long start = bounds[b];
+            final long end = bounds[b + 1];
+
+            // Split the groups between the signatures that read these bytes and those that don't
+            reading.clear();
+            final int ng = groups.size();
+            for (int g = 0; g < ng; ++g) {
+                final Group group = (Group)groups.get(g);
+                skipping.clear();
+                for (int k = 0; k < group.entries.size(); ++k) {
+                    final Entry entry = (Entry)group.entries.get(k);
+                    if (!entry.includes(start)) {
+                        skipping.add(entry);
+                    }
+                }
+                if (skipping.size() == group.entries.size()) {
+                    continue;
+                }
+                if (!skipping.isEmpty()) {
+                    final Group fork = new Group(cloneDigest(group.digest));
+                    for (int k = 0; k < skipping.size(); ++k) {
+                        group.entries.remove(skipping.get(k));
+                        fork.add((Entry)skipping.get(k));
+                    }
+                    groups.add(fork);
+                }
+                reading.add(group);
+            }
+
+            if (!reading.isEmpty() && !eof) {
+                if (pos != start) {
+                    rf.seek(start);
+                }
+                long remaining = end - start;
+                while (remaining > 0) {
+                    final int rd = rf.read(buf, 0, (int)Math.min(remaining, buf.length));
+                    if (rd <= 0) {
+                        // Truncated document: the digests won't match
+                        eof = true;
+                        break;
+                    }
+                    for (int g = 0; g < reading.size(); ++g) {
+                        ((Group)reading.get(g)).update(buf, rd);
+                    }
+                    remaining -= rd;
+                }
+                pos = end;
+            }
+
+            // Finish the signatures whose ranges have all been read
+            for (int g = 0; g < groups.size(); ++g) {
+                final Group group = (Group)groups.get(g);
+                for (int k = group.entries.size() - 1; k >= 0; --k) {
+                    final Entry entry = (Entry)group.entries.get(k);
+                    while (entry.next < entry.ranges.length && entry.ranges[entry.next + 1] <= end) {
+                        entry.next += 2;
+                    }
+                    if (entry.next == entry.ranges.length) {
+                        group.entries.remove(k);
+                        finish(entry, group);
+                    }
+                }
+                if (group.entries.isEmpty()) {
+                    groups.remove(g--);
+                }
+            }
+        }
+
+        // Signatures with no bytes to hash
+        for (int g = 0; g < groups.size(); ++g) {
+            final Group group = (Group)groups.get(g);
+            while (!group.entries.isEmpty()) {
+                finish((Entry)group.entries.remove(group.entries.size() - 1), group);
+            }
+        }
+
+        for (int k = 0; k < this.irregular.size(); ++k) {
+            final Object o[] = (Object[])this.irregular.get(k);
+            updateByteRange((PdfPKCS7)o[0], (PdfArray)o[1], rf, buf);
+        }
+    }
+
+    /**
+     * Puts each signature in the group of the signatures with the same digest algorithm,
+     * or alone if it can't share its digest.
+     * @return the groups
+     */
+    private ArrayList createGroups() {
+        final ArrayList groups = new ArrayList();
+        final HashMap shared = new HashMap();
+        for (int k = 0; k < this.entries.size(); ++k) {
+            final Entry entry = (Entry)this.entries.get(k);
+            final MessageDigest digest = entry.pkcs7.getDocumentMessageDigest();
+            if (digest == null || cloneDigest(digest) == null) {
+                final Group group = new Group(digest);
+                group.add(entry);
+                groups.add(group);
+                continue;
+            }
+            final String key = digest.getAlgorithm() + '/' + digest.getProvider().getName();
+            Group group = (Group)shared.get(key);
+            if (group == null) {
+                group = new Group(digest);
+                shared.put(key, group);
+                groups.add(group);
+            }
+            group.add(entry);
+        }
+        return groups;
+    }
+
+    private static void finish(final Entry entry, final Group group) {
+        if (group.digest == null) {
+            return;
+        }
+        if (group.entries.isEmpty()) {
+            entry.pkcs7.setDocumentDigest(group.digest.digest());
+        }
+        else {
+            entry.pkcs7.setDocumentDigest(cloneDigest(group.digest).digest());
+        }
+    }
+
+    private static MessageDigest cloneDigest(final MessageDigest digest) {
+        try {
+            return (MessageDigest)digest.clone();
+        }
+        catch (final CloneNotSupportedException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Hashes a <CODE>/ByteRange</CODE> on its own, in the order given.
+     */
+    private static void updateByteRange(final PdfPKCS7 pkcs7, final PdfArray b, final RandomAccessFileOrArray rf, final byte buf[]) throws IOException, SignatureException {
+        for (int k = 0; k < b.size(); ++k) {
+            final long start = b.getAsNumber(k).longValue();
+            long length = b.getAsNumber(++k).longValue();
+            rf.seek(start);
+            while (length > 0) {
+                final int rd = rf.read(buf, 0, (int)Math.min(length, buf.length));
+                if (rd <= 0) {
+                    break;
+                }
+                length -= rd;
+                pkcs7.update(buf, 0, rd);
+            }
+        }
+    }
+}
@@ -0,0 +1,562 @@
+package com.aowagie.text.pdf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decodes the content of a stream as it is read.
+ * <P>
+ * Each filter of the stream is an <CODE>InputStream</CODE> reading from the previous
+ * one, the first one reading the bytes of the stream from the document, so a stream
+ * can be decoded into a sink with a few small buffers, whatever its size. The
+ * <CODE>Inflater</CODE>s of the <CODE>/FlateDecode</CODE> filter are pooled, as they
+ * hold native memory that is otherwise only released on finalization.
+ * <P>
+ * The decoders behave like the ones that decoded whole byte arrays. A corrupted
+ * <CODE>/FlateDecode</CODE> stream is decoded up to the first error: when the data
+ * read from the document is the input of the filter, it is read again to recover the
+ * bytes of the block that failed. Otherwise those bytes are lost. The
+ * <CODE>/LZWDecode</CODE> filter still decodes its whole input at once.
+ */
+final class StreamDecoder {
+
+    /** The size of the buffers of the decoders. */
+    static final int BUFFER_SIZE = 16384;
+
+    private static final int MAX_POOLED_INFLATERS = 16;
+
+    private static final ArrayList inflaters = new ArrayList();
+
+    private StreamDecoder() {
+    }
+
+    /**
+     * Copies the content of a stream to a sink.
+     * @param in the stream
+     * @param out the sink
+     * @throws IOException on error
+     */
+    static void copy(final InputStream in, final OutputStream out) throws IOException {
+        final byte buf[] = new byte[BUFFER_SIZE];
+        int n;
+        while ((n = in.read(buf)) >= 0) {
+            out.write(buf, 0, n);
+        }
+    }
+
+    private static Inflater getInflater() {
+        synchronized (inflaters) {
+            if (!inflaters.isEmpty()) {
+                return (Inflater)inflaters.remove(inflaters.size() - 1);
+            }
+        }
+        return new Inflater();
+    }
+
+    private static void releaseInflater(final Inflater inflater) {
+        inflater.reset();
+        synchronized (inflaters) {
+            if (inflaters.size() < MAX_POOLED_INFLATERS) {
+                inflaters.add(inflater);
+                return;
+            }
+        }
+        inflater.end();
+    }
+
+    /**
+     * A filter that decodes its input by blocks. Each call to {@link #decode()} appends
+     * the next decoded bytes to the buffer, which is read before decoding more.
+     */
+    abstract static class DecoderInputStream extends InputStream {
+        protected final InputStream in;
+        protected byte buf[] = new byte[BUFFER_SIZE];
+        protected int count;
+        private int pos;
+        private boolean eof;
+
+        DecoderInputStream(final InputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * Decodes the next bytes of the input into the buffer, which is empty.
+         * @return <CODE>false</CODE> if there are no more bytes to decode after the ones
+         * in the buffer
+         * @throws IOException on error
+         */
+        protected abstract boolean decode() throws IOException;
+
+        protected final void write(final int b) {
+            if (this.count == this.buf.length) {
+                grow(1);
+            }
+            this.buf[this.count++] = (byte)b;
+        }
+
+        protected final void write(final byte b[], final int off, final int len) {
+            if (this.count + len > this.buf.length) {
+                grow(len);
+            }
+            System.arraycopy(b, off, this.buf, this.count, len);
+            this.count += len;
+        }
+
+        private void grow(final int len) {
+            final byte b[] = new byte[Math.max(this.buf.length * 2, this.count + len)];
+            System.arraycopy(this.buf, 0, b, 0, this.count);
+            this.buf = b;
+        }
+
+        private boolean fill() throws IOException {
+            while (this.pos == this.count) {
+                if (this.eof) {
+                    return false;
+                }
+                this.pos = 0;
+                this.count = 0;
+                this.eof = !decode();
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return this.buf[this.pos++] & 0xff;
+        }
+
+        @Override
+        public int read(final byte b[], final int off, final int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            final int n = Math.min(len, this.count - this.pos);
+            System.arraycopy(this.buf, this.pos, b, off, n);
+            this.pos += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.in.close();
+        }
+    }
+
+    /**
+     * Reads a range of bytes of the document. The position in the document is set
+     * before each read, so the document can be used by others between reads.
+     */
+    static final class RangeInputStream extends InputStream {
+        private final RandomAccessFileOrArray file;
+        private final long end;
+        private long pos;
+        private long mark;
+
+        RangeInputStream(final RandomAccessFileOrArray file, final long offset, final long length) {
+            this.file = file;
+            this.pos = offset;
+            this.mark = offset;
+            this.end = offset + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte b[] = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(final byte b[], final int off, final int len) throws IOException {
+            if (this.pos >= this.end) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            this.file.seek(this.pos);
+            final int n = this.file.read(b, off, (int)Math.min(len, this.end - this.pos));
+            if (n <= 0) {
+                throw new EOFException();
+            }
+            this.pos += n;
+            return n;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(final int readlimit) {
+            this.mark = this.pos;
+        }
+
+        @Override
+        public synchronized void reset() {
+            this.pos = this.mark;
+        }
+
+        /** The document belongs to the reader and is left open. */
+        @Override
+        public void close() {
+        }
+    }
+
+    /** Decrypts the bytes of a stream. */
+    static final class DecryptInputStream extends DecoderInputStream {
+        private final StandardDecryption decryptor;
+        private final byte input[] = new byte[BUFFER_SIZE];
+
+        DecryptInputStream(final InputStream in, final StandardDecryption decryptor) {
+            super(in);
+            this.decryptor = decryptor;
+        }
+
+        @Override
+        protected boolean decode() throws IOException {
+            final int n = this.in.read(this.input);
+            final byte b[] = n < 0 ? this.decryptor.finish() : this.decryptor.update(this.input, 0, n);
+            if (b != null) {
+                write(b, 0, b.length);
+            }
+            return n >= 0;
+        }
+    }
+
+    /** Decodes the <CODE>/FlateDecode</CODE> filter. */
+    static final class FlateInputStream extends DecoderInputStream {
+        private Inflater inflater = getInflater();
+        private final byte input[] = new byte[BUFFER_SIZE];
+        private long produced;
+
+        FlateInputStream(final InputStream in) {
+            super(in);
+            if (in.markSupported()) {
+                in.mark(Integer.MAX_VALUE);
+            }
+        }
+
+        @Override
+        protected boolean decode() throws IOException {
+            while (true) {
+                if (this.inflater.finished() || this.inflater.needsDictionary()) {
+                    return false;
+                }
+                if (this.inflater.needsInput()) {
+                    final int n = this.in.read(this.input);
+                    if (n < 0) {
+                        // Truncated stream: keep what was decoded
+                        return false;
+                    }
+                    this.inflater.setInput(this.input, 0, n);
+                }
+                final int n;
+                try {
+                    n = this.inflater.inflate(this.buf, 0, this.buf.length);
+                }
+                catch (final DataFormatException e) {
+                    recover();
+                    return false;
+                }
+                if (n > 0) {
+                    this.count = n;
+                    this.produced += n;
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Decodes again the input one byte at a time, to get the bytes decoded
+         * before the error in the block that failed.
+         */
+        private void recover() throws IOException {
+            if (!this.in.markSupported()) {
+                return;
+            }
+            this.in.reset();
+            this.inflater.reset();
+            long skip = this.produced;
+            final byte b[] = new byte[1];
+            try {
+                while (!this.inflater.finished() && !this.inflater.needsDictionary()) {
+                    if (this.inflater.needsInput()) {
+                        final int n = this.in.read(this.input);
+                        if (n < 0) {
+                            return;
+                        }
+                        this.inflater.setInput(this.input, 0, n);
+                    }
+                    if (this.inflater.inflate(b, 0, 1) == 1) {
+                        if (skip > 0) {
+                            --skip;
+                        }
+                        else {
+                            write(b[0]);
+                        }
+                    }
+                }
+            }
+            catch (final DataFormatException e) {
+                // The bytes before the error have been written
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.inflater != null) {
+                releaseInflater(this.inflater);
+                this.inflater = null;
+            }
+            super.close();
+        }
+    }
+
+    /** Decodes the PNG predictors of the <CODE>/FlateDecode</CODE> and <CODE>/LZWDecode</CODE> filters. */
+    static final class PredictorInputStream extends DecoderInputStream {
+        private final int bytesPerPixel;
+        private final int bytesPerRow;
+        private byte curr[];
+        private byte prior[];
+
+        PredictorInputStream(final InputStream in, final int width, final int colors, final int bpc) {
+            super(in);
+            this.bytesPerPixel = colors * bpc / 8;
+            this.bytesPerRow = (colors*width*bpc + 7)/8;
+            this.curr = new byte[this.bytesPerRow];
+            this.prior = new byte[this.bytesPerRow];
+        }
+
+        @Override
+        protected boolean decode() throws IOException {
+            // Read the filter type byte and a row of data
+            final int filter = this.in.read();
+            if (filter < 0) {
+                return false;
+            }
+            int off = 0;
+            while (off < this.bytesPerRow) {
+                final int n = this.in.read(this.curr, off, this.bytesPerRow - off);
+                if (n < 0) {
+                    // Incomplete row
+                    return false;
+                }
+                off += n;
+            }
+            final byte curr[] = this.curr;
+            final byte prior[] = this.prior;
+            switch (filter) {
+                case 0: //PNG_FILTER_NONE
+                    break;
+                case 1: //PNG_FILTER_SUB
+                    for (int i = this.bytesPerPixel; i < this.bytesPerRow; i++) {
+                        curr[i] += curr[i - this.bytesPerPixel];
+                    }
+                    break;
+                case 2: //PNG_FILTER_UP
+                    for (int i = 0; i < this.bytesPerRow; i++) {
+                        curr[i] += prior[i];
+                    }
+                    break;
+                case 3: //PNG_FILTER_AVERAGE
+                    for (int i = 0; i < this.bytesPerPixel; i++) {
+                        curr[i] += (prior[i] & 0xff) / 2;
+                    }
+                    for (int i = this.bytesPerPixel; i < this.bytesPerRow; i++) {
+                        curr[i] += ((curr[i - this.bytesPerPixel] & 0xff) + (prior[i] & 0xff))/2;
+                    }
+                    break;
+                case 4: //PNG_FILTER_PAETH
+                    for (int i = 0; i < this.bytesPerPixel; i++) {
+                        curr[i] += prior[i];
+                    }
+                    for (int i = this.bytesPerPixel; i < this.bytesPerRow; i++) {
+                        final int a = curr[i - this.bytesPerPixel] & 0xff;
+                        final int b = prior[i] & 0xff;
+                        final int c = prior[i - this.bytesPerPixel] & 0xff;
+
+                        final int p = a + b - c;
+                        final int pa = Math.abs(p - a);
+                        final int pb = Math.abs(p - b);
+                        final int pc = Math.abs(p - c);
+
+                        int ret;
+
+                        if (pa <= pb && pa <= pc) {
+                            ret = a;
+                        } else if (pb <= pc) {
+                            ret = b;
+                        } else {
+                            ret = c;
+                        }
+                        curr[i] += (byte)ret;
+                    }
+                    break;
+                default:
+                    // Error -- unknown filter type
+                    throw new RuntimeException("PNG filter unknown."); //$NON-NLS-1$
+            }
+            write(curr, 0, this.bytesPerRow);
+
+            // Swap curr and prior
+            this.prior = curr;
+            this.curr = prior;
+            return true;
+        }
+    }
+
+    /** Decodes the <CODE>/ASCIIHexDecode</CODE> filter. */
+    static final class ASCIIHexInputStream extends DecoderInputStream {
+        private final byte input[] = new byte[BUFFER_SIZE];
+        private boolean first = true;
+        private int n1 = 0;
+
+        ASCIIHexInputStream(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        protected boolean decode() throws IOException {
+            final int len = this.in.read(this.input);
+            if (len < 0) {
+                return end();
+            }
+            for (int k = 0; k < len; ++k) {
+                final int ch = this.input[k] & 0xff;
+                if (ch == '>') {
+                    return end();
+                }
+                if (PRTokeniser.isWhitespace(ch)) {
+                    continue;
+                }
+                final int n = PRTokeniser.getHex(ch);
+                if (n == -1) {
+                    throw new RuntimeException("Illegal character in ASCIIHexDecode."); //$NON-NLS-1$
+                }
+                if (this.first) {
+                    this.n1 = n;
+                } else {
+                    write((byte)((this.n1 << 4) + n));
+                }
+                this.first = !this.first;
+            }
+            return true;
+        }
+
+        private boolean end() {
+            if (!this.first) {
+                write((byte)(this.n1 << 4));
+            }
+            return false;
+        }
+    }
+
+    /** Decodes the <CODE>/ASCII85Decode</CODE> filter. */
+    static final class ASCII85InputStream extends DecoderInputStream {
+        private final byte input[] = new byte[BUFFER_SIZE];
+        private int state = 0;
+        private final int chn[] = new int[5];
+
+        ASCII85InputStream(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        protected boolean decode() throws IOException {
+            final int len = this.in.read(this.input);
+            if (len < 0) {
+                return end();
+            }
+            for (int k = 0; k < len; ++k) {
+                final int ch = this.input[k] & 0xff;
+                if (ch == '~') {
+                    return end();
+                }
+                if (PRTokeniser.isWhitespace(ch)) {
+                    continue;
+                }
+                if (ch == 'z' && this.state == 0) {
+                    write(0);
+                    write(0);
+                    write(0);
+                    write(0);
+                    continue;
+                }
+                if (ch < '!' || ch > 'u') {
+                    throw new RuntimeException("Illegal character in ASCII85Decode."); //$NON-NLS-1$
+                }
+                this.chn[this.state] = ch - '!';
+                ++this.state;
+                if (this.state == 5) {
+                    this.state = 0;
+                    int r = 0;
+                    for (int j = 0; j < 5; ++j) {
+                        r = r * 85 + this.chn[j];
+                    }
+                    write((byte)(r >> 24));
+                    write((byte)(r >> 16));
+                    write((byte)(r >> 8));
+                    write((byte)r);
+                }
+            }
+            return true;
+        }
+
+        private boolean end() {
+            final int chn[] = this.chn;
+            int r = 0;
+            // We'll ignore the next two lines for the sake of perpetuating broken PDFs
+//            if (state == 1)
+//                throw new RuntimeException("Illegal length in ASCII85Decode.");
+            if (this.state == 2) {
+                r = chn[0] * 85 * 85 * 85 * 85 + chn[1] * 85 * 85 * 85 + 85 * 85 * 85  + 85 * 85 + 85;
+                write((byte)(r >> 24));
+            }
+            else if (this.state == 3) {
+                r = chn[0] * 85 * 85 * 85 * 85 + chn[1] * 85 * 85 * 85  + chn[2] * 85 * 85 + 85 * 85 + 85;
+                write((byte)(r >> 24));
+                write((byte)(r >> 16));
+            }
+            else if (this.state == 4) {
+                r = chn[0] * 85 * 85 * 85 * 85 + chn[1] * 85 * 85 * 85  + chn[2] * 85 * 85  + chn[3] * 85 + 85;
+                write((byte)(r >> 24));
+                write((byte)(r >> 16));
+                write((byte)(r >> 8));
+            }
+            this.state = 0;
+            return false;
+        }
+    }
+
+    /** Decodes the <CODE>/LZWDecode</CODE> filter, reading the whole input first. */
+    static final class LZWInputStream extends DecoderInputStream {
+
+        LZWInputStream(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        protected boolean decode() throws IOException {
+            final ByteArrayOutputStream data = new ByteArrayOutputStream();
+            copy(this.in, data);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            new LZWDecoder().decode(data.toByteArray(), out);
+            this.buf = out.toByteArray();
+            this.count = this.buf.length;
+            return false;
+        }
+    }
+}
@@ -561,7 +561,7 @@ class TrueTypeFont extends BaseFont {
             final int length = this.rf.readUnsignedShort();
             final int offset = this.rf.readUnsignedShort();
             if (nameID == id) {
-                final int pos = this.rf.getFilePointer();
+                final int pos = (int)this.rf.getFilePointer();
                 this.rf.seek(table_location[0] + startOfStorage + offset);
                 String name;
                 if (platformID == 0 || platformID == 3 || platformID == 2 && platformEncodingID == 1){
@@ -603,7 +603,7 @@ class TrueTypeFont extends BaseFont {
             final int nameID = this.rf.readUnsignedShort();
             final int length = this.rf.readUnsignedShort();
             final int offset = this.rf.readUnsignedShort();
-            final int pos = this.rf.getFilePointer();
+            final int pos = (int)this.rf.getFilePointer();
             this.rf.seek(table_location[0] + startOfStorage + offset);
             String name;
             if (platformID == 0 || platformID == 3 || platformID == 2 && platformEncodingID == 1){
@@ -1199,7 +1199,7 @@ class TrueTypeFont extends BaseFont {
         try {
             rf2 = new RandomAccessFileOrArray(this.rf);
             rf2.reOpen();
-            final byte b[] = new byte[rf2.length()];
+            final byte b[] = new byte[(int)rf2.length()];
             rf2.readFully(b);
             return b;
         }
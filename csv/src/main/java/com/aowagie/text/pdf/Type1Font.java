@@ -540,7 +540,7 @@ class Type1Font extends BaseFont
 			} else {
 				rf = new RandomAccessFileOrArray(this.pfb);
 			}
-            final int fileLength = rf.length();
+            final int fileLength = (int)rf.length();
             final byte st[] = new byte[fileLength - 18];
             final int lengths[] = new int[3];
             int bytePtr = 0;
@@ -241,7 +241,7 @@ class JBIG2SegmentReader {
 	}
 
 	private void readSegment(final JBIG2Segment s) throws IOException {
-		final int ptr = this.ra.getFilePointer();
+		final int ptr = (int)this.ra.getFilePointer();
 
 		if ( s.dataLength == 0xffffffffl ) {
 			// TODO figure this bit out, 7.2.7
@@ -253,7 +253,7 @@ class JBIG2SegmentReader {
 		s.data = data;
 
 		if ( s.type == PAGE_INFORMATION ) {
-			final int last = this.ra.getFilePointer();
+			final int last = (int)this.ra.getFilePointer();
 			this.ra.seek(ptr);
 			final int page_bitmap_width = this.ra.readInt();
 			final int page_bitmap_height = this.ra.readInt();
@@ -269,7 +269,7 @@ class JBIG2SegmentReader {
 	}
 
 	private JBIG2Segment readHeader() throws IOException {
-		final int ptr = this.ra.getFilePointer();
+		final int ptr = (int)this.ra.getFilePointer();
 		// 7.2.1
 		final int segment_number = this.ra.readInt();
 		final JBIG2Segment s = new JBIG2Segment(segment_number);
@@ -333,7 +333,7 @@ class JBIG2SegmentReader {
 
 		// 7.2.6
 		int segment_page_association;
-		final int page_association_offset = this.ra.getFilePointer() - ptr;
+		final int page_association_offset = (int)this.ra.getFilePointer() - ptr;
 		if ( page_association_size ) {
 			segment_page_association = this.ra.readInt();
 		} else {
@@ -361,7 +361,7 @@ class JBIG2SegmentReader {
 		// TODO the 0xffffffff value that might be here, and how to understand those afflicted segments
 		s.dataLength = segment_data_length;
 
-		final int end_ptr = this.ra.getFilePointer();
+		final int end_ptr = (int)this.ra.getFilePointer();
 		this.ra.seek(ptr);
 		final byte[] header_data = new byte[end_ptr - ptr];
 		this.ra.read(header_data);
@@ -0,0 +1,463 @@
+package es.ciemat.csv;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import es.ciemat.csv.PdfExtraUtil.PdfId;
+
+/** Almacenador de CSV que mantiene en cach&eacute; los PDF con CSV recuperados de otro
+ * almacenador.
+ * Los documentos almacenados no cambian nunca, por lo que no es necesario invalidar la
+ * cach&eacute;: las entradas solo se descartan por caducidad o por falta de espacio. La
+ * cach&eacute; en memoria est&aacute; acotada en octetos y descarta los documentos menos
+ * usados recientemente. Si se configura un directorio de cach&eacute; en disco, los documentos
+ * descartados de memoria pasan a ficheros proyectados en memoria, fuera del mont&iacute;culo
+ * de Java, con su propio l&iacute;mite de tama&ntilde;o.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class CachingCsvStorer implements CsvStorer {
+
+	private static final Logger LOGGER = Logger.getLogger(CachingCsvStorer.class.getName());
+
+	private static final String DISK_PREFIX = "csvcache_"; //$NON-NLS-1$
+	private static final String DISK_SUFFIX = ".pdf"; //$NON-NLS-1$
+
+	private final CsvStorer delegate;
+	private final long maxBytes;
+	private final long maxEntryBytes;
+	private final long ttl;
+	private final Path diskDir;
+	private final long maxDiskBytes;
+
+	/** Documentos en memoria, ordenados del menos al m&aacute;s recientemente usado. */
+	private final LinkedHashMap<String, CachedPdf> heap = new LinkedHashMap<>(16, 0.75f, true);
+
+	/** Documentos en ficheros proyectados en memoria, ordenados del menos al m&aacute;s recientemente usado. */
+	private final LinkedHashMap<String, CachedPdf> disk = new LinkedHashMap<>(16, 0.75f, true);
+
+	private long heapBytes = 0;
+	private long diskBytes = 0;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong diskHits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/** Construye el almacenador con la configuraci&oacute;n de <code>service.properties</code>. */
+	public CachingCsvStorer() {
+		this(
+			ServiceConfig.getCachedCsvStorer(),
+			ServiceConfig.getCacheSize(),
+			ServiceConfig.getCacheEntrySize(),
+			ServiceConfig.getCacheTtl(),
+			ServiceConfig.getCacheDiskDir(),
+			ServiceConfig.getCacheDiskSize()
+		);
+	}
+
+	/** Construye el almacenador.
+	 * @param storer Almacenador del que se obtienen los documentos.
+	 * @param cacheBytes Tama&ntilde;o m&aacute;ximo en octetos de la cach&eacute; en memoria.
+	 * @param entryBytes Tama&ntilde;o m&aacute;ximo en octetos de un documento para guardarse en cach&eacute;.
+	 * @param ttlMillis Tiempo en milisegundos durante el que se conserva un documento en cach&eacute;.
+	 * @param cacheDiskDir Directorio de la cach&eacute; en disco o <code>null</code> para no usarla.
+	 * @param cacheDiskBytes Tama&ntilde;o m&aacute;ximo en octetos de la cach&eacute; en disco. */
+	CachingCsvStorer(final CsvStorer storer,
+			         final long cacheBytes,
+			         final long entryBytes,
+			         final long ttlMillis,
+			         final Path cacheDiskDir,
+			         final long cacheDiskBytes) {
+		if (storer == null) {
+			throw new IllegalArgumentException(
+				"El almacenador de documentos no puede ser nulo" //$NON-NLS-1$
+			);
+		}
+		this.delegate = storer;
+		this.maxBytes = cacheBytes;
+		this.maxEntryBytes = Math.min(entryBytes, cacheBytes);
+		this.ttl = ttlMillis;
+		this.diskDir = cacheDiskDir;
+		this.maxDiskBytes = cacheDiskBytes;
+		CsvMetrics.setCache(this);
+		LOGGER.info("Creado el almacenador con cache: " + this); //$NON-NLS-1$
+	}
+
+	@Override
+	public String toString() {
+		return "Cache de " + this.maxBytes / 1024 + " KB" + //$NON-NLS-1$ //$NON-NLS-2$
+			(this.diskDir != null ? " (y " + this.maxDiskBytes / 1024 + " KB en '" + this.diskDir + "')" : "") + //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+				" sobre " + this.delegate; //$NON-NLS-1$
+	}
+
+	@Override
+	public void storePdfWithCsv(final PdfId pdfWithCsv,
+			                    final byte[] pdfWithSignatures) throws CsvStorerException {
+		this.delegate.storePdfWithCsv(pdfWithCsv, pdfWithSignatures);
+	}
+
+	@Override
+	public void storePdfWithCsv(final PdfId pdfWithCsv,
+			                    final Path pdfWithSignatures) throws CsvStorerException {
+		this.delegate.storePdfWithCsv(pdfWithCsv, pdfWithSignatures);
+	}
+
+	@Override
+	public byte[] retrievePdfWithCsv(final PdfId pdfId) throws CsvStorerException, CsvFileNotFoundException {
+		final String id = getId(pdfId);
+		final CachedPdf cached = lookup(id);
+		if (cached != null) {
+			return cached.getBytes();
+		}
+		final byte[] pdf = this.delegate.retrievePdfWithCsv(new PdfId(id));
+		if (pdf != null) {
+			put(id, pdf);
+		}
+		return pdf;
+	}
+
+	@Override
+	public void retrievePdfWithCsv(final PdfId pdfId,
+			                       final OutputStream out) throws CsvStorerException, CsvFileNotFoundException {
+		final String id = getId(pdfId);
+		final CachedPdf cached = lookup(id);
+		if (cached != null) {
+			try {
+				cached.writeTo(out);
+			}
+			catch (final IOException e) {
+				throw new CsvStorerException(
+					"No se ha podido enviar el documento con identificador '" + id + "' desde la cache: " + e, e //$NON-NLS-1$ //$NON-NLS-2$
+				);
+			}
+			return;
+		}
+		// Se envia el documento segun se recibe, guardando a la vez una copia si cabe en cache
+		final CopyingOutputStream copy = new CopyingOutputStream(out, this.maxEntryBytes);
+		this.delegate.retrievePdfWithCsv(new PdfId(id), copy);
+		final byte[] pdf = copy.getCopy();
+		if (pdf != null) {
+			put(id, pdf);
+		}
+	}
+
+	@Override
+	public boolean exists(final PdfId pdfId) throws CsvStorerException {
+		final String id = getId(pdfId);
+		// Los documentos no se borran nunca, asi que basta con que hayan estado en cache
+		synchronized (this) {
+			if (this.heap.containsKey(id) || this.disk.containsKey(id)) {
+				return true;
+			}
+		}
+		return this.delegate.exists(new PdfId(id));
+	}
+
+	/** Obtiene el n&uacute;mero de documentos servidos desde la cach&eacute; en memoria.
+	 * @return N&uacute;mero de aciertos en memoria. */
+	long getHits() {
+		return this.hits.get();
+	}
+
+	/** Obtiene el n&uacute;mero de documentos servidos desde la cach&eacute; en disco.
+	 * @return N&uacute;mero de aciertos en disco. */
+	long getDiskHits() {
+		return this.diskHits.get();
+	}
+
+	/** Obtiene el n&uacute;mero de documentos que no estaban en cach&eacute;.
+	 * @return N&uacute;mero de fallos. */
+	long getMisses() {
+		return this.misses.get();
+	}
+
+	/** Obtiene el n&uacute;mero de documentos descartados de la cach&eacute; en memoria por falta de espacio.
+	 * @return N&uacute;mero de descartes. */
+	long getEvictions() {
+		return this.evictions.get();
+	}
+
+	/** Obtiene el tama&ntilde;o ocupado por la cach&eacute; en memoria.
+	 * @return Octetos ocupados en memoria. */
+	synchronized long getHeapBytes() {
+		return this.heapBytes;
+	}
+
+	/** Obtiene el tama&ntilde;o ocupado por la cach&eacute; en disco.
+	 * @return Octetos ocupados en disco. */
+	synchronized long getDiskBytes() {
+		return this.diskBytes;
+	}
+
+	private static String getId(final PdfId pdfId) throws CsvStorerException {
+		if (pdfId.getId() != null) {
+			return pdfId.getId();
+		}
+		try {
+			return PdfExtraUtil.getPdfId(pdfId.getPdf());
+		}
+		catch (final IOException e) {
+			LOGGER.severe("No se ha indicado el CSV del documento: " + e); //$NON-NLS-1$
+			throw new CsvStorerException(
+				"No se ha indicado el CSV del documento: " + e, e //$NON-NLS-1$
+			);
+		}
+	}
+
+	private CachedPdf lookup(final String id) {
+		final long now = System.currentTimeMillis();
+		synchronized (this) {
+			CachedPdf cached = this.heap.get(id);
+			if (cached != null) {
+				if (now - cached.created <= this.ttl) {
+					this.hits.incrementAndGet();
+					return cached;
+				}
+				this.heap.remove(id);
+				this.heapBytes -= cached.length;
+			}
+			cached = this.disk.get(id);
+			if (cached != null) {
+				if (now - cached.created <= this.ttl) {
+					this.diskHits.incrementAndGet();
+					return cached;
+				}
+				this.disk.remove(id);
+				this.diskBytes -= cached.length;
+				cached.release();
+			}
+		}
+		this.misses.incrementAndGet();
+		return null;
+	}
+
+	private void put(final String id, final byte[] pdf) {
+		if (pdf.length > this.maxEntryBytes) {
+			return;
+		}
+		final List<Map.Entry<String, CachedPdf>> evicted = new ArrayList<>();
+		synchronized (this) {
+			if (this.heap.containsKey(id)) {
+				return;
+			}
+			this.heap.put(id, new HeapPdf(pdf));
+			this.heapBytes += pdf.length;
+			final Iterator<Map.Entry<String, CachedPdf>> it = this.heap.entrySet().iterator();
+			while (this.heapBytes > this.maxBytes && it.hasNext()) {
+				final Map.Entry<String, CachedPdf> eldest = it.next();
+				it.remove();
+				this.heapBytes -= eldest.getValue().length;
+				this.evictions.incrementAndGet();
+				evicted.add(eldest);
+			}
+		}
+		// Los documentos descartados de memoria pasan a disco fuera del bloqueo
+		if (this.diskDir != null) {
+			for (final Map.Entry<String, CachedPdf> e : evicted) {
+				spill(e.getKey(), e.getValue());
+			}
+		}
+	}
+
+	private void spill(final String id, final CachedPdf cached) {
+		if (cached.length > this.maxDiskBytes || System.currentTimeMillis() - cached.created > this.ttl) {
+			return;
+		}
+		final MappedPdf mapped;
+		try {
+			mapped = new MappedPdf(this.diskDir, cached.getBytes(), cached.created);
+		}
+		catch (final IOException e) {
+			LOGGER.warning("No se ha podido pasar a disco el documento '" + id + "': " + e); //$NON-NLS-1$ //$NON-NLS-2$
+			return;
+		}
+		final List<CachedPdf> released = new ArrayList<>();
+		synchronized (this) {
+			final CachedPdf old = this.disk.put(id, mapped);
+			if (old != null) {
+				this.diskBytes -= old.length;
+				released.add(old);
+			}
+			this.diskBytes += mapped.length;
+			final Iterator<CachedPdf> it = this.disk.values().iterator();
+			while (this.diskBytes > this.maxDiskBytes && it.hasNext()) {
+				final CachedPdf eldest = it.next();
+				it.remove();
+				this.diskBytes -= eldest.length;
+				released.add(eldest);
+			}
+		}
+		for (final CachedPdf r : released) {
+			r.release();
+		}
+	}
+
+	/** Documento guardado en cach&eacute;. */
+	private abstract static class CachedPdf {
+
+		final long created;
+		final int length;
+
+		CachedPdf(final int len, final long creationTime) {
+			this.length = len;
+			this.created = creationTime;
+		}
+
+		/** Obtiene una copia del documento.
+		 * @return Contenido del documento. */
+		abstract byte[] getBytes();
+
+		/** Escribe el documento en un flujo.
+		 * @param out Flujo de salida.
+		 * @throws IOException Si no se puede escribir en el flujo. */
+		abstract void writeTo(final OutputStream out) throws IOException;
+
+		/** Libera los recursos asociados al documento. */
+		void release() {
+			// Nada que liberar por defecto
+		}
+	}
+
+	/** Documento en memoria. */
+	private static final class HeapPdf extends CachedPdf {
+
+		private final byte[] pdf;
+
+		HeapPdf(final byte[] data) {
+			super(data.length, System.currentTimeMillis());
+			this.pdf = data;
+		}
+
+		@Override
+		byte[] getBytes() {
+			return this.pdf.clone();
+		}
+
+		@Override
+		void writeTo(final OutputStream out) throws IOException {
+			out.write(this.pdf);
+		}
+	}
+
+	/** Documento en un fichero proyectado en memoria. */
+	private static final class MappedPdf extends CachedPdf {
+
+		private final MappedByteBuffer buffer;
+		private Path file;
+
+		MappedPdf(final Path dir, final byte[] data, final long creationTime) throws IOException {
+			super(data.length, creationTime);
+			final Path f = Files.createTempFile(dir, DISK_PREFIX, DISK_SUFFIX);
+			try (
+				final FileChannel fc = FileChannel.open(f, StandardOpenOption.READ, StandardOpenOption.WRITE)
+			) {
+				fc.write(ByteBuffer.wrap(data));
+				this.buffer = fc.map(MapMode.READ_ONLY, 0, data.length);
+			}
+			catch (final IOException e) {
+				Files.deleteIfExists(f);
+				throw e;
+			}
+			// En sistemas POSIX la proyeccion sigue siendo valida tras borrar el fichero,
+			// en el resto se borra al descartar el documento
+			try {
+				Files.delete(f);
+				this.file = null;
+			}
+			catch (final IOException e) {
+				this.file = f;
+			}
+		}
+
+		@Override
+		byte[] getBytes() {
+			final byte[] data = new byte[this.length];
+			this.buffer.duplicate().get(data);
+			return data;
+		}
+
+		@Override
+		void writeTo(final OutputStream out) throws IOException {
+			// No se cierra el canal, ya que cerraria el flujo de salida
+			final WritableByteChannel channel = Channels.newChannel(out);
+			final ByteBuffer b = this.buffer.duplicate();
+			while (b.hasRemaining()) {
+				channel.write(b);
+			}
+		}
+
+		@Override
+		synchronized void release() {
+			if (this.file != null) {
+				try {
+					Files.deleteIfExists(this.file);
+					this.file = null;
+				}
+				catch (final IOException e) {
+					LOGGER.warning("No se ha podido borrar el fichero de cache '" + this.file + "': " + e); //$NON-NLS-1$ //$NON-NLS-2$
+				}
+			}
+		}
+	}
+
+	/** Flujo que escribe en otro flujo guardando una copia de lo escrito mientras no supere
+	 * un tama&ntilde;o m&aacute;ximo. */
+	private static final class CopyingOutputStream extends FilterOutputStream {
+
+		private final long maxLength;
+		private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+		CopyingOutputStream(final OutputStream out, final long max) {
+			super(out);
+			this.maxLength = max;
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+			this.out.write(b);
+			if (this.copy != null) {
+				this.copy.write(b);
+				checkLength();
+			}
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			this.out.write(b, off, len);
+			if (this.copy != null) {
+				this.copy.write(b, off, len);
+				checkLength();
+			}
+		}
+
+		private void checkLength() {
+			if (this.copy.size() > this.maxLength) {
+				this.copy = null;
+			}
+		}
+
+		/** Obtiene la copia de lo escrito.
+		 * @return Copia de lo escrito o <code>null</code> si super&oacute; el tama&ntilde;o m&aacute;ximo. */
+		byte[] getCopy() {
+			return this.copy != null ? this.copy.toByteArray() : null;
+		}
+	}
+
+}
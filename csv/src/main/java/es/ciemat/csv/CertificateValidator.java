@@ -0,0 +1,482 @@
+package es.ciemat.csv;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.spongycastle.asn1.ASN1OctetString;
+import org.spongycastle.asn1.x509.AuthorityKeyIdentifier;
+import org.spongycastle.asn1.x509.Extension;
+import org.spongycastle.asn1.x509.SubjectKeyIdentifier;
+import org.spongycastle.cert.X509CertificateHolder;
+import org.spongycastle.cert.ocsp.BasicOCSPResp;
+import org.spongycastle.cert.ocsp.CertificateID;
+import org.spongycastle.cert.ocsp.CertificateStatus;
+import org.spongycastle.cert.ocsp.SingleResp;
+import org.spongycastle.operator.bc.BcDigestCalculatorProvider;
+
+import com.aowagie.text.pdf.PdfPKCS7;
+
+/** Validador de las cadenas de certificados de los firmantes de los PDF.
+ * Los almacenes de confianza se cargan una &uacute;nica vez y sus certificados ra&iacute;z se
+ * indexan por su nombre y por su identificador de clave. Los almacenes se vuelven a cargar
+ * cuando cambia su fecha de modificaci&oacute;n, que se comprueba como mucho una vez en cada
+ * intervalo configurado.
+ * Como los mismos firmantes aparecen en muchos documentos, las cadenas ya validadas se
+ * conservan en una cach&eacute; de tama&ntilde;o limitado indexada por la huella del certificado
+ * del firmante, junto con el identificador OCSP de ese certificado, durante un tiempo
+ * configurable. La cach&eacute; se vac&iacute;a al recargar los almacenes de confianza.
+ * La validez temporal de los certificados depende de la fecha de cada firma, por lo que se
+ * comprueba siempre.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+final class CertificateValidator {
+
+	/** N&uacute;mero m&aacute;ximo de certificados de una cadena. */
+	private static final int MAX_PATH_LENGTH = 10;
+
+	private static final Logger LOGGER = Logger.getLogger(CertificateValidator.class.getName());
+
+	private static CertificateValidator instance = null;
+	private static boolean configured = false;
+
+	/** Certificados ra&iacute;z de los almacenes de confianza, indexados. */
+	private static final class Anchors {
+
+		private final long[] modified;
+		private final Map<X500Principal, List<X509Certificate>> bySubject = new HashMap<>();
+		private final Map<String, List<X509Certificate>> byKeyId = new HashMap<>();
+		private int size = 0;
+
+		Anchors(final long[] lastModified) {
+			this.modified = lastModified;
+		}
+
+		void add(final X509Certificate cert) {
+			add(this.bySubject, cert.getSubjectX500Principal(), cert);
+			final byte[] keyId = getSubjectKeyId(cert);
+			if (keyId != null) {
+				add(this.byKeyId, HexUtil.toHex(keyId), cert);
+			}
+			this.size++;
+		}
+
+		private static <K> void add(final Map<K, List<X509Certificate>> index,
+				                    final K key,
+				                    final X509Certificate cert) {
+			List<X509Certificate> certs = index.get(key);
+			if (certs == null) {
+				certs = new ArrayList<>(1);
+				index.put(key, certs);
+			}
+			if (!certs.contains(cert)) {
+				certs.add(cert);
+			}
+		}
+
+		/** Obtiene los posibles emisores de un certificado entre los certificados ra&iacute;z.
+		 * @param cert Certificado.
+		 * @return Posibles emisores del certificado. */
+		List<X509Certificate> getIssuers(final X509Certificate cert) {
+			final byte[] keyId = getAuthorityKeyId(cert);
+			if (keyId != null) {
+				final List<X509Certificate> certs = this.byKeyId.get(HexUtil.toHex(keyId));
+				if (certs != null) {
+					return certs;
+				}
+			}
+			final List<X509Certificate> certs = this.bySubject.get(cert.getIssuerX500Principal());
+			return certs != null ? certs : Collections.<X509Certificate>emptyList();
+		}
+
+		boolean contains(final X509Certificate cert) {
+			final List<X509Certificate> certs = this.bySubject.get(cert.getSubjectX500Principal());
+			return certs != null && certs.contains(cert);
+		}
+	}
+
+	/** Resultado de la validaci&oacute;n de la cadena de un firmante. */
+	private static final class Validation {
+
+		private final X509Certificate[] path;
+		private final String error;
+		private final long expires;
+		private CertificateID ocspId = null;
+
+		Validation(final X509Certificate[] certPath, final String errorMessage, final long expiration) {
+			this.path = certPath;
+			this.error = errorMessage;
+			this.expires = expiration;
+		}
+
+		/** Obtiene el identificador OCSP del certificado del firmante, calcul&aacute;ndolo la primera vez.
+		 * @return Identificador OCSP del firmante o <code>null</code> si no tiene emisor.
+		 * @throws Exception Si no puede calcularse el identificador. */
+		synchronized CertificateID getOcspId() throws Exception {
+			if (this.ocspId == null && this.path != null && this.path.length > 1) {
+				this.ocspId = new CertificateID(
+					new BcDigestCalculatorProvider().get(CertificateID.HASH_SHA1),
+					new X509CertificateHolder(this.path[1].getEncoded()),
+					this.path[0].getSerialNumber()
+				);
+			}
+			return this.ocspId;
+		}
+	}
+
+	private final List<Path> stores;
+	private final String storeType;
+	private final char[] storePassword;
+	private final long checkInterval;
+	private final int cacheSize;
+	private final long cacheTtl;
+
+	private volatile Anchors anchors;
+	private volatile long lastCheck;
+
+	private final Map<String, Validation> cache;
+
+	/** Crea un validador de cadenas de certificados, cargando los almacenes de confianza.
+	 * @param trustStores Almacenes de confianza.
+	 * @param trustStoreType Tipo de los almacenes de confianza (por ejemplo <code>JKS</code>).
+	 * @param trustStorePassword Contrase&ntilde;a de los almacenes de confianza o <code>null</code>
+	 *                           si no tienen.
+	 * @param checkMillis Intervalo en milisegundos entre comprobaciones de cambios en los almacenes.
+	 * @param maxEntries N&uacute;mero m&aacute;ximo de firmantes en la cach&eacute;.
+	 * @param ttlMillis Tiempo en milisegundos durante el que se conserva un firmante en la cach&eacute;.
+	 * @throws IOException Si no pueden cargarse los almacenes de confianza. */
+	CertificateValidator(final List<Path> trustStores,
+			             final String trustStoreType,
+			             final char[] trustStorePassword,
+			             final long checkMillis,
+			             final int maxEntries,
+			             final long ttlMillis) throws IOException {
+		this.stores = new ArrayList<>(trustStores);
+		this.storeType = trustStoreType;
+		this.storePassword = trustStorePassword;
+		this.checkInterval = checkMillis;
+		this.cacheSize = maxEntries;
+		this.cacheTtl = ttlMillis;
+		this.cache = new LinkedHashMap<String, Validation>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<String, Validation> eldest) {
+				return size() > CertificateValidator.this.cacheSize;
+			}
+		};
+		this.anchors = load(getModified());
+		this.lastCheck = System.currentTimeMillis();
+	}
+
+	/** Obtiene el validador configurado en el servicio.
+	 * @return Validador de cadenas de certificados o <code>null</code> si no se han configurado
+	 *         almacenes de confianza y no se validan las cadenas. */
+	static synchronized CertificateValidator getInstance() {
+		if (!configured) {
+			final List<Path> trustStores = ServiceConfig.getTrustStores();
+			if (!trustStores.isEmpty()) {
+				try {
+					instance = new CertificateValidator(
+						trustStores,
+						ServiceConfig.getTrustStoreType(),
+						ServiceConfig.getTrustStorePassword(),
+						ServiceConfig.getTrustStoreCheckInterval(),
+						ServiceConfig.getCertCacheSize(),
+						ServiceConfig.getCertCacheTtl()
+					);
+				}
+				catch (final IOException e) {
+					LOGGER.severe("No se han podido cargar los almacenes de confianza " + trustStores + ": " + e); //$NON-NLS-1$ //$NON-NLS-2$
+					throw new IllegalStateException(
+						"No se han podido cargar los almacenes de confianza " + trustStores + ": " + e, e //$NON-NLS-1$ //$NON-NLS-2$
+					);
+				}
+			}
+			configured = true;
+		}
+		return instance;
+	}
+
+	/** Valida la cadena del firmante de una firma a la fecha de firma y, si la firma incluye una
+	 * respuesta OCSP sobre el certificado del firmante, comprueba que este no est&eacute; revocado.
+	 * @param pkcs7 Firma ya decodificada.
+	 * @return Cadena de certificados desde el del firmante hasta el certificado ra&iacute;z de confianza.
+	 * @throws CertificateException Si la cadena no es v&aacute;lida o el certificado est&aacute; revocado. */
+	X509Certificate[] validate(final PdfPKCS7 pkcs7) throws CertificateException {
+		final Certificate[] certs = pkcs7.getCertificates();
+		final List<X509Certificate> candidates = new ArrayList<>(certs.length + 1);
+		candidates.add(pkcs7.getSigningCertificate());
+		for (final Certificate cert : certs) {
+			if (cert instanceof X509Certificate && !candidates.contains(cert)) {
+				candidates.add((X509Certificate) cert);
+			}
+		}
+		final Date date;
+		if (pkcs7.getTimeStampDate() != null) {
+			date = pkcs7.getTimeStampDate().getTime();
+		}
+		else if (pkcs7.getSignDate() != null) {
+			date = pkcs7.getSignDate().getTime();
+		}
+		else {
+			date = new Date();
+		}
+		final Validation validation = getValidation(candidates);
+		checkValidity(validation, date);
+
+		final BasicOCSPResp ocsp = pkcs7.getOcsp();
+		if (ocsp != null && ocsp.getResponses().length > 0) {
+			final SingleResp sr = ocsp.getResponses()[0];
+			final CertificateID id;
+			try {
+				id = validation.getOcspId();
+			}
+			catch (final Exception e) {
+				throw new CertificateException("No se ha podido calcular el identificador OCSP del firmante: " + e, e); //$NON-NLS-1$
+			}
+			// Equivale a PdfPKCS7.isRevocationValid(), pero con el emisor de la cadena validada
+			if (id != null && id.equals(sr.getCertID()) && sr.getCertStatus() != CertificateStatus.GOOD) {
+				throw new CertificateException(
+					"El certificado del firmante " + validation.path[0].getSubjectX500Principal() + " esta revocado" //$NON-NLS-1$ //$NON-NLS-2$
+				);
+			}
+		}
+		return validation.path.clone();
+	}
+
+	/** Valida una cadena de certificados a una fecha.
+	 * @param certs Certificados, empezando por el del firmante y seguido de los certificados
+	 *              disponibles para construir la cadena, en cualquier orden.
+	 * @param date Fecha a la que los certificados deben estar en vigor.
+	 * @return Cadena de certificados desde el del firmante hasta el certificado ra&iacute;z de confianza.
+	 * @throws CertificateException Si la cadena no es v&aacute;lida. */
+	X509Certificate[] validate(final List<X509Certificate> certs, final Date date) throws CertificateException {
+		final Validation validation = getValidation(certs);
+		checkValidity(validation, date);
+		return validation.path.clone();
+	}
+
+	private static void checkValidity(final Validation validation, final Date date) throws CertificateException {
+		if (validation.path == null) {
+			throw new CertificateException(validation.error);
+		}
+		for (final X509Certificate cert : validation.path) {
+			cert.checkValidity(date);
+		}
+	}
+
+	/** Obtiene la validaci&oacute;n de la cadena del firmante de la cach&eacute; o, si no est&aacute;,
+	 * construye la cadena.
+	 * @param certs Certificados, empezando por el del firmante.
+	 * @return Validaci&oacute;n de la cadena.
+	 * @throws CertificateException Si no puede calcularse la huella del certificado del firmante. */
+	private Validation getValidation(final List<X509Certificate> certs) throws CertificateException {
+		final Anchors current = getAnchors();
+		final String key = fingerprint(certs.get(0));
+		final long now = System.currentTimeMillis();
+		synchronized (this.cache) {
+			final Validation cached = this.cache.get(key);
+			if (cached != null) {
+				if (cached.expires > now) {
+					return cached;
+				}
+				this.cache.remove(key);
+			}
+		}
+
+		final List<X509Certificate> path = new ArrayList<>();
+		final String error = buildPath(certs, current, path);
+		final Validation validation = new Validation(
+			error == null ? path.toArray(new X509Certificate[path.size()]) : null,
+			error,
+			now + this.cacheTtl
+		);
+		// Si falta algun certificado intermedio puede que venga en otra firma del mismo firmante,
+		// asi que solo se conservan las cadenas validas y las que no pueden serlo nunca
+		if (error == null || path.size() == 0) {
+			synchronized (this.cache) {
+				if (this.anchors == current) {
+					this.cache.put(key, validation);
+				}
+			}
+		}
+		return validation;
+	}
+
+	/** Construye la cadena de un certificado hasta un certificado ra&iacute;z de confianza.
+	 * @param certs Certificados, empezando por el del firmante.
+	 * @param current Certificados ra&iacute;z de confianza.
+	 * @param path Cadena construida.
+	 * @return <code>null</code> si se ha construido la cadena o el motivo por el que no es
+	 *         v&aacute;lida. Si la cadena construida queda vac&iacute;a el motivo es definitivo,
+	 *         y si no depende de los certificados disponibles. */
+	private static String buildPath(final List<X509Certificate> certs,
+			                        final Anchors current,
+			                        final List<X509Certificate> path) {
+		X509Certificate cert = certs.get(0);
+		while (path.size() < MAX_PATH_LENGTH) {
+			if (current.contains(cert)) {
+				path.add(cert);
+				return null;
+			}
+			for (final X509Certificate anchor : current.getIssuers(cert)) {
+				if (isIssuer(anchor, cert)) {
+					path.add(cert);
+					path.add(anchor);
+					return null;
+				}
+			}
+			X509Certificate issuer = null;
+			for (final X509Certificate candidate : certs) {
+				if (!path.contains(candidate) && candidate != cert && candidate.getBasicConstraints() >= 0 && isIssuer(candidate, cert)) {
+					issuer = candidate;
+					break;
+				}
+			}
+			path.add(cert);
+			if (issuer == null) {
+				if (path.size() == 1 && cert.getSubjectX500Principal().equals(cert.getIssuerX500Principal()) && isIssuer(cert, cert)) {
+					path.clear();
+					return "El certificado autofirmado " + cert.getSubjectX500Principal() + " no es de confianza"; //$NON-NLS-1$ //$NON-NLS-2$
+				}
+				return "No se ha encontrado un emisor de confianza para el certificado " + cert.getSubjectX500Principal(); //$NON-NLS-1$
+			}
+			cert = issuer;
+		}
+		return "La cadena del certificado " + certs.get(0).getSubjectX500Principal() + " es demasiado larga"; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	private static boolean isIssuer(final X509Certificate issuer, final X509Certificate cert) {
+		if (!issuer.getSubjectX500Principal().equals(cert.getIssuerX500Principal())) {
+			return false;
+		}
+		try {
+			cert.verify(issuer.getPublicKey());
+			return true;
+		}
+		catch (final GeneralSecurityException e) {
+			return false;
+		}
+	}
+
+	/** Obtiene los certificados ra&iacute;z de confianza, recargando los almacenes si han cambiado.
+	 * @return Certificados ra&iacute;z de confianza. */
+	private Anchors getAnchors() {
+		final long now = System.currentTimeMillis();
+		if (now - this.lastCheck < this.checkInterval) {
+			return this.anchors;
+		}
+		synchronized (this) {
+			if (now - this.lastCheck >= this.checkInterval) {
+				final long[] modified = getModified();
+				if (!Arrays.equals(modified, this.anchors.modified)) {
+					try {
+						final Anchors reloaded = load(modified);
+						synchronized (this.cache) {
+							this.anchors = reloaded;
+							this.cache.clear();
+						}
+					}
+					catch (final IOException e) {
+						// Se siguen usando los anteriores y se reintenta en la siguiente comprobacion
+						LOGGER.warning("No se han podido recargar los almacenes de confianza: " + e); //$NON-NLS-1$
+					}
+				}
+				this.lastCheck = now;
+			}
+			return this.anchors;
+		}
+	}
+
+	private long[] getModified() {
+		final long[] modified = new long[this.stores.size()];
+		for (int i = 0; i < modified.length; i++) {
+			try {
+				modified[i] = Files.getLastModifiedTime(this.stores.get(i)).toMillis();
+			}
+			catch (final IOException e) {
+				modified[i] = -1;
+			}
+		}
+		return modified;
+	}
+
+	private Anchors load(final long[] modified) throws IOException {
+		final Anchors ret = new Anchors(modified);
+		for (final Path store : this.stores) {
+			final KeyStore ks;
+			try (
+				final InputStream is = Files.newInputStream(store)
+			) {
+				ks = KeyStore.getInstance(this.storeType);
+				ks.load(is, this.storePassword);
+				final Enumeration<String> aliases = ks.aliases();
+				while (aliases.hasMoreElements()) {
+					final Certificate cert = ks.getCertificate(aliases.nextElement());
+					if (cert instanceof X509Certificate) {
+						ret.add((X509Certificate) cert);
+					}
+				}
+			}
+			catch (final GeneralSecurityException e) {
+				throw new IOException("No se ha podido cargar el almacen de confianza " + store + ": " + e, e); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		}
+		LOGGER.info("Cargados " + ret.size + " certificados de confianza de " + this.stores); //$NON-NLS-1$ //$NON-NLS-2$
+		return ret;
+	}
+
+	private static String fingerprint(final X509Certificate cert) throws CertificateException {
+		try {
+			return HexUtil.toHex(MessageDigest.getInstance("SHA-256").digest(cert.getEncoded())); //$NON-NLS-1$
+		}
+		catch (final GeneralSecurityException e) {
+			throw new CertificateException("No se ha podido calcular la huella del certificado: " + e, e); //$NON-NLS-1$
+		}
+	}
+
+	private static byte[] getSubjectKeyId(final X509Certificate cert) {
+		final byte[] ext = cert.getExtensionValue(Extension.subjectKeyIdentifier.getId());
+		if (ext == null) {
+			return null;
+		}
+		try {
+			return SubjectKeyIdentifier.getInstance(ASN1OctetString.getInstance(ext).getOctets()).getKeyIdentifier();
+		}
+		catch (final IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private static byte[] getAuthorityKeyId(final X509Certificate cert) {
+		final byte[] ext = cert.getExtensionValue(Extension.authorityKeyIdentifier.getId());
+		if (ext == null) {
+			return null;
+		}
+		try {
+			return AuthorityKeyIdentifier.getInstance(ASN1OctetString.getInstance(ext).getOctets()).getKeyIdentifier();
+		}
+		catch (final IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,94 @@
+package es.ciemat.csv;
+
+/** Cortocircuito para llamadas a un servicio remoto.
+ * Tras un n&uacute;mero dado de fallos consecutivos el circuito se abre y las llamadas se
+ * rechazan sin intentarlas durante un tiempo. Pasado ese tiempo se deja pasar una &uacute;nica
+ * llamada de prueba: si tiene &eacute;xito el circuito se cierra y si falla vuelve a abrirse.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+final class CircuitBreaker {
+
+	/** Estado del cortocircuito. */
+	enum State {
+		/** Cerrado, las llamadas se realizan con normalidad. */
+		CLOSED,
+		/** Abierto, las llamadas se rechazan. */
+		OPEN,
+		/** Semiabierto, se admite una llamada de prueba. */
+		HALF_OPEN
+	}
+
+	private final int failureThreshold;
+	private final long openMillis;
+
+	private State state = State.CLOSED;
+	private int failures = 0;
+	private long openedAt = 0;
+	private boolean trialInProgress = false;
+
+	/** Crea un cortocircuito cerrado.
+	 * @param maxFailures N&uacute;mero de fallos consecutivos que abren el circuito.
+	 * @param openTimeMillis Tiempo en milisegundos que el circuito permanece abierto antes
+	 *                       de admitir una llamada de prueba. */
+	CircuitBreaker(final int maxFailures, final long openTimeMillis) {
+		if (maxFailures < 1) {
+			throw new IllegalArgumentException(
+				"El numero de fallos que abren el circuito debe ser positivo: " + maxFailures //$NON-NLS-1$
+			);
+		}
+		this.failureThreshold = maxFailures;
+		this.openMillis = openTimeMillis;
+	}
+
+	/** Indica si puede realizarse una llamada. Si se permite, el llamante debe notificar
+	 * despu&eacute;s su resultado con {@link #onSuccess()}, {@link #onFailure()} o
+	 * {@link #onCancel()}.
+	 * @return <code>true</code> si puede realizarse la llamada, <code>false</code> si debe
+	 *         rechazarse. */
+	synchronized boolean allowRequest() {
+		if (this.state == State.OPEN && System.currentTimeMillis() - this.openedAt >= this.openMillis) {
+			this.state = State.HALF_OPEN;
+		}
+		if (this.state == State.CLOSED) {
+			return true;
+		}
+		if (this.state == State.HALF_OPEN && !this.trialInProgress) {
+			this.trialInProgress = true;
+			return true;
+		}
+		return false;
+	}
+
+	/** Notifica una llamada terminada con &eacute;xito, lo que cierra el circuito. */
+	synchronized void onSuccess() {
+		this.trialInProgress = false;
+		this.failures = 0;
+		this.state = State.CLOSED;
+	}
+
+	/** Notifica una llamada fallida, que abre el circuito si se alcanza el n&uacute;mero
+	 * m&aacute;ximo de fallos consecutivos o si era la llamada de prueba. */
+	synchronized void onFailure() {
+		this.trialInProgress = false;
+		this.failures++;
+		if (this.state == State.HALF_OPEN || this.failures >= this.failureThreshold) {
+			this.state = State.OPEN;
+			this.openedAt = System.currentTimeMillis();
+		}
+	}
+
+	/** Notifica una llamada permitida que finalmente no se ha realizado, sin que cuente como
+	 * fallo ni como &eacute;xito. */
+	synchronized void onCancel() {
+		this.trialInProgress = false;
+	}
+
+	/** Obtiene el estado del cortocircuito.
+	 * @return Estado del cortocircuito. */
+	synchronized State getState() {
+		if (this.state == State.OPEN && System.currentTimeMillis() - this.openedAt >= this.openMillis) {
+			return State.HALF_OPEN;
+		}
+		return this.state;
+	}
+
+}
@@ -0,0 +1,262 @@
+package es.ciemat.csv;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/** Lote de documentos a los que se estampa un CSV en paralelo.
+ * Cada documento se procesa como una tarea independiente y su resultado se escribe en el
+ * manifiesto del lote seg&uacute;n termina, por lo que el orden del manifiesto es el de
+ * finalizaci&oacute;n y no el de entrada. El error en un documento se anota en su l&iacute;nea
+ * del manifiesto sin afectar al resto del lote.
+ * Para acotar la memoria usada no se admiten m&aacute;s de un n&uacute;mero dado de documentos
+ * pendientes: al a&ntilde;adir uno m&aacute;s se espera a que termine alguno de ellos.
+ * Los documentos deben a&ntilde;adirse desde un &uacute;nico hilo, que es tambi&eacute;n el que
+ * escribe el manifiesto.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+final class CsvBatch {
+
+	/** Cabecera del manifiesto, que tiene una l&iacute;nea por documento con estos campos
+	 * separados por tabuladores. */
+	static final String MANIFEST_HEADER = "entry\tid\tstatus\tcode\tcsv\terror"; //$NON-NLS-1$
+
+	/** Estado en el manifiesto de un documento procesado correctamente. */
+	static final String STATUS_OK = "OK"; //$NON-NLS-1$
+
+	/** Estado en el manifiesto de un documento con error. */
+	static final String STATUS_ERROR = "ERROR"; //$NON-NLS-1$
+
+	private static final Logger LOGGER = Logger.getLogger(CsvBatch.class.getName());
+
+	private static ForkJoinPool pool = null;
+
+	private final CsvProcessor processor;
+	private final Executor executor;
+	private final int maxPending;
+	private final Writer manifest;
+	private final BlockingQueue<EntryResult> results = new LinkedBlockingQueue<>();
+
+	private int pending = 0;
+	private int processed = 0;
+	private int errors = 0;
+
+	/** Crea un lote y escribe la cabecera de su manifiesto.
+	 * @param csvProcessor Procesador de CSV a usar con los documentos del lote.
+	 * @param exec Ejecutor de las tareas de estampaci&oacute;n.
+	 * @param maxPendingDocs N&uacute;mero m&aacute;ximo de documentos pendientes de terminar.
+	 * @param manifestWriter Destino del manifiesto del lote.
+	 * @throws IOException Si no se puede escribir el manifiesto. */
+	CsvBatch(final CsvProcessor csvProcessor,
+			 final Executor exec,
+			 final int maxPendingDocs,
+			 final Writer manifestWriter) throws IOException {
+		if (maxPendingDocs < 1) {
+			throw new IllegalArgumentException(
+				"El numero maximo de documentos pendientes debe ser positivo: " + maxPendingDocs //$NON-NLS-1$
+			);
+		}
+		this.processor = csvProcessor;
+		this.executor = exec;
+		this.maxPending = maxPendingDocs;
+		this.manifest = manifestWriter;
+		this.manifest.write(MANIFEST_HEADER + "\n"); //$NON-NLS-1$
+	}
+
+	/** Obtiene el conjunto de hilos compartido por todos los lotes del servicio, cre&aacute;ndolo
+	 * con la configuraci&oacute;n de <code>service.properties</code> si es necesario.
+	 * @return Conjunto de hilos para los lotes. */
+	static synchronized ForkJoinPool getPool() {
+		if (pool == null) {
+			pool = new ForkJoinPool(ServiceConfig.getBatchThreads());
+			LOGGER.info("Creado el conjunto de hilos para lotes con " + pool.getParallelism() + " hilos"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		return pool;
+	}
+
+	/** Detiene el conjunto de hilos compartido por los lotes, si se hab&iacute;a creado. */
+	static synchronized void shutdownPool() {
+		if (pool != null) {
+			pool.shutdownNow();
+			pool = null;
+		}
+	}
+
+	/** A&ntilde;ade un documento al lote. La tarea pasa a ser la responsable de eliminar el
+	 * documento si se volc&oacute; a disco.
+	 * @param name Nombre del documento en el lote (nombre de la entrada del ZIP o del fichero).
+	 * @param pdf Documento.
+	 * @throws IOException Si no se puede escribir el manifiesto o se interrumpe la espera. */
+	void add(final String name, final ReceivedPdf pdf) throws IOException {
+		final EntryResult result = new EntryResult(name);
+		if (pdf.isEmpty()) {
+			pdf.delete();
+			result.setError("No se ha recibido un documento valido", HttpURLConnection.HTTP_BAD_REQUEST); //$NON-NLS-1$
+			writeResult(result);
+			return;
+		}
+		while (this.pending >= this.maxPending) {
+			writeResult(take());
+		}
+		try {
+			this.executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						result.process(pdf, CsvBatch.this.processor);
+					}
+					finally {
+						CsvBatch.this.results.add(result);
+					}
+				}
+			});
+		}
+		catch (final RejectedExecutionException e) {
+			pdf.delete();
+			throw new IOException("No se ha podido procesar el documento '" + name + "': " + e, e); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		this.pending++;
+
+		// Escribimos lo que ya haya terminado sin esperar al resto
+		EntryResult done;
+		while ((done = this.results.poll()) != null) {
+			this.pending--;
+			writeResult(done);
+		}
+	}
+
+	/** A&ntilde;ade al lote todos los documentos de un ZIP, seg&uacute;n se leen del flujo.
+	 * Los directorios se ignoran. El flujo no se cierra.
+	 * @param zip Flujo con el ZIP.
+	 * @throws IOException Si no se puede leer el ZIP o escribir el manifiesto. */
+	void addZip(final InputStream zip) throws IOException {
+		final ZipInputStream zis = new ZipInputStream(zip);
+		ZipEntry entry;
+		while ((entry = zis.getNextEntry()) != null) {
+			if (!entry.isDirectory()) {
+				add(entry.getName(), ReceivedPdf.read(zis));
+			}
+		}
+	}
+
+	/** Espera a que terminen todos los documentos pendientes y escribe sus resultados.
+	 * @throws IOException Si no se puede escribir el manifiesto o se interrumpe la espera. */
+	void finish() throws IOException {
+		while (this.pending > 0) {
+			writeResult(take());
+		}
+		this.manifest.flush();
+		LOGGER.info(
+			"Terminado el lote con " + this.processed + " documentos, " + this.errors + " de ellos con error" //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		);
+	}
+
+	/** Termina un lote que no se ha podido leer completo: espera a los documentos pendientes
+	 * y a&ntilde;ade al manifiesto una l&iacute;nea de error sin nombre de documento.
+	 * @param message Motivo por el que no se ha podido leer el resto del lote.
+	 * @param code C&oacute;digo HTTP equivalente al error.
+	 * @throws IOException Si no se puede escribir el manifiesto o se interrumpe la espera. */
+	void abort(final String message, final int code) throws IOException {
+		while (this.pending > 0) {
+			writeResult(take());
+		}
+		final EntryResult result = new EntryResult(""); //$NON-NLS-1$
+		result.setError(message, code);
+		writeResult(result);
+		this.manifest.flush();
+	}
+
+	/** Obtiene el n&uacute;mero de documentos cuyo resultado se ha escrito en el manifiesto.
+	 * @return N&uacute;mero de documentos procesados. */
+	int getProcessed() {
+		return this.processed;
+	}
+
+	/** Obtiene el n&uacute;mero de documentos terminados con error.
+	 * @return N&uacute;mero de documentos con error. */
+	int getErrors() {
+		return this.errors;
+	}
+
+	private EntryResult take() throws IOException {
+		final EntryResult ret;
+		try {
+			ret = this.results.take();
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrumpida la espera de los documentos del lote"); //$NON-NLS-1$
+		}
+		this.pending--;
+		return ret;
+	}
+
+	private void writeResult(final EntryResult result) throws IOException {
+		this.processed++;
+		if (result.message != null) {
+			this.errors++;
+		}
+		this.manifest.write(
+			clean(result.name) + '\t' +
+			clean(result.id) + '\t' +
+			(result.message == null ? STATUS_OK : STATUS_ERROR) + '\t' +
+			result.code + '\t' +
+			clean(result.csv) + '\t' +
+			clean(result.message) + '\n'
+		);
+		// Cada resultado se envia segun se conoce
+		this.manifest.flush();
+	}
+
+	/** Evita que un campo del manifiesto rompa su formato. */
+	private static String clean(final String field) {
+		if (field == null) {
+			return ""; //$NON-NLS-1$
+		}
+		return field.replace('\t', ' ').replace('\r', ' ').replace('\n', ' ');
+	}
+
+	/** Resultado de un documento del lote. */
+	private static final class EntryResult {
+
+		final String name;
+		String id = null;
+		String csv = null;
+		String message = null;
+		int code = HttpURLConnection.HTTP_OK;
+
+		EntryResult(final String entryName) {
+			this.name = entryName;
+		}
+
+		void setError(final String errorMessage, final int errorCode) {
+			this.message = errorMessage;
+			this.code = errorCode;
+		}
+
+		void process(final ReceivedPdf pdf, final CsvProcessor cp) {
+			try {
+				this.id = pdf.getId();
+				this.csv = pdf.process(cp);
+			}
+		    catch(final Exception | Error e) {
+		    	CsvErrors.log(LOGGER, e, "entrada '" + this.name + "' del lote"); //$NON-NLS-1$ //$NON-NLS-2$
+		    	setError(CsvErrors.toMessage(e), CsvErrors.toHttpStatus(e));
+		    }
+			finally {
+				pdf.delete();
+			}
+		}
+
+	}
+
+}
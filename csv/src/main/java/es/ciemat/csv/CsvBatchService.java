@@ -0,0 +1,128 @@
+package es.ciemat.csv;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.net.HttpURLConnection;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipException;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.MultipartConfig;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.Part;
+
+/** Servicio de estampaci&oacute;n de CSV en lotes de documentos.
+ * El lote se recibe como un ZIP en el cuerpo del POST o como una petici&oacute;n multiparte en
+ * la que cada fichero es un PDF o un ZIP de PDF. Los documentos se procesan en paralelo
+ * seg&uacute;n se leen y la respuesta es un manifiesto en texto separado por tabuladores, con
+ * una l&iacute;nea por documento que se env&iacute;a en cuanto termina (ver {@link CsvBatch}).
+ * Un documento con error no interrumpe el lote. Para lotes grandes es preferible enviar el ZIP
+ * en el cuerpo, ya que las peticiones multiparte las almacena completas el servidor antes de
+ * procesarlas.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+@WebServlet("/CsvBatchService")
+@MultipartConfig
+public final class CsvBatchService extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final String ZIP_SUFFIX = ".zip"; //$NON-NLS-1$
+
+	private static final Logger LOGGER = Logger.getLogger(CsvBatchService.class.getName());
+
+	@Override
+	protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException,
+	                                                                                          IOException {
+		try (
+			final PrintWriter pw = resp.getWriter();
+		) {
+			pw.write("Servicio de generacion de CSV en lotes, admite solo llamadas POST con un ZIP o multiparte"); //$NON-NLS-1$
+		}
+	}
+
+	@Override
+	protected void doPost(final HttpServletRequest request,
+			              final HttpServletResponse response) throws IOException {
+
+		LOGGER.info("Solicitada estampacion de CSV en un lote de documentos"); //$NON-NLS-1$
+
+		final int threads = ServiceConfig.getBatchThreads();
+		response.setContentType("text/tab-separated-values"); //$NON-NLS-1$
+		response.setCharacterEncoding("UTF-8"); //$NON-NLS-1$
+		final CsvBatch batch = new CsvBatch(
+			ServiceConfig.getCsvProcessor(),
+			CsvBatch.getPool(),
+			threads * 2,
+			response.getWriter()
+		);
+
+		try {
+			if (isMultipart(request)) {
+				for (final Part part : request.getParts()) {
+					final String name = part.getSubmittedFileName();
+					if (name == null) {
+						// Campo de formulario, no es un fichero
+						continue;
+					}
+					try (
+						final InputStream is = part.getInputStream()
+					) {
+						if (isZip(part)) {
+							batch.addZip(is);
+						}
+						else {
+							batch.add(name, ReceivedPdf.read(is));
+						}
+					}
+					finally {
+						part.delete();
+					}
+				}
+			}
+			else {
+				try (
+					final InputStream is = request.getInputStream()
+				) {
+					batch.addZip(is);
+				}
+			}
+		}
+		catch (final ZipException e) {
+			LOGGER.severe("El lote recibido no es un ZIP valido: " + e); //$NON-NLS-1$
+			batch.abort("El lote recibido no es un ZIP valido", HttpURLConnection.HTTP_BAD_REQUEST); //$NON-NLS-1$
+			return;
+		}
+		catch (final ServletException e) {
+			LOGGER.severe("La peticion multiparte del lote no es valida: " + e); //$NON-NLS-1$
+			batch.abort("La peticion multiparte del lote no es valida", HttpURLConnection.HTTP_BAD_REQUEST); //$NON-NLS-1$
+			return;
+		}
+		catch (final IOException e) {
+			LOGGER.log(Level.SEVERE, "Error leyendo el lote de documentos: " + e, e); //$NON-NLS-1$
+			batch.abort("Error leyendo el lote de documentos", HttpURLConnection.HTTP_INTERNAL_ERROR); //$NON-NLS-1$
+			return;
+		}
+
+		batch.finish();
+	}
+
+	private static boolean isMultipart(final HttpServletRequest request) {
+		final String contentType = request.getContentType();
+		return contentType != null && contentType.toLowerCase(Locale.ROOT).startsWith("multipart/"); //$NON-NLS-1$
+	}
+
+	private static boolean isZip(final Part part) {
+		final String contentType = part.getContentType();
+		if (contentType != null && contentType.toLowerCase(Locale.ROOT).contains("zip")) { //$NON-NLS-1$
+			return true;
+		}
+		return part.getSubmittedFileName().toLowerCase(Locale.ROOT).endsWith(ZIP_SUFFIX);
+	}
+
+}
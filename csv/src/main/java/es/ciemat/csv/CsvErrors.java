@@ -0,0 +1,74 @@
+package es.ciemat.csv;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import es.gob.afirma.core.AOException;
+import es.gob.afirma.core.AOFormatFileException;
+
+/** Traducci&oacute;n de los errores de estampaci&oacute;n de CSV a mensajes y c&oacute;digos HTTP,
+ * com&uacute;n al servicio s&iacute;ncrono, a los lotes y a los trabajos as&iacute;ncronos.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+final class CsvErrors {
+
+	private CsvErrors() {
+		// No instanciable
+	}
+
+	/** Obtiene el c&oacute;digo HTTP con el que se notifica un error de estampaci&oacute;n.
+	 * @param t Error producido al estampar el CSV.
+	 * @return C&oacute;digo HTTP equivalente. */
+	static int toHttpStatus(final Throwable t) {
+		if (t instanceof IOException
+				|| t instanceof AOException && !(t instanceof AOFormatFileException)
+				|| t instanceof CsvStorerException) {
+			return HttpURLConnection.HTTP_INTERNAL_ERROR;
+		}
+		return HttpURLConnection.HTTP_BAD_REQUEST;
+	}
+
+	/** Obtiene el mensaje con el que se notifica un error de estampaci&oacute;n.
+	 * @param t Error producido al estampar el CSV.
+	 * @return Mensaje descriptivo del error. */
+	static String toMessage(final Throwable t) {
+		if (t instanceof AOFormatFileException) {
+			return "La entrada no es un documento PDF"; //$NON-NLS-1$
+		}
+		if (t instanceof PdfLacksSignaturesException) {
+			return "El PDF de entrada no tiene firmas electronicas"; //$NON-NLS-1$
+		}
+		if (t instanceof IOException) {
+			return "Error estampando el CSV en el PDF"; //$NON-NLS-1$
+		}
+		if (t instanceof AOException) {
+			return "Error sellando electronicamente el PDF"; //$NON-NLS-1$
+		}
+		if (t instanceof PdfLacksIdException) {
+			return "El PDF de entrada no tiene identificador"; //$NON-NLS-1$
+		}
+		if (t instanceof CsvStorerException) {
+			return "Error guardando el CSV"; //$NON-NLS-1$
+		}
+		return "Error indefinido durante la estampacion"; //$NON-NLS-1$
+	}
+
+	/** Registra un error de estampaci&oacute;n. Los errores de la entrada se registran sin traza.
+	 * @param logger Registro a usar.
+	 * @param t Error producido al estampar el CSV.
+	 * @param subject Documento al que se refiere el error, o <code>null</code> si no es necesario
+	 *                indicarlo. */
+	static void log(final Logger logger, final Throwable t, final String subject) {
+		final String message = toMessage(t) + (subject != null ? " (" + subject + ")" : "") + ": " + t; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		if (t instanceof AOFormatFileException
+				|| t instanceof PdfLacksSignaturesException
+				|| t instanceof PdfLacksIdException) {
+			logger.severe(message);
+		}
+		else {
+			logger.log(Level.SEVERE, message, t);
+		}
+	}
+
+}
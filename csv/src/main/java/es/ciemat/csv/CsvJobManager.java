@@ -0,0 +1,295 @@
+package es.ciemat.csv;
+
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/** Gestor de trabajos as&iacute;ncronos de estampaci&oacute;n de CSV.
+ * Los trabajos se ejecutan en un conjunto acotado de hilos con una cola de espera tambi&eacute;n
+ * acotada. Si la cola est&aacute; llena los nuevos trabajos se rechazan.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+final class CsvJobManager {
+
+	private static final Logger LOGGER = Logger.getLogger(CsvJobManager.class.getName());
+
+	private static CsvJobManager instance = null;
+
+	private final ThreadPoolExecutor executor;
+	private final Map<String, CsvJob> jobs = new ConcurrentHashMap<>();
+	private final CsvProcessor processor;
+	private final long jobTtl;
+
+	/** Estado de un trabajo de estampaci&oacute;n. */
+	enum JobStatus {
+		/** En cola, pendiente de ejecuci&oacute;n. */
+		QUEUED,
+		/** En ejecuci&oacute;n. */
+		RUNNING,
+		/** Terminado correctamente. */
+		DONE,
+		/** Terminado con error. */
+		ERROR
+	}
+
+	/** Receptor de la finalizaci&oacute;n de un trabajo. */
+	interface CsvJobListener {
+
+		/** Notifica la finalizaci&oacute;n, correcta o con error, de un trabajo.
+		 * @param job Trabajo terminado. */
+		void jobFinished(final CsvJob job);
+
+	}
+
+	/** Crea un gestor de trabajos.
+	 * @param csvProcessor Procesador de CSV a usar en los trabajos.
+	 * @param threads N&uacute;mero de hilos de ejecuci&oacute;n.
+	 * @param queueSize Tama&ntilde;o m&aacute;ximo de la cola de trabajos pendientes.
+	 * @param ttlMillis Tiempo en milisegundos durante el que se conserva el resultado de
+	 *                  un trabajo terminado. */
+	CsvJobManager(final CsvProcessor csvProcessor,
+			      final int threads,
+			      final int queueSize,
+			      final long ttlMillis) {
+		this.processor = csvProcessor;
+		this.jobTtl = ttlMillis;
+		this.executor = new ThreadPoolExecutor(
+			threads,
+			threads,
+			0L,
+			TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<Runnable>(queueSize),
+			new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+				@Override
+				public Thread newThread(final Runnable r) {
+					final Thread t = new Thread(r, "csv-job-" + this.count.incrementAndGet()); //$NON-NLS-1$
+					t.setDaemon(true);
+					return t;
+				}
+			},
+			new ThreadPoolExecutor.AbortPolicy()
+		);
+	}
+
+	/** Obtiene el gestor de trabajos del servicio, cre&aacute;ndolo con la configuraci&oacute;n
+	 * de <code>service.properties</code> si es necesario.
+	 * @return Gestor de trabajos. */
+	static synchronized CsvJobManager getInstance() {
+		if (instance == null) {
+			instance = new CsvJobManager(
+				ServiceConfig.getCsvProcessor(),
+				ServiceConfig.getAsyncThreads(),
+				ServiceConfig.getAsyncQueueSize(),
+				ServiceConfig.getAsyncJobTtl()
+			);
+			LOGGER.info(
+				"Creado el gestor de trabajos asincronos con " + ServiceConfig.getAsyncThreads() + //$NON-NLS-1$
+					" hilos y una cola de " + ServiceConfig.getAsyncQueueSize() + " trabajos" //$NON-NLS-1$ //$NON-NLS-2$
+			);
+		}
+		return instance;
+	}
+
+	/** Detiene el gestor de trabajos del servicio, si se hab&iacute;a creado. */
+	static synchronized void shutdownInstance() {
+		if (instance != null) {
+			instance.shutdown();
+			instance = null;
+		}
+	}
+
+	/** Detiene la ejecuci&oacute;n de trabajos, interrumpiendo los que est&eacute;n en curso.
+	 * Los trabajos que siguen en cola se descartan y se eliminan sus PDF volcados a disco. */
+	void shutdown() {
+		final List<Runnable> pending = this.executor.shutdownNow();
+		for (final Runnable r : pending) {
+			((CsvJob) r).discard();
+		}
+		if (!pending.isEmpty()) {
+			LOGGER.warning("Descartados " + pending.size() + " trabajos de estampacion pendientes"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+	}
+
+	/** Env&iacute;a un PDF para que se le estampe un CSV de forma as&iacute;ncrona.
+	 * El trabajo pasa a ser el responsable de eliminar el PDF si se volc&oacute; a disco.
+	 * @param pdf PDF recibido.
+	 * @return Trabajo creado.
+	 * @throws RejectedExecutionException Si la cola de trabajos est&aacute; llena. */
+	CsvJob submit(final ReceivedPdf pdf) {
+		purgeExpiredJobs();
+		final CsvJob job = new CsvJob(UUID.randomUUID().toString(), pdf);
+		this.jobs.put(job.getId(), job);
+		try {
+			this.executor.execute(job);
+		}
+		catch (final RejectedExecutionException e) {
+			this.jobs.remove(job.getId());
+			pdf.delete();
+			LOGGER.warning("Cola de trabajos llena, se rechaza el documento: " + e); //$NON-NLS-1$
+			throw e;
+		}
+		return job;
+	}
+
+	/** Obtiene un trabajo.
+	 * @param jobId Identificador del trabajo.
+	 * @return Trabajo o <code>null</code> si no existe o ha caducado. */
+	CsvJob getJob(final String jobId) {
+		return jobId != null ? this.jobs.get(jobId) : null;
+	}
+
+	private void purgeExpiredJobs() {
+		final long now = System.currentTimeMillis();
+		final Iterator<CsvJob> it = this.jobs.values().iterator();
+		while (it.hasNext()) {
+			final CsvJob job = it.next();
+			if (job.isFinished() && now - job.getFinishTime() > this.jobTtl) {
+				it.remove();
+			}
+		}
+	}
+
+	/** Trabajo de estampaci&oacute;n de CSV. */
+	final class CsvJob implements Runnable {
+
+		private final String id;
+		private ReceivedPdf pdf;
+		private final List<CsvJobListener> listeners = new ArrayList<>();
+
+		private JobStatus status = JobStatus.QUEUED;
+		private String csv = null;
+		private String errorMessage = null;
+		private int errorCode = HttpURLConnection.HTTP_OK;
+		private long finishTime = 0;
+
+		CsvJob(final String jobId, final ReceivedPdf receivedPdf) {
+			this.id = jobId;
+			this.pdf = receivedPdf;
+		}
+
+		/** Obtiene el identificador del trabajo.
+		 * @return Identificador del trabajo. */
+		String getId() {
+			return this.id;
+		}
+
+		/** Obtiene el estado del trabajo.
+		 * @return Estado del trabajo. */
+		synchronized JobStatus getStatus() {
+			return this.status;
+		}
+
+		/** Obtiene el CSV asignado al documento.
+		 * @return CSV asignado o <code>null</code> si el trabajo no ha terminado correctamente. */
+		synchronized String getCsv() {
+			return this.csv;
+		}
+
+		/** Obtiene el mensaje de error del trabajo.
+		 * @return Mensaje de error o <code>null</code> si el trabajo no ha terminado con error. */
+		synchronized String getErrorMessage() {
+			return this.errorMessage;
+		}
+
+		/** Obtiene el c&oacute;digo HTTP equivalente al resultado del trabajo.
+		 * @return C&oacute;digo HTTP equivalente al resultado del trabajo. */
+		synchronized int getErrorCode() {
+			return this.errorCode;
+		}
+
+		synchronized boolean isFinished() {
+			return this.status == JobStatus.DONE || this.status == JobStatus.ERROR;
+		}
+
+		synchronized long getFinishTime() {
+			return this.finishTime;
+		}
+
+		/** A&ntilde;ade un receptor de la finalizaci&oacute;n del trabajo.
+		 * @param listener Receptor de la finalizaci&oacute;n.
+		 * @return <code>true</code> si se ha a&ntilde;adido el receptor, <code>false</code> si el
+		 *         trabajo ya hab&iacute;a terminado y por lo tanto no se le notificar&aacute;. */
+		synchronized boolean addListener(final CsvJobListener listener) {
+			if (isFinished()) {
+				return false;
+			}
+			this.listeners.add(listener);
+			return true;
+		}
+
+		@Override
+		public void run() {
+			synchronized (this) {
+				this.status = JobStatus.RUNNING;
+			}
+			LOGGER.info("Iniciado el trabajo de estampacion '" + this.id + "'"); //$NON-NLS-1$ //$NON-NLS-2$
+			try {
+				final String result = this.pdf.process(CsvJobManager.this.processor);
+				finish(JobStatus.DONE, result, null, HttpURLConnection.HTTP_OK);
+			}
+		    catch(final Exception | Error e) {
+		    	CsvErrors.log(LOGGER, e, "trabajo '" + this.id + "'"); //$NON-NLS-1$ //$NON-NLS-2$
+		    	finish(JobStatus.ERROR, null, CsvErrors.toMessage(e), CsvErrors.toHttpStatus(e));
+		    }
+			finally {
+				// El resultado se conserva un tiempo, pero el documento ya no es necesario
+				this.pdf.delete();
+				this.pdf = null;
+			}
+		}
+
+		/** Descarta un trabajo que no se ha llegado a ejecutar, eliminando su PDF. */
+		void discard() {
+			try {
+				this.pdf.delete();
+				this.pdf = null;
+			}
+			finally {
+				finish(
+					JobStatus.ERROR,
+					null,
+					"El servicio se ha detenido antes de procesar el documento", //$NON-NLS-1$
+					HttpURLConnection.HTTP_UNAVAILABLE
+				);
+			}
+		}
+
+		private void finish(final JobStatus finalStatus,
+				            final String result,
+				            final String message,
+				            final int code) {
+			final List<CsvJobListener> toNotify;
+			synchronized (this) {
+				this.status = finalStatus;
+				this.csv = result;
+				this.errorMessage = message;
+				this.errorCode = code;
+				this.finishTime = System.currentTimeMillis();
+				toNotify = new ArrayList<>(this.listeners);
+				this.listeners.clear();
+			}
+			LOGGER.info("Terminado el trabajo de estampacion '" + this.id + "' con estado " + finalStatus); //$NON-NLS-1$ //$NON-NLS-2$
+			for (final CsvJobListener listener : toNotify) {
+				try {
+					listener.jobFinished(this);
+				}
+				catch (final Exception e) {
+					LOGGER.warning("Error notificando la finalizacion del trabajo '" + this.id + "': " + e); //$NON-NLS-1$ //$NON-NLS-2$
+				}
+			}
+		}
+
+	}
+
+}
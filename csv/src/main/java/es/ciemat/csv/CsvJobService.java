@@ -0,0 +1,199 @@
+package es.ciemat.csv;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.annotation.MultipartConfig;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import es.ciemat.csv.CsvJobManager.CsvJob;
+import es.ciemat.csv.CsvJobManager.CsvJobListener;
+import es.ciemat.csv.CsvJobManager.JobStatus;
+
+/** Servicio as&iacute;ncrono de estampaci&oacute;n de CSV.
+ * Un POST con el PDF devuelve inmediatamente el identificador del trabajo, y un GET con el
+ * par&aacute;metro <code>job</code> devuelve su estado y, cuando termina, el CSV asignado. Si
+ * adem&aacute;s se indica el par&aacute;metro <code>wait</code> (en segundos) la respuesta se
+ * retiene, sin ocupar un hilo del servidor, hasta que el trabajo termine o pase ese tiempo.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+@WebServlet(urlPatterns = "/CsvJobService", asyncSupported = true)
+@MultipartConfig
+public final class CsvJobService extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final String PARAM_JOB = "job"; //$NON-NLS-1$
+	private static final String PARAM_WAIT = "wait"; //$NON-NLS-1$
+
+	private static final String CSV_TAG = "%csv%"; //$NON-NLS-1$
+
+	/** C&oacute;digo HTTP 429 (<i>Too Many Requests</i>), no definido en el API de Servlet. */
+	private static final int SC_TOO_MANY_REQUESTS = 429;
+
+	/** Segundos que se indican al cliente que espere antes de reintentar si la cola est&aacute; llena. */
+	private static final String RETRY_AFTER_SECONDS = "5"; //$NON-NLS-1$
+
+	/** Espera m&aacute;xima permitida en las consultas de estado, en segundos. */
+	private static final int MAX_WAIT_SECONDS = 120;
+
+	private static final Logger LOGGER = Logger.getLogger(CsvJobService.class.getName());
+
+	@Override
+	protected void doPost(final HttpServletRequest request,
+			              final HttpServletResponse response) throws IOException {
+
+		LOGGER.info("Solicitada estampacion asincrona de CSV en documento"); //$NON-NLS-1$
+
+		final ReceivedPdf fileData = ReceivedPdf.read(request);
+		if (fileData.isEmpty()) {
+			fileData.delete();
+			LOGGER.severe(
+				"No se ha recibido un documento valido" //$NON-NLS-1$
+			);
+			response.sendError(
+				HttpServletResponse.SC_BAD_REQUEST,
+				"No se ha recibido un documento valido" //$NON-NLS-1$
+			);
+			return;
+		}
+
+		final CsvJob job;
+		try {
+			job = CsvJobManager.getInstance().submit(fileData);
+		}
+		catch (final RejectedExecutionException e) {
+			response.setHeader("Retry-After", RETRY_AFTER_SECONDS); //$NON-NLS-1$
+			response.sendError(
+				SC_TOO_MANY_REQUESTS,
+				"Hay demasiados documentos pendientes, reintente mas tarde" //$NON-NLS-1$
+			);
+			return;
+		}
+
+		LOGGER.info("Creado el trabajo de estampacion '" + job.getId() + "'"); //$NON-NLS-1$ //$NON-NLS-2$
+
+		response.setStatus(HttpServletResponse.SC_ACCEPTED);
+		response.setHeader(
+			"Location", //$NON-NLS-1$
+			request.getRequestURL() + "?" + PARAM_JOB + "=" + job.getId() //$NON-NLS-1$ //$NON-NLS-2$
+		);
+		writeStatus(job, response);
+	}
+
+	@Override
+	protected void doGet(final HttpServletRequest request,
+			             final HttpServletResponse response) throws IOException {
+
+		final CsvJob job = CsvJobManager.getInstance().getJob(request.getParameter(PARAM_JOB));
+		if (job == null) {
+			response.sendError(
+				HttpServletResponse.SC_NOT_FOUND,
+				"No existe el trabajo indicado o ha caducado" //$NON-NLS-1$
+			);
+			return;
+		}
+
+		final int wait = getWaitSeconds(request);
+		if (wait < 1 || job.isFinished()) {
+			writeStatus(job, response);
+			return;
+		}
+
+		// Esperamos a que termine el trabajo sin retener el hilo de la peticion
+		final AsyncContext ctx = request.startAsync();
+		ctx.setTimeout(wait * 1000L);
+		final AtomicBoolean answered = new AtomicBoolean(false);
+		ctx.addListener(new AsyncListener() {
+			@Override
+			public void onTimeout(final AsyncEvent event) throws IOException {
+				answer(job, ctx, answered);
+			}
+			@Override
+			public void onError(final AsyncEvent event) {
+				LOGGER.warning("Error esperando el trabajo '" + job.getId() + "': " + event.getThrowable()); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			@Override
+			public void onComplete(final AsyncEvent event) {
+				// Nada que hacer
+			}
+			@Override
+			public void onStartAsync(final AsyncEvent event) {
+				// Nada que hacer
+			}
+		});
+		final boolean listening = job.addListener(new CsvJobListener() {
+			@Override
+			public void jobFinished(final CsvJob finishedJob) {
+				try {
+					answer(finishedJob, ctx, answered);
+				}
+				catch (final IOException e) {
+					LOGGER.warning("Error enviando el estado del trabajo '" + finishedJob.getId() + "': " + e); //$NON-NLS-1$ //$NON-NLS-2$
+				}
+			}
+		});
+		if (!listening) {
+			// El trabajo termino mientras preparabamos la espera
+			answer(job, ctx, answered);
+		}
+	}
+
+	/** Env&iacute;a el estado del trabajo y termina la petici&oacute;n as&iacute;ncrona, salvo que
+	 * ya se hubiese respondido (por fin del trabajo o por fin del tiempo de espera). */
+	private static void answer(final CsvJob job,
+			                   final AsyncContext ctx,
+			                   final AtomicBoolean answered) throws IOException {
+		if (answered.compareAndSet(false, true)) {
+			try {
+				writeStatus(job, (HttpServletResponse) ctx.getResponse());
+			}
+			finally {
+				ctx.complete();
+			}
+		}
+	}
+
+	private static int getWaitSeconds(final HttpServletRequest request) {
+		final String wait = request.getParameter(PARAM_WAIT);
+		if (wait == null || wait.isEmpty()) {
+			return 0;
+		}
+		try {
+			return Math.min(Integer.parseInt(wait), MAX_WAIT_SECONDS);
+		}
+		catch (final NumberFormatException e) {
+			LOGGER.warning("Tiempo de espera invalido, se ignora: " + wait); //$NON-NLS-1$
+			return 0;
+		}
+	}
+
+	/** Escribe el estado de un trabajo como texto plano, con una l&iacute;nea
+	 * <code>clave=valor</code> por dato. */
+	private static void writeStatus(final CsvJob job, final HttpServletResponse response) throws IOException {
+		final JobStatus status = job.getStatus();
+		response.setContentType("text/plain"); //$NON-NLS-1$
+		response.setCharacterEncoding("UTF-8"); //$NON-NLS-1$
+		final PrintWriter pw = response.getWriter();
+		pw.print("job=" + job.getId() + "\n"); //$NON-NLS-1$ //$NON-NLS-2$
+		pw.print("status=" + status + "\n"); //$NON-NLS-1$ //$NON-NLS-2$
+		if (status == JobStatus.DONE) {
+			pw.print("csv=" + job.getCsv() + "\n"); //$NON-NLS-1$ //$NON-NLS-2$
+			pw.print("url=" + ServiceConfig.getCsvRetrieveUrl().replace(CSV_TAG, job.getCsv()) + "\n"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		else if (status == JobStatus.ERROR) {
+			pw.print("code=" + job.getErrorCode() + "\n"); //$NON-NLS-1$ //$NON-NLS-2$
+			pw.print("error=" + job.getErrorMessage() + "\n"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		pw.flush();
+	}
+
+}
@@ -0,0 +1,415 @@
+package es.ciemat.csv;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Logger;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/** M&eacute;tricas del proceso de CSV: tiempos de cada etapa, distribuci&oacute;n de tama&ntilde;os
+ * y p&aacute;ginas de los documentos, operaciones en curso y errores por tipo.
+ * Cada medida cuesta dos lecturas del reloj y unas pocas operaciones at&oacute;micas sin
+ * bloqueos, por lo que puede dejarse siempre activa. Se publican por JMX (ver
+ * {@link CsvMetricsMXBean}) y en texto plano con {@link CsvMetricsService}.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+final class CsvMetrics implements CsvMetricsMXBean {
+
+	/** Nombre JMX de las m&eacute;tricas. */
+	static final String OBJECT_NAME = "es.ciemat.csv:type=CsvMetrics"; //$NON-NLS-1$
+
+	private static final Logger LOGGER = Logger.getLogger(CsvMetrics.class.getName());
+
+	/** Histograma de valores no negativos. Cada potencia de dos se divide en cuatro
+	 * intervalos, de forma que el error relativo de los percentiles es menor del 25% con
+	 * un tama&ntilde;o fijo y sin bloqueos. */
+	static final class Histogram {
+
+		private static final int SUB_BITS = 2;
+		private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+		private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong sum = new AtomicLong();
+		private final AtomicLong max = new AtomicLong();
+
+		/** Registra un valor.
+		 * @param value Valor, los negativos se registran como cero. */
+		void record(final long value) {
+			final long v = Math.max(0, value);
+			this.buckets.incrementAndGet(index(v));
+			this.count.incrementAndGet();
+			this.sum.addAndGet(v);
+			long m = this.max.get();
+			while (v > m && !this.max.compareAndSet(m, v)) {
+				m = this.max.get();
+			}
+		}
+
+		static int index(final long v) {
+			if (v < SUB_BUCKETS) {
+				return (int) v;
+			}
+			final int exp = 63 - Long.numberOfLeadingZeros(v);
+			return exp * SUB_BUCKETS + ((int) (v >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1));
+		}
+
+		/** Obtiene el valor central de un intervalo.
+		 * @param index &Iacute;ndice del intervalo.
+		 * @return Valor central del intervalo. */
+		static double value(final int index) {
+			if (index < SUB_BUCKETS) {
+				return index;
+			}
+			final long width = 1L << (index / SUB_BUCKETS - SUB_BITS);
+			final long lower = (SUB_BUCKETS + (index & (SUB_BUCKETS - 1))) * width;
+			return lower + (width - 1) / 2.0;
+		}
+
+		long getCount() {
+			return this.count.get();
+		}
+
+		long getSum() {
+			return this.sum.get();
+		}
+
+		long getMax() {
+			return this.max.get();
+		}
+
+		double getMean() {
+			final long n = this.count.get();
+			return n == 0 ? 0 : (double) this.sum.get() / n;
+		}
+
+		/** Obtiene un percentil aproximado.
+		 * @param p Percentil, entre 0 y 1.
+		 * @return Valor aproximado del percentil, o 0 si no hay valores. */
+		double getPercentile(final double p) {
+			final long[] snapshot = new long[this.buckets.length()];
+			long total = 0;
+			for (int i = 0; i < snapshot.length; i++) {
+				snapshot[i] = this.buckets.get(i);
+				total += snapshot[i];
+			}
+			if (total == 0) {
+				return 0;
+			}
+			final long target = Math.max(1, (long) Math.ceil(p * total));
+			long seen = 0;
+			for (int i = 0; i < snapshot.length; i++) {
+				seen += snapshot[i];
+				if (seen >= target) {
+					return Math.min(value(i), this.max.get());
+				}
+			}
+			return this.max.get();
+		}
+
+		void reset() {
+			for (int i = 0; i < this.buckets.length(); i++) {
+				this.buckets.set(i, 0);
+			}
+			this.count.set(0);
+			this.sum.set(0);
+			this.max.set(0);
+		}
+
+	}
+
+	/** Medidor de los tiempos de una etapa y de sus ejecuciones en curso. Uso:
+	 * <pre>
+	 * final long t = CsvMetrics.SIGN.start();
+	 * try {
+	 *     ...
+	 * }
+	 * finally {
+	 *     CsvMetrics.SIGN.stop(t);
+	 * }
+	 * </pre> */
+	static final class Timer {
+
+		private final String name;
+		private final Histogram nanos = new Histogram();
+		private final AtomicLong active = new AtomicLong();
+
+		Timer(final String stageName) {
+			this.name = stageName;
+		}
+
+		/** Inicia una ejecuci&oacute;n de la etapa.
+		 * @return Instante de inicio, que debe pasarse a {@link #stop(long)}. */
+		long start() {
+			this.active.incrementAndGet();
+			return System.nanoTime();
+		}
+
+		/** Termina una ejecuci&oacute;n de la etapa.
+		 * @param start Instante de inicio devuelto por {@link #start()}. */
+		void stop(final long start) {
+			this.nanos.record(System.nanoTime() - start);
+			this.active.decrementAndGet();
+		}
+
+		String getName() {
+			return this.name;
+		}
+
+		Histogram getNanos() {
+			return this.nanos;
+		}
+
+		long getActive() {
+			return this.active.get();
+		}
+
+	}
+
+	/** Proceso completo de un documento. Sus ejecuciones en curso son los documentos en proceso. */
+	static final Timer PROCESS = new Timer("process"); //$NON-NLS-1$
+
+	/** An&aacute;lisis del PDF de entrada. */
+	static final Timer PARSE = new Timer("parse"); //$NON-NLS-1$
+
+	/** Obtenci&oacute;n de los firmantes del PDF. */
+	static final Timer SIGNERS = new Timer("signers"); //$NON-NLS-1$
+
+	/** Eliminaci&oacute;n de las firmas del PDF. */
+	static final Timer FLATTEN = new Timer("flatten"); //$NON-NLS-1$
+
+	/** Generaci&oacute;n de la imagen del CSV. En modo vectorial el CSV se dibuja al estamparlo. */
+	static final Timer RENDER = new Timer("render"); //$NON-NLS-1$
+
+	/** Estampaci&oacute;n del CSV en el PDF. */
+	static final Timer STAMP = new Timer("stamp"); //$NON-NLS-1$
+
+	/** Sellado del PDF con CSV. */
+	static final Timer SIGN = new Timer("sign"); //$NON-NLS-1$
+
+	/** Obtenci&oacute;n del informe de firma de EEUTIL. */
+	static final Timer EEUTIL = new Timer("eeutil"); //$NON-NLS-1$
+
+	/** Almacenamiento del PDF con CSV. */
+	static final Timer STORE = new Timer("store"); //$NON-NLS-1$
+
+	/** Recuperaci&oacute;n de un PDF con CSV. */
+	static final Timer RETRIEVE = new Timer("retrieve"); //$NON-NLS-1$
+
+	private static final Timer[] TIMERS = {
+		PROCESS, PARSE, SIGNERS, FLATTEN, RENDER, STAMP, SIGN, EEUTIL, STORE, RETRIEVE
+	};
+
+	/** Tama&ntilde;o en octetos de los documentos recibidos. */
+	static final Histogram DOCUMENT_SIZE = new Histogram();
+
+	/** N&uacute;mero de p&aacute;ginas de los documentos analizados. */
+	static final Histogram PAGES = new Histogram();
+
+	private static final ConcurrentMap<String, AtomicLong> ERRORS = new ConcurrentHashMap<>();
+
+	private static final CsvMetrics INSTANCE = new CsvMetrics();
+
+	/** Almacenador con cach&eacute; en uso, cuyos contadores se incluyen en las m&eacute;tricas. */
+	private static volatile CachingCsvStorer cache = null;
+
+	private CsvMetrics() {
+		// Instancia unica
+	}
+
+	/** Obtiene las m&eacute;tricas del servicio.
+	 * @return M&eacute;tricas del servicio. */
+	static CsvMetrics getInstance() {
+		return INSTANCE;
+	}
+
+	/** Cuenta un error.
+	 * @param t Error producido. */
+	static void error(final Throwable t) {
+		final String type = t.getClass().getName();
+		AtomicLong n = ERRORS.get(type);
+		if (n == null) {
+			final AtomicLong created = new AtomicLong();
+			n = ERRORS.putIfAbsent(type, created);
+			if (n == null) {
+				n = created;
+			}
+		}
+		n.incrementAndGet();
+	}
+
+	/** Establece el almac&eacute;n con cach&eacute; cuyos contadores se incluyen en las m&eacute;tricas.
+	 * @param storer Almac&eacute;n con cach&eacute;. */
+	static void setCache(final CachingCsvStorer storer) {
+		cache = storer;
+	}
+
+	/** Publica las m&eacute;tricas por JMX. Si ya estaban publicadas no hace nada. */
+	static void register() {
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			server.registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+			LOGGER.info("Publicadas las metricas por JMX como " + OBJECT_NAME); //$NON-NLS-1$
+		}
+		catch (final InstanceAlreadyExistsException e) {
+			// Ya publicadas
+		}
+		catch (final JMException e) {
+			LOGGER.warning("No se han podido publicar las metricas por JMX: " + e); //$NON-NLS-1$
+		}
+	}
+
+	/** Retira las m&eacute;tricas de JMX. */
+	static void unregister() {
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			final ObjectName name = new ObjectName(OBJECT_NAME);
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+		}
+		catch (final JMException e) {
+			LOGGER.warning("No se han podido retirar las metricas de JMX: " + e); //$NON-NLS-1$
+		}
+	}
+
+	private static StageStats toStats(final Histogram h, final long active, final double scale) {
+		return new StageStats(
+			h.getCount(),
+			active,
+			h.getMean() / scale,
+			h.getMax() / scale,
+			h.getPercentile(0.5) / scale,
+			h.getPercentile(0.99) / scale
+		);
+	}
+
+	@Override
+	public long getDocumentsInFlight() {
+		return PROCESS.getActive();
+	}
+
+	@Override
+	public Map<String, StageStats> getStages() {
+		final Map<String, StageStats> ret = new LinkedHashMap<>();
+		for (final Timer t : TIMERS) {
+			ret.put(t.getName(), toStats(t.getNanos(), t.getActive(), 1000000.0));
+		}
+		return ret;
+	}
+
+	@Override
+	public Map<String, Long> getErrors() {
+		final Map<String, Long> ret = new TreeMap<>();
+		for (final Map.Entry<String, AtomicLong> e : ERRORS.entrySet()) {
+			ret.put(e.getKey(), Long.valueOf(e.getValue().get()));
+		}
+		return ret;
+	}
+
+	@Override
+	public StageStats getDocumentSizes() {
+		return toStats(DOCUMENT_SIZE, 0, 1);
+	}
+
+	@Override
+	public StageStats getPageCounts() {
+		return toStats(PAGES, 0, 1);
+	}
+
+	@Override
+	public void reset() {
+		for (final Timer t : TIMERS) {
+			t.getNanos().reset();
+		}
+		DOCUMENT_SIZE.reset();
+		PAGES.reset();
+		ERRORS.clear();
+	}
+
+	@Override
+	public String getText() {
+		final StringBuilder sb = new StringBuilder(4096);
+
+		sb.append("# HELP csv_stage_seconds Tiempo de cada etapa del proceso de CSV\n"); //$NON-NLS-1$
+		sb.append("# TYPE csv_stage_seconds summary\n"); //$NON-NLS-1$
+		for (final Timer t : TIMERS) {
+			appendSummary(sb, "csv_stage_seconds", "stage=\"" + t.getName() + "\"", t.getNanos(), 1e9); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		}
+		sb.append("# HELP csv_stage_max_seconds Tiempo maximo de cada etapa del proceso de CSV\n"); //$NON-NLS-1$
+		sb.append("# TYPE csv_stage_max_seconds gauge\n"); //$NON-NLS-1$
+		for (final Timer t : TIMERS) {
+			appendValue(sb, "csv_stage_max_seconds{stage=\"" + t.getName() + "\"}", t.getNanos().getMax() / 1e9); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		sb.append("# HELP csv_stage_in_flight Ejecuciones en curso de cada etapa del proceso de CSV\n"); //$NON-NLS-1$
+		sb.append("# TYPE csv_stage_in_flight gauge\n"); //$NON-NLS-1$
+		for (final Timer t : TIMERS) {
+			appendValue(sb, "csv_stage_in_flight{stage=\"" + t.getName() + "\"}", t.getActive()); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+
+		sb.append("# HELP csv_documents_in_flight Documentos en proceso\n"); //$NON-NLS-1$
+		sb.append("# TYPE csv_documents_in_flight gauge\n"); //$NON-NLS-1$
+		appendValue(sb, "csv_documents_in_flight", PROCESS.getActive()); //$NON-NLS-1$
+
+		sb.append("# HELP csv_document_bytes Tamano de los documentos recibidos\n"); //$NON-NLS-1$
+		sb.append("# TYPE csv_document_bytes summary\n"); //$NON-NLS-1$
+		appendSummary(sb, "csv_document_bytes", null, DOCUMENT_SIZE, 1); //$NON-NLS-1$
+		sb.append("# HELP csv_document_pages Paginas de los documentos analizados\n"); //$NON-NLS-1$
+		sb.append("# TYPE csv_document_pages summary\n"); //$NON-NLS-1$
+		appendSummary(sb, "csv_document_pages", null, PAGES, 1); //$NON-NLS-1$
+
+		sb.append("# HELP csv_errors_total Errores por tipo de excepcion\n"); //$NON-NLS-1$
+		sb.append("# TYPE csv_errors_total counter\n"); //$NON-NLS-1$
+		for (final Map.Entry<String, Long> e : getErrors().entrySet()) {
+			appendValue(sb, "csv_errors_total{type=\"" + e.getKey() + "\"}", e.getValue().longValue()); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+
+		final CachingCsvStorer c = cache;
+		if (c != null) {
+			sb.append("# HELP csv_cache_requests_total Peticiones a la cache de PDF con CSV por resultado\n"); //$NON-NLS-1$
+			sb.append("# TYPE csv_cache_requests_total counter\n"); //$NON-NLS-1$
+			appendValue(sb, "csv_cache_requests_total{result=\"hit\"}", c.getHits()); //$NON-NLS-1$
+			appendValue(sb, "csv_cache_requests_total{result=\"diskhit\"}", c.getDiskHits()); //$NON-NLS-1$
+			appendValue(sb, "csv_cache_requests_total{result=\"miss\"}", c.getMisses()); //$NON-NLS-1$
+			sb.append("# HELP csv_cache_evictions_total Documentos descartados de la cache\n"); //$NON-NLS-1$
+			sb.append("# TYPE csv_cache_evictions_total counter\n"); //$NON-NLS-1$
+			appendValue(sb, "csv_cache_evictions_total", c.getEvictions()); //$NON-NLS-1$
+			sb.append("# HELP csv_cache_bytes Octetos ocupados por la cache\n"); //$NON-NLS-1$
+			sb.append("# TYPE csv_cache_bytes gauge\n"); //$NON-NLS-1$
+			appendValue(sb, "csv_cache_bytes{area=\"heap\"}", c.getHeapBytes()); //$NON-NLS-1$
+			appendValue(sb, "csv_cache_bytes{area=\"disk\"}", c.getDiskBytes()); //$NON-NLS-1$
+		}
+
+		return sb.toString();
+	}
+
+	private static void appendSummary(final StringBuilder sb,
+			                          final String name,
+			                          final String labels,
+			                          final Histogram h,
+			                          final double scale) {
+		final String prefix = labels == null ? "" : labels + ","; //$NON-NLS-1$ //$NON-NLS-2$
+		final String suffix = labels == null ? "" : "{" + labels + "}"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		appendValue(sb, name + "{" + prefix + "quantile=\"0.5\"}", h.getPercentile(0.5) / scale); //$NON-NLS-1$ //$NON-NLS-2$
+		appendValue(sb, name + "{" + prefix + "quantile=\"0.99\"}", h.getPercentile(0.99) / scale); //$NON-NLS-1$ //$NON-NLS-2$
+		appendValue(sb, name + "_sum" + suffix, h.getSum() / scale); //$NON-NLS-1$
+		appendValue(sb, name + "_count" + suffix, h.getCount()); //$NON-NLS-1$
+	}
+
+	private static void appendValue(final StringBuilder sb, final String name, final double value) {
+		sb.append(name).append(' ').append(value).append('\n');
+	}
+
+	private static void appendValue(final StringBuilder sb, final String name, final long value) {
+		sb.append(name).append(' ').append(value).append('\n');
+	}
+
+}
@@ -0,0 +1,110 @@
+package es.ciemat.csv;
+
+import java.beans.ConstructorProperties;
+import java.util.Map;
+
+/** M&eacute;tricas del servicio de CSV publicadas por JMX con el nombre
+ * <code>es.ciemat.csv:type=CsvMetrics</code>.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public interface CsvMetricsMXBean {
+
+	/** Obtiene el n&uacute;mero de documentos que se est&aacute;n procesando.
+	 * @return N&uacute;mero de documentos en proceso. */
+	long getDocumentsInFlight();
+
+	/** Obtiene las estad&iacute;sticas de cada etapa del proceso.
+	 * @return Estad&iacute;sticas por nombre de etapa. */
+	Map<String, StageStats> getStages();
+
+	/** Obtiene el n&uacute;mero de errores por tipo de excepci&oacute;n.
+	 * @return N&uacute;mero de errores por nombre de clase de la excepci&oacute;n. */
+	Map<String, Long> getErrors();
+
+	/** Obtiene la distribuci&oacute;n de los tama&ntilde;os de los documentos procesados.
+	 * @return Estad&iacute;sticas de los tama&ntilde;os en octetos. */
+	StageStats getDocumentSizes();
+
+	/** Obtiene la distribuci&oacute;n del n&uacute;mero de p&aacute;ginas de los documentos procesados.
+	 * @return Estad&iacute;sticas del n&uacute;mero de p&aacute;ginas. */
+	StageStats getPageCounts();
+
+	/** Obtiene todas las m&eacute;tricas en formato de texto plano.
+	 * @return M&eacute;tricas en formato de exposici&oacute;n de Prometheus. */
+	String getText();
+
+	/** Pone a cero todas las m&eacute;tricas, salvo los documentos en proceso. */
+	void reset();
+
+	/** Estad&iacute;sticas de una distribuci&oacute;n de valores. Los tiempos se expresan en
+	 * milisegundos; el resto de valores, en su propia unidad. Los percentiles son aproximados,
+	 * con un error relativo menor del 25%. */
+	final class StageStats {
+
+		private final long count;
+		private final long active;
+		private final double mean;
+		private final double max;
+		private final double p50;
+		private final double p99;
+
+		/** Crea unas estad&iacute;sticas.
+		 * @param count N&uacute;mero de valores.
+		 * @param active N&uacute;mero de operaciones en curso.
+		 * @param mean Media.
+		 * @param max M&aacute;ximo.
+		 * @param p50 Mediana.
+		 * @param p99 Percentil 99. */
+		@ConstructorProperties({ "count", "active", "mean", "max", "p50", "p99" })
+		public StageStats(final long count,
+				          final long active,
+				          final double mean,
+				          final double max,
+				          final double p50,
+				          final double p99) {
+			this.count = count;
+			this.active = active;
+			this.mean = mean;
+			this.max = max;
+			this.p50 = p50;
+			this.p99 = p99;
+		}
+
+		/** Obtiene el n&uacute;mero de valores.
+		 * @return N&uacute;mero de valores. */
+		public long getCount() {
+			return this.count;
+		}
+
+		/** Obtiene el n&uacute;mero de operaciones en curso.
+		 * @return N&uacute;mero de operaciones en curso. */
+		public long getActive() {
+			return this.active;
+		}
+
+		/** Obtiene la media.
+		 * @return Media. */
+		public double getMean() {
+			return this.mean;
+		}
+
+		/** Obtiene el m&aacute;ximo.
+		 * @return M&aacute;ximo. */
+		public double getMax() {
+			return this.max;
+		}
+
+		/** Obtiene la mediana.
+		 * @return Mediana. */
+		public double getP50() {
+			return this.p50;
+		}
+
+		/** Obtiene el percentil 99.
+		 * @return Percentil 99. */
+		public double getP99() {
+			return this.p99;
+		}
+
+	}
+
+}
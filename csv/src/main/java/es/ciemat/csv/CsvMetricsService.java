@@ -0,0 +1,31 @@
+package es.ciemat.csv;
+
+import java.io.IOException;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/** Servicio de consulta de las m&eacute;tricas del servicio de CSV (ver {@link CsvMetrics}).
+ * Devuelve las m&eacute;tricas en texto plano con el formato de exposici&oacute;n de Prometheus.
+ * Las mismas m&eacute;tricas se publican por JMX.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+@WebServlet(urlPatterns = "/CsvMetricsService")
+public final class CsvMetricsService extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final String TEXT_MIMETYPE = "text/plain; version=0.0.4; charset=UTF-8"; //$NON-NLS-1$
+
+	@Override
+	protected void doGet(final HttpServletRequest request,
+			             final HttpServletResponse response) throws IOException {
+		final byte[] text = CsvMetrics.getInstance().getText().getBytes("UTF-8"); //$NON-NLS-1$
+		response.setContentType(TEXT_MIMETYPE);
+		response.setHeader("Cache-Control", "no-store"); //$NON-NLS-1$ //$NON-NLS-2$
+		response.setContentLength(text.length);
+		response.getOutputStream().write(text);
+	}
+
+}
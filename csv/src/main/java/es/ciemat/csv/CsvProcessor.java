@@ -1,6 +1,7 @@
 package es.ciemat.csv;
 
 import java.io.IOException;
+import java.nio.file.Path;
 
 import es.gob.afirma.core.AOException;
 import es.gob.afirma.core.AOFormatFileException;
@@ -11,6 +12,9 @@ public interface CsvProcessor {
 
 	/** Estampa un CSV y lo almacena adecuadamente.
 	 * @param signedPdf PDF de entrada, debe contener firmas.
+	 * @param pdfId Identificador del PDF de entrada si ya se ha calculado, o <code>null</code>
+	 *              para que se calcule.
+	 * @return CSV asignado al documento.
 	 * @throws PdfLacksSignaturesException Si el PDF de entrada no contiene
 	 *                                     ninguna firma.
 	 * @throws AOFormatFileException Si la entrada no es un PDF.
@@ -18,7 +22,26 @@ public interface CsvProcessor {
 	 * @throws AOException Si hay errores relacionados con los sellos electr&oacute;nicos.
 	 * @throws PdfLacksIdException Si no se le puede asignar un CSV al PDF.
 	 * @throws CsvStorerException Si hay problemas almacenando el CSV. */
-	void doCsv(final byte[] signedPdf) throws PdfLacksSignaturesException,
+	String doCsv(final byte[] signedPdf, final String pdfId) throws PdfLacksSignaturesException,
+                                                AOFormatFileException,
+                                                IOException,
+                                                AOException,
+                                                PdfLacksIdException,
+                                                CsvStorerException;
+
+	/** Estampa un CSV en un PDF almacenado en disco y lo almacena adecuadamente.
+	 * @param signedPdf Fichero con el PDF de entrada, debe contener firmas.
+	 * @param pdfId Identificador del PDF de entrada si ya se ha calculado, o <code>null</code>
+	 *              para que se calcule.
+	 * @return CSV asignado al documento.
+	 * @throws PdfLacksSignaturesException Si el PDF de entrada no contiene
+	 *                                     ninguna firma.
+	 * @throws AOFormatFileException Si la entrada no es un PDF.
+	 * @throws IOException Si hay errores tratando los datos.
+	 * @throws AOException Si hay errores relacionados con los sellos electr&oacute;nicos.
+	 * @throws PdfLacksIdException Si no se le puede asignar un CSV al PDF.
+	 * @throws CsvStorerException Si hay problemas almacenando el CSV. */
+	String doCsv(final Path signedPdf, final String pdfId) throws PdfLacksSignaturesException,
                                               AOFormatFileException,
                                               IOException,
                                               AOException,
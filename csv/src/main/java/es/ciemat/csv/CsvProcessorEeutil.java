@@ -1,9 +1,16 @@
 package es.ciemat.csv;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Logger;
 
+import javax.xml.ws.BindingProvider;
+
 import es.ciemat.csv.PdfExtraUtil.PdfId;
 import es.gob.afirma.core.AOException;
 import es.mpt.dsic.inside.ws.service.ApplicationLogin;
@@ -13,6 +20,12 @@ import es.mpt.dsic.inside.ws.service.CopiaInfoExtended;
 import es.mpt.dsic.inside.ws.service.EeUtilServiceProxy;
 
 /** Procesador de CSV usando informes de firma de EEUTIL.
+ * Las llamadas a EEUTIL tienen un tiempo m&aacute;ximo, un l&iacute;mite de llamadas
+ * simult&aacute;neas y un cortocircuito (ver {@link EeutilClient}). Si EEUTIL no est&aacute;
+ * disponible y as&iacute; se ha configurado, el CSV se estampa con {@link CsvProcessorSimple}
+ * en lugar de con el informe de firma.
+ * Trabaja siempre con el PDF completo en memoria, ya que el servicio de EEUTIL lo recibe como
+ * un array de octetos.
  * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
 public final class CsvProcessorEeutil implements CsvProcessor {
 
@@ -28,6 +41,36 @@ public final class CsvProcessorEeutil implements CsvProcessor {
 	private static final String CFG_KEY_PASSWORD = "password"; //$NON-NLS-1$
 	private static final String CFG_KEY_RECOVER_URL = "recoverUrl"; //$NON-NLS-1$
 	private static final String CFG_KEY_SITE_URL = "sedeUrl"; //$NON-NLS-1$
+	private static final String CFG_KEY_ENDPOINT = "endpoint"; //$NON-NLS-1$
+	private static final String CFG_KEY_TIMEOUT = "timeout"; //$NON-NLS-1$
+	private static final String CFG_KEY_MAX_CONCURRENT = "maxConcurrent"; //$NON-NLS-1$
+	private static final String CFG_KEY_BREAKER_FAILURES = "breakerFailures"; //$NON-NLS-1$
+	private static final String CFG_KEY_BREAKER_OPEN = "breakerOpenSeconds"; //$NON-NLS-1$
+	private static final String CFG_KEY_FALLBACK = "fallbackSimple"; //$NON-NLS-1$
+	private static final String CFG_KEY_SEND_CONTENT = "sendContent"; //$NON-NLS-1$
+
+	private static final int DEFAULT_TIMEOUT = 30000;
+	private static final int DEFAULT_MAX_CONCURRENT = 8;
+	private static final int DEFAULT_BREAKER_FAILURES = 5;
+	private static final int DEFAULT_BREAKER_OPEN = 30;
+
+	/** N&uacute;mero m&aacute;ximo de clientes de EEUTIL libres que se conservan. */
+	private static final int MAX_IDLE_PROXIES = 16;
+
+	/** Propiedades de los tiempos m&aacute;ximos de conexi&oacute;n y de espera de la respuesta
+	 * de las distintas implementaciones de JAX-WS: la de referencia, la incluida en el JDK y
+	 * la de CXF y otros servidores de aplicaciones. */
+	private static final String[] CONNECT_TIMEOUT_PROPERTIES = {
+		"com.sun.xml.ws.connect.timeout", //$NON-NLS-1$
+		"com.sun.xml.internal.ws.connect.timeout", //$NON-NLS-1$
+		"javax.xml.ws.client.connectionTimeout" //$NON-NLS-1$
+	};
+	private static final String[] RECEIVE_TIMEOUT_PROPERTIES = {
+		"com.sun.xml.ws.request.timeout", //$NON-NLS-1$
+		"com.sun.xml.internal.ws.request.timeout", //$NON-NLS-1$
+		"javax.xml.ws.client.receiveTimeout" //$NON-NLS-1$
+	};
+
 	static {
 		try {
 			CFG.load(CsvProcessorEeutil.class.getResourceAsStream("/eeutil.properties")); //$NON-NLS-1$
@@ -44,54 +87,99 @@ public final class CsvProcessorEeutil implements CsvProcessor {
 		SITE_URL        = CFG.getProperty(CFG_KEY_SITE_URL);
 	}
 
+	private final EeutilClient client;
+	private final CsvProcessor fallback;
+
+	/** Crea un procesador de CSV con EEUTIL seg&uacute;n la configuraci&oacute;n de
+	 * <code>eeutil.properties</code>. */
+	public CsvProcessorEeutil() {
+		this(
+			new EeutilClient(
+				new ProxyReportGenerator(
+					CFG.getProperty(CFG_KEY_ENDPOINT),
+					Boolean.parseBoolean(CFG.getProperty(CFG_KEY_SEND_CONTENT)),
+					getPositiveInt(CFG_KEY_TIMEOUT, DEFAULT_TIMEOUT)
+				),
+				getPositiveInt(CFG_KEY_MAX_CONCURRENT, DEFAULT_MAX_CONCURRENT),
+				getPositiveInt(CFG_KEY_TIMEOUT, DEFAULT_TIMEOUT),
+				new CircuitBreaker(
+					getPositiveInt(CFG_KEY_BREAKER_FAILURES, DEFAULT_BREAKER_FAILURES),
+					getPositiveInt(CFG_KEY_BREAKER_OPEN, DEFAULT_BREAKER_OPEN) * 1000L
+				)
+			),
+			Boolean.parseBoolean(CFG.getProperty(CFG_KEY_FALLBACK, "true")) ? new CsvProcessorSimple() : null //$NON-NLS-1$
+		);
+	}
+
+	/** Crea un procesador de CSV con EEUTIL.
+	 * @param eeutilClient Cliente de EEUTIL.
+	 * @param fallbackProcessor Procesador a usar si EEUTIL no est&aacute; disponible, o
+	 *                          <code>null</code> para devolver un error en ese caso. */
+	CsvProcessorEeutil(final EeutilClient eeutilClient, final CsvProcessor fallbackProcessor) {
+		this.client = eeutilClient;
+		this.fallback = fallbackProcessor;
+	}
+
+	/** Detiene el cliente de EEUTIL, interrumpiendo las llamadas en curso. */
+	void shutdown() {
+		this.client.shutdown();
+	}
+
+	private static int getPositiveInt(final String key, final int defaultValue) {
+		final String value = CFG.getProperty(key);
+		if (value == null || value.trim().isEmpty()) {
+			return defaultValue;
+		}
+		try {
+			final int ret = Integer.parseInt(value.trim());
+			if (ret > 0) {
+				return ret;
+			}
+		}
+		catch (final NumberFormatException e) {
+			// Se trata abajo
+		}
+		LOGGER.severe(
+			"El valor del parametro '" + key + "' del fichero 'eeutil.properties' debe ser un numero positivo: " + value //$NON-NLS-1$ //$NON-NLS-2$
+		);
+		throw new IllegalStateException(
+			"El valor del parametro '" + key + "' del fichero 'eeutil.properties' debe ser un numero positivo: " + value //$NON-NLS-1$ //$NON-NLS-2$
+		);
+	}
+
 	private static final String CSV_URL_TAG = "%%CSV%%"; //$NON-NLS-1$
 	private static final String PDF_MIMETYPE = "application/pdf"; //$NON-NLS-1$
 
 	@Override
-	public void doCsv(final byte[] signedPdf) throws PdfLacksSignaturesException,
-	                                                 IOException,
-	                                                 AOException,
-	                                                 PdfLacksIdException,
-	                                                 CsvStorerException {
+	public String doCsv(final byte[] signedPdf, final String pdfId) throws PdfLacksSignaturesException,
+	                                                   IOException,
+	                                                   AOException,
+	                                                   PdfLacksIdException,
+	                                                   CsvStorerException {
 		// Obtenemos el CSV
-		final String csv = PdfExtraUtil.getPdfId(signedPdf);
+		final String csv = pdfId != null ? pdfId : PdfExtraUtil.getPdfId(signedPdf);
 
 		// URL de recuperacion del CSV
 		final String recoverURL = RECOVER_URL.replace(CSV_URL_TAG, csv);
 
 		// Obtenemos el informe de firma de EEUTIL como array de octetos
+		final byte[] informeB;
+		try {
+			informeB = this.client.generateReport(csv, signedPdf, recoverURL);
+		}
+		catch (final EeutilUnavailableException e) {
+			if (this.fallback == null) {
+				throw e;
+			}
+			LOGGER.warning(
+				"EEUTIL no esta disponible, se estampa el CSV '" + csv + "' sin informe de firma: " + e //$NON-NLS-1$ //$NON-NLS-2$
+			);
+			return this.fallback.doCsv(signedPdf, csv);
+		}
 
-    	final ApplicationLogin aplicacionInfo = new ApplicationLogin(EEUTIL_USER, EEUTIL_PASSWORD);
-    	final CopiaInfoExtended copiaInfoExtended = new CopiaInfoExtended();
-    	final EeUtilServiceProxy eeUtilServiceProxy = new EeUtilServiceProxy();
-    	copiaInfoExtended.setIdAplicacion("GEN");
-    	copiaInfoExtended.setCsv(csv);
-    	copiaInfoExtended.setFecha("");
-    	copiaInfoExtended.setExpediente("");
-    	copiaInfoExtended.setNif("");
-    	copiaInfoExtended.setUrlSede(SITE_URL);
-    	final ContenidoInfo contenido = new ContenidoInfo();
-    	contenido.setContenido(signedPdf);
-    	contenido.setTipoMIME(PDF_MIMETYPE);
-    	copiaInfoExtended.setContenido(contenido);
-    	copiaInfoExtended.setTituloAplicacion("ÁMBITO");
-    	copiaInfoExtended.setTituloCSV("CSV");
-    	copiaInfoExtended.setTituloURL("DIRECCIÓN DE VALIDACIÓN");
-    	copiaInfoExtended.setEstamparLogo(false);
-    	copiaInfoExtended.setLateral(
-			"Código seguro de Verificación :" + csv + ". Puede verificar la integridad de este documento en la siguiente dirección:" + recoverURL
-		);
-    	copiaInfoExtended.setUrlQR(recoverURL);
-    	copiaInfoExtended.setFirma(signedPdf);
-    	copiaInfoExtended.setSimple(true);
-
-    	final CopiaInfo informe = eeUtilServiceProxy.generarInforme(aplicacionInfo, copiaInfoExtended);
-    	final byte[] informeB = informe.getContenido().getContenido();
-
-    	// Firmamos el informe
-    	final byte[] signedInformeB = ServiceConfig.getCsvSigner().signPdf(informeB);
-
-    	final PdfId idInforme = new PdfId(informeB, PdfExtraUtil.getPdfId(signedInformeB));
+    	// El informe se almacena tal como lo devuelve EEUTIL, con el CSV que figura en el y
+    	// sin calcular otra huella
+    	final PdfId idInforme = new PdfId(informeB, csv);
 
 	    // Enviamos el PDF
 	    final CsvStorer storer = ServiceConfig.getCsvStorer();
@@ -99,6 +187,100 @@ public final class CsvProcessorEeutil implements CsvProcessor {
     		idInforme,
     		signedPdf
 		);
+
+	    return idInforme.getId();
+	}
+
+	/** {@inheritDoc}
+	 * Este procesador no trabaja en flujo: lee el fichero completo en memoria, ya que debe
+	 * enviarlo entero a EEUTIL, y lo procesa como con {@link #doCsv(byte[], String)}. */
+	@Override
+	public String doCsv(final Path signedPdf, final String pdfId) throws PdfLacksSignaturesException,
+	                                                 IOException,
+	                                                 AOException,
+	                                                 PdfLacksIdException,
+	                                                 CsvStorerException {
+		return doCsv(Files.readAllBytes(signedPdf), pdfId);
+	}
+
+	/** Generador de informes con el cliente SOAP de EEUTIL. Los clientes se reutilizan entre
+	 * llamadas: cada llamada toma uno libre (o crea uno nuevo si no hay) y lo devuelve al
+	 * terminar, de forma que nunca se comparte un cliente entre llamadas simult&aacute;neas.
+	 * Cada cliente tiene tiempos m&aacute;ximos de conexi&oacute;n y de lectura, ya que cancelar
+	 * la llamada desde {@link EeutilClient} no interrumpe una lectura bloqueada del socket. */
+	private static final class ProxyReportGenerator implements EeutilClient.ReportGenerator {
+
+		private final String endpoint;
+		private final boolean sendContent;
+		private final int timeoutMillis;
+		private final Queue<EeUtilServiceProxy> idleProxies = new ConcurrentLinkedQueue<>();
+
+		ProxyReportGenerator(final String eeutilEndpoint, final boolean sendPdfAsContent, final int callTimeoutMillis) {
+			this.endpoint = eeutilEndpoint != null && !eeutilEndpoint.trim().isEmpty() ? eeutilEndpoint.trim() : null;
+			this.sendContent = sendPdfAsContent;
+			this.timeoutMillis = callTimeoutMillis;
+		}
+
+		/** Crea un cliente SOAP de EEUTIL con la direcci&oacute;n y los tiempos m&aacute;ximos
+		 * configurados.
+		 * @return Cliente SOAP de EEUTIL. */
+		private EeUtilServiceProxy createProxy() {
+			final EeUtilServiceProxy proxy = new EeUtilServiceProxy();
+			final Map<String, Object> context = ((BindingProvider) proxy._getDescriptor().getProxy()).getRequestContext();
+			if (this.endpoint != null) {
+				context.put(BindingProvider.ENDPOINT_ADDRESS_PROPERTY, this.endpoint);
+			}
+			final Integer timeout = Integer.valueOf(this.timeoutMillis);
+			for (final String property : CONNECT_TIMEOUT_PROPERTIES) {
+				context.put(property, timeout);
+			}
+			for (final String property : RECEIVE_TIMEOUT_PROPERTIES) {
+				context.put(property, timeout);
+			}
+			return proxy;
+		}
+
+		@Override
+		public byte[] generateReport(final String csv,
+				                     final byte[] signedPdf,
+				                     final String recoverURL) throws Exception {
+	    	final ApplicationLogin aplicacionInfo = new ApplicationLogin(EEUTIL_USER, EEUTIL_PASSWORD);
+	    	final CopiaInfoExtended copiaInfoExtended = new CopiaInfoExtended();
+	    	copiaInfoExtended.setIdAplicacion("GEN");
+	    	copiaInfoExtended.setCsv(csv);
+	    	copiaInfoExtended.setFecha("");
+	    	copiaInfoExtended.setExpediente("");
+	    	copiaInfoExtended.setNif("");
+	    	copiaInfoExtended.setUrlSede(SITE_URL);
+	    	final ContenidoInfo contenido = new ContenidoInfo();
+	    	// La firma PAdES ya contiene el documento, por lo que por defecto no se envia dos veces
+	    	if (this.sendContent) {
+	    		contenido.setContenido(signedPdf);
+	    	}
+	    	contenido.setTipoMIME(PDF_MIMETYPE);
+	    	copiaInfoExtended.setContenido(contenido);
+	    	copiaInfoExtended.setTituloAplicacion("ÁMBITO");
+	    	copiaInfoExtended.setTituloCSV("CSV");
+	    	copiaInfoExtended.setTituloURL("DIRECCIÓN DE VALIDACIÓN");
+	    	copiaInfoExtended.setEstamparLogo(false);
+	    	copiaInfoExtended.setLateral(
+				"Código seguro de Verificación :" + csv + ". Puede verificar la integridad de este documento en la siguiente dirección:" + recoverURL
+			);
+	    	copiaInfoExtended.setUrlQR(recoverURL);
+	    	copiaInfoExtended.setFirma(signedPdf);
+	    	copiaInfoExtended.setSimple(true);
+
+	    	EeUtilServiceProxy proxy = this.idleProxies.poll();
+	    	if (proxy == null) {
+	    		proxy = createProxy();
+	    	}
+	    	// Si la llamada falla el cliente no se reutiliza
+	    	final CopiaInfo informe = proxy.generarInforme(aplicacionInfo, copiaInfoExtended);
+	    	if (this.idleProxies.size() < MAX_IDLE_PROXIES) {
+	    		this.idleProxies.offer(proxy);
+	    	}
+	    	return informe != null && informe.getContenido() != null ? informe.getContenido().getContenido() : null;
+		}
 	}
 
 }
@@ -0,0 +1,62 @@
+package es.ciemat.csv;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import es.ciemat.csv.PdfExtraUtil.PdfId;
+import es.gob.afirma.core.AOException;
+
+/** Procesador de CSV que estampa y sella el PDF en una &uacute;nica pasada.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class CsvProcessorPipelined implements CsvProcessor {
+
+	@Override
+	public String doCsv(final byte[] signedPdf, final String pdfId) throws PdfLacksSignaturesException,
+	                                                   IOException,
+	                                                   AOException,
+	                                                   PdfLacksIdException,
+	                                                   CsvStorerException {
+		// Estampamos el CSV
+	    final PdfId stampedPdf = PipelinedPdfCsvStamper.stampCsv(
+	    	signedPdf,
+	    	pdfId,
+	    	ServiceConfig.isIncrementalStamping()
+	    );
+
+	    // Enviamos el PDF
+	    final CsvStorer storer = ServiceConfig.getCsvStorer();
+	    storer.storePdfWithCsv(stampedPdf, signedPdf);
+
+	    return stampedPdf.getId();
+	}
+
+	@Override
+	public String doCsv(final Path signedPdf, final String pdfId) throws PdfLacksSignaturesException,
+	                                                 IOException,
+	                                                 AOException,
+	                                                 PdfLacksIdException,
+	                                                 CsvStorerException {
+		// El PDF estampado se escribe en disco, junto al de entrada
+		final Path pdfWithCsv = ServiceConfig.createSpoolFile();
+		try {
+			// Estampamos el CSV
+		    final PdfId stampedPdf = PipelinedPdfCsvStamper.stampCsv(
+		    	signedPdf,
+		    	pdfWithCsv,
+		    	pdfId,
+		    	ServiceConfig.isIncrementalStamping()
+		    );
+
+		    // Enviamos el PDF
+		    final CsvStorer storer = ServiceConfig.getCsvStorer();
+		    storer.storePdfWithCsv(stampedPdf, signedPdf);
+
+		    return stampedPdf.getId();
+		}
+		finally {
+			Files.deleteIfExists(pdfWithCsv);
+		}
+	}
+
+}
@@ -1,26 +1,44 @@
 package es.ciemat.csv;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 import es.ciemat.csv.PdfExtraUtil.PdfId;
 import es.gob.afirma.core.AOException;
 
-/** Procesador simple de CSV.
+/** Procesador simple de CSV. Trabaja siempre con el PDF completo en memoria, ya que tanto la
+ * estampaci&oacute;n como el sello PAdES operan sobre arrays de octetos; para PDF de gran
+ * tama&ntilde;o debe usarse {@link CsvProcessorPipelined}.
  * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
 public final class CsvProcessorSimple implements CsvProcessor {
 
 	@Override
-	public void doCsv(final byte[] signedPdf) throws PdfLacksSignaturesException,
-	                                                 IOException,
-	                                                 AOException,
-	                                                 PdfLacksIdException,
-	                                                 CsvStorerException {
+	public String doCsv(final byte[] signedPdf, final String pdfId) throws PdfLacksSignaturesException,
+	                                                   IOException,
+	                                                   AOException,
+	                                                   PdfLacksIdException,
+	                                                   CsvStorerException {
 		// Estampamos el CSV
-	    final PdfId pdfId = SimplePdfCsvStamper.stampCsv(signedPdf);
+	    final PdfId pdfWithCsv = SimplePdfCsvStamper.stampCsv(signedPdf, pdfId);
 
 	    // Enviamos el PDF
 	    final CsvStorer storer = ServiceConfig.getCsvStorer();
-	    storer.storePdfWithCsv(pdfId, signedPdf);
+	    storer.storePdfWithCsv(pdfWithCsv, signedPdf);
+
+	    return pdfWithCsv.getId();
+	}
+
+	/** {@inheritDoc}
+	 * Este procesador no trabaja en flujo: lee el fichero completo en memoria y lo procesa
+	 * como con {@link #doCsv(byte[], String)}. */
+	@Override
+	public String doCsv(final Path signedPdf, final String pdfId) throws PdfLacksSignaturesException,
+	                                                 IOException,
+	                                                 AOException,
+	                                                 PdfLacksIdException,
+	                                                 CsvStorerException {
+		return doCsv(Files.readAllBytes(signedPdf), pdfId);
 	}
 
 }
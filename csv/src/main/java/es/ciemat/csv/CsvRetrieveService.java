@@ -1,8 +1,6 @@
 package es.ciemat.csv;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.URLDecoder;
 import java.util.logging.Logger;
 
@@ -12,13 +10,10 @@ import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import javax.servlet.http.Part;
 
 import org.apache.chemistry.opencmis.commons.exceptions.CmisObjectNotFoundException;
 
 import es.ciemat.csv.PdfExtraUtil.PdfId;
-import es.gob.afirma.core.misc.AOUtil;
-import es.gob.afirma.core.misc.Base64;
 
 /** Servicio de recuperaci&oacute;n de documentos con CSV. */
 @WebServlet(name = "Servicio de recuperacion de documentos con CSV", urlPatterns = { "/CsvRetrieveService" })
@@ -29,12 +24,15 @@ public final class CsvRetrieveService extends HttpServlet {
 
 	private static final String PARAM_CSV = "csv"; //$NON-NLS-1$
 
-	private static final String PARAM_DATA = "data"; //$NON-NLS-1$
-
 	private static final Logger LOGGER = Logger.getLogger(CsvService.class.getName());
 
 	private static final String REDIR_MSG_TAG = "%msg%"; //$NON-NLS-1$
 
+	private static final String PDF_MIMETYPE = "application/pdf"; //$NON-NLS-1$
+
+	private static final String HEADER_ETAG = "ETag"; //$NON-NLS-1$
+	private static final String HEADER_IF_NONE_MATCH = "If-None-Match"; //$NON-NLS-1$
+
 	@Override
 	protected void doGet(final HttpServletRequest request,
 			               final HttpServletResponse response) throws ServletException,
@@ -42,47 +40,41 @@ public final class CsvRetrieveService extends HttpServlet {
 		final String csv = request.getParameter(PARAM_CSV);
 		final String redirUrl = ServiceConfig.getWebErrorRedirectUrl();
 		if (csv != null && !csv.isEmpty()) {
+			final String id = URLDecoder.decode(csv.trim(), "UTF-8"); //$NON-NLS-1$
+
 			final CsvStorer storer = ServiceConfig.getCsvStorer();
 
-			byte[] pdf = null;
+			// Los documentos con CSV no cambian nunca, asi que su identificador sirve como ETag,
+			// pero solo se responde que no ha cambiado si el documento existe
+			final String etag = toEtag(id);
+			response.setHeader(HEADER_ETAG, etag);
+			if (matchesEtag(request.getHeader(HEADER_IF_NONE_MATCH), etag) && exists(storer, id)) {
+				response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				return;
+			}
+
+			// El PDF se escribe directamente en la respuesta, sin cargarlo en memoria
+			response.setContentType(PDF_MIMETYPE);
 			try {
-				pdf = storer.retrievePdfWithCsv(
-					new PdfId(
-						URLDecoder.decode(csv.trim(), "UTF-8") //$NON-NLS-1$
-					)
+				storer.retrievePdfWithCsv(
+					new PdfId(id),
+					response.getOutputStream()
 				);
 			}
 			catch (final CsvStorerException e) {
 				final String msg = "Error obteniendo el PDF con CSV '" + URLDecoder.decode(csv, "UTF-8") + "'"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 				LOGGER.severe(msg + ": " + e); //$NON-NLS-1$
-				response.sendRedirect(redirUrl.replace(REDIR_MSG_TAG, msg));
+				redirectToError(response, redirUrl.replace(REDIR_MSG_TAG, msg));
 			}
 			catch (final CsvFileNotFoundException e) {
 				final String msg = "No hay un PDF con CSV '" + URLDecoder.decode(csv, "UTF-8") + "'"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 				LOGGER.severe(msg + ": " + e); //$NON-NLS-1$
-				response.sendRedirect(redirUrl.replace(REDIR_MSG_TAG, msg));
+				redirectToError(response, redirUrl.replace(REDIR_MSG_TAG, msg));
 			}
 			catch (final CmisObjectNotFoundException e) {
 				final String msg = "No se ha encontrado el objeto CMIS"; //$NON-NLS-1$
 				LOGGER.severe(msg + ": " + e); //$NON-NLS-1$
-				response.sendRedirect(redirUrl.replace(REDIR_MSG_TAG, msg));
-			}
-
-			// Ya tenemos el PDF, lo devolvemos en el response con el MIME-Type apropiado
-			if (pdf != null) {
-					try (
-					final OutputStream os = response.getOutputStream()
-				) {
-					response.setContentType("application/pdf"); //$NON-NLS-1$
-					os.write(pdf);
-					os.flush();
-					os.close();
-				}
-			}
-			else {
-				final String msg = "Se ha obtenido un PDF nulo"; //$NON-NLS-1$
-				LOGGER.severe(msg);
-				response.sendRedirect(redirUrl.replace(REDIR_MSG_TAG, msg));
+				redirectToError(response, redirUrl.replace(REDIR_MSG_TAG, msg));
 			}
 
 			return;
@@ -97,34 +89,10 @@ public final class CsvRetrieveService extends HttpServlet {
 	protected void doPost(final HttpServletRequest request,
 			              final HttpServletResponse response) throws IOException {
 
-		final String base64Data = request.getParameter(PARAM_DATA);
-		final byte[] fileData;
-		if (base64Data != null && !base64Data.isEmpty()) {
-			fileData = Base64.decode(base64Data.replace("-", "+").replace("_", "/"));   //$NON-NLS-1$//$NON-NLS-2$//$NON-NLS-3$ //$NON-NLS-4$
-		}
-		else {
-		    Part filePart;
-			try {
-				filePart = request.getPart("file"); // Recupera <input type="file" name="file"> //$NON-NLS-1$
-			}
-			catch(final ServletException | IllegalStateException e) {
-				// No es multiparte
-				LOGGER.info(
-					"La entrada no es multiparte, se intentara recuperar el PDF del cuerpo del POST: " + e //$NON-NLS-1$
-				);
-				filePart = null;
-			}
-
-		    try (
-	    		final InputStream fileContent = filePart != null ?
-					filePart.getInputStream():
-						request.getInputStream()
-			) {
-		    	fileData = AOUtil.getDataFromInputStream(fileContent);
-		    }
-		}
-
-		if (fileData == null) {
+		// Solo se necesita el ID del PDF de entrada, que se calcula segun se lee sin
+		// cargar el documento en memoria
+		final String id = ReceivedPdf.readId(request);
+		if (id == null) {
 			LOGGER.severe(
 				"No se ha recibido un documento valido" //$NON-NLS-1$
 			);
@@ -135,54 +103,103 @@ public final class CsvRetrieveService extends HttpServlet {
 			return;
 		}
 
-		LOGGER.info("Obtenido un documento de " + fileData.length +  " octetos"); //$NON-NLS-1$ //$NON-NLS-2$
-
-		// En este punto, fileData contiene el PDF de entrada, calculamos
-		// su ID
-		final String id = PdfExtraUtil.getPdfId(fileData);
-
 		// Con el ID, obtenemos el PDF
 		final CsvStorer storer = ServiceConfig.getCsvStorer();
 
-		byte[] pdf = null;
+		// El PDF se escribe directamente en la respuesta, sin cargarlo en memoria
+		response.setHeader(HEADER_ETAG, toEtag(id));
+		response.setContentType(PDF_MIMETYPE);
 		try {
-			pdf = storer.retrievePdfWithCsv(
+			storer.retrievePdfWithCsv(
 				new PdfId(
 					URLDecoder.decode(id, "UTF-8") //$NON-NLS-1$
-				)
+				),
+				response.getOutputStream()
 			);
 		}
 		catch (final CsvStorerException e) {
 			LOGGER.severe(
 				"Error obteniendo el PDF con CSV '" + URLDecoder.decode(id, "UTF-8") + "': " + e //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 			);
-			response.sendError(
+			sendError(
+				response,
 				HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
 				"Error obteniendo el PDF con CSV '" + URLDecoder.decode(id, "UTF-8") + "': " + e //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 			);
-			return;
 		}
 		catch (final CsvFileNotFoundException e) {
 			LOGGER.severe(
 				"No hay un PDF con CSV '" + URLDecoder.decode(id, "UTF-8") + "': " + e //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 			);
-			response.sendError(
+			sendError(
+				response,
 				HttpServletResponse.SC_BAD_REQUEST,
 				"No hay un PDF con CSV '" + URLDecoder.decode(id, "UTF-8") + "': " + e //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 			);
-			return;
 		}
 
-		// Ya tenemos el PDF, lo devolvemos en el response con el MIME-Type apropiado
-		try (
-			final OutputStream os = response.getOutputStream()
-		) {
-			response.setContentType("application/pdf"); //$NON-NLS-1$
-		    os.write(pdf);
-		    os.flush();
-		    os.close();
+	}
+
+	/** Indica si existe el documento con un CSV. Si no puede comprobarse se considera que no
+	 * existe, de forma que se intente recuperar y se informe del error.
+	 * @param storer Almacenador de documentos.
+	 * @param id CSV del documento.
+	 * @return <code>true</code> si el documento existe. */
+	private static boolean exists(final CsvStorer storer, final String id) {
+		try {
+			return storer.exists(new PdfId(id));
+		}
+		catch (final CsvStorerException e) {
+			LOGGER.warning("No se ha podido comprobar si existe el PDF con CSV '" + id + "': " + e); //$NON-NLS-1$ //$NON-NLS-2$
+			return false;
 		}
+	}
+
+	private static String toEtag(final String id) {
+		return "\"" + id + "\""; //$NON-NLS-1$ //$NON-NLS-2$
+	}
 
+	/** Indica si la cabecera <code>If-None-Match</code> de la petici&oacute;n incluye la
+	 * ETag del documento, en cuyo caso el cliente ya lo tiene si el documento existe.
+	 * @param ifNoneMatch Valor de la cabecera <code>If-None-Match</code>.
+	 * @param etag ETag del documento.
+	 * @return <code>true</code> si el cliente ya tiene el documento. */
+	static boolean matchesEtag(final String ifNoneMatch, final String etag) {
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		for (final String tag : ifNoneMatch.split(",")) { //$NON-NLS-1$
+			String t = tag.trim();
+			if (t.startsWith("W/")) { //$NON-NLS-1$
+				t = t.substring(2);
+			}
+			if ("*".equals(t) || etag.equals(t)) { //$NON-NLS-1$
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Redirige a la p&aacute;gina de error si a&uacute;n no se ha empezado a enviar el documento.
+	 * Si ya se hab&iacute;a enviado parte, solo puede cortarse la respuesta. */
+	private static void redirectToError(final HttpServletResponse response, final String url) throws IOException {
+		if (response.isCommitted()) {
+			LOGGER.severe("No se puede redirigir a la pagina de error, el documento ya se estaba enviando"); //$NON-NLS-1$
+			return;
+		}
+		response.sendRedirect(url);
+	}
+
+	/** Devuelve un error HTTP si a&uacute;n no se ha empezado a enviar el documento.
+	 * Si ya se hab&iacute;a enviado parte, solo puede cortarse la respuesta. */
+	private static void sendError(final HttpServletResponse response,
+			                      final int code,
+			                      final String msg) throws IOException {
+		if (response.isCommitted()) {
+			LOGGER.severe("No se puede devolver el error, el documento ya se estaba enviando"); //$NON-NLS-1$
+			return;
+		}
+		response.sendError(code, msg);
 	}
 
 }
@@ -2,7 +2,7 @@ package es.ciemat.csv;
 
 import java.io.IOException;
 
-final class CsvSignerEeutil implements CsvSigner {
+public final class CsvSignerEeutil implements CsvSigner {
 
 	@Override
 	public byte[] signPdf(final byte[] unsignedPdfWithCsv) throws IOException {
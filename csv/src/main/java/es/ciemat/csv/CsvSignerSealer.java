@@ -0,0 +1,51 @@
+package es.ciemat.csv;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.logging.Logger;
+
+import com.aowagie.text.pdf.PdfStamper;
+
+/** Firmador de CSV ligero, con la misma clave que {@link CsvSignerSimple}.
+ * Sella con {@link PdfSealer}, que reutiliza los motores de firma entre sellados y puede sellar
+ * sobre la sesi&oacute;n de estampaci&oacute;n abierta, como necesita el procesador en una sola
+ * pasada. A diferencia de {@link CsvSignerSimple}, el sello no es una firma PAdES sino un
+ * PKCS#7 <code>adbe.pkcs7.detached</code> sin el atributo de certificado de firma ESS, por lo
+ * que solo debe configurarse si ese formato es aceptable.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class CsvSignerSealer implements CsvStamperSigner {
+
+	private static final Logger LOGGER = Logger.getLogger(CsvSignerSealer.class.getName());
+
+	/** Sellador compartido por todos los hilos. */
+	private static final PdfSealer SEALER;
+	static {
+		try {
+			SEALER = new PdfSealer(
+				CsvSignerSimple.DEFAULT_SIGN_KEY,
+				CsvSignerSimple.DEAULT_SIGN_CHAIN,
+				CsvSignerSimple.DEFAULT_DIGEST_ALGO
+			);
+		}
+		catch (final GeneralSecurityException e) {
+			LOGGER.severe("La clave de sellado no es valida: " + e); //$NON-NLS-1$
+			throw new IllegalStateException(
+				"La clave de sellado no es valida: " + e, e //$NON-NLS-1$
+			);
+		}
+		LOGGER.warning(
+			"Los CSV se sellaran con firmas PKCS#7 sin atributos PAdES" //$NON-NLS-1$
+		);
+	}
+
+	@Override
+	public byte[] signPdf(final byte[] unsignedPdfWithCsv) throws IOException {
+		return SEALER.signPdf(unsignedPdfWithCsv);
+	}
+
+	@Override
+	public void signPdf(final PdfStamper stamperWithCsv) throws IOException {
+		SEALER.signPdf(stamperWithCsv);
+	}
+
+}
@@ -3,6 +3,7 @@ package es.ciemat.csv;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.GeneralSecurityException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
@@ -16,7 +17,12 @@ import java.util.logging.Logger;
 import es.gob.afirma.core.AOException;
 import es.gob.afirma.signers.pades.AOPDFSigner;
 
-final class CsvSignerSimple implements CsvSigner {
+/** Firmador de CSV que sella los PDF con firmas PAdES, con la clave configurada en
+ * <code>csvsignerconfig.properties</code>. La clave y la cadena de certificados se cargan y
+ * validan una &uacute;nica vez, y el firmador y sus par&aacute;metros se comparten entre todos
+ * los sellados.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class CsvSignerSimple implements CsvSigner {
 
 	private static final String CFG_KEY_KEYSTORE_TYPE = "keystore.type"; //$NON-NLS-1$
 	private static final String CFG_KEY_KEYSTORE_FILE = "keystore.file"; //$NON-NLS-1$
@@ -24,14 +30,22 @@ final class CsvSignerSimple implements CsvSigner {
 	private static final String CFG_KEY_KEYSTORE_ENTRYPASSWORD = "keystore.entrypassword"; //$NON-NLS-1$
 	private static final String CFG_KEY_KEYSTORE_ENTRYALIAS = "keystore.entryalias"; //$NON-NLS-1$
 
+	/** Prefijo de las claves de configuraci&oacute;n del almac&eacute;n, que no se pasan al firmador. */
+	private static final String CFG_KEY_KEYSTORE_PREFIX = "keystore."; //$NON-NLS-1$
+
+	static final String DEFAULT_DIGEST_ALGO = "SHA-512"; //$NON-NLS-1$
 	private static final String DEFAULT_SIGN_ALGO = "SHA512withRSA"; //$NON-NLS-1$
-	private static final PrivateKey DEFAULT_SIGN_KEY;
-	private static final Certificate[] DEAULT_SIGN_CHAIN;
+
+	static final PrivateKey DEFAULT_SIGN_KEY;
+	static final Certificate[] DEAULT_SIGN_CHAIN;
 
 	private static final Logger LOGGER = Logger.getLogger(CsvSignerSimple.class.getName());
 
 	private static final AOPDFSigner PDFSIGNER = new AOPDFSigner();
 
+	/** Par&aacute;metros de la firma PAdES, sin los del almac&eacute;n de claves. */
+	private static final Properties PADES_CFG = new Properties();
+
 	private static final Properties CFG = new Properties();
 	static {
 		try {
@@ -43,6 +57,11 @@ final class CsvSignerSimple implements CsvSigner {
 				"Error cargando la configuracion del firmador de CSV: " + e, e //$NON-NLS-1$
 			);
 		}
+		for (final String key : CFG.stringPropertyNames()) {
+			if (!key.startsWith(CFG_KEY_KEYSTORE_PREFIX)) {
+				PADES_CFG.setProperty(key, CFG.getProperty(key));
+			}
+		}
 		final KeyStore ks;
 		try {
 			ks = KeyStore.getInstance(CFG.getProperty(CFG_KEY_KEYSTORE_TYPE, KeyStore.getDefaultType()));
@@ -93,17 +112,29 @@ final class CsvSignerSimple implements CsvSigner {
 				"Error cargando la cadena de certificados para el alias '" + CFG.getProperty(CFG_KEY_KEYSTORE_ENTRYALIAS) + "': " + e, e //$NON-NLS-1$ //$NON-NLS-2$
 			);
 		}
+
+		// La clave y la cadena se validan una unica vez, al arrancar
+		try {
+			PdfSealer.checkSigningMaterial(DEFAULT_SIGN_KEY, DEAULT_SIGN_CHAIN, DEFAULT_DIGEST_ALGO);
+		}
+		catch (final GeneralSecurityException e) {
+			LOGGER.severe("La clave de sellado con el alias '" + CFG.getProperty(CFG_KEY_KEYSTORE_ENTRYALIAS) + "' no es valida: " + e); //$NON-NLS-1$ //$NON-NLS-2$
+			throw new IllegalStateException(
+				"La clave de sellado con el alias '" + CFG.getProperty(CFG_KEY_KEYSTORE_ENTRYALIAS) + "' no es valida: " + e, e //$NON-NLS-1$ //$NON-NLS-2$
+			);
+		}
 	}
 
 	@Override
 	public byte[] signPdf(final byte[] unsignedPdfWithCsv) throws IOException {
 		try {
-			return CsvSignerSimple.PDFSIGNER.sign(
+			// Se pasa una copia de los parametros por si el firmador los modifica
+			return PDFSIGNER.sign(
 				unsignedPdfWithCsv,
 				DEFAULT_SIGN_ALGO,
 				DEFAULT_SIGN_KEY,
 				DEAULT_SIGN_CHAIN,
-				CFG
+				(Properties) PADES_CFG.clone()
 			);
 		}
 		catch (final AOException e) {
@@ -0,0 +1,362 @@
+package es.ciemat.csv;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.plugins.jpeg.JPEGImageWriteParam;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import es.gob.afirma.core.misc.AOUtil;
+import es.gob.afirma.core.signers.AOSimpleSignInfo;
+
+/** Generador del texto y de la imagen del CSV.
+ * Todo lo que no depende del documento se prepara una &uacute;nica vez y se comparte entre
+ * hilos: la fuente y sus m&eacute;tricas, la disposici&oacute;n de las partes fijas de las
+ * plantillas (el enlace de recuperaci&oacute;n y la l&iacute;nea de cada firma) con sus anchos ya
+ * medidos, y los codificadores JPEG, que se reutilizan de un conjunto compartido.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+final class CsvStampRenderer {
+
+	private static final String CSV_TEXT_TEMPLATE_SUBJECTCN = "$$SUBJECTCN$$"; //$NON-NLS-1$
+	private static final String CSV_TEXT_TEMPLATE_SIGNDATE = "$$SIGNDATE$$"; //$NON-NLS-1$
+
+	private static final String CSV_LINK_TEMPLATE_CVS = "%csv%"; //$NON-NLS-1$
+
+	private static final String DEFAULT_CSV_TEXT_TEMPLATE = "Firmado por " + CSV_TEXT_TEMPLATE_SUBJECTCN + " en fecha " + CSV_TEXT_TEMPLATE_SIGNDATE; //$NON-NLS-1$ //$NON-NLS-2$
+
+	private static final String DATE_PATTERN = "dd 'de' MMMM 'de' yyyy 'a las' hh:mm:ss"; //$NON-NLS-1$
+	private static final Locale DATE_LOCALE = Locale.forLanguageTag("es-ES"); //$NON-NLS-1$
+	private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern(DATE_PATTERN, DATE_LOCALE);
+
+	private static final int CSV_SPACING = 2;
+
+	/** N&uacute;mero m&aacute;ximo de plantillas distintas cuya disposici&oacute;n se conserva. */
+	private static final int MAX_LAYOUTS = 32;
+
+	/** N&uacute;mero m&aacute;ximo de codificadores JPEG libres que se conservan. */
+	private static final int MAX_IDLE_WRITERS = Math.max(8, Runtime.getRuntime().availableProcessors() * 2);
+
+	private static final JPEGImageWriteParam JPEG_PARAMS = new JPEGImageWriteParam(null);
+	static {
+		JPEG_PARAMS.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+		JPEG_PARAMS.setCompressionQuality(1f);
+	}
+
+	private static final ConcurrentHashMap<String, Layout> LAYOUTS = new ConcurrentHashMap<>();
+
+	private static final Queue<ImageWriter> IDLE_WRITERS = new ConcurrentLinkedQueue<>();
+
+	private CsvStampRenderer() {
+		// No instanciable
+	}
+
+	/** M&eacute;tricas de la fuente del CSV. Se obtienen la primera vez que se necesitan, de
+	 * forma que el CSV vectorial no inicializa AWT. */
+	private static final class Metrics {
+
+		static final Font FONT = new Font("Arial", Font.PLAIN, 10); //$NON-NLS-1$
+
+		/** M&eacute;tricas con las que se mide el texto. */
+		static final FontMetrics MEASURE;
+
+		/** Ascendente de la fuente con las opciones de dibujo de la imagen. */
+		static final int DRAW_ASCENT;
+
+		/** Ancho de cada car&aacute;cter Latin-1. */
+		static final int[] LATIN_WIDTHS = new int[256];
+
+		static {
+			final Graphics2D g2d = new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_GRAY).createGraphics();
+			g2d.setFont(FONT);
+			MEASURE = g2d.getFontMetrics();
+			setRenderingHints(g2d);
+			DRAW_ASCENT = g2d.getFontMetrics().getAscent();
+			g2d.dispose();
+			for (char c = 0; c < LATIN_WIDTHS.length; c++) {
+				LATIN_WIDTHS[c] = MEASURE.charWidth(c);
+			}
+		}
+
+		private Metrics() {
+			// No instanciable
+		}
+	}
+
+	/** Obtiene las l&iacute;neas del texto del CSV: el enlace de verificaci&oacute;n seguido de
+	 * una l&iacute;nea por firma.
+	 * @param id CSV del PDF.
+	 * @param signatures Firmas del PDF.
+	 * @param textTemplate Plantilla de la l&iacute;nea de cada firma, o <code>null</code> para usar
+	 *                     la plantilla por defecto.
+	 * @return L&iacute;neas del texto del CSV. */
+	static String[] getLines(final String id,
+			                 final AOSimpleSignInfo[] signatures,
+			                 final String textTemplate) {
+		final Line[] lines = layout(id, signatures, textTemplate);
+		final String[] ret = new String[lines.length];
+		for (int i = 0; i < lines.length; i++) {
+			ret[i] = lines[i].text;
+		}
+		return ret;
+	}
+
+	/** Genera el CSV como imagen JPEG: el texto del CSV con el c&oacute;digo de barras debajo.
+	 * @param id CSV del PDF.
+	 * @param signatures Firmas del PDF.
+	 * @param textTemplate Plantilla de la l&iacute;nea de cada firma, o <code>null</code> para usar
+	 *                     la plantilla por defecto.
+	 * @return Imagen JPEG del CSV.
+	 * @throws IOException Si no se puede codificar la imagen. */
+	static byte[] renderJpeg(final String id,
+			                 final AOSimpleSignInfo[] signatures,
+			                 final String textTemplate) throws IOException {
+
+		final Line[] lines = layout(id, signatures, textTemplate);
+		int textWidth = 0;
+		for (final Line line : lines) {
+			textWidth = Math.max(textWidth, line.getWidth());
+		}
+		final int textHeight = Metrics.MEASURE.getHeight();
+
+		final Image barcode = PdfExtraUtil.generateBarcode128AsJpeg(id);
+		final int barcodeWidth = barcode.getWidth(null);
+		final int barcodeHeight = barcode.getHeight(null);
+
+		final BufferedImage img = new BufferedImage(
+			Math.max(barcodeWidth, textWidth),
+			barcodeHeight + (textHeight + CSV_SPACING) * lines.length,
+			BufferedImage.TYPE_BYTE_GRAY
+		);
+
+		final Graphics2D g2d = img.createGraphics();
+		setRenderingHints(g2d);
+		g2d.setColor(Color.WHITE);
+		g2d.fillRect(0, 0, img.getWidth(), img.getHeight());
+		g2d.setFont(Metrics.FONT);
+		g2d.setColor(Color.BLACK);
+		int y = 0;
+		for (final Line line : lines) {
+			g2d.drawString(line.text, 0, y += Metrics.DRAW_ASCENT + CSV_SPACING);
+		}
+		g2d.drawImage(barcode, 0, y + CSV_SPACING * 3, null);
+		g2d.dispose();
+
+		return encodeJpeg(img);
+	}
+
+	/** Formatea la fecha de una firma tal y como aparece en el CSV, en la zona horaria
+	 * del sistema. Puede usarse desde varios hilos a la vez, ya que el formateador es inmutable.
+	 * @param date Fecha.
+	 * @return Fecha formateada. */
+	static String formatDate(final Date date) {
+		return DATE_FORMATTER.format(date.toInstant().atZone(ZoneId.systemDefault()));
+	}
+
+	/** Obtiene el ancho en p&iacute;xeles de un texto con la fuente de la imagen del CSV.
+	 * @param text Texto.
+	 * @return Ancho del texto. */
+	static int stringWidth(final String text) {
+		final int[] widths = Metrics.LATIN_WIDTHS;
+		int width = 0;
+		for (int i = 0; i < text.length(); i++) {
+			final char c = text.charAt(i);
+			width += c < widths.length ? widths[c] : Metrics.MEASURE.charWidth(c);
+		}
+		return width;
+	}
+
+	private static Line[] layout(final String id,
+			                     final AOSimpleSignInfo[] signatures,
+			                     final String textTemplate) {
+		if (id == null || id.isEmpty()) {
+			throw new IllegalArgumentException("Es necesario proporcionar un ID"); //$NON-NLS-1$
+		}
+
+		if (signatures == null || signatures.length < 1) {
+			throw new IllegalArgumentException("Es necesrio proporcionar al menos una firma"); //$NON-NLS-1$
+		}
+
+		final Line[] lines = new Line[signatures.length + 1];
+		lines[0] = getLayout(ServiceConfig.getCsvRetrieveUrl(), CSV_LINK_TEMPLATE_CVS).apply(id);
+		final Layout signLayout = getLayout(
+			textTemplate != null ? textTemplate : DEFAULT_CSV_TEXT_TEMPLATE,
+			CSV_TEXT_TEMPLATE_SUBJECTCN,
+			CSV_TEXT_TEMPLATE_SIGNDATE
+		);
+		for (int i = 0; i < signatures.length; i++) {
+			lines[i + 1] = signLayout.apply(
+				AOUtil.getCN(signatures[i].getCerts()[0]),
+				formatDate(signatures[i].getSigningTime())
+			);
+		}
+		return lines;
+	}
+
+	private static Layout getLayout(final String template, final String... placeholders) {
+		Layout layout = LAYOUTS.get(template);
+		if (layout == null) {
+			layout = new Layout(template, placeholders);
+			// Las plantillas salen de la configuracion, pero se acota por si no fuese asi
+			if (LAYOUTS.size() < MAX_LAYOUTS) {
+				LAYOUTS.putIfAbsent(template, layout);
+			}
+		}
+		return layout;
+	}
+
+	private static void setRenderingHints(final Graphics2D g2d) {
+		g2d.setRenderingHint(RenderingHints.KEY_ALPHA_INTERPOLATION, RenderingHints.VALUE_ALPHA_INTERPOLATION_QUALITY);
+		g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		g2d.setRenderingHint(RenderingHints.KEY_COLOR_RENDERING, RenderingHints.VALUE_COLOR_RENDER_QUALITY);
+		g2d.setRenderingHint(RenderingHints.KEY_DITHERING, RenderingHints.VALUE_DITHER_ENABLE);
+		g2d.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+		g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+		g2d.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+	}
+
+	private static byte[] encodeJpeg(final BufferedImage img) throws IOException {
+		ImageWriter writer = IDLE_WRITERS.poll();
+		if (writer == null) {
+			final Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpg"); //$NON-NLS-1$
+			if (!writers.hasNext()) {
+				throw new IOException("No hay ningun codificador JPEG disponible"); //$NON-NLS-1$
+			}
+			writer = writers.next();
+		}
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try (
+			final ImageOutputStream ios = new MemoryCacheImageOutputStream(baos)
+		) {
+			writer.setOutput(ios);
+			writer.write(null, new IIOImage(img, null, null), JPEG_PARAMS);
+		}
+		catch (final IOException | RuntimeException e) {
+			// Si falla la codificacion el codificador queda en estado desconocido y no se reutiliza
+			writer.dispose();
+			throw e;
+		}
+		writer.reset();
+		if (IDLE_WRITERS.size() < MAX_IDLE_WRITERS) {
+			IDLE_WRITERS.offer(writer);
+		}
+		else {
+			writer.dispose();
+		}
+		return baos.toByteArray();
+	}
+
+	/** L&iacute;nea del texto del CSV. */
+	private static final class Line {
+
+		final String text;
+		private final Layout layout;
+		private final String[] values;
+
+		Line(final String lineText, final Layout lineLayout, final String[] variableParts) {
+			this.text = lineText;
+			this.layout = lineLayout;
+			this.values = variableParts;
+		}
+
+		/** Obtiene el ancho de la l&iacute;nea, midiendo solo sus partes variables. */
+		int getWidth() {
+			int width = this.layout.getFixedWidth();
+			for (final String value : this.values) {
+				width += stringWidth(value);
+			}
+			return width;
+		}
+	}
+
+	/** Disposici&oacute;n de una plantilla: sus partes fijas, ya medidas, y los huecos en los
+	 * que van los valores de cada l&iacute;nea. */
+	private static final class Layout {
+
+		/** Partes fijas. La parte <code>i</code> precede al hueco <code>i</code> y la
+		 * &uacute;ltima va tras el &uacute;ltimo hueco. */
+		private final String[] fixed;
+
+		/** &Iacute;ndice del valor que va en cada hueco. */
+		private final int[] slots;
+
+		/** Ancho de todas las partes fijas, o -1 si a&uacute;n no se ha medido. */
+		private volatile int fixedWidth = -1;
+
+		Layout(final String template, final String... placeholders) {
+			final List<String> fixedParts = new ArrayList<>();
+			final List<Integer> slotList = new ArrayList<>();
+			int pos = 0;
+			while (true) {
+				int next = -1;
+				int slot = -1;
+				for (int i = 0; i < placeholders.length; i++) {
+					final int idx = template.indexOf(placeholders[i], pos);
+					if (idx >= 0 && (next < 0 || idx < next)) {
+						next = idx;
+						slot = i;
+					}
+				}
+				if (next < 0) {
+					break;
+				}
+				fixedParts.add(template.substring(pos, next));
+				slotList.add(Integer.valueOf(slot));
+				pos = next + placeholders[slot].length();
+			}
+			fixedParts.add(template.substring(pos));
+			this.fixed = fixedParts.toArray(new String[fixedParts.size()]);
+			this.slots = new int[slotList.size()];
+			for (int i = 0; i < this.slots.length; i++) {
+				this.slots[i] = slotList.get(i).intValue();
+			}
+		}
+
+		Line apply(final String... values) {
+			final StringBuilder sb = new StringBuilder();
+			final String[] slotValues = new String[this.slots.length];
+			for (int i = 0; i < this.slots.length; i++) {
+				slotValues[i] = values[this.slots[i]];
+				sb.append(this.fixed[i]).append(slotValues[i]);
+			}
+			sb.append(this.fixed[this.fixed.length - 1]);
+			return new Line(sb.toString(), this, slotValues);
+		}
+
+		int getFixedWidth() {
+			int width = this.fixedWidth;
+			if (width < 0) {
+				// Carrera benigna: todos los hilos obtendrian el mismo valor
+				width = 0;
+				for (final String part : this.fixed) {
+					width += stringWidth(part);
+				}
+				this.fixedWidth = width;
+			}
+			return width;
+		}
+	}
+
+}
@@ -0,0 +1,21 @@
+package es.ciemat.csv;
+
+import java.io.IOException;
+
+import com.aowagie.text.pdf.PdfStamper;
+
+/** Firmador de CSV que, adem&aacute;s de sellar un PDF ya generado, puede sellarlo sobre la
+ * sesi&oacute;n de estampaci&oacute;n en la que se ha a&ntilde;adido el CSV. Es el que necesita
+ * {@link PipelinedPdfCsvStamper}.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+interface CsvStamperSigner extends CsvSigner {
+
+	/** Sella un PDF sobre la sesi&oacute;n de estampaci&oacute;n en la que se ha a&ntilde;adido
+	 * el CSV, sin volver a analizar ni reescribir el documento.
+	 * La sesi&oacute;n debe haberse abierto con <code>PdfStamper.createSignature()</code>, y el
+	 * PDF sellado se escribe en el flujo de salida indicado al abrirla.
+	 * @param stamperWithCsv Sesi&oacute;n de estampaci&oacute;n con el CSV ya a&ntilde;adido.
+	 * @throws IOException Si hay problemas durante el sellado. */
+	void signPdf(final PdfStamper stamperWithCsv) throws IOException;
+
+}
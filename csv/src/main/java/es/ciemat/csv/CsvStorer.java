@@ -1,5 +1,8 @@
 package es.ciemat.csv;
 
+import java.io.OutputStream;
+import java.nio.file.Path;
+
 import es.ciemat.csv.PdfExtraUtil.PdfId;
 
 /** Almacenador de PDF con CSV.
@@ -13,6 +16,13 @@ public interface CsvStorer {
 	void storePdfWithCsv(final PdfId pdfWithCsv,
 			             final byte[] pdfWithSignatures) throws CsvStorerException;
 
+	/** Almacena un PDF con CSV a partir del PDF original almacenado en disco.
+	 * @param pdfWithCsv PDF con el CSV y valor del CSV.
+	 * @param pdfWithSignatures Fichero con el PDF original con las firmas electr&oacute;nicas.
+	 * @throws CsvStorerException Si hay errores durante el proceso. */
+	void storePdfWithCsv(final PdfId pdfWithCsv,
+			             final Path pdfWithSignatures) throws CsvStorerException;
+
 	/** Obtiene un PDF con CSV a partir de su identificador o del PDF original.
 	 * @param pdfId Identificador del PDF y/o PDF original.
 	 * @return PDF con el CSV.
@@ -20,4 +30,21 @@ public interface CsvStorer {
 	 * @throws CsvFileNotFoundException Si no existe un documento con ese CSV. */
 	byte[] retrievePdfWithCsv(final PdfId pdfId) throws CsvStorerException, CsvFileNotFoundException;
 
+	/** Obtiene un PDF con CSV a partir de su identificador o del PDF original, escribi&eacute;ndolo
+	 * directamente en un flujo de salida sin cargarlo completo en memoria.
+	 * Si el documento no existe se lanza la excepci&oacute;n antes de escribir nada en el flujo.
+	 * @param pdfId Identificador del PDF y/o PDF original.
+	 * @param out Flujo donde escribir el PDF con el CSV.
+	 * @throws CsvStorerException Si hay errores durante el proceso.
+	 * @throws CsvFileNotFoundException Si no existe un documento con ese CSV. */
+	void retrievePdfWithCsv(final PdfId pdfId,
+			                final OutputStream out) throws CsvStorerException, CsvFileNotFoundException;
+
+	/** Indica si existe un PDF con CSV, sin recuperarlo.
+	 * @param pdfId Identificador del PDF y/o PDF original.
+	 * @return <code>true</code> si existe un documento con ese CSV, <code>false</code> en
+	 *         caso contrario.
+	 * @throws CsvStorerException Si hay errores durante el proceso. */
+	boolean exists(final PdfId pdfId) throws CsvStorerException;
+
 }
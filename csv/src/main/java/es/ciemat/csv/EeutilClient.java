@@ -0,0 +1,164 @@
+package es.ciemat.csv;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/** Cliente de los informes de firma de EEUTIL protegido frente a un servicio lento o ca&iacute;do.
+ * <ul>
+ *  <li>Cada llamada tiene un tiempo m&aacute;ximo: si se supera, el hilo que la espera recibe un
+ *      error en lugar de quedarse bloqueado.</li>
+ *  <li>Las llamadas en curso est&aacute;n limitadas. Una llamada que no responde sigue ocupando
+ *      su hueco hasta que termina, de forma que si el servicio se bloquea las nuevas llamadas se
+ *      rechazan inmediatamente en vez de acumular hilos esperando.</li>
+ *  <li>Tras varios fallos seguidos el circuito se abre y las llamadas se rechazan sin
+ *      intentarlas hasta pasado un tiempo (ver {@link CircuitBreaker}).</li>
+ * </ul>
+ * En todos los casos el error es una {@link EeutilUnavailableException}, para que el llamante
+ * pueda recurrir a una alternativa.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+final class EeutilClient {
+
+	/** Generador de informes de firma, que realiza la llamada real a EEUTIL. */
+	interface ReportGenerator {
+
+		/** Obtiene de EEUTIL el informe de firma de un PDF.
+		 * @param csv CSV del PDF.
+		 * @param signedPdf PDF firmado.
+		 * @param recoverUrl URL de recuperaci&oacute;n del PDF a partir de su CSV.
+		 * @return Informe de firma en PDF.
+		 * @throws Exception Si la llamada falla. */
+		byte[] generateReport(final String csv, final byte[] signedPdf, final String recoverUrl) throws Exception;
+
+	}
+
+	private static final Logger LOGGER = Logger.getLogger(EeutilClient.class.getName());
+
+	private final ReportGenerator generator;
+	private final ThreadPoolExecutor executor;
+	private final long timeoutMillis;
+	private final CircuitBreaker breaker;
+
+	/** Crea un cliente de EEUTIL.
+	 * @param reportGenerator Generador que realiza la llamada real a EEUTIL.
+	 * @param maxConcurrentCalls N&uacute;mero m&aacute;ximo de llamadas simult&aacute;neas.
+	 * @param callTimeoutMillis Tiempo m&aacute;ximo de cada llamada en milisegundos.
+	 * @param circuitBreaker Cortocircuito de las llamadas. */
+	EeutilClient(final ReportGenerator reportGenerator,
+			     final int maxConcurrentCalls,
+			     final long callTimeoutMillis,
+			     final CircuitBreaker circuitBreaker) {
+		this.generator = reportGenerator;
+		this.timeoutMillis = callTimeoutMillis;
+		this.breaker = circuitBreaker;
+		this.executor = new ThreadPoolExecutor(
+			maxConcurrentCalls,
+			maxConcurrentCalls,
+			60L,
+			TimeUnit.SECONDS,
+			new SynchronousQueue<Runnable>(),
+			new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+				@Override
+				public Thread newThread(final Runnable r) {
+					final Thread t = new Thread(r, "csv-eeutil-" + this.count.incrementAndGet()); //$NON-NLS-1$
+					t.setDaemon(true);
+					return t;
+				}
+			},
+			new ThreadPoolExecutor.AbortPolicy()
+		);
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	/** Obtiene de EEUTIL el informe de firma de un PDF.
+	 * @param csv CSV del PDF.
+	 * @param signedPdf PDF firmado.
+	 * @param recoverUrl URL de recuperaci&oacute;n del PDF a partir de su CSV.
+	 * @return Informe de firma en PDF.
+	 * @throws EeutilUnavailableException Si EEUTIL no est&aacute; disponible o la llamada falla.
+	 * @throws InterruptedIOException Si se interrumpe la espera de la respuesta. */
+	byte[] generateReport(final String csv,
+			              final byte[] signedPdf,
+			              final String recoverUrl) throws EeutilUnavailableException,
+	                                                      InterruptedIOException {
+		if (!this.breaker.allowRequest()) {
+			throw new EeutilUnavailableException("El circuito de EEUTIL esta abierto tras fallos repetidos"); //$NON-NLS-1$
+		}
+
+		final Future<byte[]> call;
+		try {
+			call = this.executor.submit(new Callable<byte[]>() {
+				@Override
+				public byte[] call() throws Exception {
+					final long t = CsvMetrics.EEUTIL.start();
+					try {
+						return EeutilClient.this.generator.generateReport(csv, signedPdf, recoverUrl);
+					}
+					finally {
+						CsvMetrics.EEUTIL.stop(t);
+					}
+				}
+			});
+		}
+		catch (final RejectedExecutionException e) {
+			this.breaker.onCancel();
+			throw new EeutilUnavailableException(
+				"Se ha alcanzado el maximo de " + this.executor.getMaximumPoolSize() + " llamadas simultaneas a EEUTIL", e //$NON-NLS-1$ //$NON-NLS-2$
+			);
+		}
+
+		final byte[] report;
+		try {
+			report = call.get(this.timeoutMillis, TimeUnit.MILLISECONDS);
+		}
+		catch (final TimeoutException e) {
+			call.cancel(true);
+			this.breaker.onFailure();
+			throw new EeutilUnavailableException(
+				"EEUTIL no ha respondido en " + this.timeoutMillis + " milisegundos", e //$NON-NLS-1$ //$NON-NLS-2$
+			);
+		}
+		catch (final ExecutionException e) {
+			this.breaker.onFailure();
+			throw new EeutilUnavailableException(
+				"Error en la llamada a EEUTIL: " + e.getCause(), e.getCause() //$NON-NLS-1$
+			);
+		}
+		catch (final InterruptedException e) {
+			call.cancel(true);
+			this.breaker.onCancel();
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrumpida la espera de la respuesta de EEUTIL"); //$NON-NLS-1$
+		}
+
+		if (report == null || report.length == 0) {
+			this.breaker.onFailure();
+			throw new EeutilUnavailableException("EEUTIL no ha devuelto el informe de firma"); //$NON-NLS-1$
+		}
+		this.breaker.onSuccess();
+		return report;
+	}
+
+	/** Obtiene el cortocircuito de las llamadas.
+	 * @return Cortocircuito de las llamadas. */
+	CircuitBreaker getCircuitBreaker() {
+		return this.breaker;
+	}
+
+	/** Detiene el cliente, interrumpiendo las llamadas en curso. */
+	void shutdown() {
+		this.executor.shutdownNow();
+		LOGGER.info("Detenido el cliente de EEUTIL"); //$NON-NLS-1$
+	}
+
+}
@@ -0,0 +1,25 @@
+package es.ciemat.csv;
+
+import java.io.IOException;
+
+/** Error que indica que EEUTIL no est&aacute; disponible: no responde a tiempo, falla, tiene
+ * el circuito abierto o tiene ocupadas todas sus llamadas simult&aacute;neas.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+final class EeutilUnavailableException extends IOException {
+
+	private static final long serialVersionUID = -4188375467205370125L;
+
+	/** Crea una excepci&oacute;n de EEUTIL no disponible.
+	 * @param msg Mensaje.
+	 * @param cause Causa inicial. */
+	EeutilUnavailableException(final String msg, final Throwable cause) {
+		super(msg, cause);
+	}
+
+	/** Crea una excepci&oacute;n de EEUTIL no disponible.
+	 * @param msg Mensaje. */
+	EeutilUnavailableException(final String msg) {
+		super(msg);
+	}
+
+}
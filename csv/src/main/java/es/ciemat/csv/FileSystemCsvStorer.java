@@ -1,71 +1,120 @@
 package es.ciemat.csv;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 import es.ciemat.csv.PdfExtraUtil.PdfId;
-import es.gob.afirma.core.misc.AOUtil;
 
-/** Almacenador de CSV como ficheros temporales.
+/** Almacenador de CSV en sistema de ficheros local.
+ * Los documentos se reparten en dos niveles de subdirectorios seg&uacute;n una huella de su
+ * identificador, de forma que ning&uacute;n directorio llegue a tener un n&uacute;mero excesivo de
+ * ficheros. Como los identificadores pueden contener caracteres no v&aacute;lidos en nombres
+ * de fichero (como la barra de Base64), el nombre de cada fichero es el identificador
+ * codificado en hexadecimal. Para no superar la longitud m&aacute;xima de un nombre de fichero, los
+ * identificadores largos (como las huellas SHA-512 en hexadecimal) se parten en tramos de
+ * {@value #MAX_SEGMENT} caracteres codificados, cada uno de ellos un subdirectorio m&aacute;s.
+ * Cada documento se escribe primero en un fichero temporal que se sincroniza con el disco
+ * y despu&eacute;s se mueve at&oacute;micamente a su nombre definitivo, por lo que nunca se
+ * encuentran documentos a medio escribir. Al crear el almacenador se recorre el directorio
+ * para construir un &iacute;ndice en memoria de los documentos existentes, de forma que las
+ * consultas de documentos inexistentes no acceden al disco.
  * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
 public final class FileSystemCsvStorer implements CsvStorer {
 
 	private static final String SUFFIX_ORI = "_ORI"; //$NON-NLS-1$
 	private static final String SUFFIX_CSV = "_CSV"; //$NON-NLS-1$
 	private static final String SUFFIX_PDF = ".pdf"; //$NON-NLS-1$
+	private static final String SUFFIX_TMP = ".tmp"; //$NON-NLS-1$
+
+	/** Longitud m&aacute;xima de cada tramo del identificador codificado, de forma que
+	 * con los sufijos el nombre quede muy por debajo de los 255 bytes. */
+	static final int MAX_SEGMENT = 128;
 
 	private static final Logger LOGGER = Logger.getLogger(FileSystemCsvStorer.class.getName());
 
-	private static final File TMP_DIR = new File(System.getProperty("java.io.tmpdir")); //$NON-NLS-1$
-	static {
-		if (!TMP_DIR.isDirectory() || !TMP_DIR.canWrite() || !TMP_DIR.canRead()) {
-			throw new IllegalStateException("Directorio temporal invalido: " + System.getProperty("java.io.tmpdir")); //$NON-NLS-1$ //$NON-NLS-2$
-		}
-	}
+	private final Path root;
 
-	/** Construye el almacenador. */
+	/** Identificadores de los documentos con CSV almacenados. */
+	private final Set<String> index = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	/** Construye el almacenador en el directorio indicado en <code>service.properties</code>. */
 	public FileSystemCsvStorer() {
-		LOGGER.warning(
-			"Se esta usando el almacenador en temporal para pruebas, NO USAR EN PRODUCCION" //$NON-NLS-1$
+		this(ServiceConfig.getFileSystemStorerDir());
+	}
+
+	/** Construye el almacenador.
+	 * @param rootDir Directorio ra&iacute;z de los documentos. */
+	FileSystemCsvStorer(final Path rootDir) {
+		if (rootDir == null || !Files.isDirectory(rootDir) || !Files.isWritable(rootDir) || !Files.isReadable(rootDir)) {
+			LOGGER.severe("Directorio de almacenamiento invalido: " + rootDir); //$NON-NLS-1$
+			throw new IllegalStateException("Directorio de almacenamiento invalido: " + rootDir); //$NON-NLS-1$
+		}
+		this.root = rootDir;
+		try {
+			buildIndex();
+		}
+		catch (final IOException e) {
+			LOGGER.severe("No se ha podido recorrer el directorio de almacenamiento '" + rootDir + "': " + e); //$NON-NLS-1$ //$NON-NLS-2$
+			throw new IllegalStateException(
+				"No se ha podido recorrer el directorio de almacenamiento '" + rootDir + "': " + e, e //$NON-NLS-1$ //$NON-NLS-2$
+			);
+		}
+		LOGGER.info(
+			"Almacenador en '" + rootDir + "' con " + this.index.size() + " documentos" //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 		);
 	}
 
 	@Override
 	public String toString() {
-		return "Almacenador de documentos (para pruebas) en sistema de ficheros"; //$NON-NLS-1$
+		return "Almacenador de documentos en sistema de ficheros (" + this.root + ")"; //$NON-NLS-1$ //$NON-NLS-2$
 	}
 
 	@Override
 	public byte[] retrievePdfWithCsv(final PdfId pdfId) throws CsvStorerException, CsvFileNotFoundException {
-		final String id;
+		final String id = getId(pdfId);
+		final Path f = getCsvFile(id);
 		try {
-			id = pdfId.getId() != null ? pdfId.getId() : PdfExtraUtil.getPdfId(pdfId.getPdf());
+			return Files.readAllBytes(f);
 		}
 		catch (final IOException e) {
-			LOGGER.severe(
-				pdfId.getId() == null ?
-					"No se ha indicado el CSV del documento: " + e : //$NON-NLS-1$
-						"Id de documento invalido (" + pdfId.getId() + "): " + e //$NON-NLS-1$ //$NON-NLS-2$
-			);
 			throw new CsvStorerException(
-				"No se ha indicado el CSV del documento: " + e, e //$NON-NLS-1$
-			);
-		}
-		final File f = new File(TMP_DIR, id + SUFFIX_CSV + SUFFIX_PDF);
-		if (!f.isFile()) {
-			throw new CsvFileNotFoundException(
-				"No existe el documento con CSV con identificador '" + id + "'" //$NON-NLS-1$ //$NON-NLS-2$
+				"No se ha podido leer el documento con identificador '" + id + "' del repositorio: " + e, e //$NON-NLS-1$ //$NON-NLS-2$
 			);
 		}
+	}
+
+	@Override
+	public void retrievePdfWithCsv(final PdfId pdfId,
+			                       final OutputStream out) throws CsvStorerException, CsvFileNotFoundException {
+		final String id = getId(pdfId);
+		final Path f = getCsvFile(id);
 		try (
-			final InputStream fis = new FileInputStream(f)
+			final FileChannel fc = FileChannel.open(f, StandardOpenOption.READ)
 		) {
-			return AOUtil.getDataFromInputStream(fis);
+			// No se cierra el canal de salida, ya que cerraria el flujo
+			final WritableByteChannel target = Channels.newChannel(out);
+			final long size = fc.size();
+			long pos = 0;
+			while (pos < size) {
+				pos += fc.transferTo(pos, size - pos, target);
+			}
 		}
 		catch (final IOException e) {
 			throw new CsvStorerException(
@@ -74,32 +123,132 @@ public final class FileSystemCsvStorer implements CsvStorer {
 		}
 	}
 
+	@Override
+	public boolean exists(final PdfId pdfId) throws CsvStorerException {
+		return this.index.contains(getId(pdfId));
+	}
+
 	@Override
 	public void storePdfWithCsv(final PdfId pdfWithCsv,
 			                    final byte[] pdfWithSignatures) throws CsvStorerException {
-		if (pdfWithCsv == null) {
-			LOGGER.severe(
-				"El PDF con CSV no puede ser nulo" //$NON-NLS-1$
-			);
-			throw new IllegalArgumentException(
-				"El PDF con CSV no puede ser nulo" //$NON-NLS-1$
+		checkPdfWithCsv(pdfWithCsv);
+		if (pdfWithSignatures != null && pdfWithSignatures.length > 0) {
+			try {
+				final Path tmp = createTempFile(pdfWithCsv.getId());
+				boolean committed = false;
+				try {
+					try (
+						final FileChannel fc = FileChannel.open(tmp, StandardOpenOption.WRITE)
+					) {
+						final ByteBuffer buf = ByteBuffer.wrap(pdfWithSignatures);
+						while (buf.hasRemaining()) {
+							fc.write(buf);
+						}
+						fc.force(true);
+					}
+					commit(tmp, getFile(pdfWithCsv.getId(), SUFFIX_ORI));
+					committed = true;
+				}
+				finally {
+					if (!committed) {
+						discard(tmp);
+					}
+				}
+			}
+			catch (final IOException e) {
+				LOGGER.severe(
+					"Error guardando el PDF original: " + e //$NON-NLS-1$
+				);
+				throw new CsvStorerException(
+					"Error guardando el PDF original: " + e, e //$NON-NLS-1$
+				);
+			}
+		}
+		else {
+			LOGGER.warning(
+				"No se ha proporcionado el PDF original con las firmas" //$NON-NLS-1$
 			);
 		}
+		storeCsv(pdfWithCsv);
+	}
 
-		LOGGER.info("Solicitado almacen de documento en directorio de temporales"); //$NON-NLS-1$
+	@Override
+	public void storePdfWithCsv(final PdfId pdfWithCsv,
+			                    final Path pdfWithSignatures) throws CsvStorerException {
+		checkPdfWithCsv(pdfWithCsv);
+		if (pdfWithSignatures != null) {
+			try {
+				final Path tmp = createTempFile(pdfWithCsv.getId());
+				boolean committed = false;
+				try {
+					try (
+						final FileChannel in = FileChannel.open(pdfWithSignatures, StandardOpenOption.READ);
+						final FileChannel fc = FileChannel.open(tmp, StandardOpenOption.WRITE)
+					) {
+						final long size = in.size();
+						long pos = 0;
+						while (pos < size) {
+							pos += in.transferTo(pos, size - pos, fc);
+						}
+						fc.force(true);
+					}
+					commit(tmp, getFile(pdfWithCsv.getId(), SUFFIX_ORI));
+					committed = true;
+				}
+				finally {
+					if (!committed) {
+						discard(tmp);
+					}
+				}
+			}
+			catch (final IOException e) {
+				LOGGER.severe(
+					"Error guardando el PDF original: " + e //$NON-NLS-1$
+				);
+				throw new CsvStorerException(
+					"Error guardando el PDF original: " + e, e //$NON-NLS-1$
+				);
+			}
+		}
+		else {
+			LOGGER.warning(
+				"No se ha proporcionado el PDF original con las firmas" //$NON-NLS-1$
+			);
+		}
+		storeCsv(pdfWithCsv);
+	}
 
-		final File fCsv = new File(
-			TMP_DIR,
-			pdfWithCsv.getId() + SUFFIX_CSV + SUFFIX_PDF
-		);
-		try (
-			final OutputStream fos = new FileOutputStream(
-				fCsv
-			)
-		) {
-			fos.write(pdfWithCsv.getPdf());
-			fos.flush();
-			fos.close();
+	/** Guarda el PDF con CSV. Se guarda despu&eacute;s del original, de forma que si existe
+	 * el PDF con CSV tambi&eacute;n existe el original.
+	 * @param pdfWithCsv PDF con el CSV y valor del CSV.
+	 * @throws CsvStorerException Si hay errores guardando el PDF. */
+	private void storeCsv(final PdfId pdfWithCsv) throws CsvStorerException {
+		final Path fCsv = getFile(pdfWithCsv.getId(), SUFFIX_CSV);
+		try {
+			final Path tmp = createTempFile(pdfWithCsv.getId());
+			boolean committed = false;
+			try {
+				try (
+					final InputStream is = pdfWithCsv.getPdfStream();
+					final FileChannel fc = FileChannel.open(tmp, StandardOpenOption.WRITE)
+				) {
+					// Se copia desde el flujo para no duplicar en memoria el PDF
+					final OutputStream os = Channels.newOutputStream(fc);
+					final byte[] buf = new byte[8192];
+					int n;
+					while ((n = is.read(buf)) > 0) {
+						os.write(buf, 0, n);
+					}
+					fc.force(true);
+				}
+				commit(tmp, fCsv);
+				committed = true;
+			}
+			finally {
+				if (!committed) {
+					discard(tmp);
+				}
+			}
 		}
 		catch (final IOException e) {
 			LOGGER.severe(
@@ -109,42 +258,185 @@ public final class FileSystemCsvStorer implements CsvStorer {
 				"Error guardando el PDF con CSV: " + e, e //$NON-NLS-1$
 			);
 		}
+		this.index.add(pdfWithCsv.getId());
 		LOGGER.info(
-			"PDF con CSV '" + pdfWithCsv.getId() + "' guardado en: " + fCsv.getAbsolutePath() //$NON-NLS-1$ //$NON-NLS-2$
+			"PDF con CSV '" + pdfWithCsv.getId() + "' guardado en: " + fCsv //$NON-NLS-1$ //$NON-NLS-2$
 		);
+	}
 
-		final File fSig = new File(
-			TMP_DIR,
-			pdfWithCsv.getId() + SUFFIX_ORI + SUFFIX_PDF
-		);
-		if (pdfWithSignatures != null && pdfWithSignatures.length > 0) {
-			try (
-				final OutputStream fos = new FileOutputStream(
-					fSig
-				)
-			) {
-				fos.write(pdfWithSignatures);
-				fos.flush();
+	private static void checkPdfWithCsv(final PdfId pdfWithCsv) {
+		if (pdfWithCsv == null || pdfWithCsv.getId() == null) {
+			LOGGER.severe(
+				"El PDF con CSV no puede ser nulo" //$NON-NLS-1$
+			);
+			throw new IllegalArgumentException(
+				"El PDF con CSV no puede ser nulo" //$NON-NLS-1$
+			);
+		}
+	}
+
+	private static String getId(final PdfId pdfId) throws CsvStorerException {
+		try {
+			return pdfId.getId() != null ? pdfId.getId() : PdfExtraUtil.getPdfId(pdfId.getPdf());
+		}
+		catch (final IOException e) {
+			LOGGER.severe(
+				"No se ha indicado el CSV del documento: " + e //$NON-NLS-1$
+			);
+			throw new CsvStorerException(
+				"No se ha indicado el CSV del documento: " + e, e //$NON-NLS-1$
+			);
+		}
+	}
+
+	/** Obtiene el fichero del PDF con CSV, consultando &uacute;nicamente el &iacute;ndice.
+	 * @param id Identificador del documento.
+	 * @return Fichero del PDF con CSV.
+	 * @throws CsvFileNotFoundException Si no existe un documento con ese CSV. */
+	private Path getCsvFile(final String id) throws CsvFileNotFoundException {
+		if (!this.index.contains(id)) {
+			throw new CsvFileNotFoundException(id);
+		}
+		return getFile(id, SUFFIX_CSV);
+	}
+
+	/** Obtiene la ruta de un fichero del almacenador.
+	 * @param id Identificador del documento.
+	 * @param suffix Sufijo del tipo de documento.
+	 * @return Ruta del fichero. */
+	Path getFile(final String id, final String suffix) {
+		final byte[] hash = sha1(id);
+		Path dir = this.root
+			.resolve(HexUtil.toHex(hash, 0, 1))
+			.resolve(HexUtil.toHex(hash, 1, 1));
+		final String encoded = encodeId(id);
+		int pos = 0;
+		while (encoded.length() - pos > MAX_SEGMENT) {
+			dir = dir.resolve(encoded.substring(pos, pos + MAX_SEGMENT));
+			pos += MAX_SEGMENT;
+		}
+		return dir.resolve(encoded.substring(pos) + suffix + SUFFIX_PDF);
+	}
+
+	private Path createTempFile(final String id) throws IOException {
+		final Path dir = getFile(id, SUFFIX_CSV).getParent();
+		Files.createDirectories(dir);
+		return Files.createTempFile(dir, null, SUFFIX_TMP);
+	}
+
+	/** Mueve at&oacute;micamente un fichero temporal a su nombre definitivo. */
+	private static void commit(final Path tmp, final Path target) throws IOException {
+		Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+		// Se sincroniza tambien el directorio para que el nuevo nombre sobreviva a una caida.
+		// No todos los sistemas permiten abrir un directorio como canal
+		try (
+			final FileChannel dir = FileChannel.open(target.getParent(), StandardOpenOption.READ)
+		) {
+			dir.force(true);
+		}
+		catch (final IOException e) {
+			// Se ignora
+		}
+	}
+
+	/** Elimina un fichero temporal que no ha llegado a moverse a su nombre definitivo.
+	 * Si no puede eliminarse se eliminar&aacute; al reconstruir el &iacute;ndice.
+	 * @param tmp Fichero temporal. */
+	private static void discard(final Path tmp) {
+		try {
+			Files.deleteIfExists(tmp);
+		}
+		catch (final IOException e) {
+			LOGGER.warning("No se ha podido eliminar el fichero temporal '" + tmp + "': " + e); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+	}
+
+	/** Construye el &iacute;ndice de documentos recorriendo los directorios del almacenador,
+	 * eliminando los ficheros temporales que hubiesen quedado de escrituras interrumpidas. */
+	private void buildIndex() throws IOException {
+		try (
+			final DirectoryStream<Path> level1 = Files.newDirectoryStream(this.root)
+		) {
+			for (final Path d1 : level1) {
+				if (!Files.isDirectory(d1)) {
+					continue;
+				}
+				try (
+					final DirectoryStream<Path> level2 = Files.newDirectoryStream(d1)
+				) {
+					for (final Path d2 : level2) {
+						if (Files.isDirectory(d2)) {
+							indexDir(d2, ""); //$NON-NLS-1$
+						}
+					}
+				}
 			}
-			catch (final IOException e) {
-				LOGGER.severe(
-					"Error guardando el PDF con CSV: " + e //$NON-NLS-1$
-				);
-				throw new CsvStorerException(
-					"Error guardando el PDF con CSV: " + e, e //$NON-NLS-1$
-				);
+		}
+	}
+
+	/** A&ntilde;ade al &iacute;ndice los documentos de un directorio de segundo nivel o de
+	 * uno de los tramos de un identificador largo.
+	 * @param dir Directorio.
+	 * @param prefix Tramos del identificador codificado ya recorridos. */
+	private void indexDir(final Path dir, final String prefix) throws IOException {
+		final String csvEnding = SUFFIX_CSV + SUFFIX_PDF;
+		try (
+			final DirectoryStream<Path> files = Files.newDirectoryStream(dir)
+		) {
+			for (final Path f : files) {
+				final String name = f.getFileName().toString();
+				if (Files.isDirectory(f)) {
+					if (name.length() == MAX_SEGMENT) {
+						indexDir(f, prefix + name);
+					}
+				}
+				else if (name.endsWith(SUFFIX_TMP)) {
+					Files.deleteIfExists(f);
+				}
+				else if (name.endsWith(csvEnding)) {
+					final String id = decodeId(prefix + name.substring(0, name.length() - csvEnding.length()));
+					if (id != null) {
+						this.index.add(id);
+					}
+				}
 			}
 		}
-		else {
-			LOGGER.warning(
-				"No se ha proporcionado el PDF original con las firmas" //$NON-NLS-1$
-			);
+	}
+
+	private static byte[] sha1(final String id) {
+		try {
+			return MessageDigest.getInstance("SHA-1").digest(id.getBytes(StandardCharsets.UTF_8)); //$NON-NLS-1$
 		}
+		catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException("No se soporta SHA-1: " + e, e); //$NON-NLS-1$
+		}
+	}
 
-		LOGGER.info(
-			"PDF con firmas guardado en: " + fSig.getAbsolutePath() //$NON-NLS-1$
-		);
+	/** Codifica un identificador como nombre de fichero v&aacute;lido en cualquier sistema.
+	 * @param id Identificador del documento.
+	 * @return Identificador codificado en hexadecimal. */
+	static String encodeId(final String id) {
+		final byte[] data = id.getBytes(StandardCharsets.UTF_8);
+		return HexUtil.toHex(data);
+	}
 
+	/** Decodifica un nombre de fichero obtenido con {@link #encodeId(String)}.
+	 * @param name Nombre de fichero sin sufijos.
+	 * @return Identificador del documento o <code>null</code> si el nombre no es v&aacute;lido. */
+	static String decodeId(final String name) {
+		if (name.length() % 2 != 0) {
+			return null;
+		}
+		final byte[] data = new byte[name.length() / 2];
+		for (int i = 0; i < data.length; i++) {
+			final int hi = Character.digit(name.charAt(i * 2), 16);
+			final int lo = Character.digit(name.charAt(i * 2 + 1), 16);
+			if (hi < 0 || lo < 0) {
+				return null;
+			}
+			data[i] = (byte) (hi << 4 | lo);
+		}
+		return new String(data, StandardCharsets.UTF_8);
 	}
 
 }
@@ -0,0 +1,36 @@
+package es.ciemat.csv;
+
+/** Codificaci&oacute;n hexadecimal en min&uacute;sculas, usada en los identificadores de
+ * documento, en los nombres de fichero del almac&eacute;n y en los &iacute;ndices de
+ * certificados.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+final class HexUtil {
+
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray(); //$NON-NLS-1$
+
+	private HexUtil() {
+		// No instanciable
+	}
+
+	/** Codifica datos en hexadecimal en min&uacute;sculas.
+	 * @param data Datos a codificar.
+	 * @return Datos codificados en hexadecimal. */
+	static String toHex(final byte[] data) {
+		return toHex(data, 0, data.length);
+	}
+
+	/** Codifica un tramo de datos en hexadecimal en min&uacute;sculas.
+	 * @param data Datos a codificar.
+	 * @param off Posici&oacute;n del primer octeto a codificar.
+	 * @param len N&uacute;mero de octetos a codificar.
+	 * @return Tramo codificado en hexadecimal. */
+	static String toHex(final byte[] data, final int off, final int len) {
+		final char[] out = new char[len * 2];
+		for (int i = 0; i < len; i++) {
+			out[i * 2] = HEX_DIGITS[data[off + i] >> 4 & 0x0f];
+			out[i * 2 + 1] = HEX_DIGITS[data[off + i] & 0x0f];
+		}
+		return new String(out);
+	}
+
+}
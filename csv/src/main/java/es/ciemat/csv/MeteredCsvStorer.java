@@ -0,0 +1,90 @@
+package es.ciemat.csv;
+
+import java.io.OutputStream;
+import java.nio.file.Path;
+
+import es.ciemat.csv.PdfExtraUtil.PdfId;
+
+/** Almacenador que mide los tiempos de otro almacenador (ver {@link CsvMetrics}).
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+final class MeteredCsvStorer implements CsvStorer {
+
+	private final CsvStorer delegate;
+
+	/** Construye el almacenador.
+	 * @param storer Almacenador cuyos tiempos se miden. */
+	MeteredCsvStorer(final CsvStorer storer) {
+		this.delegate = storer;
+	}
+
+	@Override
+	public String toString() {
+		return this.delegate.toString();
+	}
+
+	@Override
+	public void storePdfWithCsv(final PdfId pdfWithCsv,
+			                    final byte[] pdfWithSignatures) throws CsvStorerException {
+		final long t = CsvMetrics.STORE.start();
+		try {
+			this.delegate.storePdfWithCsv(pdfWithCsv, pdfWithSignatures);
+		}
+		finally {
+			CsvMetrics.STORE.stop(t);
+		}
+	}
+
+	@Override
+	public void storePdfWithCsv(final PdfId pdfWithCsv,
+			                    final Path pdfWithSignatures) throws CsvStorerException {
+		final long t = CsvMetrics.STORE.start();
+		try {
+			this.delegate.storePdfWithCsv(pdfWithCsv, pdfWithSignatures);
+		}
+		finally {
+			CsvMetrics.STORE.stop(t);
+		}
+	}
+
+	@Override
+	public boolean exists(final PdfId pdfId) throws CsvStorerException {
+		return this.delegate.exists(pdfId);
+	}
+
+	// Los errores de almacenamiento se cuentan en el proceso del documento, pero las
+	// recuperaciones no pasan por el, asi que sus errores se cuentan aqui
+
+	@Override
+	public byte[] retrievePdfWithCsv(final PdfId pdfId) throws CsvStorerException,
+	                                                           CsvFileNotFoundException {
+		final long t = CsvMetrics.RETRIEVE.start();
+		try {
+			return this.delegate.retrievePdfWithCsv(pdfId);
+		}
+		catch (final Exception | Error e) {
+			CsvMetrics.error(e);
+			throw e;
+		}
+		finally {
+			CsvMetrics.RETRIEVE.stop(t);
+		}
+	}
+
+	@Override
+	public void retrievePdfWithCsv(final PdfId pdfId,
+			                       final OutputStream out) throws CsvStorerException,
+	                                                              CsvFileNotFoundException {
+		final long t = CsvMetrics.RETRIEVE.start();
+		try {
+			this.delegate.retrievePdfWithCsv(pdfId, out);
+		}
+		catch (final Exception | Error e) {
+			CsvMetrics.error(e);
+			throw e;
+		}
+		finally {
+			CsvMetrics.RETRIEVE.stop(t);
+		}
+	}
+
+}
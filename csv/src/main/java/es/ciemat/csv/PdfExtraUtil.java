@@ -1,59 +1,39 @@
 package es.ciemat.csv;
 
 import java.awt.Color;
-import java.awt.Font;
-import java.awt.FontMetrics;
-import java.awt.Graphics2D;
 import java.awt.Image;
-import java.awt.RenderingHints;
-import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.text.SimpleDateFormat;
-import java.util.Locale;
-
-import javax.imageio.IIOImage;
-import javax.imageio.ImageIO;
-import javax.imageio.ImageWriteParam;
-import javax.imageio.ImageWriter;
-import javax.imageio.plugins.jpeg.JPEGImageWriteParam;
-import javax.imageio.stream.ImageOutputStream;
-import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 import com.aowagie.text.DocumentException;
+import com.aowagie.text.Rectangle;
 import com.aowagie.text.pdf.Barcode;
 import com.aowagie.text.pdf.Barcode128;
+import com.aowagie.text.pdf.BaseFont;
+import com.aowagie.text.pdf.PdfAction;
+import com.aowagie.text.pdf.PdfAnnotation;
+import com.aowagie.text.pdf.PdfIndirectReference;
+import com.aowagie.text.pdf.PdfName;
 import com.aowagie.text.pdf.PdfReader;
 import com.aowagie.text.pdf.PdfStamper;
+import com.aowagie.text.pdf.PdfTemplate;
 
-import es.gob.afirma.core.misc.AOUtil;
-import es.gob.afirma.core.misc.Base64;
 import es.gob.afirma.core.signers.AOSimpleSignInfo;
-import es.gob.afirma.signers.pades.PdfPreProcessor;
 
 /** Utilidades adicionales de tratamiento de PDF.
  * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
 public final class PdfExtraUtil {
 
-	private static final String CSV_TEXT_TEMPLATE_SUBJECTCN = "$$SUBJECTCN$$"; //$NON-NLS-1$
-	private static final String CSV_TEXT_TEMPLATE_SIGNDATE = "$$SIGNDATE$$"; //$NON-NLS-1$
-
 	private static final String CSV_LINK_TEMPLATE_CVS = "%csv%"; //$NON-NLS-1$
 
-	private static final String DEFAULT_CSV_TEXT_TEMPLATE = "Firmado por " + CSV_TEXT_TEMPLATE_SUBJECTCN + " en fecha " + CSV_TEXT_TEMPLATE_SIGNDATE; //$NON-NLS-1$ //$NON-NLS-2$
-
 	private static final int CSV_SPACING = 2;
 
-	private static final SimpleDateFormat DATE_FORMATTER = new SimpleDateFormat("dd 'de' MMMM 'de' yyyy 'a las' hh:mm:ss", Locale.forLanguageTag("es-ES")); //$NON-NLS-1$ //$NON-NLS-2$
-
-	private static final JPEGImageWriteParam jpegParams = new JPEGImageWriteParam(null);
-	static {
-		jpegParams.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-		jpegParams.setCompressionQuality(1f);
-	}
+	/** Tama&ntilde;o en puntos del texto del CSV vectorial. */
+	private static final float CSV_FONT_SIZE = 10f;
 
 	private PdfExtraUtil() {
 		// No instanciable
@@ -66,86 +46,126 @@ public final class PdfExtraUtil {
 		return ServiceConfig.getCsvRetrieveUrl().replace(CSV_LINK_TEMPLATE_CVS, id);
 	}
 
+	/** Genera el CSV como imagen JPEG (ver {@link CsvStampRenderer}).
+	 * @param id CSV del PDF.
+	 * @param signatures Firmas del PDF.
+	 * @param textTemplate Plantilla de la l&iacute;nea de cada firma (puede ser <code>null</code>).
+	 * @return Imagen JPEG del CSV.
+	 * @throws IOException Si no se puede codificar la imagen. */
 	static byte[] createCsvAsJpeg(final String id,
 			                      final AOSimpleSignInfo[] signatures,
 			                      final String textTemplate) throws IOException {
-
-		if (id == null || id.isEmpty()) {
-			throw new IllegalArgumentException("Es necesario proporcionar un ID"); //$NON-NLS-1$
+		final long t = CsvMetrics.RENDER.start();
+		try {
+			return CsvStampRenderer.renderJpeg(id, signatures, textTemplate);
 		}
+		finally {
+			CsvMetrics.RENDER.stop(t);
+		}
+	}
 
-		if (signatures == null || signatures.length < 1) {
-			throw new IllegalArgumentException("Es necesrio proporcionar al menos una firma"); //$NON-NLS-1$
+	/** A&ntilde;ade el CSV a un PDF como contenido vectorial.
+	 * @param inPdf PDF de entrada.
+	 * @param id CSV del PDF.
+	 * @param signatures Firmas del PDF.
+	 * @param textTemplate Plantilla de la l&iacute;nea de cada firma (puede ser <code>null</code>).
+	 * @param left Distancia del CSV al borde izquiero de la p&aacute;gina del PDF.
+	 * @param bottom Distancia del CSV al borde inferior de la p&aacute;gina del PDF.
+	 * @param pageNum N&uacute;mero de p&aacute;gina del PDF donde insertar el CSV
+	 *                (la numeraci&oacute;n comienza en 1, 0 para todas las p&aacute;ginas).
+	 * @param url URL a la que enlazar&aacute; el CSV si queremos que este sea un hiperv&iacute;nculo
+	 *            (puede ser <code>null</code>).
+	 * @return PDF con el CSV a&ntilde;adido.
+	 * @throws IOException Si hay cualquier problema durante el proceso. */
+	static byte[] addVectorCsvToPdf(final byte[] inPdf,
+			                        final String id,
+			                        final AOSimpleSignInfo[] signatures,
+			                        final String textTemplate,
+			                        final int left,
+			                        final int bottom,
+			                        final int pageNum,
+			                        final String url) throws IOException {
+		final PdfReader reader = new PdfReader(inPdf);
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try {
+			final PdfStamper stamper = new PdfStamper(reader, baos);
+			addVectorCsvToPdf(stamper, id, signatures, textTemplate, left, bottom, pageNum, url);
+			stamper.close();
+		}
+		catch (final DocumentException e) {
+			throw new IOException(e);
 		}
+		reader.close();
+		return baos.toByteArray();
+	}
 
-		final StringBuilder sb = new StringBuilder(
-			getLink(id)
-		);
-		sb.append('\n');
-		for (final AOSimpleSignInfo ssi : signatures) {
-			sb.append(
-				(textTemplate != null ? textTemplate : DEFAULT_CSV_TEXT_TEMPLATE)
-					.replace(CSV_TEXT_TEMPLATE_SUBJECTCN, AOUtil.getCN(ssi.getCerts()[0]))
-					.replace(CSV_TEXT_TEMPLATE_SIGNDATE, DATE_FORMATTER.format(ssi.getSigningTime()))
-			);
-			sb.append('\n');
-		}
-		final String csvText = sb.toString();
-
-		BufferedImage img = new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_GRAY);
-		Graphics2D g2d = img.createGraphics();
-		final Font font = new Font("Arial", Font.PLAIN, 10); //$NON-NLS-1$
-		g2d.setFont(font);
-		FontMetrics fm = g2d.getFontMetrics();
-        final int textWidth = fm.stringWidth(csvText);
-        final int textHeight = fm.getHeight();
-        g2d.dispose();
-
-		final Image barcode = generateBarcode128AsJpeg(id);
-		final int barcodeWidth = barcode.getWidth(null);
-		final int barcodeHeight = barcode.getHeight(null);
-
-
-        img = new BufferedImage(
-    		barcodeWidth > textWidth ? barcodeWidth : textWidth,
-			barcodeHeight + (textHeight + CSV_SPACING) * (signatures.length + 1),
-    		BufferedImage.TYPE_BYTE_GRAY
-		);
-
-        g2d = img.createGraphics();
-        g2d.setRenderingHint(RenderingHints.KEY_ALPHA_INTERPOLATION, RenderingHints.VALUE_ALPHA_INTERPOLATION_QUALITY);
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        g2d.setRenderingHint(RenderingHints.KEY_COLOR_RENDERING, RenderingHints.VALUE_COLOR_RENDER_QUALITY);
-        g2d.setRenderingHint(RenderingHints.KEY_DITHERING, RenderingHints.VALUE_DITHER_ENABLE);
-        g2d.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
-        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-        g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-        g2d.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
-
-        g2d.setColor(Color.WHITE);
-        g2d.fillRect(0, 0, img.getWidth(), img.getHeight());
-
-        g2d.setFont(font);
-        fm = g2d.getFontMetrics();
-        g2d.setColor(Color.BLACK);
-        int y = 0;
-        for (final String line : csvText.split("\n")) { //$NON-NLS-1$
-			g2d.drawString(line, 0, y += fm.getAscent() + CSV_SPACING);
-		}
-        g2d.drawImage(barcode, 0, y + CSV_SPACING * 3, null);
-        g2d.dispose();
-
-        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        final ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next(); //$NON-NLS-1$
-        try (
-    		final ImageOutputStream ios = new MemoryCacheImageOutputStream(baos)
-		) {
-        	writer.setOutput(ios);
-        	writer.write(null, new IIOImage(img, null, null), jpegParams);
-        }
+	/** A&ntilde;ade el CSV a un PDF como contenido vectorial sobre una sesi&oacute;n de
+	 * estampaci&oacute;n ya abierta.
+	 * El texto se escribe con una fuente est&aacute;ndar de PDF (que no se incrusta) y el
+	 * c&oacute;digo de barras se dibuja con rect&aacute;ngulos, ambos en una &uacute;nica plantilla
+	 * que se referencia desde todas las p&aacute;ginas en las que se estampa. No se usa AWT ni
+	 * ImageIO, por lo que puede usarse en entornos sin entorno gr&aacute;fico.
+	 * El PDF no se escribe hasta que se cierra el <code>PdfStamper</code>.
+	 * @param stamper Sesi&oacute;n de estampaci&oacute;n del PDF.
+	 * @param id CSV del PDF.
+	 * @param signatures Firmas del PDF.
+	 * @param textTemplate Plantilla de la l&iacute;nea de cada firma (puede ser <code>null</code>).
+	 * @param left Distancia del CSV al borde izquiero de la p&aacute;gina del PDF.
+	 * @param bottom Distancia del CSV al borde inferior de la p&aacute;gina del PDF.
+	 * @param pageNum N&uacute;mero de p&aacute;gina del PDF donde insertar el CSV
+	 *                (la numeraci&oacute;n comienza en 1, 0 para todas las p&aacute;ginas).
+	 * @param url URL a la que enlazar&aacute; el CSV si queremos que este sea un hiperv&iacute;nculo
+	 *            (puede ser <code>null</code>).
+	 * @throws IOException Si hay cualquier problema durante el proceso. */
+	static void addVectorCsvToPdf(final PdfStamper stamper,
+			                      final String id,
+			                      final AOSimpleSignInfo[] signatures,
+			                      final String textTemplate,
+			                      final int left,
+			                      final int bottom,
+			                      final int pageNum,
+			                      final String url) throws IOException {
 
-        return baos.toByteArray();
+		final String[] lines = CsvStampRenderer.getLines(id, signatures, textTemplate);
+
+		final BaseFont font;
+		try {
+			font = BaseFont.createFont(BaseFont.HELVETICA, BaseFont.WINANSI, BaseFont.NOT_EMBEDDED);
+		}
+		catch (final DocumentException e) {
+			throw new IOException(e);
+		}
+		final float descent = font.getFontDescriptor(BaseFont.DESCENT, CSV_FONT_SIZE);
+		final float leading = font.getFontDescriptor(BaseFont.ASCENT, CSV_FONT_SIZE) - descent + CSV_SPACING;
+		float textWidth = 0;
+		for (final String line : lines) {
+			textWidth = Math.max(textWidth, font.getWidthPoint(line, CSV_FONT_SIZE));
+		}
+
+		// Codigo de barras sin texto legible, que ya aparece en el enlace
+		final Barcode128 barcode = new Barcode128();
+		barcode.setCodeType(Barcode.CODE128);
+		barcode.setCode(id);
+		barcode.setFont(null);
+		final Rectangle barcodeSize = barcode.getBarcodeSize();
+
+		final float width = Math.max(barcodeSize.getWidth(), textWidth);
+		final float height = barcodeSize.getHeight() + CSV_SPACING * 3 + leading * lines.length;
+
+		// El codigo de barras queda en la base de la plantilla y el texto sobre el
+		final PdfTemplate csv = stamper.getOverContent(getFirstPage(stamper, pageNum)).createTemplate(width, height);
+		barcode.placeBarcode(csv, null, null);
+		csv.beginText();
+		csv.setFontAndSize(font, CSV_FONT_SIZE);
+		float y = height;
+		for (final String line : lines) {
+			y -= leading;
+			csv.setTextMatrix(0, y - descent);
+			csv.showText(line);
+		}
+		csv.endText();
 
+		addTemplateToPdf(stamper, csv, left, bottom, pageNum, url);
 	}
 
 	static Image generateBarcode128AsJpeg(final String code) {
@@ -161,9 +181,10 @@ public final class PdfExtraUtil {
 	}
 
 	static byte[] removeSignaturesFromPdf(final byte[] inPdf) throws IOException {
-		final PdfReader reader = new PdfReader(inPdf);
 		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final long t = CsvMetrics.FLATTEN.start();
 		try {
+			final PdfReader reader = new PdfReader(inPdf);
 			final PdfStamper stamper = new PdfStamper(reader, baos);
 	        stamper.setFormFlattening(true);
 	        stamper.close();
@@ -171,6 +192,9 @@ public final class PdfExtraUtil {
 		catch (final DocumentException e) {
 			throw new IOException(e);
 		}
+		finally {
+			CsvMetrics.FLATTEN.stop(t);
+		}
         return baos.toByteArray();
 	}
 
@@ -180,7 +204,7 @@ public final class PdfExtraUtil {
 	 * @param left Distancia de la imagen al borde izquiero de la p&aacute;gina del PDF.
 	 * @param bottom Distancia de la imagen al borde inferior de la p&aacute;gina del PDF.
 	 * @param pageNum N&uacute;mero de p&aacute;gina del PDF donde insertar la imagen
-	 *                (la numeraci&oacute;n comienza en 1).
+	 *                (la numeraci&oacute;n comienza en 1, 0 para todas las p&aacute;ginas).
 	 * @param url URL a la que enlazar&aacute; la imagen si queremos que esta sea un hiperv&iacute;nculo
 	 *            (puede ser <code>null</code>).
 	 * @return PDF con la imagen a&ntilde;adida.
@@ -197,43 +221,11 @@ public final class PdfExtraUtil {
 			);
 		}
 
-		// Obtenemos las dimensiones de la imagen
-		final Image img = ImageIO.read(new ByteArrayInputStream(inJpg));
-		final int imgWidth = img.getWidth(null);
-		final int imgheight = img.getHeight(null);
-
-
 		final PdfReader reader = new PdfReader(inPdf);
 		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
 		try {
 			final PdfStamper stamper = new PdfStamper(reader, baos);
-			// Si se indica 0 se estampa en todas las paginas
-			if (pageNum == 0) {
-				for (int i=1;i<=reader.getNumberOfPages();i++) {
-					PdfPreProcessor.addImage(
-						inJpg,
-						imgWidth,
-						imgheight,
-						left,
-						bottom,
-						i,
-						url,
-						stamper
-					);
-				}
-			}
-			else {
-				PdfPreProcessor.addImage(
-					inJpg,
-					imgWidth,
-					imgheight,
-					left,
-					bottom,
-					pageNum,
-					url,
-					stamper
-				);
-			}
+			addImageToPdf(stamper, inJpg, left, bottom, pageNum, url);
 			stamper.close();
 		}
 		catch (final DocumentException e) {
@@ -243,6 +235,105 @@ public final class PdfExtraUtil {
 		return baos.toByteArray();
 	}
 
+	/** A&ntilde;ade una imagen JPEG a un PDF sobre una sesi&oacute;n de estampaci&oacute;n ya abierta.
+	 * El PDF no se escribe hasta que se cierra el <code>PdfStamper</code>.
+	 * @param stamper Sesi&oacute;n de estampaci&oacute;n del PDF.
+	 * @param inJpg Imagen a a&ntilde;adir.
+	 * @param left Distancia de la imagen al borde izquiero de la p&aacute;gina del PDF.
+	 * @param bottom Distancia de la imagen al borde inferior de la p&aacute;gina del PDF.
+	 * @param pageNum N&uacute;mero de p&aacute;gina del PDF donde insertar la imagen
+	 *                (la numeraci&oacute;n comienza en 1, 0 para todas las p&aacute;ginas).
+	 * @param url URL a la que enlazar&aacute; la imagen si queremos que esta sea un hiperv&iacute;nculo
+	 *            (puede ser <code>null</code>).
+	 * @throws IOException Si hay cualquier problema durante el proceso. */
+	static void addImageToPdf(final PdfStamper stamper,
+			                  final byte[] inJpg,
+			                  final int left,
+			                  final int bottom,
+			                  final int pageNum,
+			                  final String url) throws IOException {
+		if (inJpg == null) {
+			throw new IllegalArgumentException(
+				"La imagen JPEG no puede ser nula" //$NON-NLS-1$
+			);
+		}
+
+		// Obtenemos las dimensiones de la imagen de su cabecera, sin decodificarla
+		final com.aowagie.text.Image img;
+		try {
+			img = com.aowagie.text.Image.getInstance(inJpg);
+		}
+		catch (final DocumentException e) {
+			throw new IOException(e);
+		}
+		final float imgWidth = img.getWidth();
+		final float imgHeight = img.getHeight();
+
+		// La imagen se incluye una sola vez en una plantilla que referencian todas las paginas
+		final PdfTemplate csv = stamper.getOverContent(getFirstPage(stamper, pageNum)).createTemplate(imgWidth, imgHeight);
+		try {
+			csv.addImage(img, imgWidth, 0, 0, imgHeight, 0, 0);
+		}
+		catch (final DocumentException e) {
+			throw new IOException(e);
+		}
+
+		addTemplateToPdf(stamper, csv, left, bottom, pageNum, url);
+	}
+
+	private static int getFirstPage(final PdfStamper stamper, final int pageNum) {
+		if (pageNum < 0 || pageNum > stamper.getReader().getNumberOfPages()) {
+			throw new IllegalArgumentException(
+				"El PDF no tiene la pagina " + pageNum + ", tiene " + stamper.getReader().getNumberOfPages() //$NON-NLS-1$ //$NON-NLS-2$
+			);
+		}
+		return pageNum == 0 ? 1 : pageNum;
+	}
+
+	/** Estampa una plantilla en una o en todas las p&aacute;ginas de un PDF.
+	 * La plantilla se escribe una &uacute;nica vez como XObject y cada p&aacute;gina solo a&ntilde;ade a
+	 * su contenido una referencia a ella, de forma que el tama&ntilde;o del PDF y el tiempo de
+	 * estampaci&oacute;n apenas dependen del n&uacute;mero de p&aacute;ginas.
+	 * @param stamper Sesi&oacute;n de estampaci&oacute;n del PDF.
+	 * @param template Plantilla a estampar.
+	 * @param left Distancia de la plantilla al borde izquiero de la p&aacute;gina del PDF.
+	 * @param bottom Distancia de la plantilla al borde inferior de la p&aacute;gina del PDF.
+	 * @param pageNum N&uacute;mero de p&aacute;gina del PDF donde estampar la plantilla
+	 *                (la numeraci&oacute;n comienza en 1, 0 para todas las p&aacute;ginas).
+	 * @param url URL a la que enlazar&aacute; la plantilla si queremos que esta sea un hiperv&iacute;nculo
+	 *            (puede ser <code>null</code>).
+	 * @throws IOException Si hay cualquier problema durante el proceso. */
+	private static void addTemplateToPdf(final PdfStamper stamper,
+			                             final PdfTemplate template,
+			                             final int left,
+			                             final int bottom,
+			                             final int pageNum,
+			                             final String url) throws IOException {
+		final PdfReader reader = stamper.getReader();
+		final int firstPage = getFirstPage(stamper, pageNum);
+		final int lastPage = pageNum == 0 ? reader.getNumberOfPages() : pageNum;
+
+		// La accion del enlace tambien se escribe una sola vez y se referencia desde cada pagina
+		final PdfIndirectReference action = url != null ?
+			stamper.getWriter().addToBody(new PdfAction(url), false).getIndirectReference() :
+				null;
+		for (int i = firstPage; i <= lastPage; i++) {
+			stamper.getOverContent(i).addTemplate(template, left, bottom);
+			if (action != null) {
+				final PdfAnnotation link = new PdfAnnotation(
+					stamper.getWriter(),
+					left,
+					bottom,
+					left + template.getWidth(),
+					bottom + template.getHeight(),
+					(PdfAction) null
+				);
+				link.put(PdfName.A, action);
+				stamper.addAnnotation(link, i);
+			}
+		}
+	}
+
 	/** Obtiene el identificador de un PDF.
 	 * @param inPdf PDF de entrada.
 	 * @return Identificador del PDF de entrada.
@@ -254,23 +345,51 @@ public final class PdfExtraUtil {
 			);
 		}
 
-		try {
-			return Base64.encode(MessageDigest.getInstance("SHA-1").digest(inPdf), true); //$NON-NLS-1$
-		}
-		catch (final NoSuchAlgorithmException e) {
-			throw new IOException(e);
+		return PdfIdGenerator.getInstance().getId(inPdf);
+	}
+
+	/** Obtiene el identificador de un PDF almacenado en disco, sin cargarlo en memoria.
+	 * @param inPdf Fichero con el PDF de entrada.
+	 * @return Identificador del PDF de entrada.
+	 * @throws IOException Si hay errores en la obtenci&oacute;n. */
+	public static String getPdfId(final Path inPdf) throws IOException {
+		if (inPdf == null) {
+			throw new IllegalArgumentException(
+				"El PDF no puede ser nulo" //$NON-NLS-1$
+			);
 		}
 
+		try (
+			final InputStream is = Files.newInputStream(inPdf)
+		) {
+			return PdfIdGenerator.getInstance().getId(is);
+		}
 	}
 
-	/** PDF con identificador externo. */
+	/** PDF con identificador externo.
+	 * El PDF puede estar en memoria o en un fichero en disco. */
 	public static final class PdfId {
 
 		private final byte[] pdf;
+		private final Path pdfFile;
 		private final String id;
 
+		/** Crea un PDF con identificador en memoria. El array no se copia, por lo que
+		 * no debe modificarse tras la llamada.
+		 * @param pdfBytes Contenido del PDF.
+		 * @param strId Identificador del PDF. */
 		PdfId(final byte[] pdfBytes, final String strId) {
-			this.pdf = pdfBytes != null ? pdfBytes.clone() : null;
+			this.pdf = pdfBytes;
+			this.pdfFile = null;
+			this.id = strId;
+		}
+
+		/** Crea un PDF con identificador almacenado en disco.
+		 * @param pdfPath Fichero con el contenido del PDF.
+		 * @param strId Identificador del PDF. */
+		PdfId(final Path pdfPath, final String strId) {
+			this.pdf = null;
+			this.pdfFile = pdfPath;
 			this.id = strId;
 		}
 
@@ -279,7 +398,7 @@ public final class PdfExtraUtil {
 		}
 
 		PdfId(final String strId) {
-			this(null, strId);
+			this((byte[]) null, strId);
 		}
 
 		/** Obtiene el identificador del PDF.
@@ -289,11 +408,57 @@ public final class PdfExtraUtil {
 		}
 
 		/** Obtiene el contenido del PDF.
+		 * Si el PDF est&aacute; en disco se lee completo a memoria, por lo que en ese caso es
+		 * preferible usar {@link #getPdfStream()}.
 		 * @return Contenido del PDF. */
 		public byte[] getPdf() {
+			if (this.pdfFile != null) {
+				try {
+					return Files.readAllBytes(this.pdfFile);
+				}
+				catch (final IOException e) {
+					throw new IllegalStateException(
+						"No se ha podido leer el PDF de '" + this.pdfFile + "': " + e, e //$NON-NLS-1$ //$NON-NLS-2$
+					);
+				}
+			}
 			return this.pdf != null ? this.pdf.clone() : null;
 		}
 
+		/** Obtiene el fichero con el contenido del PDF.
+		 * @return Fichero con el contenido del PDF o <code>null</code> si el PDF est&aacute;
+		 *         en memoria o no se ha proporcionado. */
+		public Path getPdfFile() {
+			return this.pdfFile;
+		}
+
+		/** Indica si se dispone del contenido del PDF, en memoria o en disco.
+		 * @return <code>true</code> si se dispone del contenido del PDF. */
+		public boolean hasPdf() {
+			return this.pdf != null || this.pdfFile != null;
+		}
+
+		/** Obtiene un flujo de lectura del contenido del PDF sin copiarlo.
+		 * @return Flujo de lectura del contenido del PDF o <code>null</code> si no se
+		 *         ha proporcionado.
+		 * @throws IOException Si no se puede abrir el fichero del PDF. */
+		public InputStream getPdfStream() throws IOException {
+			if (this.pdfFile != null) {
+				return Files.newInputStream(this.pdfFile);
+			}
+			return this.pdf != null ? new ByteArrayInputStream(this.pdf) : null;
+		}
+
+		/** Obtiene el tama&ntilde;o del PDF.
+		 * @return Tama&ntilde;o en octetos del PDF o <code>-1</code> si no se ha proporcionado.
+		 * @throws IOException Si no se puede consultar el fichero del PDF. */
+		public long getPdfLength() throws IOException {
+			if (this.pdfFile != null) {
+				return Files.size(this.pdfFile);
+			}
+			return this.pdf != null ? this.pdf.length : -1;
+		}
+
 	}
 
 }
@@ -0,0 +1,167 @@
+package es.ciemat.csv;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.logging.Logger;
+
+import es.gob.afirma.core.misc.Base64;
+
+/** Generador de identificadores de PDF a partir de su huella digital.
+ * El algoritmo de huella y la codificaci&oacute;n del identificador se configuran en el
+ * fichero <code>service.properties</code>. La huella puede calcularse sobre el documento
+ * completo o seg&uacute;n se van leyendo sus datos, sin necesidad de tenerlo en memoria.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+final class PdfIdGenerator {
+
+	/** Codificaci&oacute;n de la huella en el identificador. */
+	enum Encoding {
+
+		/** Base64 con el alfabeto seguro para URL y con relleno (la codificaci&oacute;n hist&oacute;rica). */
+		BASE64,
+
+		/** Base64 con el alfabeto seguro para URL y sin relleno. */
+		BASE64URL,
+
+		/** Hexadecimal en min&uacute;sculas. */
+		HEX
+	}
+
+	/** Algoritmo de huella por defecto, el usado hist&oacute;ricamente. */
+	static final String DEFAULT_ALGORITHM = "SHA-1"; //$NON-NLS-1$
+
+	/** Codificaci&oacute;n por defecto, la usada hist&oacute;ricamente. */
+	static final Encoding DEFAULT_ENCODING = Encoding.BASE64;
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private static final Logger LOGGER = Logger.getLogger(PdfIdGenerator.class.getName());
+
+	private static volatile PdfIdGenerator instance = null;
+
+	private final String algorithm;
+	private final Encoding encoding;
+
+	/** Huella sin usar que se clona para cada c&aacute;lculo, lo que evita buscar el
+	 * proveedor del algoritmo cada vez. Es <code>null</code> si el proveedor no admite
+	 * la clonaci&oacute;n. */
+	private final MessageDigest prototype;
+
+	/** Crea un generador de identificadores.
+	 * @param digestAlgorithm Algoritmo de huella (por ejemplo <code>SHA-256</code>).
+	 * @param idEncoding Codificaci&oacute;n de la huella en el identificador.
+	 * @throws NoSuchAlgorithmException Si el algoritmo de huella no est&aacute; soportado. */
+	PdfIdGenerator(final String digestAlgorithm, final Encoding idEncoding) throws NoSuchAlgorithmException {
+		if (idEncoding == null) {
+			throw new IllegalArgumentException("La codificacion de los identificadores no puede ser nula"); //$NON-NLS-1$
+		}
+		final MessageDigest md = MessageDigest.getInstance(digestAlgorithm);
+		MessageDigest proto;
+		try {
+			md.clone();
+			proto = md;
+		}
+		catch (final CloneNotSupportedException e) {
+			proto = null;
+		}
+		this.algorithm = digestAlgorithm;
+		this.encoding = idEncoding;
+		this.prototype = proto;
+	}
+
+	/** Obtiene el generador de identificadores configurado en el servicio.
+	 * @return Generador de identificadores. */
+	static PdfIdGenerator getInstance() {
+		PdfIdGenerator ret = instance;
+		if (ret == null) {
+			synchronized (PdfIdGenerator.class) {
+				ret = instance;
+				if (ret == null) {
+					final String algo = ServiceConfig.getIdAlgorithm();
+					final String enc = ServiceConfig.getIdEncoding();
+					try {
+						ret = new PdfIdGenerator(algo, Encoding.valueOf(enc.toUpperCase(Locale.ROOT)));
+					}
+					catch (final NoSuchAlgorithmException | IllegalArgumentException e) {
+						LOGGER.severe(
+							"La configuracion de los identificadores de PDF ('" + algo + "', '" + enc + "') no es valida: " + e //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+						);
+						throw new IllegalStateException(
+							"La configuracion de los identificadores de PDF ('" + algo + "', '" + enc + "') no es valida: " + e, e //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+						);
+					}
+					LOGGER.info(
+						"Los identificadores de PDF se generaran con el algoritmo " + algo + " y la codificacion " + ret.encoding //$NON-NLS-1$ //$NON-NLS-2$
+					);
+					instance = ret;
+				}
+			}
+		}
+		return ret;
+	}
+
+	/** Crea una huella vac&iacute;a con el algoritmo del generador, para calcularla seg&uacute;n
+	 * se leen los datos del documento.
+	 * @return Huella vac&iacute;a. */
+	MessageDigest newDigest() {
+		if (this.prototype != null) {
+			try {
+				return (MessageDigest) this.prototype.clone();
+			}
+			catch (final CloneNotSupportedException e) {
+				// Ya se comprobo al construir el generador
+			}
+		}
+		try {
+			return MessageDigest.getInstance(this.algorithm);
+		}
+		catch (final NoSuchAlgorithmException e) {
+			// Ya se comprobo al construir el generador
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/** Obtiene el identificador correspondiente a una huella ya calculada.
+	 * @param digest Huella del documento, obtenida con {@link #newDigest()}.
+	 * @return Identificador del documento. */
+	String toId(final byte[] digest) {
+		switch (this.encoding) {
+			case HEX:
+				return HexUtil.toHex(digest);
+			case BASE64URL:
+				final String b64 = Base64.encode(digest, true);
+				int end = b64.length();
+				while (end > 0 && b64.charAt(end - 1) == '=') {
+					end--;
+				}
+				return b64.substring(0, end);
+			default:
+				return Base64.encode(digest, true);
+		}
+	}
+
+	/** Obtiene el identificador de un documento en memoria.
+	 * @param data Documento.
+	 * @return Identificador del documento. */
+	String getId(final byte[] data) {
+		return toId(newDigest().digest(data));
+	}
+
+	/** Obtiene el identificador de un documento leyendo sus datos de un flujo, en memoria
+	 * constante independientemente de su tama&ntilde;o. El flujo no se cierra.
+	 * @param is Flujo con los datos del documento.
+	 * @return Identificador del documento.
+	 * @throws IOException Si no se puede leer el flujo. */
+	String getId(final InputStream is) throws IOException {
+		final MessageDigest md = newDigest();
+		final byte[] buf = new byte[BUFFER_SIZE];
+		int n;
+		while ((n = is.read(buf)) > 0) {
+			md.update(buf, 0, n);
+		}
+		return toId(md.digest());
+	}
+
+}
@@ -0,0 +1,257 @@
+package es.ciemat.csv;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import com.aowagie.text.DocumentException;
+import com.aowagie.text.pdf.PdfDate;
+import com.aowagie.text.pdf.PdfDictionary;
+import com.aowagie.text.pdf.PdfName;
+import com.aowagie.text.pdf.PdfPKCS7;
+import com.aowagie.text.pdf.PdfReader;
+import com.aowagie.text.pdf.PdfSignature;
+import com.aowagie.text.pdf.PdfSignatureAppearance;
+import com.aowagie.text.pdf.PdfStamper;
+import com.aowagie.text.pdf.PdfString;
+
+/** Sellador electr&oacute;nico de PDF con una clave y cadena de certificados fijas.
+ * El sello es un PKCS#7 <code>adbe.pkcs7.detached</code> sin los atributos de PAdES (como el
+ * certificado de firma ESS), por lo que solo se usa si se configura expresamente
+ * {@link CsvSignerSealer}; el firmador por defecto, {@link CsvSignerSimple}, genera firmas PAdES.
+ * La clave y la cadena se validan una &uacute;nica vez al construir el sellador. Los motores de
+ * firma y de huella ya inicializados se reutilizan entre sellados: cada hilo toma uno libre de
+ * un conjunto compartido (o crea uno nuevo si no hay) y lo devuelve al terminar, de forma que
+ * hilos concurrentes nunca comparten un motor y no compiten por ning&uacute;n bloqueo.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+final class PdfSealer {
+
+	/** Octetos reservados en el PDF para el PKCS#7 del sello. */
+	static final int SIGNATURE_RESERVED_SIZE = 16384;
+
+	/** N&uacute;mero m&aacute;ximo de motores libres que se conservan. */
+	private static final int MAX_IDLE_ENGINES = Math.max(8, Runtime.getRuntime().availableProcessors() * 2);
+
+	private static final Logger LOGGER = Logger.getLogger(PdfSealer.class.getName());
+
+	private final PrivateKey key;
+	private final Certificate[] chain;
+	private final String digestAlgorithm;
+	private final String signatureAlgorithm;
+
+	private final Queue<Signature> idleSignatures = new ConcurrentLinkedQueue<>();
+	private final Queue<MessageDigest> idleDigests = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger createdEngines = new AtomicInteger();
+
+	/** Crea un sellador, validando la clave y la cadena de certificados.
+	 * @param signKey Clave privada de sellado.
+	 * @param signChain Cadena de certificados de la clave de sellado.
+	 * @param digestAlgo Algoritmo de huella (por ejemplo <code>SHA-512</code>).
+	 * @throws GeneralSecurityException Si la clave no es v&aacute;lida o no se corresponde con
+	 *                                  el certificado de la cadena. */
+	PdfSealer(final PrivateKey signKey,
+			  final Certificate[] signChain,
+			  final String digestAlgo) throws GeneralSecurityException {
+		checkSigningMaterial(signKey, signChain, digestAlgo);
+		this.key = signKey;
+		this.chain = signChain.clone();
+		this.digestAlgorithm = digestAlgo;
+		this.signatureAlgorithm = getSignatureAlgorithm(signKey, digestAlgo);
+		// Se deja un motor de firma ya inicializado para el primer sellado
+		sign("CSV".getBytes()); //$NON-NLS-1$
+		LOGGER.info(
+			"Sellador preparado con el certificado " + ((X509Certificate) this.chain[0]).getSubjectX500Principal() + " y el algoritmo " + this.signatureAlgorithm //$NON-NLS-1$ //$NON-NLS-2$
+		);
+	}
+
+	/** Valida una clave y cadena de certificados de sellado.
+	 * @param signKey Clave privada de sellado.
+	 * @param signChain Cadena de certificados de la clave de sellado.
+	 * @param digestAlgo Algoritmo de huella (por ejemplo <code>SHA-512</code>).
+	 * @throws GeneralSecurityException Si la clave no es v&aacute;lida o no se corresponde con
+	 *                                  el certificado de la cadena. */
+	static void checkSigningMaterial(final PrivateKey signKey,
+			                         final Certificate[] signChain,
+			                         final String digestAlgo) throws GeneralSecurityException {
+		if (signKey == null) {
+			throw new InvalidKeyException("No se ha proporcionado la clave de sellado"); //$NON-NLS-1$
+		}
+		if (signChain == null || signChain.length == 0 || !(signChain[0] instanceof X509Certificate)) {
+			throw new CertificateException("No se ha proporcionado la cadena de certificados de sellado"); //$NON-NLS-1$
+		}
+		if (!"RSA".equals(signKey.getAlgorithm()) && !"DSA".equals(signKey.getAlgorithm())) { //$NON-NLS-1$ //$NON-NLS-2$
+			throw new InvalidKeyException("Tipo de clave de sellado no soportado: " + signKey.getAlgorithm()); //$NON-NLS-1$
+		}
+
+		final X509Certificate cert = (X509Certificate) signChain[0];
+		try {
+			cert.checkValidity();
+		}
+		catch (final CertificateException e) {
+			LOGGER.warning("El certificado de sellado no esta en su periodo de validez: " + e); //$NON-NLS-1$
+		}
+
+		// Se comprueba que la clave se corresponde con el certificado
+		final String signatureAlgo = getSignatureAlgorithm(signKey, digestAlgo);
+		final byte[] probe = "CSV".getBytes(); //$NON-NLS-1$
+		final Signature signer = Signature.getInstance(signatureAlgo);
+		signer.initSign(signKey);
+		signer.update(probe);
+		final byte[] probeSignature = signer.sign();
+		final Signature verifier = Signature.getInstance(signatureAlgo);
+		verifier.initVerify(cert.getPublicKey());
+		verifier.update(probe);
+		if (!verifier.verify(probeSignature)) {
+			throw new InvalidKeyException(
+				"La clave de sellado no se corresponde con el certificado " + cert.getSubjectX500Principal() //$NON-NLS-1$
+			);
+		}
+	}
+
+	private static String getSignatureAlgorithm(final PrivateKey signKey, final String digestAlgo) {
+		return digestAlgo.replace("-", "") + "with" + signKey.getAlgorithm(); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+
+	/** Firma unos datos con la clave de sellado.
+	 * @param data Datos a firmar.
+	 * @return Firma PKCS#1 de los datos.
+	 * @throws GeneralSecurityException Si no se puede firmar. */
+	byte[] sign(final byte[] data) throws GeneralSecurityException {
+		Signature sig = this.idleSignatures.poll();
+		if (sig == null) {
+			sig = Signature.getInstance(this.signatureAlgorithm);
+			sig.initSign(this.key);
+			this.createdEngines.incrementAndGet();
+		}
+		// Si falla la firma el motor queda en estado desconocido y no se devuelve al conjunto.
+		// Tras firmar, queda inicializado con la misma clave y listo para otra firma
+		sig.update(data);
+		final byte[] ret = sig.sign();
+		if (this.idleSignatures.size() < MAX_IDLE_ENGINES) {
+			this.idleSignatures.offer(sig);
+		}
+		return ret;
+	}
+
+	/** Obtiene el n&uacute;mero de motores de firma creados desde la construcci&oacute;n del sellador.
+	 * @return N&uacute;mero de motores de firma creados. */
+	int getCreatedEngines() {
+		return this.createdEngines.get();
+	}
+
+	/** Sella un PDF.
+	 * @param pdf PDF a sellar.
+	 * @return PDF sellado.
+	 * @throws IOException Si hay problemas durante el sellado. */
+	byte[] signPdf(final byte[] pdf) throws IOException {
+		final PdfReader reader = new PdfReader(pdf);
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream(pdf.length + SIGNATURE_RESERVED_SIZE * 3);
+		try {
+			signPdf(PdfStamper.createSignature(reader, baos, '\0', null, false));
+		}
+		catch (final DocumentException e) {
+			throw new IOException(e);
+		}
+		finally {
+			reader.close();
+		}
+		return baos.toByteArray();
+	}
+
+	/** Sella un PDF sobre una sesi&oacute;n de estampaci&oacute;n abierta con
+	 * <code>PdfStamper.createSignature()</code>. El PDF sellado se escribe en el flujo de
+	 * salida indicado al abrir la sesi&oacute;n.
+	 * @param stamper Sesi&oacute;n de estampaci&oacute;n.
+	 * @throws IOException Si hay problemas durante el sellado. */
+	void signPdf(final PdfStamper stamper) throws IOException {
+		final PdfSignatureAppearance sap = stamper.getSignatureAppearance();
+		if (sap == null) {
+			throw new IllegalArgumentException(
+				"La sesion de estampacion no se ha abierto para firma" //$NON-NLS-1$
+			);
+		}
+		final Calendar signDate = sap.getSignDate();
+
+		final PdfSignature dic = new PdfSignature(PdfName.ADOBE_PPKLITE, PdfName.ADBE_PKCS7_DETACHED);
+		dic.setDate(new PdfDate(signDate));
+		sap.setCryptoDictionary(dic);
+
+		final HashMap<PdfName, Integer> exclusionSizes = new HashMap<>();
+		exclusionSizes.put(PdfName.CONTENTS, Integer.valueOf(SIGNATURE_RESERVED_SIZE * 2 + 2));
+
+		try {
+			sap.preClose(exclusionSizes);
+
+			final byte[] hash = digest(sap);
+
+			// El PKCS#7 se construye sin clave y se le proporciona la firma calculada con el
+			// motor reutilizable, en lugar de dejar que cree e inicialice uno propio
+			final PdfPKCS7 pkcs7 = new PdfPKCS7(
+				null,
+				this.chain,
+				null,
+				this.digestAlgorithm,
+				null,
+				false
+			);
+			final byte[] signedAttributes = pkcs7.getAuthenticatedAttributeBytes(hash, signDate, null);
+			pkcs7.setExternalDigest(sign(signedAttributes), null, this.key.getAlgorithm());
+			final byte[] encodedPkcs7 = pkcs7.getEncodedPKCS7(hash, signDate);
+			if (encodedPkcs7.length > SIGNATURE_RESERVED_SIZE) {
+				throw new IOException(
+					"El sello electronico (" + encodedPkcs7.length + " octetos) no cabe en el espacio reservado (" + SIGNATURE_RESERVED_SIZE + " octetos)" //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				);
+			}
+			final byte[] paddedPkcs7 = new byte[SIGNATURE_RESERVED_SIZE];
+			System.arraycopy(encodedPkcs7, 0, paddedPkcs7, 0, encodedPkcs7.length);
+
+			final PdfDictionary update = new PdfDictionary();
+			update.put(PdfName.CONTENTS, new PdfString(paddedPkcs7).setHexWriting(true));
+			sap.close(update);
+		}
+		catch (final DocumentException | GeneralSecurityException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/** Calcula la huella de los rangos firmados del PDF. */
+	private byte[] digest(final PdfSignatureAppearance sap) throws IOException, GeneralSecurityException {
+		MessageDigest md = this.idleDigests.poll();
+		if (md == null) {
+			md = MessageDigest.getInstance(this.digestAlgorithm);
+		}
+		try (
+			final InputStream rangeStream = sap.getRangeStream()
+		) {
+			final byte[] buf = new byte[8192];
+			int n;
+			while ((n = rangeStream.read(buf)) > 0) {
+				md.update(buf, 0, n);
+			}
+		}
+		catch (final IOException e) {
+			md.reset();
+			throw e;
+		}
+		final byte[] hash = md.digest();
+		if (this.idleDigests.size() < MAX_IDLE_ENGINES) {
+			this.idleDigests.offer(md);
+		}
+		return hash;
+	}
+
+}
@@ -0,0 +1,357 @@
+package es.ciemat.csv;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.SignatureException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.spongycastle.asn1.ASN1Encodable;
+import org.spongycastle.asn1.ASN1InputStream;
+import org.spongycastle.asn1.ASN1OctetString;
+import org.spongycastle.asn1.ASN1Sequence;
+import org.spongycastle.asn1.ASN1Set;
+import org.spongycastle.asn1.cms.ContentInfo;
+import org.spongycastle.asn1.cms.IssuerAndSerialNumber;
+import org.spongycastle.asn1.cms.SignedData;
+import org.spongycastle.asn1.cms.SignerIdentifier;
+import org.spongycastle.asn1.cms.SignerInfo;
+import org.spongycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.spongycastle.asn1.x509.Certificate;
+import org.spongycastle.asn1.x509.Extension;
+import org.spongycastle.asn1.x509.Extensions;
+import org.spongycastle.asn1.x509.SubjectKeyIdentifier;
+
+import com.aowagie.text.ExceptionConverter;
+import com.aowagie.text.pdf.AcroFields;
+import com.aowagie.text.pdf.PdfArray;
+import com.aowagie.text.pdf.PdfDate;
+import com.aowagie.text.pdf.PdfDictionary;
+import com.aowagie.text.pdf.PdfName;
+import com.aowagie.text.pdf.PdfObject;
+import com.aowagie.text.pdf.PdfPKCS7;
+import com.aowagie.text.pdf.PdfReader;
+import com.aowagie.text.pdf.PdfString;
+
+import es.gob.afirma.core.signers.AOSimpleSignInfo;
+
+/** Obtiene los firmantes de las firmas de un PDF para estampar el CSV.
+ * Para el CSV basta con el certificado del firmante y la fecha de firma de cada firma, por lo
+ * que por defecto se recorren los diccionarios de firma y de cada PKCS#7 se decodifica
+ * &uacute;nicamente el certificado del firmante, sin analizar el resto de certificados y CRL
+ * y sin calcular la huella de los rangos firmados. La fecha de firma es la indicada en la
+ * clave <code>/M</code> del diccionario.
+ * Opcionalmente puede hacerse la verificaci&oacute;n completa de cada firma con
+ * {@link PdfPKCS7}, rechazando los PDF cuyas firmas no se correspondan con su contenido.
+ * En ese caso los rangos firmados de todas las firmas se leen una &uacute;nica vez y las firmas
+ * se decodifican y verifican en paralelo (ver {@link AcroFields#verifySignatures}), y si se han
+ * configurado almacenes de confianza se valida adem&aacute;s la cadena de certificados de cada
+ * firmante (ver {@link CertificateValidator}).
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+final class PdfSignerScanner {
+
+	private static final Logger LOGGER = Logger.getLogger(PdfSignerScanner.class.getName());
+
+	private static ExecutorService verifyExecutor = null;
+
+	private PdfSignerScanner() {
+		// No instanciable
+	}
+
+	/** Obtiene la informaci&oacute;n de las firmas de un PDF ya abierto.
+	 * @param reader Lector del PDF.
+	 * @param verify Si se indica <code>true</code> se verifica completamente cada firma con
+	 *               {@link PdfPKCS7}, y si se indica <code>false</code> solo se obtienen su
+	 *               firmante y su fecha.
+	 * @return Informaci&oacute;n de cada una de las firmas del PDF, en el orden en el que se
+	 *         firmaron.
+	 * @throws IOException Si alguna firma no puede decodificarse o, en caso de verificarse,
+	 *                     no es v&aacute;lida. */
+	static AOSimpleSignInfo[] scan(final PdfReader reader, final boolean verify) throws IOException {
+		final long t = CsvMetrics.SIGNERS.start();
+		try {
+			return doScan(reader, verify);
+		}
+		finally {
+			CsvMetrics.SIGNERS.stop(t);
+		}
+	}
+
+	private static AOSimpleSignInfo[] doScan(final PdfReader reader, final boolean verify) throws IOException {
+		final AcroFields af = reader.getAcroFields();
+		final List<String> names = getSignatureNames(af);
+		if (verify) {
+			return verify(af, names);
+		}
+		final AOSimpleSignInfo[] infos = new AOSimpleSignInfo[names.size()];
+		CertificateFactory cf = null;
+		for (int i = 0; i < infos.length; i++) {
+			final String name = names.get(i);
+			final PdfDictionary v = af.getSignatureDictionary(name);
+			if (v == null) {
+				throw new IOException("No se ha encontrado el diccionario de la firma '" + name + "'"); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			if (cf == null) {
+				try {
+					cf = CertificateFactory.getInstance("X.509"); //$NON-NLS-1$
+				}
+				catch (final CertificateException e) {
+					throw new IOException("No se ha podido crear la factoria de certificados: " + e, e); //$NON-NLS-1$
+				}
+			}
+			X509Certificate cert;
+			try {
+				cert = getSignerCertificate(v, cf);
+			}
+			catch (final Exception e) {
+				cert = null;
+				LOGGER.fine("No se ha podido obtener directamente el firmante de la firma '" + name + "': " + e); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			if (cert == null) {
+				// Estructura no prevista, se recurre a la decodificacion completa
+				infos[i] = decode(af, name);
+				continue;
+			}
+			infos[i] = new AOSimpleSignInfo(
+				new X509Certificate[] { cert },
+				getSignDate(v)
+			);
+		}
+		return infos;
+	}
+
+	/** Obtiene los nombres de las firmas de un PDF en el orden en el que se firmaron, ya que
+	 * {@link AcroFields#getSignatureNames()} los devuelve en un orden arbitrario.
+	 * @param af Campos del PDF.
+	 * @return Nombres de las firmas ordenados por la revisi&oacute;n del PDF que cubre cada una. */
+	private static List<String> getSignatureNames(final AcroFields af) {
+		final List<String> names = af.getSignatureNames();
+		Collections.sort(
+			names,
+			new Comparator<String>() {
+				@Override
+				public int compare(final String n1, final String n2) {
+					return Integer.compare(af.getRevision(n1), af.getRevision(n2));
+				}
+			}
+		);
+		return names;
+	}
+
+	/** Obtiene la fecha de firma de la clave <code>/M</code> de un diccionario de firma.
+	 * @param v Diccionario de firma.
+	 * @return Fecha de firma o <code>null</code> si no consta. */
+	private static Date getSignDate(final PdfDictionary v) {
+		final PdfString m = v.getAsString(PdfName.M);
+		if (m == null) {
+			return null;
+		}
+		final Calendar cal = PdfDate.decode(m.toString());
+		return cal != null ? cal.getTime() : null;
+	}
+
+	/** Obtiene el certificado del firmante de un diccionario de firma decodificando
+	 * &uacute;nicamente ese certificado.
+	 * @param v Diccionario de firma.
+	 * @param cf Factor&iacute;a de certificados.
+	 * @return Certificado del firmante o <code>null</code> si no se encuentra.
+	 * @throws IOException Si la firma no puede decodificarse.
+	 * @throws CertificateException Si el certificado no puede decodificarse. */
+	private static X509Certificate getSignerCertificate(final PdfDictionary v,
+			                                            final CertificateFactory cf) throws IOException,
+	                                                                                        CertificateException {
+		// En las firmas adbe.x509.rsa_sha1 los certificados estan en /Cert, empezando por el del firmante
+		if (PdfName.ADBE_X509_RSA_SHA1.equals(v.getAsName(PdfName.SUBFILTER))) {
+			PdfObject cert = PdfReader.getPdfObject(v.get(PdfName.CERT));
+			if (cert != null && cert.isArray()) {
+				cert = PdfReader.getPdfObject(((PdfArray) cert).getPdfObject(0));
+			}
+			if (cert == null || !cert.isString()) {
+				return null;
+			}
+			return (X509Certificate) cf.generateCertificate(
+				new ByteArrayInputStream(((PdfString) cert).getBytes())
+			);
+		}
+
+		final PdfString contents = v.getAsString(PdfName.CONTENTS);
+		if (contents == null) {
+			return null;
+		}
+		final ContentInfo ci;
+		try (
+			final ASN1InputStream is = new ASN1InputStream(contents.getOriginalBytes())
+		) {
+			ci = ContentInfo.getInstance(is.readObject());
+		}
+		if (!PKCSObjectIdentifiers.signedData.equals(ci.getContentType())) {
+			return null;
+		}
+		final SignedData sd = SignedData.getInstance(ci.getContent());
+		final ASN1Set signerInfos = sd.getSignerInfos();
+		final ASN1Set certs = sd.getCertificates();
+		if (signerInfos == null || signerInfos.size() < 1 || certs == null) {
+			return null;
+		}
+		final SignerIdentifier sid = SignerInfo.getInstance(signerInfos.getObjectAt(0)).getSID();
+
+		final Enumeration<?> e = certs.getObjects();
+		while (e.hasMoreElements()) {
+			final ASN1Encodable obj = (ASN1Encodable) e.nextElement();
+			if (!(obj.toASN1Primitive() instanceof ASN1Sequence)) {
+				// Otros formatos de certificado
+				continue;
+			}
+			final Certificate c = Certificate.getInstance(obj);
+			if (isSigner(c, sid)) {
+				return (X509Certificate) cf.generateCertificate(
+					new ByteArrayInputStream(c.getEncoded())
+				);
+			}
+		}
+		return null;
+	}
+
+	/** Indica si un certificado es el identificado como firmante.
+	 * @param c Certificado.
+	 * @param sid Identificador del firmante.
+	 * @return <code>true</code> si el certificado es el del firmante. */
+	private static boolean isSigner(final Certificate c, final SignerIdentifier sid) {
+		if (sid.isTagged()) {
+			// Identificador de la clave del firmante
+			final Extensions exts = c.getTBSCertificate().getExtensions();
+			final Extension ski = exts != null ? exts.getExtension(Extension.subjectKeyIdentifier) : null;
+			return ski != null && Arrays.equals(
+				SubjectKeyIdentifier.getInstance(ski.getParsedValue()).getKeyIdentifier(),
+				ASN1OctetString.getInstance(sid.getId()).getOctets()
+			);
+		}
+		final IssuerAndSerialNumber isn = IssuerAndSerialNumber.getInstance(sid.getId());
+		final BigInteger serial = isn.getSerialNumber().getValue();
+		return serial.equals(c.getSerialNumber().getValue()) && isn.getName().equals(c.getIssuer());
+	}
+
+	/** Obtiene la informaci&oacute;n de las firmas de un PDF verificando completamente todas ellas.
+	 * @param af Campos del PDF.
+	 * @param names Nombres de las firmas.
+	 * @return Informaci&oacute;n de cada una de las firmas, en el orden de los nombres.
+	 * @throws IOException Si alguna firma no puede decodificarse o no es v&aacute;lida. */
+	private static AOSimpleSignInfo[] verify(final AcroFields af,
+			                                 final List<String> names) throws IOException {
+		final Map<String, PdfPKCS7> pkcs7s;
+		try {
+			pkcs7s = af.verifySignatures(null, getVerifyExecutor());
+		}
+		catch (final ExceptionConverter e) {
+			throw new IOException("No se han podido verificar las firmas del PDF: " + e, e); //$NON-NLS-1$
+		}
+		final CertificateValidator validator = CertificateValidator.getInstance();
+		final AOSimpleSignInfo[] infos = new AOSimpleSignInfo[names.size()];
+		for (int i = 0; i < infos.length; i++) {
+			final String name = names.get(i);
+			final PdfPKCS7 pkcs7 = pkcs7s.get(name);
+			if (pkcs7 == null) {
+				throw new IOException("No se ha encontrado el diccionario de la firma '" + name + "'"); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			try {
+				// La verificacion ya esta hecha y aqui solo se consulta su resultado
+				if (!pkcs7.verify()) {
+					throw new IOException("La firma '" + name + "' no se corresponde con el contenido del PDF"); //$NON-NLS-1$ //$NON-NLS-2$
+				}
+			}
+			catch (final SignatureException e) {
+				throw new IOException(
+					"No se ha podido decodificar la firma '" + name + "': " + e, e //$NON-NLS-1$ //$NON-NLS-2$
+				);
+			}
+			if (validator != null) {
+				try {
+					validator.validate(pkcs7);
+				}
+				catch (final CertificateException e) {
+					throw new IOException(
+						"El certificado de la firma '" + name + "' no es valido: " + e, e //$NON-NLS-1$ //$NON-NLS-2$
+					);
+				}
+			}
+			infos[i] = toSignInfo(pkcs7);
+		}
+		return infos;
+	}
+
+	/** Obtiene la informaci&oacute;n de una firma decodificando completamente su PKCS#7, sin verificarla.
+	 * @param af Campos del PDF.
+	 * @param name Nombre de la firma.
+	 * @return Informaci&oacute;n de la firma.
+	 * @throws IOException Si la firma no puede decodificarse. */
+	private static AOSimpleSignInfo decode(final AcroFields af,
+			                               final String name) throws IOException {
+		final PdfPKCS7 pkcs7;
+		try {
+			pkcs7 = af.verifySignature(name);
+		}
+		catch (final ExceptionConverter e) {
+			throw new IOException(
+				"No se ha podido decodificar la firma '" + name + "': " + e, e //$NON-NLS-1$ //$NON-NLS-2$
+			);
+		}
+		if (pkcs7 == null) {
+			throw new IOException("No se ha encontrado el diccionario de la firma '" + name + "'"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		return toSignInfo(pkcs7);
+	}
+
+	private static AOSimpleSignInfo toSignInfo(final PdfPKCS7 pkcs7) {
+		return new AOSimpleSignInfo(
+			new X509Certificate[] { pkcs7.getSigningCertificate() },
+			pkcs7.getSignDate() != null ? pkcs7.getSignDate().getTime() : null
+		);
+	}
+
+	/** Obtiene el ejecutor compartido para la verificaci&oacute;n de firmas en paralelo,
+	 * cre&aacute;ndolo si es necesario con un hilo por procesador.
+	 * @return Ejecutor para la verificaci&oacute;n de firmas. */
+	private static synchronized ExecutorService getVerifyExecutor() {
+		if (verifyExecutor == null) {
+			final int threads = Runtime.getRuntime().availableProcessors();
+			verifyExecutor = Executors.newFixedThreadPool(
+				threads,
+				new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+					@Override
+					public Thread newThread(final Runnable r) {
+						final Thread t = new Thread(r, "csv-verify-" + this.count.incrementAndGet()); //$NON-NLS-1$
+						t.setDaemon(true);
+						return t;
+					}
+				}
+			);
+			LOGGER.info("Creado el ejecutor de verificacion de firmas con " + threads + " hilos"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		return verifyExecutor;
+	}
+
+	/** Detiene el ejecutor compartido de verificaci&oacute;n de firmas, si se hab&iacute;a creado. */
+	static synchronized void shutdownVerify() {
+		if (verifyExecutor != null) {
+			verifyExecutor.shutdown();
+			verifyExecutor = null;
+		}
+	}
+
+}
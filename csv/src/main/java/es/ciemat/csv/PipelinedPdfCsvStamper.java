@@ -0,0 +1,307 @@
+package es.ciemat.csv;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.logging.Logger;
+
+import com.aowagie.text.DocumentException;
+import com.aowagie.text.pdf.PdfReader;
+import com.aowagie.text.pdf.PdfStamper;
+import com.aowagie.text.pdf.RandomAccessFileOrArray;
+
+import es.ciemat.csv.PdfExtraUtil.PdfId;
+import es.gob.afirma.core.AOException;
+import es.gob.afirma.core.AOFormatFileException;
+import es.gob.afirma.core.signers.AOSimpleSignInfo;
+
+/** Estampador de CSV en PDF en una &uacute;nica pasada.
+ * Analiza el PDF de entrada una sola vez y elimina sus firmas, a&ntilde;ade la imagen del CSV
+ * y aplica el sello electr&oacute;nico sobre la misma sesi&oacute;n de estampaci&oacute;n, en
+ * lugar de analizar y reescribir el documento completo en cada paso.
+ * Usa la misma configuraci&oacute;n que {@link SimplePdfCsvStamper}.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class PipelinedPdfCsvStamper {
+
+	private static final Logger LOGGER = Logger.getLogger(PipelinedPdfCsvStamper.class.getName());
+
+	/** Firmador que sella sobre la sesi&oacute;n de estampaci&oacute;n. Se obtiene al sellar el
+	 * primer documento, ya que al crearse carga la clave de sellado. */
+	private static final class SignerHolder {
+		static final CsvStamperSigner SIGNER = ServiceConfig.getCsvStamperSigner();
+	}
+
+	private PipelinedPdfCsvStamper() {
+		// No instanciable
+	}
+
+	/** Estampa un CSV en un PDF, eliminando sus firmas.
+	 * @param inPdf PDF de entrada.
+	 * @return PDF con el CSV estampado junto a su identificador.
+	 * @throws IOException Si hay problemas durante el proceso.
+	 * @throws PdfLacksSignaturesException Si el PDF de entrada no tiene firmas electr&oacute;nicas.
+	 * @throws AOException Si hay problemas aplicando el sello electr&oacute;nico al PDF.
+	 * @throws PdfLacksIdException Si el PDF no tiene identificador. */
+	public static PdfId stampCsv(final byte[] inPdf) throws IOException,
+	                                                        PdfLacksSignaturesException,
+	                                                        AOException,
+	                                                        PdfLacksIdException {
+		return stampCsv(inPdf, false);
+	}
+
+	/** Estampa un CSV en un PDF.
+	 * @param inPdf PDF de entrada.
+	 * @param incremental Si se indica <code>true</code> el CSV y el sello se a&ntilde;aden como
+	 *                    una nueva revisi&oacute;n del PDF, conservando las firmas originales y
+	 *                    escribiendo &uacute;nicamente los objetos nuevos o modificados. Si se
+	 *                    indica <code>false</code> se eliminan las firmas y se reescribe el documento
+	 *                    completo.
+	 * @return PDF con el CSV estampado junto a su identificador.
+	 * @throws IOException Si hay problemas durante el proceso.
+	 * @throws PdfLacksSignaturesException Si el PDF de entrada no tiene firmas electr&oacute;nicas.
+	 * @throws AOException Si hay problemas aplicando el sello electr&oacute;nico al PDF.
+	 * @throws PdfLacksIdException Si el PDF no tiene identificador. */
+	public static PdfId stampCsv(final byte[] inPdf,
+			                     final boolean incremental) throws IOException,
+	                                                               PdfLacksSignaturesException,
+	                                                               AOException,
+	                                                               PdfLacksIdException {
+		return stampCsv(inPdf, null, incremental);
+	}
+
+	/** Estampa un CSV en un PDF cuyo identificador ya se conoce.
+	 * @param inPdf PDF de entrada.
+	 * @param inPdfId Identificador del PDF de entrada, o <code>null</code> para calcularlo.
+	 * @param incremental Si se indica <code>true</code> el CSV y el sello se a&ntilde;aden como
+	 *                    una nueva revisi&oacute;n del PDF, conservando las firmas originales.
+	 * @return PDF con el CSV estampado junto a su identificador.
+	 * @throws IOException Si hay problemas durante el proceso.
+	 * @throws PdfLacksSignaturesException Si el PDF de entrada no tiene firmas electr&oacute;nicas.
+	 * @throws AOException Si hay problemas aplicando el sello electr&oacute;nico al PDF.
+	 * @throws PdfLacksIdException Si el PDF no tiene identificador. */
+	public static PdfId stampCsv(final byte[] inPdf,
+			                     final String inPdfId,
+			                     final boolean incremental) throws IOException,
+	                                                               PdfLacksSignaturesException,
+	                                                               AOException,
+	                                                               PdfLacksIdException {
+		// El identificador se obtiene antes de abrir el lector, que queda a cargo de stampCsv
+		final String pdfId = inPdfId != null ? inPdfId : PdfExtraUtil.getPdfId(inPdf);
+
+		final PdfReader reader;
+		final long t = CsvMetrics.PARSE.start();
+		try {
+			// En modo incremental solo se leen los objetos que se modifican, asi que el PDF
+			// se abre en modo de lectura parcial y el resto no llega a analizarse
+			reader = incremental ?
+				new PdfReader(new RandomAccessFileOrArray(inPdf), null) :
+					new PdfReader(inPdf);
+		}
+		catch (final IOException e) {
+			if (ServiceConfig.DEBUG) {
+				LOGGER.warning("Datos recibidos:\n" + new String(inPdf)); //$NON-NLS-1$
+			}
+			LOGGER.severe("La entrada no es un PDF: " + e); //$NON-NLS-1$
+			throw new AOFormatFileException(
+				"La entrada no es un PDF", e //$NON-NLS-1$
+			);
+		}
+		finally {
+			CsvMetrics.PARSE.stop(t);
+		}
+
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream(inPdf.length + (inPdf.length >> 2));
+		stampCsv(reader, pdfId, baos, null, incremental);
+		return new PdfId(baos.toByteArray(), pdfId);
+	}
+
+	/** Estampa un CSV en un PDF almacenado en disco, eliminando sus firmas.
+	 * El PDF de entrada se lee mapeado desde disco y el PDF de salida se escribe directamente
+	 * en el fichero indicado, sin mantener ninguno de los dos completos en memoria.
+	 * @param inPdf Fichero con el PDF de entrada.
+	 * @param outPdf Fichero donde escribir el PDF con el CSV estampado y sellado.
+	 * @return PDF con el CSV estampado (en el fichero de salida) junto a su identificador.
+	 * @throws IOException Si hay problemas durante el proceso.
+	 * @throws PdfLacksSignaturesException Si el PDF de entrada no tiene firmas electr&oacute;nicas.
+	 * @throws AOException Si hay problemas aplicando el sello electr&oacute;nico al PDF.
+	 * @throws PdfLacksIdException Si el PDF no tiene identificador. */
+	public static PdfId stampCsv(final Path inPdf, final Path outPdf) throws IOException,
+	                                                                        PdfLacksSignaturesException,
+	                                                                        AOException,
+	                                                                        PdfLacksIdException {
+		return stampCsv(inPdf, outPdf, false);
+	}
+
+	/** Estampa un CSV en un PDF almacenado en disco.
+	 * El PDF de entrada se lee mapeado desde disco y el PDF de salida se escribe directamente
+	 * en el fichero indicado, sin mantener ninguno de los dos completos en memoria.
+	 * @param inPdf Fichero con el PDF de entrada.
+	 * @param outPdf Fichero donde escribir el PDF con el CSV estampado y sellado.
+	 * @param incremental Si se indica <code>true</code> el CSV y el sello se a&ntilde;aden como
+	 *                    una nueva revisi&oacute;n del PDF, conservando las firmas originales.
+	 * @return PDF con el CSV estampado (en el fichero de salida) junto a su identificador.
+	 * @throws IOException Si hay problemas durante el proceso.
+	 * @throws PdfLacksSignaturesException Si el PDF de entrada no tiene firmas electr&oacute;nicas.
+	 * @throws AOException Si hay problemas aplicando el sello electr&oacute;nico al PDF.
+	 * @throws PdfLacksIdException Si el PDF no tiene identificador. */
+	public static PdfId stampCsv(final Path inPdf,
+			                     final Path outPdf,
+			                     final boolean incremental) throws IOException,
+	                                                               PdfLacksSignaturesException,
+	                                                               AOException,
+	                                                               PdfLacksIdException {
+		return stampCsv(inPdf, outPdf, null, incremental);
+	}
+
+	/** Estampa un CSV en un PDF almacenado en disco cuyo identificador ya se conoce.
+	 * @param inPdf Fichero con el PDF de entrada.
+	 * @param outPdf Fichero donde escribir el PDF con el CSV estampado y sellado.
+	 * @param inPdfId Identificador del PDF de entrada, o <code>null</code> para calcularlo.
+	 * @param incremental Si se indica <code>true</code> el CSV y el sello se a&ntilde;aden como
+	 *                    una nueva revisi&oacute;n del PDF, conservando las firmas originales.
+	 * @return PDF con el CSV estampado (en el fichero de salida) junto a su identificador.
+	 * @throws IOException Si hay problemas durante el proceso.
+	 * @throws PdfLacksSignaturesException Si el PDF de entrada no tiene firmas electr&oacute;nicas.
+	 * @throws AOException Si hay problemas aplicando el sello electr&oacute;nico al PDF.
+	 * @throws PdfLacksIdException Si el PDF no tiene identificador. */
+	public static PdfId stampCsv(final Path inPdf,
+			                     final Path outPdf,
+			                     final String inPdfId,
+			                     final boolean incremental) throws IOException,
+	                                                               PdfLacksSignaturesException,
+	                                                               AOException,
+	                                                               PdfLacksIdException {
+		// El identificador se obtiene antes de abrir el lector, que queda a cargo de stampCsv
+		final String pdfId = inPdfId != null ? inPdfId : PdfExtraUtil.getPdfId(inPdf);
+
+		final PdfReader reader;
+		final long t = CsvMetrics.PARSE.start();
+		try {
+			reader = incremental ?
+				new PdfReader(new RandomAccessFileOrArray(inPdf.toAbsolutePath().toString()), null) :
+					new PdfReader(inPdf.toAbsolutePath().toString());
+		}
+		catch (final IOException e) {
+			LOGGER.severe("La entrada no es un PDF: " + e); //$NON-NLS-1$
+			throw new AOFormatFileException(
+				"La entrada no es un PDF", e //$NON-NLS-1$
+			);
+		}
+		finally {
+			CsvMetrics.PARSE.stop(t);
+		}
+
+		// Sin flujo de salida el PDF sellado queda en el fichero temporal de la firma
+		stampCsv(reader, pdfId, null, outPdf.toFile(), incremental);
+		return new PdfId(outPdf, pdfId);
+	}
+
+	/** Estampa el CSV y sella un PDF ya abierto. El lector queda a cargo de este m&eacute;todo,
+	 * que lo cierra tambi&eacute;n si hay cualquier error: en modo de lectura parcial mantiene
+	 * abierto el fichero de entrada. */
+	private static void stampCsv(final PdfReader reader,
+			                     final String pdfId,
+			                     final OutputStream os,
+			                     final File outFile,
+			                     final boolean incremental) throws IOException,
+	                                                               PdfLacksSignaturesException {
+		boolean stamped = false;
+		try {
+			// En modo de lectura parcial los objetos leidos se conservan mientras haya memoria,
+			// porque la estampacion vuelve a leer las paginas y el formulario
+			reader.setPartialCache(true);
+			CsvMetrics.PAGES.record(reader.getNumberOfPages());
+
+			// Obtenemos las firmas del documento sobre el mismo lector
+			final AOSimpleSignInfo[] infos = PdfSignerScanner.scan(reader, SimplePdfCsvStamper.CSV_VERIFY_SIGNATURES);
+			if (infos.length < 1) {
+				LOGGER.info("El PDF no tiene ninguna firma electronica"); //$NON-NLS-1$
+				throw new PdfLacksSignaturesException();
+			}
+			LOGGER.info("Se han obtenido " + infos.length + " firmas del documento con identificador '"+ pdfId + "'"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+			// En modo imagen se crea el JPEG del CSV antes de abrir la sesion de estampacion
+			final byte[] csv = SimplePdfCsvStamper.CSV_VECTOR ?
+				null :
+					PdfExtraUtil.createCsvAsJpeg(
+						pdfId,
+						infos,
+						null // textTemplate
+					);
+
+			// Estampamos el CSV y sellamos en una unica sesion. En modo incremental se
+			// conserva el PDF original y se anaden como nueva revision solo la imagen, el
+			// contenido nuevo de las paginas y el sello. En otro caso se eliminan las firmas
+			// y se reescribe el documento completo
+			try {
+				final PdfStamper stamper = PdfStamper.createSignature(
+					reader,
+					os,
+					'\0',        // Mantenemos la version del PDF
+					outFile,     // Fichero de salida, o null para trabajar en memoria
+					incremental  // Revision incremental
+				);
+				if (!incremental) {
+					stamper.setFormFlattening(true);
+				}
+				final long tStamp = CsvMetrics.STAMP.start();
+				try {
+					if (csv == null) {
+						PdfExtraUtil.addVectorCsvToPdf(
+							stamper,
+							pdfId,
+							infos,
+							null, // textTemplate
+							SimplePdfCsvStamper.CSV_LEFT,
+							SimplePdfCsvStamper.CSV_BOTTOM,
+							SimplePdfCsvStamper.CSV_PAGE,
+							PdfExtraUtil.getLink(pdfId)
+						);
+					}
+					else {
+						PdfExtraUtil.addImageToPdf(
+							stamper,
+							csv,
+							SimplePdfCsvStamper.CSV_LEFT,
+							SimplePdfCsvStamper.CSV_BOTTOM,
+							SimplePdfCsvStamper.CSV_PAGE,
+							PdfExtraUtil.getLink(pdfId)
+						);
+					}
+				}
+				finally {
+					CsvMetrics.STAMP.stop(tStamp);
+				}
+				// El sellado incluye la escritura del PDF de salida
+				final long tSign = CsvMetrics.SIGN.start();
+				try {
+					SignerHolder.SIGNER.signPdf(stamper);
+				}
+				finally {
+					CsvMetrics.SIGN.stop(tSign);
+				}
+				// Al cerrarse, el estampador ya ha cerrado el lector
+				stamped = true;
+			}
+			catch (final DocumentException e) {
+				throw new IOException(e);
+			}
+		}
+		finally {
+			if (!stamped) {
+				reader.close();
+			}
+		}
+	}
+
+	/** Obtiene la informaci&oacute;n de las firmas de un PDF ya abierto, sin verificarlas.
+	 * @param reader Lector del PDF.
+	 * @return Informaci&oacute;n de cada una de las firmas del PDF.
+	 * @throws IOException Si alguna firma no puede decodificarse. */
+	static AOSimpleSignInfo[] getSignInfos(final PdfReader reader) throws IOException {
+		return PdfSignerScanner.scan(reader, false);
+	}
+
+}
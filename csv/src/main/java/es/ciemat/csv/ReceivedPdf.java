@@ -0,0 +1,239 @@
+package es.ciemat.csv;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.logging.Logger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.Part;
+
+import es.gob.afirma.core.AOException;
+import es.gob.afirma.core.misc.AOUtil;
+import es.gob.afirma.core.misc.Base64;
+
+/** PDF recibido en una petici&oacute;n, en memoria o volcado a disco.
+ * El identificador del PDF se calcula mientras se recibe y se conserva junto a &eacute;l, de
+ * forma que no es necesario volver a leer el documento para obtenerlo.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+final class ReceivedPdf {
+
+	private static final String PARAM_DATA = "data"; //$NON-NLS-1$
+
+	private static final String PARAM_FILE = "file"; //$NON-NLS-1$
+
+	private static final Logger LOGGER = Logger.getLogger(ReceivedPdf.class.getName());
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final byte[] data;
+	private final Path file;
+	private String id;
+
+	/** Crea un PDF recibido en memoria. Su identificador se calcula la primera vez que se pide.
+	 * @param pdfData Contenido del PDF. */
+	ReceivedPdf(final byte[] pdfData) {
+		this(pdfData, null, null);
+	}
+
+	/** Crea un PDF recibido volcado a disco. Su identificador se calcula la primera vez que se pide.
+	 * @param pdfFile Fichero con el PDF, que se elimina con {@link #delete()}. */
+	ReceivedPdf(final Path pdfFile) {
+		this(null, pdfFile, null);
+	}
+
+	private ReceivedPdf(final byte[] pdfData, final Path pdfFile, final String pdfId) {
+		this.data = pdfData;
+		this.file = pdfFile;
+		this.id = pdfId;
+	}
+
+	/** Obtiene el PDF de una petici&oacute;n.
+	 * El PDF puede recibirse en Base64 en el par&aacute;metro <code>data</code>, como fichero
+	 * en una petici&oacute;n multiparte o directamente en el cuerpo del POST. Si as&iacute; se
+	 * ha configurado, el PDF se vuelca a disco en lugar de cargarse en memoria.
+	 * @param request Petici&oacute;n HTTP.
+	 * @return PDF recibido.
+	 * @throws IOException Si no se puede leer o volcar el PDF. */
+	static ReceivedPdf read(final HttpServletRequest request) throws IOException {
+		final PdfIdGenerator idGenerator = PdfIdGenerator.getInstance();
+		final String base64Data = request.getParameter(PARAM_DATA);
+		if (base64Data != null && !base64Data.isEmpty()) {
+			final byte[] pdfData = Base64.decode(base64Data.replace("-", "+").replace("_", "/")); //$NON-NLS-1$//$NON-NLS-2$//$NON-NLS-3$ //$NON-NLS-4$
+			return new ReceivedPdf(
+				pdfData,
+				null,
+				pdfData != null && pdfData.length > 0 ? idGenerator.getId(pdfData) : null
+			);
+		}
+
+		try (
+			final InputStream fileContent = getContent(request)
+		) {
+			return read(fileContent);
+		}
+	}
+
+	/** Obtiene un PDF de un flujo de datos, volc&aacute;ndolo a disco si as&iacute; se ha
+	 * configurado. El flujo se lee hasta su final pero no se cierra, por lo que puede ser
+	 * una entrada de un ZIP.
+	 * @param is Flujo con los datos del PDF.
+	 * @return PDF le&iacute;do.
+	 * @throws IOException Si no se puede leer o volcar el PDF. */
+	static ReceivedPdf read(final InputStream is) throws IOException {
+		final PdfIdGenerator idGenerator = PdfIdGenerator.getInstance();
+
+		// La huella se calcula a la vez que se leen los datos
+		final MessageDigest md = idGenerator.newDigest();
+		final InputStream fileContent = new DigestInputStream(is, md);
+		if (ServiceConfig.isSpoolToDisk()) {
+			// Volcamos el PDF a disco para no tenerlo completo en memoria
+			final Path spooledData = ServiceConfig.createSpoolFile();
+			try {
+				Files.copy(fileContent, spooledData, StandardCopyOption.REPLACE_EXISTING);
+			}
+			catch (final IOException e) {
+				Files.deleteIfExists(spooledData);
+				throw e;
+			}
+			return new ReceivedPdf(
+				null,
+				spooledData,
+				Files.size(spooledData) > 0 ? idGenerator.toId(md.digest()) : null
+			);
+		}
+		final byte[] pdfData = AOUtil.getDataFromInputStream(fileContent);
+		return new ReceivedPdf(
+			pdfData,
+			null,
+			pdfData != null && pdfData.length > 0 ? idGenerator.toId(md.digest()) : null
+		);
+	}
+
+	/** Obtiene el identificador del PDF de una petici&oacute;n sin conservar el documento,
+	 * en memoria constante independientemente de su tama&ntilde;o.
+	 * El PDF puede recibirse de las mismas formas que en {@link #read(HttpServletRequest)}.
+	 * @param request Petici&oacute;n HTTP.
+	 * @return Identificador del PDF, o <code>null</code> si no se ha recibido ning&uacute;n documento.
+	 * @throws IOException Si no se puede leer el PDF. */
+	static String readId(final HttpServletRequest request) throws IOException {
+		final PdfIdGenerator idGenerator = PdfIdGenerator.getInstance();
+		final String base64Data = request.getParameter(PARAM_DATA);
+		if (base64Data != null && !base64Data.isEmpty()) {
+			final byte[] pdfData = Base64.decode(base64Data.replace("-", "+").replace("_", "/")); //$NON-NLS-1$//$NON-NLS-2$//$NON-NLS-3$ //$NON-NLS-4$
+			return pdfData != null && pdfData.length > 0 ? idGenerator.getId(pdfData) : null;
+		}
+
+		final MessageDigest md = idGenerator.newDigest();
+		long length = 0;
+	    try (
+    		final InputStream fileContent = getContent(request)
+		) {
+	    	final byte[] buf = new byte[BUFFER_SIZE];
+	    	int n;
+	    	while ((n = fileContent.read(buf)) > 0) {
+	    		md.update(buf, 0, n);
+	    		length += n;
+	    	}
+	    }
+	    LOGGER.info("Obtenido un documento de " + length +  " octetos"); //$NON-NLS-1$ //$NON-NLS-2$
+	    return length > 0 ? idGenerator.toId(md.digest()) : null;
+	}
+
+	private static InputStream getContent(final HttpServletRequest request) throws IOException {
+	    Part filePart;
+		try {
+			filePart = request.getPart(PARAM_FILE); // Recupera <input type="file" name="file">
+		}
+		catch(final ServletException | IllegalStateException e) {
+			// No es multiparte
+			LOGGER.info(
+				"La entrada no es multiparte, se intentara recuperar el PDF del cuerpo del POST: " + e //$NON-NLS-1$
+			);
+			filePart = null;
+		}
+		return filePart != null ? filePart.getInputStream() : request.getInputStream();
+	}
+
+	/** Obtiene el identificador del PDF, calculado mientras se recib&iacute;a.
+	 * @return Identificador del PDF, o <code>null</code> si no se ha recibido ning&uacute;n documento.
+	 * @throws IOException Si no se puede leer el fichero volcado. */
+	String getId() throws IOException {
+		if (this.id == null) {
+			if (this.file != null) {
+				this.id = PdfExtraUtil.getPdfId(this.file);
+			}
+			else if (this.data != null && this.data.length > 0) {
+				this.id = PdfIdGenerator.getInstance().getId(this.data);
+			}
+		}
+		return this.id;
+	}
+
+	/** Obtiene el tama&ntilde;o del PDF.
+	 * @return Tama&ntilde;o en octetos del PDF.
+	 * @throws IOException Si no se puede consultar el fichero volcado. */
+	long getLength() throws IOException {
+		if (this.file != null) {
+			return Files.size(this.file);
+		}
+		return this.data != null ? this.data.length : 0;
+	}
+
+	/** Indica si se ha recibido un documento no vac&iacute;o.
+	 * @return <code>true</code> si se ha recibido un documento, <code>false</code> en caso contrario.
+	 * @throws IOException Si no se puede consultar el fichero volcado. */
+	boolean isEmpty() throws IOException {
+		return getLength() < 1;
+	}
+
+	/** Estampa el CSV en el PDF con el procesador indicado.
+	 * @param cp Procesador de CSV.
+	 * @return CSV asignado al documento.
+	 * @throws PdfLacksSignaturesException Si el PDF no contiene ninguna firma.
+	 * @throws IOException Si hay errores tratando los datos.
+	 * @throws AOException Si hay errores relacionados con los sellos electr&oacute;nicos.
+	 * @throws PdfLacksIdException Si no se le puede asignar un CSV al PDF.
+	 * @throws CsvStorerException Si hay problemas almacenando el CSV. */
+	String process(final CsvProcessor cp) throws PdfLacksSignaturesException,
+	                                             IOException,
+	                                             AOException,
+	                                             PdfLacksIdException,
+	                                             CsvStorerException {
+		CsvMetrics.DOCUMENT_SIZE.record(getLength());
+		final long t = CsvMetrics.PROCESS.start();
+		try {
+			if (this.file != null) {
+				return cp.doCsv(this.file, getId());
+			}
+			return cp.doCsv(this.data, getId());
+		}
+		catch (final Exception | Error e) {
+			CsvMetrics.error(e);
+			throw e;
+		}
+		finally {
+			CsvMetrics.PROCESS.stop(t);
+		}
+	}
+
+	/** Elimina el fichero volcado a disco, si lo hay. */
+	void delete() {
+		if (this.file != null) {
+			try {
+				Files.deleteIfExists(this.file);
+			}
+			catch (final IOException e) {
+				LOGGER.warning(
+					"No se ha podido borrar el fichero temporal '" + this.file + "': " + e //$NON-NLS-1$ //$NON-NLS-2$
+				);
+			}
+		}
+	}
+
+}
@@ -2,6 +2,11 @@ package es.ciemat.csv;
 
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 import java.util.logging.Logger;
 
@@ -9,6 +14,8 @@ import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 import javax.servlet.annotation.WebListener;
 
+import es.ciemat.csv.cms.CmisCsvStorer;
+
 /** Configuraci&oacute;n del servicio.
  * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
 @WebListener
@@ -20,12 +27,59 @@ public final class ServiceConfig implements ServletContextListener {
 	private static final Properties CFG = new Properties();
 
 	private static final String KEY_STORER_CLASSNAME = "csvstorer"; //$NON-NLS-1$
+	private static final String KEY_CACHED_STORER_CLASSNAME = "cachedcsvstorer"; //$NON-NLS-1$
 	private static final String KEY_PROCESSOR_CLASSNAME = "csvprocessor"; //$NON-NLS-1$
 	private static final String KEY_SIGNER_CLASSNAME = "csvsigner"; //$NON-NLS-1$
 
 	private static final String KEY_WEB_REDIRECT_ERR = "weberrorredirect"; //$NON-NLS-1$
 	private static final String KEY_WEB_RETRIEVE_URL = "csvretrieveurl"; //$NON-NLS-1$
 
+	private static final String KEY_FS_STORER_DIR = "fsstorerdir"; //$NON-NLS-1$
+
+	private static final String KEY_SPOOL_TO_DISK = "spooltodisk"; //$NON-NLS-1$
+	private static final String KEY_SPOOL_DIR = "spooldir"; //$NON-NLS-1$
+
+	private static final String KEY_INCREMENTAL_STAMPING = "incrementalstamping"; //$NON-NLS-1$
+
+	private static final String KEY_ID_ALGORITHM = "idalgorithm"; //$NON-NLS-1$
+	private static final String KEY_ID_ENCODING = "idencoding"; //$NON-NLS-1$
+
+	private static final String KEY_ASYNC_THREADS = "asyncthreads"; //$NON-NLS-1$
+	private static final String KEY_ASYNC_QUEUE = "asyncqueue"; //$NON-NLS-1$
+	private static final String KEY_ASYNC_JOB_TTL = "asyncjobttl"; //$NON-NLS-1$
+
+	private static final String KEY_BATCH_THREADS = "batchthreads"; //$NON-NLS-1$
+
+	private static final String KEY_CACHE_SIZE = "cachesizekb"; //$NON-NLS-1$
+	private static final String KEY_CACHE_ENTRY_SIZE = "cacheentrykb"; //$NON-NLS-1$
+	private static final String KEY_CACHE_TTL = "cachettl"; //$NON-NLS-1$
+	private static final String KEY_CACHE_DISK_DIR = "cachediskdir"; //$NON-NLS-1$
+	private static final String KEY_CACHE_DISK_SIZE = "cachedisksizekb"; //$NON-NLS-1$
+
+	private static final String KEY_TRUSTSTORES = "truststores"; //$NON-NLS-1$
+	private static final String KEY_TRUSTSTORE_TYPE = "truststoretype"; //$NON-NLS-1$
+	private static final String KEY_TRUSTSTORE_PASSWORD = "truststorepassword"; //$NON-NLS-1$
+	private static final String KEY_TRUSTSTORE_CHECK = "truststorecheck"; //$NON-NLS-1$
+	private static final String KEY_CERT_CACHE_SIZE = "certcachesize"; //$NON-NLS-1$
+	private static final String KEY_CERT_CACHE_TTL = "certcachettl"; //$NON-NLS-1$
+
+	private static final String DEFAULT_TRUSTSTORE_TYPE = "JKS"; //$NON-NLS-1$
+	private static final int DEFAULT_TRUSTSTORE_CHECK = 60;
+	private static final int DEFAULT_CERT_CACHE_SIZE = 1000;
+	private static final int DEFAULT_CERT_CACHE_TTL = 3600;
+
+	private static final int DEFAULT_CACHE_SIZE = 65536;
+	private static final int DEFAULT_CACHE_ENTRY_SIZE = 4096;
+	private static final int DEFAULT_CACHE_TTL = 3600;
+	private static final int DEFAULT_CACHE_DISK_SIZE = 1048576;
+
+	private static final int DEFAULT_ASYNC_THREADS = 4;
+	private static final int DEFAULT_ASYNC_QUEUE = 50;
+	private static final int DEFAULT_ASYNC_JOB_TTL = 3600;
+
+	private static final String SPOOL_PREFIX = "csv_"; //$NON-NLS-1$
+	private static final String SPOOL_SUFFIX = ".pdf"; //$NON-NLS-1$
+
 	private static CsvStorer csvStorer = null;
 	private static CsvProcessor csvProcessor = null;
 	private static CsvSigner csvSigner = null;
@@ -58,6 +112,215 @@ public final class ServiceConfig implements ServletContextListener {
     			"Modo de depuracion activo para el sistema de CSV" //$NON-NLS-1$
 			);
         }
+        // El almacenador se crea al arrancar para que prepare sus recursos (como el indice
+        // de documentos en disco) antes de la primera peticion, y el generador de
+        // identificadores y el validador de certificados para que un error de
+        // configuracion se detecte al arrancar
+        getCsvStorer();
+        PdfIdGenerator.getInstance();
+        CertificateValidator.getInstance();
+        checkProcessorSigner();
+        CsvMetrics.register();
+    }
+
+    /** Comprueba que el firmador configurado admite el modo de sellado del procesador. El
+     * procesador en una sola pasada sella sobre la sesi&oacute;n de estampaci&oacute;n abierta,
+     * por lo que necesita un {@link CsvStamperSigner}, y sin esta comprobaci&oacute;n el error
+     * no se detectar&iacute;a hasta la primera petici&oacute;n. La clase del firmador no se
+     * inicializa, ya que puede cargar su clave al hacerlo. */
+    private static void checkProcessorSigner() {
+    	final String processorClassName = CFG.getProperty(KEY_PROCESSOR_CLASSNAME, "").trim(); //$NON-NLS-1$
+    	if (!CsvProcessorPipelined.class.getName().equals(processorClassName)) {
+    		return;
+    	}
+    	final String signerClassName = CFG.getProperty(KEY_SIGNER_CLASSNAME, "").trim(); //$NON-NLS-1$
+    	final Class<?> signerClass;
+    	try {
+    		signerClass = Class.forName(signerClassName, false, ServiceConfig.class.getClassLoader());
+    	}
+    	catch (final ClassNotFoundException e) {
+    		LOGGER.severe(
+				"No se ha encontrado la clase de firma de CSV ('" + signerClassName + "'): " + e //$NON-NLS-1$ //$NON-NLS-2$
+			);
+    		throw new IllegalStateException(
+				"No se ha encontrado la clase de firma de CSV ('" + signerClassName + "'): " + e, e //$NON-NLS-1$ //$NON-NLS-2$
+			);
+    	}
+    	if (!CsvStamperSigner.class.isAssignableFrom(signerClass)) {
+    		LOGGER.severe(
+				"El firmador '" + signerClassName + "' no puede usarse con el procesador '" + processorClassName + "' en el fichero 'service.properties', debe usarse '" + CsvSignerSealer.class.getName() + "'" //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+			);
+    		throw new IllegalStateException(
+				"El firmador '" + signerClassName + "' no puede usarse con el procesador '" + processorClassName + "' en el fichero 'service.properties', debe usarse '" + CsvSignerSealer.class.getName() + "'" //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+			);
+    	}
+    }
+
+    @Override
+	public void contextDestroyed(final ServletContextEvent event) {
+    	CsvJobManager.shutdownInstance();
+    	CsvBatch.shutdownPool();
+    	CmisCsvStorer.shutdownUploads();
+    	PdfSignerScanner.shutdownVerify();
+    	if (csvProcessor instanceof CsvProcessorEeutil) {
+    		((CsvProcessorEeutil) csvProcessor).shutdown();
+    	}
+    	CsvMetrics.unregister();
+    }
+
+    /** Obtiene el n&uacute;mero de hilos para la ejecuci&oacute;n de trabajos as&iacute;ncronos.
+     * @return N&uacute;mero de hilos para la ejecuci&oacute;n de trabajos as&iacute;ncronos. */
+    static int getAsyncThreads() {
+    	return getPositiveInt(KEY_ASYNC_THREADS, DEFAULT_ASYNC_THREADS);
+    }
+
+    /** Obtiene el n&uacute;mero m&aacute;ximo de trabajos as&iacute;ncronos en espera.
+     * @return N&uacute;mero m&aacute;ximo de trabajos as&iacute;ncronos en espera. */
+    static int getAsyncQueueSize() {
+    	return getPositiveInt(KEY_ASYNC_QUEUE, DEFAULT_ASYNC_QUEUE);
+    }
+
+    /** Obtiene el tiempo durante el que se conserva el resultado de un trabajo as&iacute;ncrono.
+     * @return Tiempo en milisegundos durante el que se conserva el resultado de un trabajo. */
+    static long getAsyncJobTtl() {
+    	return getPositiveInt(KEY_ASYNC_JOB_TTL, DEFAULT_ASYNC_JOB_TTL) * 1000L;
+    }
+
+    /** Obtiene el n&uacute;mero de hilos para el proceso en paralelo de lotes de documentos.
+     * Si no se configura, se usa uno por procesador.
+     * @return N&uacute;mero de hilos para el proceso de lotes. */
+    static int getBatchThreads() {
+    	return getPositiveInt(KEY_BATCH_THREADS, Runtime.getRuntime().availableProcessors());
+    }
+
+    /** Obtiene el tama&ntilde;o m&aacute;ximo de la cach&eacute; de documentos en memoria.
+     * @return Tama&ntilde;o m&aacute;ximo en octetos de la cach&eacute; en memoria. */
+    static long getCacheSize() {
+    	return getPositiveInt(KEY_CACHE_SIZE, DEFAULT_CACHE_SIZE) * 1024L;
+    }
+
+    /** Obtiene el tama&ntilde;o m&aacute;ximo de un documento para guardarse en cach&eacute;.
+     * @return Tama&ntilde;o m&aacute;ximo en octetos de un documento en cach&eacute;. */
+    static long getCacheEntrySize() {
+    	return getPositiveInt(KEY_CACHE_ENTRY_SIZE, DEFAULT_CACHE_ENTRY_SIZE) * 1024L;
+    }
+
+    /** Obtiene el tiempo durante el que se conserva un documento en cach&eacute;.
+     * @return Tiempo en milisegundos durante el que se conserva un documento en cach&eacute;. */
+    static long getCacheTtl() {
+    	return getPositiveInt(KEY_CACHE_TTL, DEFAULT_CACHE_TTL) * 1000L;
+    }
+
+    /** Obtiene el tama&ntilde;o m&aacute;ximo de la cach&eacute; de documentos en disco.
+     * @return Tama&ntilde;o m&aacute;ximo en octetos de la cach&eacute; en disco. */
+    static long getCacheDiskSize() {
+    	return getPositiveInt(KEY_CACHE_DISK_SIZE, DEFAULT_CACHE_DISK_SIZE) * 1024L;
+    }
+
+    /** Obtiene el directorio de la cach&eacute; de documentos en disco.
+     * @return Directorio de la cach&eacute; en disco o <code>null</code> si no se usa. */
+    static Path getCacheDiskDir() {
+    	final String dir = CFG.getProperty(KEY_CACHE_DISK_DIR);
+    	if (dir == null || dir.trim().isEmpty()) {
+    		return null;
+    	}
+    	final Path cacheDir = Paths.get(dir.trim());
+    	if (!Files.isDirectory(cacheDir) || !Files.isWritable(cacheDir)) {
+    		LOGGER.severe(
+				"El directorio de cache indicado en el fichero 'service.properties' no es valido: " + cacheDir //$NON-NLS-1$
+			);
+    		throw new IllegalStateException(
+				"El directorio de cache indicado en el fichero 'service.properties' no es valido: " + cacheDir //$NON-NLS-1$
+			);
+    	}
+    	return cacheDir;
+    }
+
+    /** Obtiene los almacenes de confianza con los que se validan las cadenas de certificados
+     * de los firmantes.
+     * @return Almacenes de confianza, o una lista vac&iacute;a si no se validan las cadenas. */
+    static List<Path> getTrustStores() {
+    	final String value = CFG.getProperty(KEY_TRUSTSTORES);
+    	final List<Path> ret = new ArrayList<>();
+    	if (value == null || value.trim().isEmpty()) {
+    		return ret;
+    	}
+    	for (final String store : value.split(",")) { //$NON-NLS-1$
+    		if (store.trim().isEmpty()) {
+    			continue;
+    		}
+    		final Path path = Paths.get(store.trim());
+    		if (!Files.isRegularFile(path) || !Files.isReadable(path)) {
+    			LOGGER.severe(
+					"El almacen de confianza indicado en el fichero 'service.properties' no es valido: " + path //$NON-NLS-1$
+				);
+    			throw new IllegalStateException(
+					"El almacen de confianza indicado en el fichero 'service.properties' no es valido: " + path //$NON-NLS-1$
+				);
+    		}
+    		ret.add(path);
+    	}
+    	return ret;
+    }
+
+    /** Obtiene el tipo de los almacenes de confianza.
+     * @return Tipo de los almacenes de confianza. */
+    static String getTrustStoreType() {
+    	final String type = CFG.getProperty(KEY_TRUSTSTORE_TYPE);
+    	return type == null || type.trim().isEmpty() ? DEFAULT_TRUSTSTORE_TYPE : type.trim();
+    }
+
+    /** Obtiene la contrase&ntilde;a de los almacenes de confianza.
+     * @return Contrase&ntilde;a de los almacenes de confianza o <code>null</code> si no tienen. */
+    static char[] getTrustStorePassword() {
+    	final String password = CFG.getProperty(KEY_TRUSTSTORE_PASSWORD);
+    	return password == null || password.isEmpty() ? null : password.toCharArray();
+    }
+
+    /** Obtiene el intervalo entre comprobaciones de cambios en los almacenes de confianza.
+     * @return Intervalo en milisegundos entre comprobaciones. */
+    static long getTrustStoreCheckInterval() {
+    	return getPositiveInt(KEY_TRUSTSTORE_CHECK, DEFAULT_TRUSTSTORE_CHECK) * 1000L;
+    }
+
+    /** Obtiene el n&uacute;mero m&aacute;ximo de firmantes en la cach&eacute; de cadenas validadas.
+     * @return N&uacute;mero m&aacute;ximo de firmantes en la cach&eacute;. */
+    static int getCertCacheSize() {
+    	return getPositiveInt(KEY_CERT_CACHE_SIZE, DEFAULT_CERT_CACHE_SIZE);
+    }
+
+    /** Obtiene el tiempo durante el que se conserva una cadena validada en cach&eacute;.
+     * @return Tiempo en milisegundos durante el que se conserva una cadena validada. */
+    static long getCertCacheTtl() {
+    	return getPositiveInt(KEY_CERT_CACHE_TTL, DEFAULT_CERT_CACHE_TTL) * 1000L;
+    }
+
+    private static int getPositiveInt(final String key, final int defaultValue) {
+    	final String value = CFG.getProperty(key);
+    	if (value == null || value.trim().isEmpty()) {
+    		return defaultValue;
+    	}
+    	final int ret;
+    	try {
+    		ret = Integer.parseInt(value.trim());
+    	}
+    	catch (final NumberFormatException e) {
+    		LOGGER.severe(
+				"El valor del parametro '" + key + "' del fichero 'service.properties' no es un numero: " + value //$NON-NLS-1$ //$NON-NLS-2$
+			);
+    		throw new IllegalStateException(
+				"El valor del parametro '" + key + "' del fichero 'service.properties' no es un numero: " + value, e //$NON-NLS-1$ //$NON-NLS-2$
+			);
+    	}
+    	if (ret < 1) {
+    		LOGGER.severe(
+				"El valor del parametro '" + key + "' del fichero 'service.properties' debe ser positivo: " + value //$NON-NLS-1$ //$NON-NLS-2$
+			);
+    		throw new IllegalStateException(
+				"El valor del parametro '" + key + "' del fichero 'service.properties' debe ser positivo: " + value //$NON-NLS-1$ //$NON-NLS-2$
+			);
+    	}
+    	return ret;
     }
 
     static String getCsvRetrieveUrl() {
@@ -82,6 +345,74 @@ public final class ServiceConfig implements ServletContextListener {
     	return url;
     }
 
+    /** Indica si el CSV debe estamparse como una revisi&oacute;n incremental del PDF,
+     * conservando sus firmas originales.
+     * @return <code>true</code> si el CSV se estampa de forma incremental, <code>false</code>
+     *         si se eliminan las firmas del PDF antes de estampar el CSV. */
+    static boolean isIncrementalStamping() {
+    	return Boolean.parseBoolean(CFG.getProperty(KEY_INCREMENTAL_STAMPING));
+    }
+
+    /** Obtiene el algoritmo de huella con el que se calculan los identificadores de los PDF.
+     * @return Algoritmo de huella de los identificadores. */
+    static String getIdAlgorithm() {
+    	final String algo = CFG.getProperty(KEY_ID_ALGORITHM);
+    	return algo == null || algo.trim().isEmpty() ? PdfIdGenerator.DEFAULT_ALGORITHM : algo.trim();
+    }
+
+    /** Obtiene la codificaci&oacute;n de la huella en los identificadores de los PDF.
+     * @return Codificaci&oacute;n de los identificadores (<code>base64</code>, <code>base64url</code>
+     *         o <code>hex</code>). */
+    static String getIdEncoding() {
+    	final String enc = CFG.getProperty(KEY_ID_ENCODING);
+    	return enc == null || enc.trim().isEmpty() ? PdfIdGenerator.DEFAULT_ENCODING.name() : enc.trim();
+    }
+
+    /** Obtiene el directorio ra&iacute;z del almacenador en sistema de ficheros.
+     * @return Directorio ra&iacute;z del almacenador. */
+    static Path getFileSystemStorerDir() {
+    	final String dir = CFG.getProperty(KEY_FS_STORER_DIR);
+    	if (dir == null || dir.trim().isEmpty()) {
+    		LOGGER.warning(
+				"No se ha indicado el directorio del almacenador en 'service.properties', se usara el temporal del sistema, NO USAR EN PRODUCCION" //$NON-NLS-1$
+			);
+    		return Paths.get(System.getProperty("java.io.tmpdir")); //$NON-NLS-1$
+    	}
+    	return Paths.get(dir.trim());
+    }
+
+    /** Indica si los documentos recibidos deben volcarse a disco en vez de mantenerse en memoria.
+     * @return <code>true</code> si los documentos se vuelcan a disco, <code>false</code> en caso contrario. */
+    static boolean isSpoolToDisk() {
+    	return Boolean.parseBoolean(CFG.getProperty(KEY_SPOOL_TO_DISK));
+    }
+
+    /** Obtiene el directorio donde volcar los documentos recibidos.
+     * @return Directorio de volcado de documentos. */
+    static Path getSpoolDir() {
+    	final String dir = CFG.getProperty(KEY_SPOOL_DIR);
+    	final Path spoolDir = Paths.get(
+			dir == null || dir.isEmpty() ? System.getProperty("java.io.tmpdir") : dir //$NON-NLS-1$
+		);
+    	if (!Files.isDirectory(spoolDir) || !Files.isWritable(spoolDir)) {
+    		LOGGER.severe(
+				"El directorio de volcado indicado en el fichero 'service.properties' no es valido: " + spoolDir //$NON-NLS-1$
+			);
+    		throw new IllegalStateException(
+				"El directorio de volcado indicado en el fichero 'service.properties' no es valido: " + spoolDir //$NON-NLS-1$
+			);
+    	}
+    	return spoolDir;
+    }
+
+    /** Crea un fichero vac&iacute;o en el directorio de volcado.
+     * Es responsabilidad del llamante borrarlo cuando deje de necesitarlo.
+     * @return Fichero creado.
+     * @throws IOException Si no se puede crear el fichero. */
+    static Path createSpoolFile() throws IOException {
+    	return Files.createTempFile(getSpoolDir(), SPOOL_PREFIX, SPOOL_SUFFIX);
+    }
+
     static CsvProcessor getCsvProcessor() {
     	if (ServiceConfig.csvProcessor == null) {
     		final String processorClassName = CFG.getProperty(KEY_PROCESSOR_CLASSNAME);
@@ -152,6 +483,22 @@ public final class ServiceConfig implements ServletContextListener {
     	return ServiceConfig.csvSigner;
     }
 
+    /** Obtiene el firmador configurado como firmador capaz de sellar sobre la sesi&oacute;n
+     * de estampaci&oacute;n, tal y como necesita {@link PipelinedPdfCsvStamper}.
+     * @return Firmador de CSV sobre la sesi&oacute;n de estampaci&oacute;n. */
+    static CsvStamperSigner getCsvStamperSigner() {
+    	final CsvSigner signer = getCsvSigner();
+    	if (!(signer instanceof CsvStamperSigner)) {
+    		LOGGER.severe(
+				"El firmador '" + signer.getClass().getName() + "' no admite el sellado sobre la sesion de estampacion" //$NON-NLS-1$ //$NON-NLS-2$
+			);
+    		throw new IllegalStateException(
+				"El firmador '" + signer.getClass().getName() + "' no admite el sellado sobre la sesion de estampacion" //$NON-NLS-1$ //$NON-NLS-2$
+			);
+    	}
+    	return (CsvStamperSigner) signer;
+    }
+
     static CsvStorer getCsvStorer() {
     	if (ServiceConfig.csvStorer == null) {
     		final String storerClassName = CFG.getProperty(KEY_STORER_CLASSNAME);
@@ -164,7 +511,9 @@ public final class ServiceConfig implements ServletContextListener {
 				);
     		}
     		try {
-				csvStorer = (CsvStorer) Class.forName(storerClassName).getConstructor().newInstance();
+				csvStorer = new MeteredCsvStorer(
+					(CsvStorer) Class.forName(storerClassName).getConstructor().newInstance()
+				);
 			}
     		catch (final InstantiationException    |
     			         IllegalAccessException    |
@@ -187,4 +536,35 @@ public final class ServiceConfig implements ServletContextListener {
     	return ServiceConfig.csvStorer;
     }
 
+    /** Obtiene el almacenador cuyos documentos guarda en cach&eacute; {@link CachingCsvStorer}.
+     * @return Almacenador de documentos. */
+    static CsvStorer getCachedCsvStorer() {
+    	final String storerClassName = CFG.getProperty(KEY_CACHED_STORER_CLASSNAME);
+    	if (storerClassName == null || CachingCsvStorer.class.getName().equals(storerClassName)) {
+    		LOGGER.severe(
+				"No se ha definido en la configuracion un valor valido del parametro '" + KEY_CACHED_STORER_CLASSNAME + "' en el fichero 'service.properties'" //$NON-NLS-1$ //$NON-NLS-2$
+			);
+    		throw new IllegalStateException(
+				"No se ha definido en la configuracion un valor valido del parametro '" + KEY_CACHED_STORER_CLASSNAME + "' en el fichero 'service.properties'" //$NON-NLS-1$ //$NON-NLS-2$
+			);
+    	}
+    	try {
+			return (CsvStorer) Class.forName(storerClassName).getConstructor().newInstance();
+		}
+    	catch (final InstantiationException    |
+    		         IllegalAccessException    |
+    		         IllegalArgumentException  |
+    		         InvocationTargetException |
+    		         NoSuchMethodException     |
+    		         SecurityException         |
+    		         ClassNotFoundException e) {
+    		LOGGER.severe(
+				"No se ha podido instanciar la clase de almacen de CSV ('" + storerClassName + "'): " + e //$NON-NLS-1$ //$NON-NLS-2$
+			);
+    		throw new IllegalStateException(
+				"No se ha podido instanciar la clase de almacen de CSV ('" + storerClassName + "'): " + e //$NON-NLS-1$ //$NON-NLS-2$
+			);
+		}
+    }
+
 }
@@ -4,13 +4,13 @@ import java.io.IOException;
 import java.util.Properties;
 import java.util.logging.Logger;
 
+import com.aowagie.text.pdf.PdfReader;
+import com.aowagie.text.pdf.RandomAccessFileOrArray;
+
 import es.ciemat.csv.PdfExtraUtil.PdfId;
 import es.gob.afirma.core.AOException;
 import es.gob.afirma.core.AOFormatFileException;
 import es.gob.afirma.core.signers.AOSimpleSignInfo;
-import es.gob.afirma.core.util.tree.AOTreeModel;
-import es.gob.afirma.core.util.tree.AOTreeNode;
-import es.gob.afirma.signers.pades.AOPDFSigner;
 
 /** Estampador de CSV en PDF.
  * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
@@ -28,11 +28,19 @@ public final class SimplePdfCsvStamper {
 	/** Distancia de la imagen al borde inferior de la p&aacute;gina del PDF. */
 	private static final String CFG_KEY_CSV_BOTTOM = "csv.bottom"; //$NON-NLS-1$
 
-	private static final int CSV_PAGE;
-	private static final int CSV_LEFT;
-	private static final int CSV_BOTTOM;
+	/** Si se estampa el CSV como contenido vectorial del PDF en lugar de como imagen JPEG. */
+	private static final String CFG_KEY_CSV_VECTOR = "csv.vector"; //$NON-NLS-1$
+
+	/** Si se verifica completamente cada firma del PDF de entrada antes de estampar el CSV. */
+	private static final String CFG_KEY_CSV_VERIFY_SIGNATURES = "csv.verifysignatures"; //$NON-NLS-1$
+
+	static final int CSV_PAGE;
+	static final int CSV_LEFT;
+	static final int CSV_BOTTOM;
+	static final boolean CSV_VECTOR;
+	static final boolean CSV_VERIFY_SIGNATURES;
 
-	private static CsvSigner SIGNER = ServiceConfig.getCsvSigner();
+	static CsvSigner SIGNER = ServiceConfig.getCsvSigner();
 
 	private static final Properties CFG = new Properties();
 	static {
@@ -62,6 +70,16 @@ public final class SimplePdfCsvStamper {
 			CSV_LEFT = Integer.parseInt(
 				CFG.getProperty(CFG_KEY_CSV_LEFT)
 			);
+			CSV_VECTOR = Boolean.parseBoolean(
+				CFG.getProperty(CFG_KEY_CSV_VECTOR)
+			);
+			LOGGER.info("Se estampara el CSV como " + (CSV_VECTOR ? "contenido vectorial" : "imagen JPEG")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			CSV_VERIFY_SIGNATURES = Boolean.parseBoolean(
+				CFG.getProperty(CFG_KEY_CSV_VERIFY_SIGNATURES)
+			);
+			if (CSV_VERIFY_SIGNATURES) {
+				LOGGER.info("Se verificaran las firmas de los PDF antes de estampar el CSV"); //$NON-NLS-1$
+			}
 		}
 		catch (final Exception e) {
 			LOGGER.severe("No se han configurado adecuadamente los valores de estampacion del CSV: " + e); //$NON-NLS-1$
@@ -86,63 +104,113 @@ public final class SimplePdfCsvStamper {
 	                                                        PdfLacksSignaturesException,
 	                                                        AOException,
 	                                                        PdfLacksIdException {
-		final AOPDFSigner pdfSigner = new AOPDFSigner();
+		return stampCsv(inPdf, null);
+	}
 
-		if (!pdfSigner.isValidDataFile(inPdf)) {
+	/** Estampa un CSV en un PDF cuyo identificador ya se conoce.
+	 * @param inPdf PDF de entrada.
+	 * @param inPdfId Identificador del PDF de entrada, o <code>null</code> para calcularlo.
+	 * @return PDF con el CSV estampado junto a su identificador.
+	 * @throws IOException Si hay problemas durante el proceso.
+	 * @throws PdfLacksSignaturesException Si el PDF de entrada no tiene firmas electr&oacute;nicas.
+	 * @throws AOException Si hay problemas aplicando el sello electr&oacute;nico al PDF.
+	 * @throws PdfLacksIdException Si el PDF no tiene identificador. */
+	public static PdfId stampCsv(final byte[] inPdf,
+			                     final String inPdfId) throws IOException,
+	                                                          PdfLacksSignaturesException,
+	                                                          AOException,
+	                                                          PdfLacksIdException {
+		// Obtenemos las firmas del documento. Basta con leer los objetos de las firmas, asi
+		// que el PDF se abre en modo de lectura parcial. Si la entrada no es un PDF falla
+		// ya la apertura, sin necesidad de analizarla antes por separado
+		final AOSimpleSignInfo[] infos;
+		final long t = CsvMetrics.PARSE.start();
+		final PdfReader reader;
+		try {
+			reader = new PdfReader(new RandomAccessFileOrArray(inPdf), null);
+		}
+		catch (final IOException e) {
 			if (ServiceConfig.DEBUG) {
 				LOGGER.warning("Datos recibidos:\n" + new String(inPdf)); //$NON-NLS-1$
 			}
-			LOGGER.severe("La entrada no es un PDF"); //$NON-NLS-1$
+			LOGGER.severe("La entrada no es un PDF: " + e); //$NON-NLS-1$
 			throw new AOFormatFileException(
-				"La entrada no es un PDF" //$NON-NLS-1$
+				"La entrada no es un PDF", e //$NON-NLS-1$
 			);
 		}
-
-		if (!pdfSigner.isSign(inPdf)) {
+		finally {
+			CsvMetrics.PARSE.stop(t);
+		}
+		try {
+			CsvMetrics.PAGES.record(reader.getNumberOfPages());
+			infos = PdfSignerScanner.scan(reader, CSV_VERIFY_SIGNATURES);
+		}
+		finally {
+			reader.close();
+		}
+		if (infos.length < 1) {
 			LOGGER.info("El PDF no tiene ninguna firma electronica"); //$NON-NLS-1$
 			throw new PdfLacksSignaturesException();
 		}
 
 		// Obtenemos el ID del documento
-		final String pdfId = PdfExtraUtil.getPdfId(inPdf);
-		LOGGER.info("Se obtienen las firmas del documento con identificador '"+ pdfId + "'"); //$NON-NLS-1$ //$NON-NLS-2$
-
-		// Obtenemos las firmas del documento
-		final AOTreeModel tree = pdfSigner.getSignersStructure(inPdf, true);
-		final AOTreeNode root = (AOTreeNode) tree.getRoot();
-		final AOSimpleSignInfo[] infos = new AOSimpleSignInfo[root.getChildCount()];
-		for (int i=0; i<root.getChildCount(); i++) {
-			final AOSimpleSignInfo ssi = (AOSimpleSignInfo) root.getChildAt(0).getUserObject();
-			infos[i] = ssi;
-		}
+		final String pdfId = inPdfId != null ? inPdfId : PdfExtraUtil.getPdfId(inPdf);
+		LOGGER.info("Se han obtenido " + infos.length + " firmas del documento con identificador '"+ pdfId + "'"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 
 		// Eliminamos las firmas del PDF de entrada
 		final byte[] flatPdf = PdfExtraUtil.removeSignaturesFromPdf(inPdf);
 
-		// Creamos el CSV
-		final byte[] csv = PdfExtraUtil.createCsvAsJpeg(
-			pdfId,
-			infos,
-			null // textTemplate
-		);
-
-		// Estampamos el CSV
-		final byte[] pdfOut = PdfExtraUtil.addImageToPdf(
-			flatPdf,
-			csv,
-			CSV_LEFT,
-			CSV_BOTTOM,
-			CSV_PAGE,
-			PdfExtraUtil.getLink(pdfId)
-		);
+		// Creamos y estampamos el CSV. En modo imagen se crea antes el JPEG del CSV
+		final byte[] csv = CSV_VECTOR ?
+			null :
+				PdfExtraUtil.createCsvAsJpeg(
+					pdfId,
+					infos,
+					null // textTemplate
+				);
+		final byte[] pdfOut;
+		final long tStamp = CsvMetrics.STAMP.start();
+		try {
+			if (csv == null) {
+				pdfOut = PdfExtraUtil.addVectorCsvToPdf(
+					flatPdf,
+					pdfId,
+					infos,
+					null, // textTemplate
+					CSV_LEFT,
+					CSV_BOTTOM,
+					CSV_PAGE,
+					PdfExtraUtil.getLink(pdfId)
+				);
+			}
+			else {
+				pdfOut = PdfExtraUtil.addImageToPdf(
+					flatPdf,
+					csv,
+					CSV_LEFT,
+					CSV_BOTTOM,
+					CSV_PAGE,
+					PdfExtraUtil.getLink(pdfId)
+				);
+			}
+		}
+		finally {
+			CsvMetrics.STAMP.stop(tStamp);
+		}
 
 		// Sellamos el PDF y lo devolvemos todo
-		return new PdfId(
-			SIGNER.signPdf(
-				pdfOut
-			),
-			pdfId
-		);
+		final long tSign = CsvMetrics.SIGN.start();
+		try {
+			return new PdfId(
+				SIGNER.signPdf(
+					pdfOut
+				),
+				pdfId
+			);
+		}
+		finally {
+			CsvMetrics.SIGN.stop(tSign);
+		}
 	}
 
 }
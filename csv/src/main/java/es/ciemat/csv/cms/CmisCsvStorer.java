@@ -1,6 +1,19 @@
 package es.ciemat.csv.cms;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import es.ciemat.csv.CsvFileNotFoundException;
@@ -17,8 +30,12 @@ public final class CmisCsvStorer implements CsvStorer {
 	private static final String SUFFIX_CSV = "_CSV"; //$NON-NLS-1$
 	private static final String SUFFIX_PDF = ".pdf"; //$NON-NLS-1$
 
+	private static final String PDF_MIMETYPE = "application/pdf"; //$NON-NLS-1$
+
 	private static final Logger LOGGER = Logger.getLogger(CmisCsvStorer.class.getName());
 
+	private static ExecutorService uploadExecutor = null;
+
 	/** Construye el almacenador. */
 	public CmisCsvStorer() {
 		LOGGER.info(
@@ -37,49 +54,281 @@ public final class CmisCsvStorer implements CsvStorer {
 
 		LOGGER.info("Solicitado almacen de un documento en CMIS"); //$NON-NLS-1$
 
-		try {
-			CmsDocumentManager.sendDocument(
-				pdfWithSignatures,
-				pdfWithCsv.getId() + SUFFIX_ORI + SUFFIX_PDF
-			);
+		store(
+			new Upload(pdfWithCsv.getId() + SUFFIX_ORI + SUFFIX_PDF) {
+				@Override
+				void send() throws CmsException, IOException {
+					// El original es siempre un PDF, no es necesario analizarlo para obtener su tipo
+					try (
+						final InputStream is = new ByteArrayInputStream(pdfWithSignatures)
+					) {
+						CmsDocumentManager.sendDocument(
+							is,
+							pdfWithSignatures.length,
+							PDF_MIMETYPE,
+							getName()
+						);
+					}
+				}
+			},
+			new CsvUpload(pdfWithCsv),
+			CmsDocumentManager.PARALLEL_UPLOAD ? getUploadExecutor() : null
+		);
+	}
+
+	@Override
+	public void storePdfWithCsv(final PdfId pdfWithCsv,
+			                    final Path pdfWithSignatures) throws CsvStorerException {
+
+		LOGGER.info("Solicitado almacen de un documento en disco en CMIS"); //$NON-NLS-1$
+
+		store(
+			new Upload(pdfWithCsv.getId() + SUFFIX_ORI + SUFFIX_PDF) {
+				@Override
+				void send() throws CmsException, IOException {
+					try (
+						final InputStream is = Files.newInputStream(pdfWithSignatures)
+					) {
+						CmsDocumentManager.sendDocument(
+							is,
+							Files.size(pdfWithSignatures),
+							PDF_MIMETYPE,
+							getName()
+						);
+					}
+				}
+			},
+			new CsvUpload(pdfWithCsv),
+			CmsDocumentManager.PARALLEL_UPLOAD ? getUploadExecutor() : null
+		);
+	}
+
+	/** Almacena el documento original y el documento con CSV.
+	 * Si se indica un ejecutor, el documento con CSV se sube en uno de sus hilos mientras
+	 * el original se sube en el hilo actual. Si una de las subidas falla y la otra no, se
+	 * elimina el documento subido para no dejar en el gestor un par incompleto.
+	 * @param ori Subida del documento original.
+	 * @param csv Subida del documento con CSV.
+	 * @param executor Ejecutor para la subida en paralelo o <code>null</code> para subir
+	 *                 los documentos uno tras otro.
+	 * @throws CsvStorerException Si falla alguna de las subidas. */
+	static void store(final Upload ori,
+			          final Upload csv,
+			          final ExecutorService executor) throws CsvStorerException {
+		final Exception oriError;
+		final Exception csvError;
+		if (executor != null) {
+			final Future<Void> csvFuture = executor.submit(csv);
+			oriError = ori.run();
+			csvError = await(csvFuture);
 		}
-		catch (CmsFolderNotFoundException | DocumentAlreadyExistsOnCmsException e) {
-			LOGGER.info("Error almacenando el documento original: " + e); //$NON-NLS-1$
-			throw new CsvStorerException(
-				"Error almacenando el documento original: " + e, //$NON-NLS-1$
-				e
-			);
+		else {
+			oriError = ori.run();
+			csvError = oriError == null ? csv.run() : null;
+		}
+
+		if (oriError == null && csvError == null) {
+			return;
+		}
+
+		// Compensacion: se elimina el documento que si se subio
+		if (oriError == null) {
+			ori.rollback();
+		}
+		else if (csvError == null && executor != null) {
+			csv.rollback();
+		}
+
+		final Exception error = oriError != null ? oriError : csvError;
+		final String msg = oriError != null ?
+			"Error almacenando el documento original: " + error : //$NON-NLS-1$
+				"Error almacenando el documento con CSV: " + error; //$NON-NLS-1$
+		LOGGER.info(msg);
+		if (error instanceof RuntimeException) {
+			throw (RuntimeException) error;
 		}
+		throw new CsvStorerException(msg, error);
+	}
+
+	/** Espera a que termine una subida en paralelo, aunque se interrumpa el hilo actual, para
+	 * conocer siempre el resultado de ambas subidas antes de compensar.
+	 * @param future Subida en paralelo.
+	 * @return Error de la subida o <code>null</code> si termin&oacute; correctamente. */
+	private static Exception await(final Future<Void> future) {
+		boolean interrupted = false;
 		try {
-			CmsDocumentManager.sendDocument(
-				pdfWithCsv.getPdf(),
-				pdfWithCsv.getId() + SUFFIX_CSV + SUFFIX_PDF
+			while (true) {
+				try {
+					future.get();
+					return null;
+				}
+				catch (final InterruptedException e) {
+					interrupted = true;
+				}
+				catch (final ExecutionException e) {
+					if (e.getCause() instanceof Error) {
+						throw (Error) e.getCause();
+					}
+					return (Exception) e.getCause();
+				}
+			}
+		}
+		finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/** Obtiene el ejecutor compartido para las subidas en paralelo, cre&aacute;ndolo si es necesario.
+	 * @return Ejecutor para las subidas en paralelo. */
+	private static synchronized ExecutorService getUploadExecutor() {
+		if (uploadExecutor == null) {
+			uploadExecutor = Executors.newFixedThreadPool(
+				CmsDocumentManager.UPLOAD_THREADS,
+				new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+					@Override
+					public Thread newThread(final Runnable r) {
+						final Thread t = new Thread(r, "cms-upload-" + this.count.incrementAndGet()); //$NON-NLS-1$
+						t.setDaemon(true);
+						return t;
+					}
+				}
+			);
+			LOGGER.info(
+				"Creado el ejecutor de subidas en paralelo con " + CmsDocumentManager.UPLOAD_THREADS + " hilos" //$NON-NLS-1$ //$NON-NLS-2$
 			);
 		}
-		catch (CmsFolderNotFoundException | DocumentAlreadyExistsOnCmsException e) {
-			LOGGER.info("Error almacenando el documento con CSV: " + e); //$NON-NLS-1$
-			throw new CsvStorerException(
-				"Error almacenando el documento con CSV: " + e, //$NON-NLS-1$
-				e
+		return uploadExecutor;
+	}
+
+	/** Detiene el ejecutor compartido de subidas en paralelo, si se hab&iacute;a creado. */
+	public static synchronized void shutdownUploads() {
+		if (uploadExecutor != null) {
+			uploadExecutor.shutdown();
+			uploadExecutor = null;
+		}
+	}
+
+	/** Subida de un documento al gestor documental. */
+	abstract static class Upload implements Callable<Void> {
+
+		private final String name;
+
+		Upload(final String documentName) {
+			this.name = documentName;
+		}
+
+		/** Obtiene el nombre del documento en el gestor documental.
+		 * @return Nombre del documento. */
+		String getName() {
+			return this.name;
+		}
+
+		/** Sube el documento.
+		 * @throws CmsException Si el gestor documental rechaza el documento.
+		 * @throws IOException Si no se puede leer el contenido del documento. */
+		abstract void send() throws CmsException, IOException;
+
+		/** Elimina el documento subido. */
+		void rollback() {
+			try {
+				CmsDocumentManager.deleteDocument(this.name);
+				LOGGER.warning("Eliminado el documento '" + this.name + "' por fallar la subida de su pareja"); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			catch (final Exception e) {
+				LOGGER.severe(
+					"No se ha podido eliminar el documento '" + this.name + "', queda en el gestor sin su pareja: " + e //$NON-NLS-1$ //$NON-NLS-2$
+				);
+			}
+		}
+
+		@Override
+		public Void call() throws Exception {
+			final long start = System.nanoTime();
+			try {
+				send();
+			}
+			catch (final Exception e) {
+				LOGGER.info(
+					"Fallo la subida del documento '" + this.name + "' tras " + elapsedMillis(start) + " ms: " + e //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				);
+				throw e;
+			}
+			LOGGER.info(
+				"Subido el documento '" + this.name + "' en " + elapsedMillis(start) + " ms" //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 			);
+			return null;
+		}
+
+		/** Sube el documento en el hilo actual.
+		 * @return Error de la subida o <code>null</code> si termin&oacute; correctamente. */
+		Exception run() {
+			try {
+				call();
+				return null;
+			}
+			catch (final Exception e) {
+				return e;
+			}
+		}
+
+		private static long elapsedMillis(final long start) {
+			return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		}
+	}
+
+	/** Subida del documento con CSV. */
+	private static final class CsvUpload extends Upload {
+
+		private final PdfId pdfWithCsv;
+
+		CsvUpload(final PdfId pdf) {
+			super(pdf.getId() + SUFFIX_CSV + SUFFIX_PDF);
+			this.pdfWithCsv = pdf;
+		}
+
+		@Override
+		void send() throws CmsException, IOException {
+			// Se envia desde el flujo para no duplicar en memoria el PDF
+			try (
+				final InputStream is = this.pdfWithCsv.getPdfStream()
+			) {
+				CmsDocumentManager.sendDocument(
+					is,
+					this.pdfWithCsv.getPdfLength(),
+					PDF_MIMETYPE,
+					getName()
+				);
+			}
 		}
 	}
 
 	@Override
 	public byte[] retrievePdfWithCsv(final PdfId pdfId) throws CsvStorerException, CsvFileNotFoundException {
-		final String id;
+		final String id = getId(pdfId);
 		try {
-			id = pdfId.getId() != null ? pdfId.getId() : PdfExtraUtil.getPdfId(pdfId.getPdf());
+			return CmsDocumentManager.loadDocument(id + SUFFIX_CSV + SUFFIX_PDF);
 		}
-		catch (final IOException e) {
-			LOGGER.info("No se ha indicado el CSV del documento: " + e); //$NON-NLS-1$
+		catch (CmsFolderNotFoundException | IOException e) {
+			LOGGER.info("No se ha podido leer el documento con identificador '" + id + "' del repositorio: " + e); //$NON-NLS-1$ //$NON-NLS-2$
 			throw new CsvStorerException(
-				"No se ha indicado el CSV del documento: " + e, e //$NON-NLS-1$
+				"No se ha podido leer el documento con identificador '" + id + "' del repositorio: " + e, e //$NON-NLS-1$ //$NON-NLS-2$
 			);
 		}
+		catch (final FileNoExistsOnCmsException e) {
+			LOGGER.info("No hay ningun documento para el identificador: '" + id + "' : " + e); //$NON-NLS-1$ //$NON-NLS-2$
+			throw new CsvFileNotFoundException(id);
+		}
+	}
 
+	@Override
+	public void retrievePdfWithCsv(final PdfId pdfId,
+			                       final OutputStream out) throws CsvStorerException, CsvFileNotFoundException {
+		final String id = getId(pdfId);
 		try {
-			return CmsDocumentManager.loadDocument(id + SUFFIX_CSV + SUFFIX_PDF);
+			CmsDocumentManager.loadDocument(id + SUFFIX_CSV + SUFFIX_PDF, out);
 		}
 		catch (CmsFolderNotFoundException | IOException e) {
 			LOGGER.info("No se ha podido leer el documento con identificador '" + id + "' del repositorio: " + e); //$NON-NLS-1$ //$NON-NLS-2$
@@ -93,4 +342,30 @@ public final class CmisCsvStorer implements CsvStorer {
 		}
 	}
 
+	@Override
+	public boolean exists(final PdfId pdfId) throws CsvStorerException {
+		final String id = getId(pdfId);
+		try {
+			return CmsDocumentManager.documentExists(id + SUFFIX_CSV + SUFFIX_PDF);
+		}
+		catch (final IOException e) {
+			LOGGER.info("No se ha podido comprobar el documento con identificador '" + id + "' en el repositorio: " + e); //$NON-NLS-1$ //$NON-NLS-2$
+			throw new CsvStorerException(
+				"No se ha podido comprobar el documento con identificador '" + id + "' en el repositorio: " + e, e //$NON-NLS-1$ //$NON-NLS-2$
+			);
+		}
+	}
+
+	private static String getId(final PdfId pdfId) throws CsvStorerException {
+		try {
+			return pdfId.getId() != null ? pdfId.getId() : PdfExtraUtil.getPdfId(pdfId.getPdf());
+		}
+		catch (final IOException e) {
+			LOGGER.info("No se ha indicado el CSV del documento: " + e); //$NON-NLS-1$
+			throw new CsvStorerException(
+				"No se ha indicado el CSV del documento: " + e, e //$NON-NLS-1$
+			);
+		}
+	}
+
 }
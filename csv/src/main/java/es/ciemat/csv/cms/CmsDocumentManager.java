@@ -3,6 +3,7 @@ package es.ciemat.csv.cms;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
@@ -11,15 +12,16 @@ import java.util.logging.Logger;
 import org.apache.chemistry.opencmis.client.api.CmisObject;
 import org.apache.chemistry.opencmis.client.api.Document;
 import org.apache.chemistry.opencmis.client.api.Folder;
-import org.apache.chemistry.opencmis.client.api.Repository;
 import org.apache.chemistry.opencmis.client.api.Session;
-import org.apache.chemistry.opencmis.client.api.SessionFactory;
-import org.apache.chemistry.opencmis.client.runtime.SessionFactoryImpl;
 import org.apache.chemistry.opencmis.commons.PropertyIds;
 import org.apache.chemistry.opencmis.commons.SessionParameter;
 import org.apache.chemistry.opencmis.commons.data.ContentStream;
 import org.apache.chemistry.opencmis.commons.enums.BindingType;
 import org.apache.chemistry.opencmis.commons.enums.VersioningState;
+import org.apache.chemistry.opencmis.commons.exceptions.CmisConnectionException;
+import org.apache.chemistry.opencmis.commons.exceptions.CmisConstraintException;
+import org.apache.chemistry.opencmis.commons.exceptions.CmisContentAlreadyExistsException;
+import org.apache.chemistry.opencmis.commons.exceptions.CmisNameConstraintViolationException;
 import org.apache.chemistry.opencmis.commons.exceptions.CmisObjectNotFoundException;
 
 import es.gob.afirma.core.misc.AOUtil;
@@ -35,6 +37,18 @@ public final class CmsDocumentManager  {
 	private static final String CMS_PWD;
 	private static final String CMIS_PATH;
 
+	/** Indica si el documento original y el documento con CSV se suben en paralelo. */
+	static final boolean PARALLEL_UPLOAD;
+
+	/** N&uacute;mero de hilos para las subidas en paralelo. */
+	static final int UPLOAD_THREADS;
+
+	private static final int DEFAULT_UPLOAD_THREADS = 8;
+
+	private static final String PDF_MIMETYPE = "application/pdf"; //$NON-NLS-1$
+
+	private static final int BUFFER_SIZE = 8192;
+
 	private static final Logger LOGGER = Logger.getLogger(CmsDocumentManager.class.getName());
 
 	static {
@@ -84,14 +98,37 @@ public final class CmsDocumentManager  {
 			);
 		}
 		CMIS_PATH = cmisPath;
+
+		PARALLEL_UPLOAD = Boolean.parseBoolean(cfg.getProperty("cmsparallelupload")); //$NON-NLS-1$
+
+		final String uploadThreads = cfg.getProperty("cmsuploadthreads"); //$NON-NLS-1$
+		try {
+			UPLOAD_THREADS = uploadThreads == null || uploadThreads.trim().isEmpty() ?
+				DEFAULT_UPLOAD_THREADS :
+					Integer.parseInt(uploadThreads.trim());
+		}
+		catch (final NumberFormatException e) {
+			LOGGER.severe("El numero de hilos de subida al gestor documental no es valido: " + uploadThreads); //$NON-NLS-1$
+			throw new IllegalStateException(
+				"El numero de hilos de subida al gestor documental no es valido: " + uploadThreads, e //$NON-NLS-1$
+			);
+		}
+		if (UPLOAD_THREADS < 1) {
+			LOGGER.severe("El numero de hilos de subida al gestor documental debe ser positivo: " + uploadThreads); //$NON-NLS-1$
+			throw new IllegalStateException(
+				"El numero de hilos de subida al gestor documental debe ser positivo: " + uploadThreads //$NON-NLS-1$
+			);
+		}
 	}
 
+	/** Sesi&oacute;n compartida con el gestor documental. */
+	private static final CmsSessionHolder SESSIONS = createSessionHolder();
+
 	private CmsDocumentManager() {
 		// No instanciable
 	}
 
-	private static Session getSession() {
-		final SessionFactory sessionFactory = SessionFactoryImpl.newInstance();
+	private static CmsSessionHolder createSessionHolder() {
 		final Map<String, String> parameter = new HashMap<>();
 
 		parameter.put(SessionParameter.USER, CMS_USR);
@@ -100,8 +137,11 @@ public final class CmsDocumentManager  {
 		parameter.put(SessionParameter.ATOMPUB_URL, CMIS_PATH);
 		parameter.put(SessionParameter.BINDING_TYPE, BindingType.ATOMPUB.value());
 
-		final Repository repository = sessionFactory.getRepositories(parameter).get(0);
-		return repository.createSession();
+		return new CmsSessionHolder(parameter, CMS_FOLDER);
+	}
+
+	private static Session getSession() {
+		return SESSIONS.getSession();
 	}
 
 
@@ -114,31 +154,94 @@ public final class CmsDocumentManager  {
 	public static byte[] loadDocument (final String fileName) throws CmsFolderNotFoundException,
                                                                      FileNoExistsOnCmsException,
                                                                      IOException {
-		final Session session = getSession();
-		final byte[] ret = leerDocumento(
-			fileName,
-			CMS_FOLDER,
-			session
-		);
-		session.clear();
-		return ret;
+		try {
+			final Document doc = obtenerDocumento(
+				fileName,
+				CMS_FOLDER,
+				getSession()
+			);
+			try (
+				final InputStream stream = doc.getContentStream().getStream();
+			) {
+				return AOUtil.getDataFromInputStream(stream);
+			}
+		}
+		catch (final CmisConnectionException e) {
+			SESSIONS.invalidate();
+			throw new IOException("Error de conexion con el gestor documental: " + e, e); //$NON-NLS-1$
+		}
+	}
+
+	/** Recupera un documento desde el CMS escribiendo su contenido en un flujo, sin
+	 * cargarlo completo en memoria.
+	 * Si el documento no existe se lanza la excepci&oacute;n antes de escribir nada en el flujo.
+	 * @param fileName Nombre del fichero a recuperar.
+	 * @param out Flujo donde escribir el contenido del documento.
+	 * @return N&uacute;mero de octetos escritos.
+	 * @throws CmsFolderNotFoundException Si no existe la carpeta de documentos en el CMS.
+	 * @throws FileNoExistsOnCmsException Si el documento no existe en el CMS.
+	 * @throws IOException Si no se puede leer el contenido del fichero o escribir en el flujo. */
+	public static long loadDocument(final String fileName,
+			                        final OutputStream out) throws CmsFolderNotFoundException,
+	                                                               FileNoExistsOnCmsException,
+	                                                               IOException {
+		try {
+			final Document doc = obtenerDocumento(
+				fileName,
+				CMS_FOLDER,
+				getSession()
+			);
+			try (
+				final InputStream stream = doc.getContentStream().getStream();
+			) {
+				final byte[] buf = new byte[BUFFER_SIZE];
+				long total = 0;
+				int n;
+				while ((n = stream.read(buf)) > 0) {
+					out.write(buf, 0, n);
+					total += n;
+				}
+				return total;
+			}
+		}
+		catch (final CmisConnectionException e) {
+			SESSIONS.invalidate();
+			throw new IOException("Error de conexion con el gestor documental: " + e, e); //$NON-NLS-1$
+		}
+	}
+
+	/** Indica si un documento existe en la carpeta de documentos del CMS, sin recuperar su
+	 * contenido.
+	 * @param fileName Nombre del documento.
+	 * @return <code>true</code> si el documento existe, <code>false</code> en caso contrario.
+	 * @throws IOException Si hay un error de conexi&oacute;n con el gestor documental. */
+	public static boolean documentExists(final String fileName) throws IOException {
+		try {
+			return fileExists(
+				CMS_FOLDER + (CMS_FOLDER.endsWith("/") ? "" : "/") + fileName, //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				null
+			);
+		}
+		catch (final CmisConnectionException e) {
+			SESSIONS.invalidate();
+			throw new IOException("Error de conexion con el gestor documental: " + e, e); //$NON-NLS-1$
+		}
 	}
 
-	/** Lee un documento en el gestor documental.
+	/** Obtiene un documento del gestor documental.
 	 * @param nombre Nombre del documento.
 	 * @param pathAlfresco Ruta del documento en el gestor documental.
 	 * @param session Sesi&oacute;n contra el gestor documental.
-	 * @return Contenido del documento.
-	 * @throws FileNoExistsOnCmsException SI no existe ese documento en la ruta indicada.
-	 * @throws IOException Si no se puede leer el contenido del documento. */
-	private static byte[] leerDocumento(final String nombre,
-			                            final String pathAlfresco,
-			                            final Session session) throws FileNoExistsOnCmsException,
-	                                                                  IOException {
+	 * @return Documento.
+	 * @throws FileNoExistsOnCmsException SI no existe ese documento en la ruta indicada. */
+	private static Document obtenerDocumento(final String nombre,
+			                                 final String pathAlfresco,
+			                                 final Session session) throws FileNoExistsOnCmsException {
 		   final CmisObject object;
 		   try {
 			   object = session.getObjectByPath(
-				   pathAlfresco + (pathAlfresco.endsWith("/") ? "" : "/") + nombre //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				   pathAlfresco + (pathAlfresco.endsWith("/") ? "" : "/") + nombre, //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				   SESSIONS.getNoCacheContext()
 			   );
 		   }
 		   catch (final CmisObjectNotFoundException e) {
@@ -155,13 +258,7 @@ public final class CmsDocumentManager  {
 			   );
 			   throw new FileNoExistsOnCmsException();
 		   }
-		   final Document doc = (Document) object;
-		   final ContentStream cs = doc.getContentStream();
-		   try (
-			   final InputStream stream = cs.getStream();
-		   ) {
-			   return AOUtil.getDataFromInputStream(stream);
-		   }
+		   return (Document) object;
 	}
 
 
@@ -172,75 +269,121 @@ public final class CmsDocumentManager  {
 	 * @throws CmsFolderNotFoundException Si no existe la carpeta de destino en el gestor documental. */
 	public static void sendDocument(final byte[] fileBytes, final String fileName) throws CmsFolderNotFoundException,
 	                                                                                DocumentAlreadyExistsOnCmsException {
-		final Session session = getSession();
-		enviarDocumento(
-			fileName,
-			fileBytes,
-			CMS_FOLDER,
-			session
+		// Obtenemos el MIME-Type
+		String mimeType;
+		try {
+			mimeType = new MimeHelper(fileBytes).getMimeType();
+		}
+		catch (final IOException e) {
+			LOGGER.warning(
+				"No se ha podido determinar el tipo del contenido: " + e //$NON-NLS-1$
+			);
+			mimeType = null;
+		}
+		sendDocument(
+			new ByteArrayInputStream(fileBytes),
+			fileBytes.length,
+			mimeType != null ? mimeType : PDF_MIMETYPE,
+			fileName
 		);
-		session.clear();
+	}
+
+	/** Sube un documento al gestor documental leyendo su contenido de un flujo, sin
+	 * cargarlo completo en memoria.
+	 * @param fileContent Flujo de lectura del contenido del documento a subir.
+	 * @param fileLength Tama&ntilde;o en octetos del documento o <code>-1</code> si se desconoce.
+	 * @param mimeType Tipo del contenido del documento.
+	 * @param fileName Nombre en gestor documental del documento a subir.
+	 * @throws DocumentAlreadyExistsOnCmsException Si el fichero ya exsite en el gestor documental.
+	 * @throws CmsFolderNotFoundException Si no existe la carpeta de destino en el gestor documental. */
+	public static void sendDocument(final InputStream fileContent,
+			                        final long fileLength,
+			                        final String mimeType,
+			                        final String fileName) throws CmsFolderNotFoundException,
+	                                                              DocumentAlreadyExistsOnCmsException {
+		try {
+			enviarDocumento(
+				fileName,
+				fileContent,
+				fileLength,
+				mimeType,
+				CMS_FOLDER,
+				getSession()
+			);
+		}
+		catch (final CmisConnectionException e) {
+			SESSIONS.invalidate();
+			throw e;
+		}
 	}
 
 	/** Env&iacute;a un documento al gestor documental.
 	 * @param nombre Nombre en el gestor documental.
-	 * @param pathArchivoreal Nombre del fichero local.
-	 * @param pathAlfr Ruta en el gestor documental donde almacenar el fichero.
+	 * @param fileContent Flujo de lectura del contenido del documento.
+	 * @param fileLength Tama&ntilde;o en octetos del documento o <code>-1</code> si se desconoce.
+	 * @param mimeType Tipo del contenido del documento.
+	 * @param pathAlfresco Ruta en el gestor documental donde almacenar el fichero.
+	 * @param session Sesi&oacute;n contra el gestor documental.
 	 * @throws CmsFolderNotFoundException Si la carpeta del gestor documental no existe.
 	 * @throws DocumentAlreadyExistsOnCmsException Si ya existe un fichero con ese nombre en el gestor documental. */
 	private static void enviarDocumento(final String nombre,
-			                            final byte[] fileBytes,
+			                            final InputStream fileContent,
+			                            final long fileLength,
+			                            final String mimeType,
 			                            final String pathAlfresco,
 			                            final Session session) throws CmsFolderNotFoundException,
 	                                                                  DocumentAlreadyExistsOnCmsException {
-		final CmisObject object = session.getObjectByPath(pathAlfresco);
-
-		if(object!=null && object instanceof Folder) {
-
-			if (
-				!fileExists(pathAlfresco + (pathAlfresco.endsWith("/") ? "" : "/") + nombre, session) //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-			) {
-
-				final Map<String, Object> properties2 = new HashMap<>();
-				properties2.put(PropertyIds.OBJECT_TYPE_ID, "cmis:document"); //$NON-NLS-1$
-				properties2.put(PropertyIds.NAME, nombre);
-
-				final ContentStream contentStream =session.getObjectFactory().createContentStream(nombre, 0, "text/plain",  null); //$NON-NLS-1$
-
-				final Document newDoc = ((Folder)object).createDocument(properties2, contentStream, VersioningState.MAJOR);
-				final InputStream stream2 = new ByteArrayInputStream(fileBytes);
-
-				// Obtenemos el MIME-Type
-				String mimeType;
-				try {
-					mimeType = new MimeHelper(fileBytes).getMimeType();
-				}
-				catch (final IOException e) {
-					LOGGER.warning(
-						"No se ha podido determinar el tipo del contenido: " + e //$NON-NLS-1$
-					);
-					mimeType = "application/pdf"; //$NON-NLS-1$
-				}
-
-				final ContentStream contentStream2 = session.getObjectFactory().createContentStream(
-					nombre,
-					fileBytes.length,
-					mimeType != null ? mimeType : "application/pdf",  //$NON-NLS-1$
-					stream2
-				);
+		// La carpeta se obtiene una unica vez y se reutiliza entre peticiones
+		final Folder folder = SESSIONS.getFolder();
+
+		final Map<String, Object> properties = new HashMap<>();
+		properties.put(PropertyIds.OBJECT_TYPE_ID, "cmis:document"); //$NON-NLS-1$
+		properties.put(PropertyIds.NAME, nombre);
+
+		final ContentStream contentStream = session.getObjectFactory().createContentStream(
+			nombre,
+			fileLength,
+			mimeType,
+			fileContent
+		);
 
-				newDoc.setContentStream(contentStream2,true,true);
-			}
-			else {
+		// Se crea el documento con su contenido en una unica llamada. No se comprueba
+		// antes si existe, es el propio gestor el que lo indica con un error
+		try {
+			folder.createDocument(properties, contentStream, VersioningState.MAJOR);
+		}
+		catch (final CmisContentAlreadyExistsException | CmisNameConstraintViolationException e) {
+			LOGGER.warning(
+				"El documento con nombre '" + nombre + "' ya existe en el gestor documental: " + e //$NON-NLS-1$ //$NON-NLS-2$
+			);
+			throw new DocumentAlreadyExistsOnCmsException(e);
+		}
+		catch (final CmisConstraintException e) {
+			// Algunos gestores indican los nombres duplicados como una restriccion generica
+			if (fileExists(pathAlfresco + (pathAlfresco.endsWith("/") ? "" : "/") + nombre, session)) { //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 				LOGGER.warning(
-					"El documento con nombre '" + nombre + "' ya existe en el gestor documental" //$NON-NLS-1$ //$NON-NLS-2$
+					"El documento con nombre '" + nombre + "' ya existe en el gestor documental: " + e //$NON-NLS-1$ //$NON-NLS-2$
 				);
-				throw new DocumentAlreadyExistsOnCmsException();
+				throw new DocumentAlreadyExistsOnCmsException(e);
 			}
+			throw e;
+		}
+	}
+
+	/** Elimina un documento del gestor documental.
+	 * @param fileName Nombre en gestor documental del documento a eliminar.
+	 * @throws FileNoExistsOnCmsException Si el documento no existe en el gestor documental. */
+	public static void deleteDocument(final String fileName) throws FileNoExistsOnCmsException {
+		try {
+			obtenerDocumento(
+				fileName,
+				CMS_FOLDER,
+				getSession()
+			).delete(true);
 		}
-		else {
-			LOGGER.severe("No se ha encontrado la carpeta en el gestor documental"); //$NON-NLS-1$
-			throw new CmsFolderNotFoundException();
+		catch (final CmisConnectionException e) {
+			SESSIONS.invalidate();
+			throw e;
 		}
 	}
 
@@ -248,13 +391,13 @@ public final class CmsDocumentManager  {
 	 * @param fileNameWithPath Nombre (incluyendo ruta en el gestor) del documento a comprobar
 	 *                         su existencia.
 	 * @param session Sesi&oacute;n contra el gestor documental (si se indica <code>null</code> se
-	 *                abre una nueva.
+	 *                usa la sesi&oacute;n compartida).
 	 * @return <code>true</code> si el documento existe en el gestor, <code>false</code> en casa
 	 *         contrario. */
 	public static boolean fileExists(final String fileNameWithPath, final Session session)  {
 		final Session s = session != null ? session : getSession();
 		try {
-			return s.getObjectByPath(fileNameWithPath) != null;
+			return s.getObjectByPath(fileNameWithPath, SESSIONS.getNoCacheContext()) != null;
 		}
 		catch (final CmisObjectNotFoundException e) {
 			Logger.getLogger(CmsDocumentManager.class.getName()).info(
@@ -1,5 +1,6 @@
 package es.ciemat.csv.cms;
 
+import org.apache.chemistry.opencmis.commons.exceptions.CmisBaseException;
 import org.apache.chemistry.opencmis.commons.exceptions.CmisObjectNotFoundException;
 
 /** Excepci&oacute;n relacionada con la carga o recuperaci&oacute;n de documentos
@@ -11,6 +12,10 @@ public abstract class CmsException extends Exception {
 		super(e);
 	}
 
+	CmsException(final CmisBaseException e) {
+		super(e);
+	}
+
 	CmsException() {
 		// VACIO
 	}
@@ -0,0 +1,177 @@
+package es.ciemat.csv.cms;
+
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.apache.chemistry.opencmis.client.api.CmisObject;
+import org.apache.chemistry.opencmis.client.api.Folder;
+import org.apache.chemistry.opencmis.client.api.OperationContext;
+import org.apache.chemistry.opencmis.client.api.Repository;
+import org.apache.chemistry.opencmis.client.api.Session;
+import org.apache.chemistry.opencmis.client.runtime.SessionFactoryImpl;
+import org.apache.chemistry.opencmis.commons.exceptions.CmisBaseException;
+import org.apache.chemistry.opencmis.commons.exceptions.CmisObjectNotFoundException;
+
+/** Mantiene una sesi&oacute;n CMIS reutilizable y la carpeta de destino de los documentos.
+ * La sesi&oacute;n de OpenCMIS admite su uso concurrente desde varios hilos, por lo que se
+ * comparte entre todas las peticiones. Peri&oacute;dicamente se comprueba que siga siendo
+ * v&aacute;lida, y si no lo es se abre una nueva. La comprobaci&oacute;n accede a la red, por lo
+ * que se hace sin bloquear al resto de hilos, que mientras tanto siguen usando la sesi&oacute;n.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+final class CmsSessionHolder {
+
+	/** Origen de sesiones CMIS. */
+	interface SessionSource {
+
+		/** Abre una nueva sesi&oacute;n CMIS.
+		 * @return Sesi&oacute;n CMIS. */
+		Session openSession();
+
+	}
+
+	/** Intervalo por defecto entre comprobaciones de la sesi&oacute;n, en milisegundos. */
+	static final long DEFAULT_CHECK_INTERVAL = 60000L;
+
+	private static final Logger LOGGER = Logger.getLogger(CmsSessionHolder.class.getName());
+
+	private final SessionSource source;
+	private final String folderPath;
+	private final long checkInterval;
+
+	private Session session = null;
+	private Folder folder = null;
+	private OperationContext noCacheContext = null;
+	private long lastCheck = 0;
+
+	/** Crea un gestor de sesi&oacute;n CMIS.
+	 * @param sessionSource Origen de las sesiones.
+	 * @param cmsFolder Ruta de la carpeta de documentos en el gestor.
+	 * @param checkIntervalMillis Intervalo entre comprobaciones de la sesi&oacute;n, en milisegundos. */
+	CmsSessionHolder(final SessionSource sessionSource,
+			         final String cmsFolder,
+			         final long checkIntervalMillis) {
+		this.source = sessionSource;
+		this.folderPath = cmsFolder;
+		this.checkInterval = checkIntervalMillis;
+	}
+
+	/** Crea un gestor de sesi&oacute;n CMIS que abre las sesiones sobre el primer
+	 * repositorio del servicio.
+	 * @param parameters Par&aacute;metros de conexi&oacute;n de OpenCMIS.
+	 * @param cmsFolder Ruta de la carpeta de documentos en el gestor. */
+	CmsSessionHolder(final Map<String, String> parameters, final String cmsFolder) {
+		this(
+			new SessionSource() {
+				@Override
+				public Session openSession() {
+					final Repository repository = SessionFactoryImpl.newInstance().getRepositories(parameters).get(0);
+					return repository.createSession();
+				}
+			},
+			cmsFolder,
+			DEFAULT_CHECK_INTERVAL
+		);
+	}
+
+	/** Obtiene la sesi&oacute;n CMIS, abri&eacute;ndola o renov&aacute;ndola si es necesario.
+	 * @return Sesi&oacute;n CMIS. */
+	Session getSession() {
+		checkSessionIfDue();
+		return currentSession();
+	}
+
+	/** Obtiene un contexto de operaci&oacute;n sin cach&eacute; para la sesi&oacute;n actual,
+	 * para las consultas cuyo resultado puede cambiar entre peticiones.
+	 * @return Contexto de operaci&oacute;n sin cach&eacute;. */
+	OperationContext getNoCacheContext() {
+		checkSessionIfDue();
+		synchronized (this) {
+			currentSession();
+			return this.noCacheContext;
+		}
+	}
+
+	/** Obtiene la carpeta de documentos del gestor.
+	 * @return Carpeta de documentos.
+	 * @throws CmsFolderNotFoundException Si la ruta configurada no existe o no es una carpeta. */
+	Folder getFolder() throws CmsFolderNotFoundException {
+		checkSessionIfDue();
+		synchronized (this) {
+			final Session s = currentSession();
+			if (this.folder == null) {
+				final CmisObject object;
+				try {
+					object = s.getObjectByPath(this.folderPath);
+				}
+				catch (final CmisObjectNotFoundException e) {
+					LOGGER.severe("No se ha encontrado la carpeta en el gestor documental: " + e); //$NON-NLS-1$
+					throw new CmsFolderNotFoundException();
+				}
+				if (!(object instanceof Folder)) {
+					LOGGER.severe("No se ha encontrado la carpeta en el gestor documental"); //$NON-NLS-1$
+					throw new CmsFolderNotFoundException();
+				}
+				this.folder = (Folder) object;
+			}
+			return this.folder;
+		}
+	}
+
+	/** Obtiene la sesi&oacute;n actual, abriendo una nueva si no la hay.
+	 * @return Sesi&oacute;n CMIS. */
+	private synchronized Session currentSession() {
+		if (this.session == null) {
+			LOGGER.info("Abriendo sesion con el gestor documental"); //$NON-NLS-1$
+			this.session = this.source.openSession();
+			this.noCacheContext = this.session.createOperationContext();
+			this.noCacheContext.setCacheEnabled(false);
+			this.lastCheck = System.currentTimeMillis();
+		}
+		return this.session;
+	}
+
+	/** Descarta la sesi&oacute;n actual, de forma que la siguiente petici&oacute;n abra una nueva.
+	 * Debe llamarse cuando una operaci&oacute;n falla por problemas de conexi&oacute;n. */
+	synchronized void invalidate() {
+		if (this.session != null) {
+			LOGGER.warning("Se descarta la sesion con el gestor documental"); //$NON-NLS-1$
+		}
+		this.session = null;
+		this.folder = null;
+		this.noCacheContext = null;
+	}
+
+	/** Comprueba la sesi&oacute;n actual si ha pasado el intervalo de comprobaci&oacute;n,
+	 * descart&aacute;ndola si no es v&aacute;lida. La sesi&oacute;n se comprueba fuera del monitor y
+	 * solo la comprueba un hilo; si mientras tanto se ha sustituido, se conserva la nueva. */
+	private void checkSessionIfDue() {
+		final Session s;
+		final Folder f;
+		synchronized (this) {
+			if (this.session == null || System.currentTimeMillis() - this.lastCheck <= this.checkInterval) {
+				return;
+			}
+			// El resto de hilos no vuelven a comprobarla mientras tanto
+			this.lastCheck = System.currentTimeMillis();
+			s = this.session;
+			f = this.folder;
+		}
+		try {
+			if (f != null) {
+				f.refresh();
+			}
+			else {
+				s.getRootFolder().refresh();
+			}
+		}
+		catch (final CmisBaseException e) {
+			LOGGER.warning("La sesion con el gestor documental no es valida, se abrira una nueva: " + e); //$NON-NLS-1$
+			synchronized (this) {
+				if (this.session == s) {
+					invalidate();
+				}
+			}
+		}
+	}
+
+}
@@ -1,9 +1,20 @@
 package es.ciemat.csv.cms;
 
+import org.apache.chemistry.opencmis.commons.exceptions.CmisBaseException;
+
 /** El documento ya existe en el CMS.
  * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
 public final class DocumentAlreadyExistsOnCmsException extends CmsException {
 
+	DocumentAlreadyExistsOnCmsException(final CmisBaseException e) {
+		super(e);
+	}
+
+	/** Constructor vac&iacute;o de la excepci&oacute;n.*/
+	public DocumentAlreadyExistsOnCmsException() {
+		// VACIO
+	}
+
 	private static final long serialVersionUID = 6511622810308672915L;
 
 }
@@ -0,0 +1,176 @@
+package es.ciemat.csv;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import es.ciemat.csv.PdfExtraUtil.PdfId;
+
+/** Pruebas del almacenador con cach&eacute;.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class TestCachingCsvStorer {
+
+	private static final long TTL = 60000L;
+
+	/** Almacenador en memoria que cuenta las lecturas. */
+	private static final class CountingStorer implements CsvStorer {
+
+		final Map<String, byte[]> docs = new HashMap<>();
+		final AtomicInteger reads = new AtomicInteger();
+
+		CountingStorer() {
+			// Vacio
+		}
+
+		@Override
+		public void storePdfWithCsv(final PdfId pdfWithCsv, final byte[] pdfWithSignatures) {
+			this.docs.put(pdfWithCsv.getId(), pdfWithCsv.getPdf());
+		}
+
+		@Override
+		public void storePdfWithCsv(final PdfId pdfWithCsv, final Path pdfWithSignatures) {
+			this.docs.put(pdfWithCsv.getId(), pdfWithCsv.getPdf());
+		}
+
+		@Override
+		public byte[] retrievePdfWithCsv(final PdfId pdfId) throws CsvFileNotFoundException {
+			this.reads.incrementAndGet();
+			final byte[] pdf = this.docs.get(pdfId.getId());
+			if (pdf == null) {
+				throw new CsvFileNotFoundException(pdfId.getId());
+			}
+			return pdf.clone();
+		}
+
+		@Override
+		public void retrievePdfWithCsv(final PdfId pdfId, final OutputStream out) throws CsvStorerException,
+		                                                                                 CsvFileNotFoundException {
+			final byte[] pdf = retrievePdfWithCsv(pdfId);
+			try {
+				// En dos escrituras, como un envio por bloques
+				out.write(pdf, 0, pdf.length / 2);
+				out.write(pdf, pdf.length / 2, pdf.length - pdf.length / 2);
+			}
+			catch (final IOException e) {
+				throw new CsvStorerException(e);
+			}
+		}
+
+		@Override
+		public boolean exists(final PdfId pdfId) {
+			return this.docs.containsKey(pdfId.getId());
+		}
+	}
+
+	private static byte[] doc(final int size, final int seed) {
+		final byte[] data = new byte[size];
+		Arrays.fill(data, (byte) seed);
+		return data;
+	}
+
+	/** Prueba de aciertos y fallos de la cach&eacute; en memoria.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testHitsAndMisses() throws Exception {
+		final CountingStorer backend = new CountingStorer();
+		backend.docs.put("A", doc(1000, 1)); //$NON-NLS-1$
+		final CachingCsvStorer storer = new CachingCsvStorer(backend, 10000, 5000, TTL, null, 0);
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		storer.retrievePdfWithCsv(new PdfId("A"), out); //$NON-NLS-1$
+		Assert.assertArrayEquals(doc(1000, 1), out.toByteArray());
+		Assert.assertArrayEquals(doc(1000, 1), storer.retrievePdfWithCsv(new PdfId("A"))); //$NON-NLS-1$
+		out.reset();
+		storer.retrievePdfWithCsv(new PdfId("A"), out); //$NON-NLS-1$
+		Assert.assertArrayEquals(doc(1000, 1), out.toByteArray());
+
+		Assert.assertEquals(1, backend.reads.get());
+		Assert.assertEquals(1, storer.getMisses());
+		Assert.assertEquals(2, storer.getHits());
+
+		// Los documentos que no existen no se guardan en cache
+		for (int i = 0; i < 2; i++) {
+			try {
+				storer.retrievePdfWithCsv(new PdfId("B")); //$NON-NLS-1$
+				Assert.fail("No deberia existir el documento"); //$NON-NLS-1$
+			}
+			catch (final CsvFileNotFoundException e) {
+				// Correcto
+			}
+		}
+		Assert.assertEquals(3, backend.reads.get());
+
+		// Los documentos demasiado grandes no se guardan en cache
+		backend.docs.put("C", doc(6000, 3)); //$NON-NLS-1$
+		storer.retrievePdfWithCsv(new PdfId("C"), new ByteArrayOutputStream()); //$NON-NLS-1$
+		storer.retrievePdfWithCsv(new PdfId("C"), new ByteArrayOutputStream()); //$NON-NLS-1$
+		Assert.assertEquals(5, backend.reads.get());
+		Assert.assertEquals(1000, storer.getHeapBytes());
+	}
+
+	/** Prueba del descarte por tama&ntilde;o y de la cach&eacute; en disco.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testEvictionToDisk() throws Exception {
+		final Path dir = Files.createTempDirectory("csvcachetest"); //$NON-NLS-1$
+		try {
+			final CountingStorer backend = new CountingStorer();
+			for (int i = 0; i < 4; i++) {
+				backend.docs.put("D" + i, doc(1000, i)); //$NON-NLS-1$
+			}
+			final CachingCsvStorer storer = new CachingCsvStorer(backend, 2500, 2500, TTL, dir, 2000);
+			for (int i = 0; i < 4; i++) {
+				storer.retrievePdfWithCsv(new PdfId("D" + i)); //$NON-NLS-1$
+			}
+			// En memoria caben dos, los otros dos han pasado a disco
+			Assert.assertEquals(2000, storer.getHeapBytes());
+			Assert.assertEquals(2000, storer.getDiskBytes());
+			Assert.assertEquals(2, storer.getEvictions());
+
+			for (int i = 0; i < 4; i++) {
+				final ByteArrayOutputStream out = new ByteArrayOutputStream();
+				storer.retrievePdfWithCsv(new PdfId("D" + i), out); //$NON-NLS-1$
+				Assert.assertArrayEquals(doc(1000, i), out.toByteArray());
+			}
+			Assert.assertEquals(4, backend.reads.get());
+			Assert.assertEquals(2, storer.getHits());
+			Assert.assertEquals(2, storer.getDiskHits());
+		}
+		finally {
+			try (final DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+				for (final Path p : files) {
+					Files.deleteIfExists(p);
+				}
+			}
+			Files.delete(dir);
+		}
+	}
+
+	/** Prueba de la caducidad de los documentos en cach&eacute;.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testExpiration() throws Exception {
+		final CountingStorer backend = new CountingStorer();
+		backend.docs.put("E", doc(100, 5)); //$NON-NLS-1$
+		final CachingCsvStorer storer = new CachingCsvStorer(backend, 10000, 10000, 1, null, 0);
+		storer.retrievePdfWithCsv(new PdfId("E")); //$NON-NLS-1$
+		Thread.sleep(20);
+		storer.retrievePdfWithCsv(new PdfId("E")); //$NON-NLS-1$
+		Assert.assertEquals(2, backend.reads.get());
+		Assert.assertEquals(0, storer.getHits());
+	}
+
+}
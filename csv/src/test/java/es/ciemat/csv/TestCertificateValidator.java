@@ -0,0 +1,164 @@
+package es.ciemat.csv;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateNotYetValidException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.aowagie.text.pdf.PdfPKCS7;
+import com.aowagie.text.pdf.PdfReader;
+
+/** Pruebas del validador de cadenas de certificados.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class TestCertificateValidator {
+
+	private static final String KEYSTORE = "/PFActivoFirSHA256.pfx"; //$NON-NLS-1$
+	private static final char[] KEYSTORE_PASSWORD = "12341234".toCharArray(); //$NON-NLS-1$
+
+	private static final long DAY = 24L * 60 * 60 * 1000;
+
+	private static X509Certificate[] loadChain() throws Exception {
+		final KeyStore ks = KeyStore.getInstance("PKCS12"); //$NON-NLS-1$
+		try (
+			final InputStream is = TestCertificateValidator.class.getResourceAsStream(KEYSTORE)
+		) {
+			ks.load(is, KEYSTORE_PASSWORD);
+		}
+		final Certificate[] chain = ks.getCertificateChain(ks.aliases().nextElement());
+		return Arrays.copyOf(chain, chain.length, X509Certificate[].class);
+	}
+
+	private static void writeTrustStore(final Path file, final X509Certificate... certs) throws Exception {
+		final KeyStore ks = KeyStore.getInstance("JKS"); //$NON-NLS-1$
+		ks.load(null, null);
+		for (int i = 0; i < certs.length; i++) {
+			ks.setCertificateEntry("cert" + i, certs[i]); //$NON-NLS-1$
+		}
+		try (
+			final OutputStream os = Files.newOutputStream(file)
+		) {
+			ks.store(os, "changeit".toCharArray()); //$NON-NLS-1$
+		}
+	}
+
+	/** Prueba de la construcci&oacute;n de cadenas hasta los certificados de confianza, de la
+	 * comprobaci&oacute;n de la validez temporal y de la recarga de los almacenes cuando cambian.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testValidate() throws Exception {
+		final X509Certificate[] chain = loadChain();
+		Assert.assertEquals(3, chain.length);
+		final X509Certificate signer = chain[0];
+		final X509Certificate intermediate = chain[1];
+		final X509Certificate root = chain[2];
+		final Date date = new Date(signer.getNotBefore().getTime() + DAY);
+
+		final Path store = File.createTempFile("csvtrust", ".jks").toPath(); //$NON-NLS-1$ //$NON-NLS-2$
+		try {
+			writeTrustStore(store, root);
+			final CertificateValidator validator = new CertificateValidator(
+				Collections.singletonList(store), "JKS", null, 1, 10, 3600000 //$NON-NLS-1$
+			);
+
+			// Los certificados disponibles pueden venir en cualquier orden
+			final List<X509Certificate> certs = Arrays.asList(signer, root, intermediate);
+			Assert.assertArrayEquals(chain, validator.validate(certs, date));
+			// Segunda vez desde la cache
+			Assert.assertArrayEquals(chain, validator.validate(certs, date));
+
+			try {
+				validator.validate(certs, new Date(signer.getNotBefore().getTime() - DAY));
+				Assert.fail("Se ha validado un certificado que no estaba aun en vigor"); //$NON-NLS-1$
+			}
+			catch (final CertificateNotYetValidException e) {
+				// Correcto, la fecha no se toma de la cache
+			}
+
+			// Sin el certificado intermedio no puede construirse la cadena, pero tampoco se
+			// guarda en cache la cadena incompleta
+			final X509Certificate[] other = loadChain();
+			final CertificateValidator fresh = new CertificateValidator(
+				Collections.singletonList(store), "JKS", null, 1, 10, 3600000 //$NON-NLS-1$
+			);
+			try {
+				fresh.validate(Collections.singletonList(other[0]), date);
+				Assert.fail("Se ha validado una cadena sin certificado intermedio"); //$NON-NLS-1$
+			}
+			catch (final CertificateException e) {
+				// Correcto
+			}
+			Assert.assertArrayEquals(chain, fresh.validate(certs, date));
+
+			// Al cambiar el almacen se recarga y se vacia la cache
+			writeTrustStore(store, intermediate);
+			Files.setLastModifiedTime(store, FileTime.fromMillis(System.currentTimeMillis() + 10000));
+			Thread.sleep(5);
+			Assert.assertArrayEquals(
+				new X509Certificate[] { signer, intermediate },
+				validator.validate(Collections.singletonList(signer), date)
+			);
+
+			writeTrustStore(store);
+			Files.setLastModifiedTime(store, FileTime.fromMillis(System.currentTimeMillis() + 20000));
+			Thread.sleep(5);
+			try {
+				validator.validate(certs, date);
+				Assert.fail("Se ha validado una cadena sin certificados de confianza"); //$NON-NLS-1$
+			}
+			catch (final CertificateException e) {
+				// Correcto
+			}
+		}
+		finally {
+			Files.delete(store);
+		}
+	}
+
+	/** Prueba de la validaci&oacute;n de los firmantes de un PDF firmado.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testValidatePdf() throws Exception {
+		final PdfReader reader;
+		try (
+			final InputStream is = TestCertificateValidator.class.getResourceAsStream("/cosigned.pdf") //$NON-NLS-1$
+		) {
+			reader = new PdfReader(is);
+		}
+		final Path store = File.createTempFile("csvtrust", ".jks").toPath(); //$NON-NLS-1$ //$NON-NLS-2$
+		try {
+			for (final String name : reader.getAcroFields().getSignatureNames()) {
+				final PdfPKCS7 pkcs7 = reader.getAcroFields().verifySignature(name);
+				final Certificate[] chain = pkcs7.getSignCertificateChain();
+				final X509Certificate last = (X509Certificate) chain[chain.length - 1];
+				writeTrustStore(store, last);
+				final CertificateValidator validator = new CertificateValidator(
+					Collections.singletonList(store), "JKS", null, 60000, 10, 3600000 //$NON-NLS-1$
+				);
+				final X509Certificate[] path = validator.validate(pkcs7);
+				Assert.assertEquals(pkcs7.getSigningCertificate(), path[0]);
+				Assert.assertEquals(last, path[path.length - 1]);
+			}
+		}
+		finally {
+			reader.close();
+			Files.delete(store);
+		}
+	}
+
+}
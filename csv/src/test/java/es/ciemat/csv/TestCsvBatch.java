@@ -0,0 +1,134 @@
+package es.ciemat.csv;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.HttpURLConnection;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/** Pruebas del proceso de lotes de documentos.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class TestCsvBatch {
+
+	/** Procesador que rechaza los documentos que empiezan por <code>X</code> como si no
+	 * tuviesen firmas y devuelve como CSV el identificador del resto. */
+	private static final class FakeProcessor implements CsvProcessor {
+
+		FakeProcessor() {
+			// Vacio
+		}
+
+		@Override
+		public String doCsv(final byte[] signedPdf, final String pdfId) throws PdfLacksSignaturesException {
+			if (signedPdf[0] == 'X') {
+				throw new PdfLacksSignaturesException();
+			}
+			return pdfId;
+		}
+
+		@Override
+		public String doCsv(final Path signedPdf, final String pdfId) throws IOException {
+			throw new IOException("No soportado"); //$NON-NLS-1$
+		}
+	}
+
+	/** Prueba de un lote en ZIP con documentos correctos, con error, vac&iacute;os y
+	 * directorios, comprobando que los errores no afectan al resto del lote.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testZipBatch() throws Exception {
+		final int docs = 40;
+		final ByteArrayOutputStream zip = new ByteArrayOutputStream();
+		try (
+			final ZipOutputStream zos = new ZipOutputStream(zip)
+		) {
+			zos.putNextEntry(new ZipEntry("lote/")); //$NON-NLS-1$
+			zos.closeEntry();
+			for (int i = 0; i < docs; i++) {
+				zos.putNextEntry(new ZipEntry("lote/doc" + i + ".pdf")); //$NON-NLS-1$ //$NON-NLS-2$
+				zos.write(((i % 4 == 0 ? "X" : "%PDF") + i).getBytes()); //$NON-NLS-1$ //$NON-NLS-2$
+				zos.closeEntry();
+			}
+			zos.putNextEntry(new ZipEntry("lote/vacio.pdf")); //$NON-NLS-1$
+			zos.closeEntry();
+		}
+
+		final ForkJoinPool pool = new ForkJoinPool(4);
+		final StringWriter manifest = new StringWriter();
+		try {
+			final CsvBatch batch = new CsvBatch(new FakeProcessor(), pool, 3, manifest);
+			batch.addZip(new ByteArrayInputStream(zip.toByteArray()));
+			batch.finish();
+			Assert.assertEquals(docs + 1, batch.getProcessed());
+			Assert.assertEquals(docs / 4 + 1, batch.getErrors());
+		}
+		finally {
+			pool.shutdown();
+		}
+
+		final String[] lines = manifest.toString().split("\n"); //$NON-NLS-1$
+		Assert.assertEquals(CsvBatch.MANIFEST_HEADER, lines[0]);
+		Assert.assertEquals(docs + 2, lines.length);
+
+		final Map<String, String[]> byName = new HashMap<>();
+		for (int i = 1; i < lines.length; i++) {
+			final String[] fields = lines[i].split("\t", -1); //$NON-NLS-1$
+			Assert.assertEquals(6, fields.length);
+			Assert.assertNull("Entrada repetida: " + fields[0], byName.put(fields[0], fields)); //$NON-NLS-1$
+		}
+		for (int i = 0; i < docs; i++) {
+			final String[] fields = byName.get("lote/doc" + i + ".pdf"); //$NON-NLS-1$ //$NON-NLS-2$
+			Assert.assertNotNull(fields);
+			Assert.assertEquals(
+				PdfIdGenerator.getInstance().getId(((i % 4 == 0 ? "X" : "%PDF") + i).getBytes()), //$NON-NLS-1$ //$NON-NLS-2$
+				fields[1]
+			);
+			if (i % 4 == 0) {
+				Assert.assertEquals(CsvBatch.STATUS_ERROR, fields[2]);
+				Assert.assertEquals(String.valueOf(HttpURLConnection.HTTP_BAD_REQUEST), fields[3]);
+				Assert.assertEquals("", fields[4]); //$NON-NLS-1$
+				Assert.assertFalse(fields[5].isEmpty());
+			}
+			else {
+				Assert.assertEquals(CsvBatch.STATUS_OK, fields[2]);
+				Assert.assertEquals(fields[1], fields[4]);
+				Assert.assertEquals("", fields[5]); //$NON-NLS-1$
+			}
+		}
+		Assert.assertEquals(CsvBatch.STATUS_ERROR, byName.get("lote/vacio.pdf")[2]); //$NON-NLS-1$
+	}
+
+	/** Prueba de que los resultados se escriben seg&uacute;n terminan los documentos, sin
+	 * esperar al final del lote.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testStreamedManifest() throws Exception {
+		final ForkJoinPool pool = new ForkJoinPool(2);
+		final StringWriter manifest = new StringWriter();
+		try {
+			final CsvBatch batch = new CsvBatch(new FakeProcessor(), pool, 1, manifest);
+			batch.add("a.pdf", new ReceivedPdf("%PDF-a".getBytes())); //$NON-NLS-1$ //$NON-NLS-2$
+			batch.add("b.pdf", new ReceivedPdf("%PDF-b".getBytes())); //$NON-NLS-1$ //$NON-NLS-2$
+			// Con un solo documento pendiente, el primero tiene que haberse escrito ya
+			Assert.assertTrue(manifest.toString().contains("a.pdf\t")); //$NON-NLS-1$
+			batch.finish();
+			Assert.assertTrue(manifest.toString().contains("b.pdf\t")); //$NON-NLS-1$
+			Assert.assertEquals(0, batch.getErrors());
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+}
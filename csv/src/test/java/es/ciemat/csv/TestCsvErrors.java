@@ -0,0 +1,38 @@
+package es.ciemat.csv;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import es.gob.afirma.core.AOException;
+import es.gob.afirma.core.AOFormatFileException;
+
+/** Pruebas de la traducci&oacute;n de errores de estampaci&oacute;n a c&oacute;digos HTTP.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class TestCsvErrors {
+
+	/** Prueba de los c&oacute;digos y mensajes de cada tipo de error.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testHttpStatus() throws Exception {
+		final Object[][] cases = {
+			{ new AOFormatFileException("pdf"), Integer.valueOf(HttpURLConnection.HTTP_BAD_REQUEST), "La entrada no es un documento PDF" }, //$NON-NLS-1$ //$NON-NLS-2$
+			{ new PdfLacksSignaturesException(), Integer.valueOf(HttpURLConnection.HTTP_BAD_REQUEST), "El PDF de entrada no tiene firmas electronicas" }, //$NON-NLS-1$
+			{ new IOException("io"), Integer.valueOf(HttpURLConnection.HTTP_INTERNAL_ERROR), "Error estampando el CSV en el PDF" }, //$NON-NLS-1$ //$NON-NLS-2$
+			{ new AOException("firma"), Integer.valueOf(HttpURLConnection.HTTP_INTERNAL_ERROR), "Error sellando electronicamente el PDF" }, //$NON-NLS-1$ //$NON-NLS-2$
+			{ new PdfLacksIdException(), Integer.valueOf(HttpURLConnection.HTTP_BAD_REQUEST), "El PDF de entrada no tiene identificador" }, //$NON-NLS-1$
+			{ new CsvStorerException("almacen"), Integer.valueOf(HttpURLConnection.HTTP_INTERNAL_ERROR), "Error guardando el CSV" }, //$NON-NLS-1$ //$NON-NLS-2$
+			{ new IllegalStateException(), Integer.valueOf(HttpURLConnection.HTTP_BAD_REQUEST), "Error indefinido durante la estampacion" }, //$NON-NLS-1$
+			{ new OutOfMemoryError(), Integer.valueOf(HttpURLConnection.HTTP_BAD_REQUEST), "Error indefinido durante la estampacion" } //$NON-NLS-1$
+		};
+		for (final Object[] c : cases) {
+			final Throwable t = (Throwable) c[0];
+			Assert.assertEquals(t.toString(), ((Integer) c[1]).intValue(), CsvErrors.toHttpStatus(t));
+			Assert.assertEquals(t.toString(), c[2], CsvErrors.toMessage(t));
+		}
+	}
+
+}
@@ -0,0 +1,167 @@
+package es.ciemat.csv;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import es.ciemat.csv.CsvJobManager.CsvJob;
+import es.ciemat.csv.CsvJobManager.CsvJobListener;
+import es.ciemat.csv.CsvJobManager.JobStatus;
+
+/** Pruebas del gestor de trabajos as&iacute;ncronos.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class TestCsvJobManager {
+
+	private static final byte[] DUMMY_PDF = new byte[] { '%', 'P', 'D', 'F' };
+
+	/** Procesador que espera a que se le permita terminar. */
+	private static final class BlockingProcessor implements CsvProcessor {
+
+		final CountDownLatch release = new CountDownLatch(1);
+
+		BlockingProcessor() {
+			// Vacio
+		}
+
+		@Override
+		public String doCsv(final byte[] signedPdf, final String pdfId) throws IOException {
+			try {
+				this.release.await();
+			}
+			catch (final InterruptedException e) {
+				throw new IOException(e);
+			}
+			return "CSV"; //$NON-NLS-1$
+		}
+
+		@Override
+		public String doCsv(final Path signedPdf, final String pdfId) throws IOException {
+			return doCsv((byte[]) null, pdfId);
+		}
+	}
+
+	/** Prueba del rechazo de trabajos cuando la cola est&aacute; llena.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testQueueFull() throws Exception {
+		final BlockingProcessor processor = new BlockingProcessor();
+		final CsvJobManager manager = new CsvJobManager(processor, 1, 1, 60000);
+		try {
+			final CsvJob running = manager.submit(new ReceivedPdf(DUMMY_PDF));
+			final CsvJob queued = manager.submit(new ReceivedPdf(DUMMY_PDF));
+			try {
+				manager.submit(new ReceivedPdf(DUMMY_PDF));
+				Assert.fail("Deberia haberse rechazado el trabajo con la cola llena"); //$NON-NLS-1$
+			}
+			catch (final RejectedExecutionException e) {
+				// Correcto
+			}
+			Assert.assertEquals(JobStatus.QUEUED, queued.getStatus());
+
+			final CountDownLatch finished = new CountDownLatch(1);
+			Assert.assertTrue(
+				queued.addListener(new CsvJobListener() {
+					@Override
+					public void jobFinished(final CsvJob job) {
+						finished.countDown();
+					}
+				})
+			);
+
+			processor.release.countDown();
+			Assert.assertTrue(finished.await(10, TimeUnit.SECONDS));
+
+			Assert.assertEquals(JobStatus.DONE, running.getStatus());
+			Assert.assertEquals(JobStatus.DONE, queued.getStatus());
+			Assert.assertEquals("CSV", queued.getCsv()); //$NON-NLS-1$
+			Assert.assertSame(queued, manager.getJob(queued.getId()));
+		}
+		finally {
+			manager.shutdown();
+		}
+	}
+
+	/** Prueba de la eliminaci&oacute;n de los PDF de los trabajos en cola al detener el gestor.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testShutdownDiscardsQueued() throws Exception {
+		final BlockingProcessor processor = new BlockingProcessor();
+		final CsvJobManager manager = new CsvJobManager(processor, 1, 1, 60000);
+		final Path spooled = Files.createTempFile("csvjob", ".pdf"); //$NON-NLS-1$ //$NON-NLS-2$
+		try {
+			Files.write(spooled, DUMMY_PDF);
+			manager.submit(new ReceivedPdf(DUMMY_PDF));
+			final CsvJob queued = manager.submit(new ReceivedPdf(spooled));
+			final CountDownLatch finished = new CountDownLatch(1);
+			Assert.assertTrue(
+				queued.addListener(new CsvJobListener() {
+					@Override
+					public void jobFinished(final CsvJob job) {
+						finished.countDown();
+					}
+				})
+			);
+
+			manager.shutdown();
+
+			Assert.assertTrue(finished.await(10, TimeUnit.SECONDS));
+			Assert.assertEquals(JobStatus.ERROR, queued.getStatus());
+			Assert.assertEquals(HttpURLConnection.HTTP_UNAVAILABLE, queued.getErrorCode());
+			Assert.assertFalse(Files.exists(spooled));
+		}
+		finally {
+			manager.shutdown();
+			Files.deleteIfExists(spooled);
+		}
+	}
+
+	/** Prueba de la traslaci&oacute;n de errores del procesador al estado del trabajo.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testJobError() throws Exception {
+		final CsvJobManager manager = new CsvJobManager(
+			new CsvProcessor() {
+				@Override
+				public String doCsv(final byte[] signedPdf, final String pdfId) throws PdfLacksSignaturesException {
+					throw new PdfLacksSignaturesException();
+				}
+				@Override
+				public String doCsv(final Path signedPdf, final String pdfId) throws PdfLacksSignaturesException {
+					throw new PdfLacksSignaturesException();
+				}
+			},
+			1,
+			1,
+			60000
+		);
+		try {
+			final CountDownLatch finished = new CountDownLatch(1);
+			final CsvJob job = manager.submit(new ReceivedPdf(DUMMY_PDF));
+			if (job.addListener(new CsvJobListener() {
+				@Override
+				public void jobFinished(final CsvJob j) {
+					finished.countDown();
+				}
+			})) {
+				Assert.assertTrue(finished.await(10, TimeUnit.SECONDS));
+			}
+			Assert.assertEquals(JobStatus.ERROR, job.getStatus());
+			Assert.assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, job.getErrorCode());
+			Assert.assertNull(job.getCsv());
+		}
+		finally {
+			manager.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,105 @@
+package es.ciemat.csv;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import es.ciemat.csv.CsvMetrics.Histogram;
+import es.ciemat.csv.CsvMetrics.Timer;
+
+/** Pruebas de las m&eacute;tricas del servicio.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class TestCsvMetrics {
+
+	/** Prueba de la precisi&oacute;n de los percentiles del histograma.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testHistogram() throws Exception {
+		final Histogram h = new Histogram();
+		Assert.assertEquals(0, h.getPercentile(0.5), 0);
+
+		// Cada valor cae en un intervalo que lo contiene
+		final Random rnd = new Random(1);
+		for (int i = 0; i < 100000; i++) {
+			final long v = (rnd.nextLong() >>> 1) >>> rnd.nextInt(63);
+			final double center = Histogram.value(Histogram.index(v));
+			Assert.assertTrue(v + " -> " + center, Math.abs(center - v) <= v * 0.25); //$NON-NLS-1$
+		}
+		Assert.assertEquals(Long.MAX_VALUE, Histogram.value(Histogram.index(Long.MAX_VALUE)), Long.MAX_VALUE * 0.25);
+
+		for (int i = 1; i <= 1000; i++) {
+			h.record(i);
+		}
+		Assert.assertEquals(1000, h.getCount());
+		Assert.assertEquals(1000, h.getMax());
+		Assert.assertEquals(500500, h.getSum());
+		Assert.assertEquals(500.5, h.getMean(), 0);
+		Assert.assertEquals(500, h.getPercentile(0.5), 500 * 0.25);
+		Assert.assertEquals(990, h.getPercentile(0.99), 990 * 0.25);
+		Assert.assertTrue(h.getPercentile(1) <= 1000);
+
+		h.reset();
+		Assert.assertEquals(0, h.getCount());
+		Assert.assertEquals(0, h.getMax());
+	}
+
+	/** Prueba de la medida de tiempos y de la salida en texto.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testTimerAndText() throws Exception {
+		final CsvMetrics metrics = CsvMetrics.getInstance();
+		metrics.reset();
+
+		final Timer timer = CsvMetrics.RENDER;
+		final long t = timer.start();
+		Assert.assertEquals(1, timer.getActive());
+		Thread.sleep(20);
+		timer.stop(t);
+		Assert.assertEquals(0, timer.getActive());
+		Assert.assertEquals(1, timer.getNanos().getCount());
+		Assert.assertTrue(metrics.getStages().get("render").getMax() >= 20); //$NON-NLS-1$
+
+		CsvMetrics.error(new CsvFileNotFoundException("x")); //$NON-NLS-1$
+		CsvMetrics.error(new CsvFileNotFoundException("y")); //$NON-NLS-1$
+		Assert.assertEquals(
+			Long.valueOf(2),
+			metrics.getErrors().get(CsvFileNotFoundException.class.getName())
+		);
+
+		CsvMetrics.PAGES.record(3);
+		Assert.assertEquals(1, metrics.getPageCounts().getCount());
+
+		final String text = metrics.getText();
+		Assert.assertTrue(text, text.contains("csv_stage_seconds_count{stage=\"render\"} 1\n")); //$NON-NLS-1$
+		Assert.assertTrue(text, text.contains("csv_stage_seconds{stage=\"sign\",quantile=\"0.5\"} 0.0\n")); //$NON-NLS-1$
+		Assert.assertTrue(text, text.contains("csv_errors_total{type=\"es.ciemat.csv.CsvFileNotFoundException\"} 2\n")); //$NON-NLS-1$
+		Assert.assertTrue(text, text.contains("csv_document_pages_count 1\n")); //$NON-NLS-1$
+		Assert.assertTrue(text, text.contains("csv_documents_in_flight 0\n")); //$NON-NLS-1$
+
+		metrics.reset();
+		Assert.assertTrue(metrics.getErrors().isEmpty());
+	}
+
+	/** Prueba de la publicaci&oacute;n por JMX.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testJmx() throws Exception {
+		CsvMetrics.register();
+		CsvMetrics.register();
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		final ObjectName name = new ObjectName(CsvMetrics.OBJECT_NAME);
+		Assert.assertTrue(server.isRegistered(name));
+		Assert.assertNotNull(server.getAttribute(name, "Stages")); //$NON-NLS-1$
+		CsvMetrics.unregister();
+		Assert.assertFalse(server.isRegistered(name));
+	}
+
+}
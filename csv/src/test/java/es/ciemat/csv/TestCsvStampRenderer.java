@@ -0,0 +1,134 @@
+package es.ciemat.csv;
+
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.aowagie.text.pdf.PdfReader;
+
+import es.gob.afirma.core.misc.AOUtil;
+import es.gob.afirma.core.signers.AOSimpleSignInfo;
+
+/** Pruebas del generador del texto y la imagen del CSV.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class TestCsvStampRenderer {
+
+	/** Carga la configuraci&oacute;n del servicio, necesaria para el enlace del CSV. */
+	@BeforeClass
+	public static void loadConfig() {
+		new ServiceConfig().contextInitialized(null);
+	}
+
+	private static AOSimpleSignInfo[] getSignInfos() throws Exception {
+		final PdfReader reader = new PdfReader(
+			Files.readAllBytes(
+				Paths.get(
+					TestCsvStampRenderer.class.getResource("/cosigned.pdf").toURI() //$NON-NLS-1$
+				)
+			)
+		);
+		try {
+			return PipelinedPdfCsvStamper.getSignInfos(reader);
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	/** Prueba de que el texto y los anchos obtenidos con las plantillas preparadas coinciden
+	 * con los calculados directamente.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testLines() throws Exception {
+		final AOSimpleSignInfo[] infos = getSignInfos();
+		final String id = "qZk-NkcGgWq6PiVxeFDCbJzQ2J0="; //$NON-NLS-1$
+		final String template = "$$SIGNDATE$$: $$SUBJECTCN$$ ($$SUBJECTCN$$)"; //$NON-NLS-1$
+
+		final String[] lines = CsvStampRenderer.getLines(id, infos, template);
+		Assert.assertEquals(infos.length + 1, lines.length);
+		Assert.assertEquals(PdfExtraUtil.getLink(id), lines[0]);
+		final SimpleDateFormat sdf = new SimpleDateFormat(
+			"dd 'de' MMMM 'de' yyyy 'a las' hh:mm:ss", //$NON-NLS-1$
+			Locale.forLanguageTag("es-ES") //$NON-NLS-1$
+		);
+		for (int i = 0; i < infos.length; i++) {
+			final String cn = AOUtil.getCN(infos[i].getCerts()[0]);
+			Assert.assertEquals(
+				sdf.format(infos[i].getSigningTime()) + ": " + cn + " (" + cn + ")", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				lines[i + 1]
+			);
+		}
+
+		final FontMetrics fm = new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_GRAY).createGraphics().getFontMetrics(
+			new Font("Arial", Font.PLAIN, 10) //$NON-NLS-1$
+		);
+		int textWidth = 0;
+		for (final String line : lines) {
+			Assert.assertEquals(fm.stringWidth(line), CsvStampRenderer.stringWidth(line));
+			textWidth = Math.max(textWidth, fm.stringWidth(line));
+		}
+
+		// La imagen tiene el ancho de la linea mas larga o del codigo de barras, y los
+		// codificadores reutilizados generan siempre la misma imagen
+		final byte[] jpg = CsvStampRenderer.renderJpeg(id, infos, template);
+		final BufferedImage img = ImageIO.read(new ByteArrayInputStream(jpg));
+		Assert.assertEquals(
+			Math.max(textWidth, PdfExtraUtil.generateBarcode128AsJpeg(id).getWidth(null)),
+			img.getWidth()
+		);
+		for (int i = 0; i < 5; i++) {
+			Assert.assertTrue(Arrays.equals(jpg, CsvStampRenderer.renderJpeg(id, infos, template)));
+		}
+	}
+
+	/** Prueba del formato de fechas desde varios hilos a la vez.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testConcurrentDates() throws Exception {
+		final Thread[] threads = new Thread[8];
+		final String[] errors = new String[threads.length];
+		for (int i = 0; i < threads.length; i++) {
+			final int n = i;
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					final SimpleDateFormat sdf = new SimpleDateFormat(
+						"dd 'de' MMMM 'de' yyyy 'a las' hh:mm:ss", //$NON-NLS-1$
+						Locale.forLanguageTag("es-ES") //$NON-NLS-1$
+					);
+					final Random rnd = new Random(n);
+					for (int j = 0; j < 2000 && errors[n] == null; j++) {
+						final Date date = new Date(rnd.nextLong() % 4000000000000L);
+						final String expected = sdf.format(date);
+						final String actual = CsvStampRenderer.formatDate(date);
+						if (!expected.equals(actual)) {
+							errors[n] = expected + " != " + actual; //$NON-NLS-1$
+						}
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (int i = 0; i < threads.length; i++) {
+			threads[i].join();
+			Assert.assertNull(errors[i], errors[i]);
+		}
+	}
+
+}
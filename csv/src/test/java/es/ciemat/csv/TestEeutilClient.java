@@ -0,0 +1,267 @@
+package es.ciemat.csv;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import es.gob.afirma.core.misc.Base64;
+
+/** Pruebas del cliente de EEUTIL contra un servicio SOAP local.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class TestEeutilClient {
+
+	private static final byte[] REPORT = "%PDF-informe".getBytes(StandardCharsets.US_ASCII); //$NON-NLS-1$
+
+	private static final Pattern CONTENT = Pattern.compile("<contenido>([^<]*)</contenido>"); //$NON-NLS-1$
+
+	private HttpServer server;
+	private URL endpoint;
+
+	/** Milisegundos que tarda en responder el servicio local. */
+	volatile long delay = 0;
+
+	/** Peticiones recibidas por el servicio local. */
+	final AtomicInteger requests = new AtomicInteger();
+
+	/** Arranca el servicio SOAP local, que responde con un informe fijo.
+	 * @throws IOException Si no se puede arrancar el servicio. */
+	@Before
+	public void startServer() throws IOException {
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0); //$NON-NLS-1$
+		this.server.createContext("/eeutil", new HttpHandler() { //$NON-NLS-1$
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException {
+				TestEeutilClient.this.requests.incrementAndGet();
+				try (
+					final InputStream is = exchange.getRequestBody()
+				) {
+					while (is.read() != -1) {
+						// Se descarta la peticion
+					}
+				}
+				try {
+					Thread.sleep(TestEeutilClient.this.delay);
+				}
+				catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				final byte[] response = (
+					"<soap:Envelope xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\"><soap:Body>" + //$NON-NLS-1$
+						"<generarInformeResponse><return><contenido><contenido>" + //$NON-NLS-1$
+						Base64.encode(REPORT) +
+						"</contenido></contenido></return></generarInformeResponse>" + //$NON-NLS-1$
+					"</soap:Body></soap:Envelope>" //$NON-NLS-1$
+				).getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=utf-8"); //$NON-NLS-1$ //$NON-NLS-2$
+				try {
+					exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, response.length);
+					try (
+						final OutputStream os = exchange.getResponseBody()
+					) {
+						os.write(response);
+					}
+				}
+				catch (final IOException e) {
+					// El cliente ya no espera la respuesta
+				}
+			}
+		});
+		this.server.setExecutor(Executors.newCachedThreadPool());
+		this.server.start();
+		this.endpoint = new URL("http://127.0.0.1:" + this.server.getAddress().getPort() + "/eeutil"); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/** Detiene el servicio SOAP local. */
+	@After
+	public void stopServer() {
+		this.server.stop(0);
+	}
+
+	/** Generador que env&iacute;a una petici&oacute;n SOAP al servicio local. */
+	private EeutilClient.ReportGenerator soapGenerator() {
+		return new EeutilClient.ReportGenerator() {
+			@Override
+			public byte[] generateReport(final String csv, final byte[] signedPdf, final String recoverUrl) throws Exception {
+				final HttpURLConnection conn = (HttpURLConnection) TestEeutilClient.this.endpoint.openConnection();
+				conn.setRequestMethod("POST"); //$NON-NLS-1$
+				conn.setDoOutput(true);
+				conn.setRequestProperty("Content-Type", "text/xml; charset=utf-8"); //$NON-NLS-1$ //$NON-NLS-2$
+				try (
+					final OutputStream os = conn.getOutputStream()
+				) {
+					os.write((
+						"<soap:Envelope xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\"><soap:Body>" + //$NON-NLS-1$
+							"<generarInforme><csv>" + csv + "</csv><firma>" + Base64.encode(signedPdf) + "</firma></generarInforme>" + //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+						"</soap:Body></soap:Envelope>" //$NON-NLS-1$
+					).getBytes(StandardCharsets.UTF_8));
+				}
+				final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+				try (
+					final InputStream is = conn.getInputStream()
+				) {
+					final byte[] buf = new byte[1024];
+					int n;
+					while ((n = is.read(buf)) > 0) {
+						baos.write(buf, 0, n);
+					}
+				}
+				final Matcher m = CONTENT.matcher(new String(baos.toByteArray(), StandardCharsets.UTF_8));
+				return m.find() ? Base64.decode(m.group(1)) : null;
+			}
+		};
+	}
+
+	/** Prueba de una llamada correcta.
+	 * @throws Exception En cualquier error. */
+	@Test
+	public void testReport() throws Exception {
+		final EeutilClient client = new EeutilClient(soapGenerator(), 2, 5000, new CircuitBreaker(3, 60000));
+		try {
+			Assert.assertArrayEquals(REPORT, client.generateReport("CSV", REPORT, "http://csv/")); //$NON-NLS-1$ //$NON-NLS-2$
+			Assert.assertEquals(CircuitBreaker.State.CLOSED, client.getCircuitBreaker().getState());
+		}
+		finally {
+			client.shutdown();
+		}
+	}
+
+	/** Prueba de que los tiempos de espera agotados abren el circuito, de que con el circuito
+	 * abierto no se llama al servicio y de que se cierra de nuevo cuando el servicio se recupera.
+	 * @throws Exception En cualquier error. */
+	@Test
+	public void testCircuitBreaker() throws Exception {
+		this.delay = 2000;
+		final EeutilClient client = new EeutilClient(soapGenerator(), 4, 200, new CircuitBreaker(2, 500));
+		try {
+			for (int i = 0; i < 2; i++) {
+				final long start = System.nanoTime();
+				try {
+					client.generateReport("CSV", REPORT, "http://csv/"); //$NON-NLS-1$ //$NON-NLS-2$
+					Assert.fail("Deberia haberse agotado el tiempo de espera"); //$NON-NLS-1$
+				}
+				catch (final EeutilUnavailableException e) {
+					// Correcto
+				}
+				Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1500);
+			}
+			Assert.assertEquals(CircuitBreaker.State.OPEN, client.getCircuitBreaker().getState());
+
+			final int before = this.requests.get();
+			try {
+				client.generateReport("CSV", REPORT, "http://csv/"); //$NON-NLS-1$ //$NON-NLS-2$
+				Assert.fail("Deberia haberse rechazado la llamada con el circuito abierto"); //$NON-NLS-1$
+			}
+			catch (final EeutilUnavailableException e) {
+				// Correcto
+			}
+			Assert.assertEquals(before, this.requests.get());
+
+			// El servicio se recupera y, pasado el tiempo de apertura, la llamada de prueba cierra el circuito
+			this.delay = 0;
+			Thread.sleep(600);
+			Assert.assertArrayEquals(REPORT, client.generateReport("CSV", REPORT, "http://csv/")); //$NON-NLS-1$ //$NON-NLS-2$
+			Assert.assertEquals(CircuitBreaker.State.CLOSED, client.getCircuitBreaker().getState());
+		}
+		finally {
+			client.shutdown();
+		}
+	}
+
+	/** Prueba de que, con todas las llamadas ocupadas por un servicio lento, las nuevas se
+	 * rechazan inmediatamente sin abrir el circuito.
+	 * @throws Exception En cualquier error. */
+	@Test
+	public void testBulkhead() throws Exception {
+		this.delay = 1000;
+		final EeutilClient client = new EeutilClient(soapGenerator(), 1, 5000, new CircuitBreaker(1, 60000));
+		try {
+			final CountDownLatch done = new CountDownLatch(1);
+			final byte[][] result = new byte[1][];
+			final Thread slow = new Thread() {
+				@Override
+				public void run() {
+					try {
+						result[0] = client.generateReport("CSV", REPORT, "http://csv/"); //$NON-NLS-1$ //$NON-NLS-2$
+					}
+					catch (final IOException e) {
+						// Se comprueba abajo
+					}
+					done.countDown();
+				}
+			};
+			slow.start();
+			while (TestEeutilClient.this.requests.get() == 0) {
+				Thread.sleep(10);
+			}
+
+			final long start = System.nanoTime();
+			try {
+				client.generateReport("CSV", REPORT, "http://csv/"); //$NON-NLS-1$ //$NON-NLS-2$
+				Assert.fail("Deberia haberse rechazado la llamada por exceso de llamadas simultaneas"); //$NON-NLS-1$
+			}
+			catch (final EeutilUnavailableException e) {
+				// Correcto
+			}
+			Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 500);
+
+			Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+			Assert.assertArrayEquals(REPORT, result[0]);
+			Assert.assertEquals(CircuitBreaker.State.CLOSED, client.getCircuitBreaker().getState());
+		}
+		finally {
+			client.shutdown();
+		}
+	}
+
+	/** Prueba de que el procesador recurre al alternativo cuando EEUTIL no est&aacute; disponible.
+	 * @throws Exception En cualquier error. */
+	@Test
+	public void testFallback() throws Exception {
+		this.delay = 2000;
+		final EeutilClient client = new EeutilClient(soapGenerator(), 2, 100, new CircuitBreaker(1, 60000));
+		try {
+			final CsvProcessor processor = new CsvProcessorEeutil(
+				client,
+				new CsvProcessor() {
+					@Override
+					public String doCsv(final byte[] signedPdf, final String pdfId) {
+						return "SIMPLE-" + pdfId; //$NON-NLS-1$
+					}
+					@Override
+					public String doCsv(final Path signedPdf, final String pdfId) {
+						return "SIMPLE-" + pdfId; //$NON-NLS-1$
+					}
+				}
+			);
+			// La primera llamada agota el tiempo y la segunda ni siquiera llega a EEUTIL
+			Assert.assertEquals("SIMPLE-ID", processor.doCsv(REPORT, "ID")); //$NON-NLS-1$ //$NON-NLS-2$
+			Assert.assertEquals("SIMPLE-ID", processor.doCsv(REPORT, "ID")); //$NON-NLS-1$ //$NON-NLS-2$
+			Assert.assertEquals(1, this.requests.get());
+		}
+		finally {
+			client.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,154 @@
+package es.ciemat.csv;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import es.ciemat.csv.PdfExtraUtil.PdfId;
+
+/** Pruebas del almacenador en sistema de ficheros.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class TestFileSystemCsvStorer {
+
+	/** Identificador con los caracteres de Base64 no v&aacute;lidos en nombres de fichero. */
+	private static final String ID = "ab/+cd/../ef=="; //$NON-NLS-1$
+
+	private static final byte[] PDF_CSV = "%PDF-CSV".getBytes(); //$NON-NLS-1$
+	private static final byte[] PDF_ORI = "%PDF-ORI".getBytes(); //$NON-NLS-1$
+
+	private static void delete(final Path dir) throws IOException {
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+			@Override
+			public FileVisitResult postVisitDirectory(final Path d, final IOException e) throws IOException {
+				Files.delete(d);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/** Prueba de almacenamiento, recuperaci&oacute;n e &iacute;ndice de documentos.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testStoreAndRetrieve() throws Exception {
+		final Path root = Files.createTempDirectory("csvstorertest"); //$NON-NLS-1$
+		try {
+			final FileSystemCsvStorer storer = new FileSystemCsvStorer(root);
+			storer.storePdfWithCsv(new PdfId(PDF_CSV, ID), PDF_ORI);
+
+			// Los ficheros quedan dentro del directorio raiz, en dos niveles de subdirectorios
+			final Path csvFile = storer.getFile(ID, "_CSV"); //$NON-NLS-1$
+			Assert.assertTrue(Files.isRegularFile(csvFile));
+			Assert.assertEquals(root, csvFile.getParent().getParent().getParent());
+			Assert.assertArrayEquals(PDF_ORI, Files.readAllBytes(storer.getFile(ID, "_ORI"))); //$NON-NLS-1$
+
+			Assert.assertArrayEquals(PDF_CSV, storer.retrievePdfWithCsv(new PdfId(ID)));
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			storer.retrievePdfWithCsv(new PdfId(ID), out);
+			Assert.assertArrayEquals(PDF_CSV, out.toByteArray());
+
+			// Un temporal abandonado se elimina y el documento se encuentra por el indice
+			final Path orphan = Files.createTempFile(csvFile.getParent(), null, ".tmp"); //$NON-NLS-1$
+			final FileSystemCsvStorer reopened = new FileSystemCsvStorer(root);
+			Assert.assertFalse(Files.exists(orphan));
+			Assert.assertArrayEquals(PDF_CSV, reopened.retrievePdfWithCsv(new PdfId(ID)));
+			Assert.assertTrue(reopened.exists(new PdfId(ID)));
+			Assert.assertFalse(reopened.exists(new PdfId("noexiste"))); //$NON-NLS-1$
+
+			try {
+				reopened.retrievePdfWithCsv(new PdfId("noexiste")); //$NON-NLS-1$
+				Assert.fail("No deberia existir el documento"); //$NON-NLS-1$
+			}
+			catch (final CsvFileNotFoundException e) {
+				// Correcto
+			}
+		}
+		finally {
+			delete(root);
+		}
+	}
+
+	/** Prueba de identificadores cuyo nombre codificado superar&iacute;a la longitud m&aacute;xima
+	 * de un nombre de fichero, como las huellas SHA-512 en hexadecimal.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testLongId() throws Exception {
+		final StringBuilder sb = new StringBuilder();
+		while (sb.length() < 300) {
+			sb.append("0123456789abcdef"); //$NON-NLS-1$
+		}
+		final String longId = sb.toString();
+		final Path root = Files.createTempDirectory("csvstorertest"); //$NON-NLS-1$
+		try {
+			final FileSystemCsvStorer storer = new FileSystemCsvStorer(root);
+			storer.storePdfWithCsv(new PdfId(PDF_CSV, longId), PDF_ORI);
+
+			final Path csvFile = storer.getFile(longId, "_CSV"); //$NON-NLS-1$
+			Assert.assertTrue(Files.isRegularFile(csvFile));
+			for (final Path p : root.relativize(csvFile)) {
+				Assert.assertTrue(p.toString().length() < 255);
+			}
+
+			final FileSystemCsvStorer reopened = new FileSystemCsvStorer(root);
+			Assert.assertTrue(reopened.exists(new PdfId(longId)));
+			Assert.assertArrayEquals(PDF_CSV, reopened.retrievePdfWithCsv(new PdfId(longId)));
+			Assert.assertArrayEquals(PDF_ORI, Files.readAllBytes(reopened.getFile(longId, "_ORI"))); //$NON-NLS-1$
+		}
+		finally {
+			delete(root);
+		}
+	}
+
+	/** Prueba de que no quedan ficheros temporales cuando falla una escritura.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testFailedStore() throws Exception {
+		final Path root = Files.createTempDirectory("csvstorertest"); //$NON-NLS-1$
+		try {
+			final FileSystemCsvStorer storer = new FileSystemCsvStorer(root);
+			try {
+				storer.storePdfWithCsv(new PdfId(PDF_CSV, ID), root.resolve("noexiste.pdf")); //$NON-NLS-1$
+				Assert.fail("No deberia poder leerse el PDF original"); //$NON-NLS-1$
+			}
+			catch (final CsvStorerException e) {
+				// Correcto
+			}
+			final Path dir = storer.getFile(ID, "_CSV").getParent(); //$NON-NLS-1$
+			try (
+				final DirectoryStream<Path> files = Files.newDirectoryStream(dir)
+			) {
+				Assert.assertFalse(files.iterator().hasNext());
+			}
+			Assert.assertFalse(storer.exists(new PdfId(ID)));
+		}
+		finally {
+			delete(root);
+		}
+	}
+
+	/** Prueba de la codificaci&oacute;n de identificadores como nombres de fichero. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testIdEncoding() {
+		final String encoded = FileSystemCsvStorer.encodeId(ID);
+		Assert.assertTrue(encoded.matches("[0-9a-f]+")); //$NON-NLS-1$
+		Assert.assertEquals(ID, FileSystemCsvStorer.decodeId(encoded));
+		Assert.assertNull(FileSystemCsvStorer.decodeId("xyz")); //$NON-NLS-1$
+	}
+
+}
@@ -0,0 +1,94 @@
+package es.ciemat.csv;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import es.ciemat.csv.PdfIdGenerator.Encoding;
+
+/** Pruebas del generador de identificadores de PDF.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class TestPdfIdGenerator {
+
+	private static final byte[] ABC = "abc".getBytes(StandardCharsets.US_ASCII); //$NON-NLS-1$
+
+	/** Prueba de los identificadores con los distintos algoritmos y codificaciones.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testEncodings() throws Exception {
+		// Vectores de prueba de FIPS 180-2 para "abc"
+		Assert.assertEquals(
+			"a9993e364706816aba3e25717850c26c9cd0d89d", //$NON-NLS-1$
+			new PdfIdGenerator("SHA-1", Encoding.HEX).getId(ABC) //$NON-NLS-1$
+		);
+		Assert.assertEquals(
+			"ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", //$NON-NLS-1$
+			new PdfIdGenerator("SHA-256", Encoding.HEX).getId(ABC) //$NON-NLS-1$
+		);
+		Assert.assertEquals(
+			"qZk-NkcGgWq6PiVxeFDCbJzQ2J0=", //$NON-NLS-1$
+			new PdfIdGenerator("SHA-1", Encoding.BASE64).getId(ABC) //$NON-NLS-1$
+		);
+		Assert.assertEquals(
+			"ungWv48Bz-pBQUDeXa4iI7ADYaOWF3qctBD_YfIAFa0", //$NON-NLS-1$
+			new PdfIdGenerator("SHA-256", Encoding.BASE64URL).getId(ABC) //$NON-NLS-1$
+		);
+	}
+
+	/** Prueba de que el identificador calculado seg&uacute;n se leen los datos coincide con el
+	 * calculado sobre el documento completo, tambi&eacute;n desde varios hilos a la vez.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testStreamingId() throws Exception {
+		final byte[] pdf = Files.readAllBytes(
+			Paths.get(
+				TestPdfIdGenerator.class.getResource("/cosigned.pdf").toURI() //$NON-NLS-1$
+			)
+		);
+		final PdfIdGenerator generator = new PdfIdGenerator("SHA-256", Encoding.BASE64URL); //$NON-NLS-1$
+		final String id = generator.getId(pdf);
+
+		final Thread[] threads = new Thread[8];
+		final String[] ids = new String[threads.length];
+		for (int i = 0; i < threads.length; i++) {
+			final int n = i;
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try (
+						final InputStream is = new ByteArrayInputStream(pdf)
+					) {
+						for (int j = 0; j < 50; j++) {
+							is.reset();
+							ids[n] = generator.getId(is);
+						}
+					}
+					catch (final Exception e) {
+						ids[n] = e.toString();
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (int i = 0; i < threads.length; i++) {
+			threads[i].join();
+			Assert.assertEquals(id, ids[i]);
+		}
+	}
+
+	/** Prueba de rechazo de un algoritmo no soportado.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test(expected = java.security.NoSuchAlgorithmException.class)
+	public void testUnknownAlgorithm() throws Exception {
+		new PdfIdGenerator("SHA-999", Encoding.HEX); //$NON-NLS-1$
+	}
+
+}
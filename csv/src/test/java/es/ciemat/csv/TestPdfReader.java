@@ -0,0 +1,402 @@
+package es.ciemat.csv;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.aowagie.text.pdf.PRStream;
+import com.aowagie.text.pdf.PRTokeniser;
+import com.aowagie.text.pdf.PdfContentParser;
+import com.aowagie.text.pdf.PdfName;
+import com.aowagie.text.pdf.PdfNumber;
+import com.aowagie.text.pdf.PdfObject;
+import com.aowagie.text.pdf.PdfReader;
+import com.aowagie.text.pdf.RandomAccessFileOrArray;
+
+/** Pruebas de la lectura parcial de PDF.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class TestPdfReader {
+
+	/** &Aacute;rbol de p&aacute;ginas con nodos intermedios y atributos heredados:
+	 * ra&iacute;z (MediaBox 100x200) con [nodo (Rotate 90) con [p1, p2 (Rotate 0)], p3,
+	 * nodo (MediaBox 300x400) con [p4, nodo con [p5 (MediaBox 50x50)]]]. */
+	private static final String[] OBJECTS = {
+		"<< /Type /Catalog /Pages 2 0 R >>", //$NON-NLS-1$
+		"<< /Type /Pages /MediaBox [0 0 100 200] /Resources << >> /Count 5 /Kids [3 0 R 6 0 R 7 0 R] >>", //$NON-NLS-1$
+		"<< /Type /Pages /Parent 2 0 R /Rotate 90 /Count 2 /Kids [4 0 R 5 0 R] >>", //$NON-NLS-1$
+		"<< /Type /Page /Parent 3 0 R >>", //$NON-NLS-1$
+		"<< /Type /Page /Parent 3 0 R /Rotate 0 >>", //$NON-NLS-1$
+		"<< /Type /Page /Parent 2 0 R >>", //$NON-NLS-1$
+		"<< /Type /Pages /Parent 2 0 R /MediaBox [0 0 300 400] /Count 2 /Kids [8 0 R 9 0 R] >>", //$NON-NLS-1$
+		"<< /Type /Page /Parent 7 0 R >>", //$NON-NLS-1$
+		"<< /Type /Pages /Parent 7 0 R /Count 1 /Kids [10 0 R] >>", //$NON-NLS-1$
+		"<< /Type /Page /Parent 9 0 R /MediaBox [0 0 50 50] >>" //$NON-NLS-1$
+	};
+
+	private static byte[] createPdf() {
+		final StringBuilder sb = new StringBuilder("%PDF-1.4\n"); //$NON-NLS-1$
+		final int[] offsets = new int[OBJECTS.length];
+		for (int i = 0; i < OBJECTS.length; i++) {
+			offsets[i] = sb.length();
+			sb.append(i + 1).append(" 0 obj\n").append(OBJECTS[i]).append("\nendobj\n"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		final int xref = sb.length();
+		sb.append("xref\n0 ").append(OBJECTS.length + 1).append("\n0000000000 65535 f \n"); //$NON-NLS-1$ //$NON-NLS-2$
+		for (final int offset : offsets) {
+			sb.append(String.format("%010d 00000 n \n", Integer.valueOf(offset))); //$NON-NLS-1$
+		}
+		sb.append("trailer\n<< /Size ").append(OBJECTS.length + 1).append(" /Root 1 0 R >>\n"); //$NON-NLS-1$ //$NON-NLS-2$
+		sb.append("startxref\n").append(xref).append("\n%%EOF\n"); //$NON-NLS-1$ //$NON-NLS-2$
+		return sb.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/** Prueba de que en modo de lectura parcial cada p&aacute;gina tiene la misma referencia y
+	 * los mismos atributos heredados que leyendo el PDF completo, sea cual sea el orden en el
+	 * que se leen, con y sin cach&eacute; de objetos.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testPartialPages() throws Exception {
+		final byte[] pdf = createPdf();
+		final PdfReader full = new PdfReader(pdf);
+		Assert.assertEquals(5, full.getNumberOfPages());
+
+		final int[][] orders = {
+			{ 1, 2, 3, 4, 5 },
+			{ 5, 4, 3, 2, 1 },
+			{ 3, 1, 5, 2, 4 },
+			{ 4, 4, 2, 2 }
+		};
+		for (final int[] order : orders) {
+			for (final boolean cache : new boolean[] { false, true }) {
+				final PdfReader partial = new PdfReader(new RandomAccessFileOrArray(pdf), null);
+				try {
+					partial.setPartialCache(cache);
+					Assert.assertEquals(5, partial.getNumberOfPages());
+					// Dos pasadas, la segunda con las paginas ya liberadas o en cache
+					for (int n = 0; n < 2; n++) {
+						for (final int page : order) {
+							Assert.assertEquals(
+								full.getPageOrigRef(page).toString(),
+								partial.getPageOrigRef(page).toString()
+							);
+							Assert.assertEquals(
+								full.getPageSizeWithRotation(page).toString(),
+								partial.getPageSizeWithRotation(page).toString()
+							);
+						}
+					}
+				}
+				finally {
+					partial.close();
+				}
+			}
+		}
+	}
+
+	/** Prueba de la lectura de un PDF de m&aacute;s de 2 GB, con un flujo que cruza el l&iacute;mite
+	 * de 2 GB (y de segmento de la proyecci&oacute;n en memoria) y la tabla de referencias al final.
+	 * El fichero se crea disperso para no ocupar disco.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testLargeFile() throws Exception {
+		final long streamOffset = (1L << 31) - 60;
+		final byte[] content = new byte[100];
+		Arrays.fill(content, (byte) 'x');
+
+		final StringBuilder head = new StringBuilder("%PDF-1.4\n"); //$NON-NLS-1$
+		final long[] offsets = new long[4];
+		final String[] objects = {
+			"<< /Type /Catalog /Pages 2 0 R >>", //$NON-NLS-1$
+			"<< /Type /Pages /Count 1 /Kids [3 0 R] >>", //$NON-NLS-1$
+			"<< /Type /Page /Parent 2 0 R /MediaBox [0 0 100 100] /Resources << >> /Contents 4 0 R >>" //$NON-NLS-1$
+		};
+		for (int i = 0; i < objects.length; i++) {
+			offsets[i] = head.length();
+			head.append(i + 1).append(" 0 obj\n").append(objects[i]).append("\nendobj\n"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		offsets[3] = streamOffset;
+		final String stream = "4 0 obj\n<< /Length " + content.length + " >>\nstream\n"; //$NON-NLS-1$ //$NON-NLS-2$
+		final long xref = streamOffset + stream.length() + content.length + "\nendstream\nendobj\n".length(); //$NON-NLS-1$
+		final StringBuilder tail = new StringBuilder("\nendstream\nendobj\n"); //$NON-NLS-1$
+		tail.append("xref\n0 5\n0000000000 65535 f \n"); //$NON-NLS-1$
+		for (final long offset : offsets) {
+			tail.append(String.format("%010d 00000 n \n", Long.valueOf(offset))); //$NON-NLS-1$
+		}
+		tail.append("trailer\n<< /Size 5 /Root 1 0 R >>\nstartxref\n").append(xref).append("\n%%EOF\n"); //$NON-NLS-1$ //$NON-NLS-2$
+
+		final File file = File.createTempFile("csvlarge", ".pdf"); //$NON-NLS-1$ //$NON-NLS-2$
+		try {
+			try (final RandomAccessFile raf = new RandomAccessFile(file, "rw")) { //$NON-NLS-1$
+				raf.write(head.toString().getBytes(StandardCharsets.US_ASCII));
+				raf.seek(streamOffset);
+				raf.write(stream.getBytes(StandardCharsets.US_ASCII));
+				raf.write(content);
+				raf.write(tail.toString().getBytes(StandardCharsets.US_ASCII));
+			}
+
+			final PdfReader full = new PdfReader(file.getAbsolutePath());
+			try {
+				Assert.assertEquals(file.length(), full.getFileLength());
+				Assert.assertEquals(xref, full.getLastXref());
+				Assert.assertArrayEquals(content, full.getPageContent(1, full.getSafeFile()));
+			}
+			finally {
+				full.close();
+			}
+
+			final PdfReader partial = new PdfReader(new RandomAccessFileOrArray(file.getAbsolutePath()), null);
+			try {
+				Assert.assertEquals(1, partial.getNumberOfPages());
+				Assert.assertArrayEquals(content, partial.getPageContent(1, partial.getSafeFile()));
+			}
+			finally {
+				partial.close();
+			}
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	/** Prueba de la decodificaci&oacute;n de flujos con filtros encadenados, predictores y datos
+	 * corruptos, tanto a un array como a un destino.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testStreamDecoding() throws Exception {
+		final Random rnd = new Random(1);
+		// Filas de 3 colores de 600 pixeles, con datos parecidos entre filas
+		final int bytesPerRow = 3 * 600;
+		final byte[] image = new byte[bytesPerRow * 120];
+		for (int i = 0; i < image.length; i++) {
+			image[i] = (byte) (i < bytesPerRow ? rnd.nextInt(256) : image[i - bytesPerRow] + rnd.nextInt(3));
+		}
+		final byte[] text = new byte[200001];
+		for (int i = 0; i < text.length; i++) {
+			text[i] = (byte) ('a' + rnd.nextInt(4));
+		}
+		final byte[] flate = deflate(text);
+		final byte[] corrupted = flate.clone();
+		for (int i = flate.length / 2; i < flate.length / 2 + 16; i++) {
+			corrupted[i] = (byte) 0xff;
+		}
+
+		final String[] dictionaries = {
+			"/Filter /FlateDecode /DecodeParms << /Predictor 15 /Colors 3 /Columns 600 >>", //$NON-NLS-1$
+			"/Filter /ASCIIHexDecode", //$NON-NLS-1$
+			"/Filter [/ASCII85Decode /FlateDecode]", //$NON-NLS-1$
+			"/Filter /FlateDecode" //$NON-NLS-1$
+		};
+		final byte[][] encoded = {
+			deflate(pngPredict(image, bytesPerRow, 3)),
+			asciiHex(text),
+			ascii85(flate),
+			corrupted
+		};
+		// El ultimo octeto del hexadecimal tiene como segundo digito el cero implicito
+		final byte[] hexText = text.clone();
+		hexText[hexText.length - 1] &= (byte) 0xf0;
+		final byte[][] expected = {
+			image,
+			hexText,
+			text,
+			PdfReader.FlateDecode(corrupted, false)
+		};
+		// Los datos corruptos dan un error de formato tras decodificar parte del flujo
+		Assert.assertNull(PdfReader.FlateDecode(corrupted, true));
+		Assert.assertTrue(expected[3].length > 0);
+
+		final ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+		pdf.write("%PDF-1.4\n".getBytes(StandardCharsets.US_ASCII)); //$NON-NLS-1$
+		final int[] offsets = new int[2 + encoded.length];
+		offsets[0] = pdf.size();
+		pdf.write("1 0 obj\n<< /Type /Catalog /Pages 2 0 R >>\nendobj\n".getBytes(StandardCharsets.US_ASCII)); //$NON-NLS-1$
+		offsets[1] = pdf.size();
+		pdf.write("2 0 obj\n<< /Type /Pages /Count 0 /Kids [] >>\nendobj\n".getBytes(StandardCharsets.US_ASCII)); //$NON-NLS-1$
+		for (int i = 0; i < encoded.length; i++) {
+			offsets[2 + i] = pdf.size();
+			pdf.write((3 + i + " 0 obj\n<< /Length " + encoded[i].length + " " + dictionaries[i] + " >>\nstream\n").getBytes(StandardCharsets.US_ASCII)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			pdf.write(encoded[i]);
+			pdf.write("\nendstream\nendobj\n".getBytes(StandardCharsets.US_ASCII)); //$NON-NLS-1$
+		}
+		final int xref = pdf.size();
+		final StringBuilder sb = new StringBuilder("xref\n0 ").append(offsets.length + 1).append("\n0000000000 65535 f \n"); //$NON-NLS-1$ //$NON-NLS-2$
+		for (final int offset : offsets) {
+			sb.append(String.format("%010d 00000 n \n", Integer.valueOf(offset))); //$NON-NLS-1$
+		}
+		sb.append("trailer\n<< /Size ").append(offsets.length + 1).append(" /Root 1 0 R >>\n"); //$NON-NLS-1$ //$NON-NLS-2$
+		sb.append("startxref\n").append(xref).append("\n%%EOF\n"); //$NON-NLS-1$ //$NON-NLS-2$
+		pdf.write(sb.toString().getBytes(StandardCharsets.US_ASCII));
+
+		final PdfReader reader = new PdfReader(new RandomAccessFileOrArray(pdf.toByteArray()), null);
+		try {
+			for (int i = 0; i < encoded.length; i++) {
+				final PRStream stream = (PRStream) reader.getPdfObject(3 + i);
+				Assert.assertArrayEquals(dictionaries[i], expected[i], PdfReader.getStreamBytes(stream));
+				final ByteArrayOutputStream out = new ByteArrayOutputStream();
+				PdfReader.getStreamBytes(stream, out);
+				Assert.assertArrayEquals(dictionaries[i], expected[i], out.toByteArray());
+			}
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	/** Prueba de la lectura de n&uacute;meros, nombres, cadenas y operadores directamente de
+	 * los bytes de cada elemento.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testTokens() throws Exception {
+		final String[] numbers = {
+			"1", "-2", "+3", ".5", "-.25", "3.14159", "0.1", "-0", "007", "5.", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$ //$NON-NLS-9$ //$NON-NLS-10$
+			"123456789012345", "1234567890123456789", "0.1234567890123456789", "-9.87654321098765" //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		};
+		final StringBuilder sb = new StringBuilder("/Type /Foo /F#20o"); //$NON-NLS-1$
+		for (final String number : numbers) {
+			sb.append(' ').append(number);
+		}
+		sb.append(" (a\\(b\\)\\101) <48656c6C6> Do\n/Foo 4 Tf"); //$NON-NLS-1$
+		final PdfContentParser parser = new PdfContentParser(
+			new PRTokeniser(sb.toString().getBytes(StandardCharsets.US_ASCII))
+		);
+
+		final ArrayList<?> first = parser.parse(null);
+		Assert.assertEquals(numbers.length + 6, first.size());
+		// Los nombres estandar son las constantes de PdfName
+		Assert.assertSame(PdfName.TYPE, first.get(0));
+		Assert.assertEquals(new PdfName("Foo"), first.get(1)); //$NON-NLS-1$
+		Assert.assertEquals(new PdfName("F o"), first.get(2)); //$NON-NLS-1$
+		Assert.assertEquals("/F#20o", first.get(2).toString()); //$NON-NLS-1$
+		for (int i = 0; i < numbers.length; i++) {
+			final PdfNumber number = (PdfNumber) first.get(i + 3);
+			Assert.assertEquals(numbers[i], number.toString());
+			Assert.assertEquals(
+				numbers[i],
+				Double.doubleToLongBits(Double.parseDouble(numbers[i])),
+				Double.doubleToLongBits(number.doubleValue())
+			);
+		}
+		Assert.assertEquals("a(b)A", first.get(numbers.length + 3).toString()); //$NON-NLS-1$
+		Assert.assertEquals("Hell`", first.get(numbers.length + 4).toString()); //$NON-NLS-1$
+		final PdfObject operator = (PdfObject) first.get(numbers.length + 5);
+		Assert.assertEquals("Do", operator.toString()); //$NON-NLS-1$
+
+		// Los nombres no estandar se comparten entre las instrucciones
+		final ArrayList<?> second = parser.parse(null);
+		Assert.assertEquals(3, second.size());
+		Assert.assertSame(first.get(1), second.get(0));
+		Assert.assertEquals(4, ((PdfNumber) second.get(1)).intValue());
+		Assert.assertEquals("Tf", second.get(2).toString()); //$NON-NLS-1$
+		Assert.assertTrue(parser.parse(null).isEmpty());
+
+		// Valores no numericos, como antes
+		try {
+			new PdfContentParser(new PRTokeniser("1.2.3 Tf".getBytes(StandardCharsets.US_ASCII))).parse(null); //$NON-NLS-1$
+			Assert.fail("Se ha leido un numero no valido"); //$NON-NLS-1$
+		}
+		catch (final RuntimeException e) {
+			Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("1.2.3 is not a valid number")); //$NON-NLS-1$
+		}
+	}
+
+	private static byte[] deflate(final byte[] data) {
+		final Deflater deflater = new Deflater();
+		deflater.setInput(data);
+		deflater.finish();
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buf = new byte[8192];
+		while (!deflater.finished()) {
+			out.write(buf, 0, deflater.deflate(buf));
+		}
+		deflater.end();
+		return out.toByteArray();
+	}
+
+	/** Codifica una imagen con los predictores PNG, usando cada tipo de predictor por turno. */
+	private static byte[] pngPredict(final byte[] data, final int bytesPerRow, final int bytesPerPixel) {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int row = 0; row * bytesPerRow < data.length; row++) {
+			final int type = row % 5;
+			out.write(type);
+			final int start = row * bytesPerRow;
+			for (int i = 0; i < bytesPerRow; i++) {
+				final int a = i >= bytesPerPixel ? data[start + i - bytesPerPixel] & 0xff : 0;
+				final int b = row > 0 ? data[start + i - bytesPerRow] & 0xff : 0;
+				final int c = row > 0 && i >= bytesPerPixel ? data[start + i - bytesPerRow - bytesPerPixel] & 0xff : 0;
+				final int pred;
+				switch (type) {
+					case 1:
+						pred = a;
+						break;
+					case 2:
+						pred = b;
+						break;
+					case 3:
+						pred = (a + b) / 2;
+						break;
+					case 4:
+						final int p = a + b - c;
+						final int pa = Math.abs(p - a);
+						final int pb = Math.abs(p - b);
+						final int pc = Math.abs(p - c);
+						pred = pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+						break;
+					default:
+						pred = 0;
+				}
+				out.write((data[start + i] & 0xff) - pred);
+			}
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] asciiHex(final byte[] data) {
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < data.length; i++) {
+			sb.append(String.format("%02X", Integer.valueOf(data[i] & 0xff))); //$NON-NLS-1$
+			if (i % 40 == 39) {
+				sb.append('\n');
+			}
+		}
+		// Un numero impar de digitos termina con el ultimo a medias
+		sb.setLength(sb.length() - 1);
+		sb.append('>');
+		return sb.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	private static byte[] ascii85(final byte[] data) {
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < data.length; i += 4) {
+			final int n = Math.min(4, data.length - i);
+			long v = 0;
+			for (int j = 0; j < 4; j++) {
+				v = v << 8 | (j < n ? data[i + j] & 0xff : 0);
+			}
+			if (v == 0 && n == 4) {
+				sb.append('z');
+				continue;
+			}
+			final char[] c = new char[5];
+			for (int j = 4; j >= 0; j--) {
+				c[j] = (char) ('!' + v % 85);
+				v /= 85;
+			}
+			sb.append(c, 0, n + 1);
+		}
+		sb.append("~>"); //$NON-NLS-1$
+		return sb.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+}
@@ -0,0 +1,182 @@
+package es.ciemat.csv;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.aowagie.text.pdf.AcroFields;
+import com.aowagie.text.pdf.PdfReader;
+import com.aowagie.text.pdf.PdfStamper;
+import com.aowagie.text.pdf.RandomAccessFileOrArray;
+
+/** Pruebas del sellador electr&oacute;nico de PDF.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class TestPdfSealer {
+
+	private static final String KEYSTORE = "/PFActivoFirSHA256.pfx"; //$NON-NLS-1$
+	private static final char[] KEYSTORE_PASSWORD = "12341234".toCharArray(); //$NON-NLS-1$
+
+	private static final Logger LOGGER = Logger.getLogger(TestPdfSealer.class.getName());
+
+	private static PdfSealer createSealer() throws Exception {
+		final KeyStore ks = KeyStore.getInstance("PKCS12"); //$NON-NLS-1$
+		try (
+			final InputStream is = TestPdfSealer.class.getResourceAsStream(KEYSTORE)
+		) {
+			ks.load(is, KEYSTORE_PASSWORD);
+		}
+		final String alias = ks.aliases().nextElement();
+		return new PdfSealer(
+			(PrivateKey) ks.getKey(alias, KEYSTORE_PASSWORD),
+			ks.getCertificateChain(alias),
+			"SHA-512" //$NON-NLS-1$
+		);
+	}
+
+	/** Ejecuta una tarea en varios hilos a la vez y devuelve el tiempo total en milisegundos. */
+	private static long runConcurrently(final int threads, final Callable<Void> task) throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			final CountDownLatch start = new CountDownLatch(1);
+			final List<Future<Void>> results = new ArrayList<>();
+			for (int i = 0; i < threads; i++) {
+				results.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						start.await();
+						return task.call();
+					}
+				}));
+			}
+			final long t = System.nanoTime();
+			start.countDown();
+			for (final Future<Void> f : results) {
+				// Propaga cualquier error de los hilos
+				f.get();
+			}
+			return (System.nanoTime() - t) / 1000000L;
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/** Prueba de contenci&oacute;n: muchos hilos firmando a la vez con el mismo sellador.
+	 * Todas las firmas deben ser v&aacute;lidas y no deben crearse m&aacute;s motores de firma que
+	 * hilos concurrentes.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testConcurrentSign() throws Exception {
+		final PdfSealer sealer = createSealer();
+		final KeyStore ks = KeyStore.getInstance("PKCS12"); //$NON-NLS-1$
+		try (
+			final InputStream is = TestPdfSealer.class.getResourceAsStream(KEYSTORE)
+		) {
+			ks.load(is, KEYSTORE_PASSWORD);
+		}
+		final Certificate cert = ks.getCertificate(ks.aliases().nextElement());
+
+		final int threads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+		final int signsPerThread = 50;
+		final Callable<Void> task = new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				final Signature verifier = Signature.getInstance("SHA512withRSA"); //$NON-NLS-1$
+				for (int i = 0; i < signsPerThread; i++) {
+					final byte[] data = (Thread.currentThread().getName() + i).getBytes();
+					final byte[] signature = sealer.sign(data);
+					verifier.initVerify(cert);
+					verifier.update(data);
+					Assert.assertTrue(verifier.verify(signature));
+				}
+				return null;
+			}
+		};
+
+		final long single = runConcurrently(1, task);
+		final long multi = runConcurrently(threads, task);
+		LOGGER.info(
+			"Firmas por segundo con 1 hilo: " + signsPerThread * 1000L / Math.max(1, single) + //$NON-NLS-1$
+				", con " + threads + " hilos: " + signsPerThread * threads * 1000L / Math.max(1, multi) //$NON-NLS-1$ //$NON-NLS-2$
+		);
+		Assert.assertTrue(
+			"Se han creado mas motores de firma que hilos: " + sealer.getCreatedEngines(), //$NON-NLS-1$
+			sealer.getCreatedEngines() <= threads + 1
+		);
+	}
+
+	/** Prueba de sellado concurrente de PDF con el mismo sellador.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testConcurrentSignPdf() throws Exception {
+		final PdfSealer sealer = createSealer();
+		final byte[] pdf = Files.readAllBytes(
+			Paths.get(TestPdfSealer.class.getResource("/hola.pdf").toURI()) //$NON-NLS-1$
+		);
+		runConcurrently(4, new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				for (int i = 0; i < 5; i++) {
+					final PdfReader reader = new PdfReader(sealer.signPdf(pdf));
+					final AcroFields af = reader.getAcroFields();
+					final List<String> names = af.getSignatureNames();
+					Assert.assertEquals(1, names.size());
+					Assert.assertTrue(af.verifySignature(names.get(0)).verify());
+					Assert.assertTrue(af.signatureCoversWholeDocument(names.get(0)));
+					reader.close();
+				}
+				return null;
+			}
+		});
+	}
+
+	/** Prueba de sellado incremental de un PDF firmado abierto en modo de lectura parcial.
+	 * Las firmas originales y el sello deben ser v&aacute;lidos.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testSignPartialReader() throws Exception {
+		final PdfSealer sealer = createSealer();
+		final byte[] pdf = Files.readAllBytes(
+			Paths.get(TestPdfSealer.class.getResource("/cosigned.pdf").toURI()) //$NON-NLS-1$
+		);
+		final PdfReader partial = new PdfReader(new RandomAccessFileOrArray(pdf), null);
+		Assert.assertTrue(partial.isPartial());
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		sealer.signPdf(PdfStamper.createSignature(partial, baos, '\0', null, true));
+
+		final PdfReader reader = new PdfReader(baos.toByteArray());
+		final AcroFields af = reader.getAcroFields();
+		final List<String> names = af.getSignatureNames();
+		Assert.assertEquals(3, names.size());
+		int whole = 0;
+		for (final String name : names) {
+			Assert.assertTrue(name, af.verifySignature(name).verify());
+			if (af.signatureCoversWholeDocument(name)) {
+				whole++;
+			}
+		}
+		// Solo el sello cubre el documento completo
+		Assert.assertEquals(1, whole);
+		reader.close();
+	}
+
+}
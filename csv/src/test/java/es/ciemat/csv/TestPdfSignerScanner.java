@@ -0,0 +1,164 @@
+package es.ciemat.csv;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.aowagie.text.pdf.AcroFields;
+import com.aowagie.text.pdf.PdfArray;
+import com.aowagie.text.pdf.PdfName;
+import com.aowagie.text.pdf.PdfPKCS7;
+import com.aowagie.text.pdf.PdfReader;
+import com.aowagie.text.pdf.RandomAccessFileOrArray;
+
+import es.gob.afirma.core.signers.AOSimpleSignInfo;
+
+/** Pruebas de la obtenci&oacute;n de los firmantes de un PDF.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class TestPdfSignerScanner {
+
+	private static final String TEST_FILE = "/cosigned.pdf"; //$NON-NLS-1$
+
+	/** Prueba de que los firmantes y fechas obtenidos sin verificar las firmas coinciden con
+	 * los de la decodificaci&oacute;n completa de cada PKCS#7, firma a firma y en el orden
+	 * en el que se firmaron.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testScan() throws Exception {
+		final PdfReader reader = new PdfReader(
+			Files.readAllBytes(
+				Paths.get(
+					TestPdfSignerScanner.class.getResource(TEST_FILE).toURI()
+				)
+			)
+		);
+		try {
+			final AcroFields af = reader.getAcroFields();
+			final Map<Integer, String> byRevision = new TreeMap<>();
+			for (final String name : af.getSignatureNames()) {
+				byRevision.put(Integer.valueOf(af.getRevision(name)), name);
+			}
+			final List<String> names = new ArrayList<>(byRevision.values());
+			Assert.assertTrue(names.size() > 1);
+
+			final AOSimpleSignInfo[] light = PdfSignerScanner.scan(reader, false);
+			final AOSimpleSignInfo[] full = PdfSignerScanner.scan(reader, true);
+			Assert.assertEquals(names.size(), light.length);
+			Assert.assertEquals(names.size(), full.length);
+			for (int i = 0; i < names.size(); i++) {
+				final PdfPKCS7 pkcs7 = af.verifySignature(names.get(i));
+				final X509Certificate cert = pkcs7.getSigningCertificate();
+				Assert.assertEquals(cert, light[i].getCerts()[0]);
+				Assert.assertEquals(cert, full[i].getCerts()[0]);
+				Assert.assertEquals(pkcs7.getSignDate().getTime(), light[i].getSigningTime());
+				Assert.assertEquals(pkcs7.getSignDate().getTime(), full[i].getSigningTime());
+			}
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	/** Prueba de que con el PDF abierto en modo de lectura parcial se obtienen los mismos
+	 * firmantes que con el PDF le&iacute;do completo, con y sin cach&eacute; de objetos.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testScanPartial() throws Exception {
+		final byte[] pdf = Files.readAllBytes(
+			Paths.get(
+				TestPdfSignerScanner.class.getResource(TEST_FILE).toURI()
+			)
+		);
+		final PdfReader reader = new PdfReader(pdf);
+		final AOSimpleSignInfo[] expected = PdfSignerScanner.scan(reader, false);
+		reader.close();
+
+		for (final boolean cache : new boolean[] { false, true }) {
+			final PdfReader partial = new PdfReader(new RandomAccessFileOrArray(pdf), null);
+			try {
+				partial.setPartialCache(cache);
+				Assert.assertTrue(partial.isPartial());
+				Assert.assertEquals(reader.getNumberOfPages(), partial.getNumberOfPages());
+				// Dos pasadas, la segunda con los objetos ya liberados o en cache
+				for (int n = 0; n < 2; n++) {
+					final AOSimpleSignInfo[] infos = PdfSignerScanner.scan(partial, n == 1);
+					Assert.assertEquals(expected.length, infos.length);
+					for (int i = 0; i < expected.length; i++) {
+						Assert.assertEquals(expected[i].getCerts()[0], infos[i].getCerts()[0]);
+						Assert.assertEquals(expected[i].getSigningTime(), infos[i].getSigningTime());
+					}
+				}
+			}
+			finally {
+				partial.close();
+			}
+		}
+	}
+
+	/** Prueba de que la verificaci&oacute;n conjunta de las firmas da el mismo resultado que
+	 * verificarlas una a una, en paralelo y sin paralelizar, tambi&eacute;n con un PDF alterado
+	 * en el relleno del PKCS#7 de la primera firma, que queda fuera de su rango firmado pero
+	 * dentro del de la segunda.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testVerifySignatures() throws Exception {
+		final byte[] pdf = Files.readAllBytes(
+			Paths.get(
+				TestPdfSignerScanner.class.getResource(TEST_FILE).toURI()
+			)
+		);
+		PdfReader reader = new PdfReader(pdf);
+		final AcroFields af = reader.getAcroFields();
+		final List<String> names = new ArrayList<>(af.getSignatureNames());
+		final String first = af.getRevision(names.get(0)) == 1 ? names.get(0) : names.get(1);
+		final PdfArray range = af.getSignatureDictionary(first).getAsArray(PdfName.BYTERANGE);
+		reader.close();
+
+		// Ultimo digito hexadecimal del relleno del PKCS#7, antes del '>'
+		final byte[] altered = pdf.clone();
+		final int padding = range.getAsNumber(2).intValue() - 2;
+		Assert.assertEquals('0', altered[padding]);
+		altered[padding] = '1';
+
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			for (final byte[] doc : new byte[][] { pdf, altered }) {
+				reader = new PdfReader(doc);
+				try {
+					final AcroFields fields = reader.getAcroFields();
+					for (final ExecutorService exec : new ExecutorService[] { null, executor }) {
+						final Map<String, PdfPKCS7> pkcs7s = fields.verifySignatures(null, exec);
+						Assert.assertEquals(names.size(), pkcs7s.size());
+						int revision = 0;
+						for (final Map.Entry<String, PdfPKCS7> e : pkcs7s.entrySet()) {
+							Assert.assertTrue(fields.getRevision(e.getKey()) > revision);
+							revision = fields.getRevision(e.getKey());
+							final boolean expected = fields.verifySignature(e.getKey()).verify();
+							Assert.assertEquals(e.getKey(), expected, e.getValue().verify());
+							Assert.assertEquals(doc == pdf || e.getKey().equals(first), expected);
+						}
+					}
+				}
+				finally {
+					reader.close();
+				}
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+}
@@ -16,7 +16,11 @@ import java.net.URISyntaxException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 import javax.imageio.ImageIO;
@@ -24,12 +28,21 @@ import javax.imageio.ImageIO;
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.aowagie.text.Document;
 import com.aowagie.text.DocumentException;
+import com.aowagie.text.Paragraph;
+import com.aowagie.text.pdf.AcroFields;
 import com.aowagie.text.pdf.Barcode;
 import com.aowagie.text.pdf.Barcode128;
+import com.aowagie.text.pdf.PRStream;
+import com.aowagie.text.pdf.PdfDictionary;
+import com.aowagie.text.pdf.PdfIndirectReference;
+import com.aowagie.text.pdf.PdfName;
 import com.aowagie.text.pdf.PdfReader;
 import com.aowagie.text.pdf.PdfStamper;
+import com.aowagie.text.pdf.PdfWriter;
 
+import es.ciemat.csv.PdfExtraUtil.PdfId;
 import es.gob.afirma.core.misc.Base64;
 import es.gob.afirma.core.misc.http.UrlHttpManager;
 import es.gob.afirma.core.misc.http.UrlHttpManagerFactory;
@@ -285,6 +298,82 @@ public final class TestPdfUtils {
 
 	}
 
+	/** Prueba de estampaci&oacute;n del CSV como contenido vectorial.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testVectorCsvStamping() throws Exception {
+
+		final byte[] inPdf = Files.readAllBytes(
+			Paths.get(
+				TestPdfUtils.class.getResource("/cosigned.pdf").toURI() //$NON-NLS-1$
+			)
+		);
+
+		final AOSimpleSignInfo[] infos = PipelinedPdfCsvStamper.getSignInfos(new PdfReader(inPdf));
+		final byte[] flatPdf = PdfExtraUtil.removeSignaturesFromPdf(inPdf);
+
+		final String id = UUID.randomUUID().toString();
+
+		final byte[] outPdf = PdfExtraUtil.addVectorCsvToPdf(
+			flatPdf,
+			id,
+			infos,
+			null, // textTemplate
+			5,
+			5,
+			0, // Todas las paginas
+			PdfExtraUtil.getLink(id)
+		);
+
+		// Todas las paginas referencian una misma plantilla nueva y tienen el enlace
+		final PdfReader flatReader = new PdfReader(flatPdf);
+		final PdfReader reader = new PdfReader(outPdf);
+		Set<Integer> common = null;
+		for (int i = 1; i <= reader.getNumberOfPages(); i++) {
+			final Set<Integer> refs = getNewXObjects(flatReader, reader, i);
+			if (common == null) {
+				common = refs;
+			}
+			else {
+				common.retainAll(refs);
+			}
+			Assert.assertNotNull(reader.getPageN(i).getAsArray(PdfName.ANNOTS));
+		}
+		flatReader.close();
+		Assert.assertNotNull(common);
+		Assert.assertEquals(1, common.size());
+
+		// La plantilla ocupa unos pocos cientos de octetos, no decenas de KB como el JPEG
+		final PRStream template = (PRStream) reader.getPdfObject(common.iterator().next().intValue());
+		Assert.assertEquals(PdfName.FORM, template.getAsName(PdfName.SUBTYPE));
+		System.out.println("Tamano de la plantilla del CSV: " + template.getLength() + " octetos"); //$NON-NLS-1$ //$NON-NLS-2$
+		Assert.assertTrue(template.getLength() < 4096);
+		reader.close();
+
+		try (
+			final OutputStream fos = new FileOutputStream(
+				File.createTempFile("vectorcsv_", ".pdf") //$NON-NLS-1$ //$NON-NLS-2$
+			)
+		) {
+			fos.write(outPdf);
+			fos.flush();
+		}
+	}
+
+	/** Obtiene los n&uacute;meros de objeto de los XObject que se han a&ntilde;adido a una p&aacute;gina. */
+	private static Set<Integer> getNewXObjects(final PdfReader before, final PdfReader after, final int page) {
+		final PdfDictionary oldXObjects = before.getPageN(page).getAsDict(PdfName.RESOURCES).getAsDict(PdfName.XOBJECT);
+		final PdfDictionary xobjects = after.getPageN(page).getAsDict(PdfName.RESOURCES).getAsDict(PdfName.XOBJECT);
+		final Set<Integer> refs = new HashSet<>();
+		for (final Object key : xobjects.getKeys()) {
+			if (oldXObjects == null || oldXObjects.get((PdfName) key) == null) {
+				refs.add(Integer.valueOf(((PdfIndirectReference) xobjects.get((PdfName) key)).getNumber()));
+			}
+		}
+		return refs;
+	}
+
 	/** Prueba de la obtenci&oacute;n de informaci&oacute;n de firmas.
 	 * @throws Exception En cualquier error. */
 	@SuppressWarnings("static-method")
@@ -347,6 +436,59 @@ public final class TestPdfUtils {
 		}
 	}
 
+	/** Prueba de inserci&oacute;n de imagen en todas las p&aacute;ginas de un PDF.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testAllPagesImageStamping() throws Exception {
+
+		final byte[] inJpg = Files.readAllBytes(
+			Paths.get(
+				TestPdfUtils.class.getResource("/workboy.jpg").toURI() //$NON-NLS-1$
+			)
+		);
+
+		final byte[] onePage = createPdf(1);
+		final byte[] manyPages = createPdf(500);
+
+		final byte[] onePageOut = PdfExtraUtil.addImageToPdf(onePage, inJpg, 5, 5, 0, "http://www.google.com/"); //$NON-NLS-1$
+		final long time = System.currentTimeMillis();
+		final byte[] manyPagesOut = PdfExtraUtil.addImageToPdf(manyPages, inJpg, 5, 5, 0, "http://www.google.com/"); //$NON-NLS-1$
+		System.out.println(
+			"Estampadas 500 paginas en " + (System.currentTimeMillis() - time) + "ms, incremento de " + //$NON-NLS-1$ //$NON-NLS-2$
+				(manyPagesOut.length - manyPages.length) + " octetos frente a " + (onePageOut.length - onePage.length) + " con una pagina" //$NON-NLS-1$ //$NON-NLS-2$
+		);
+
+		// La imagen se incluye una unica vez, no una por pagina
+		Assert.assertTrue(manyPagesOut.length - manyPages.length < 2 * inJpg.length + 500 * 512);
+
+		// Todas las paginas referencian la misma plantilla
+		final PdfReader inReader = new PdfReader(manyPages);
+		final PdfReader reader = new PdfReader(manyPagesOut);
+		Assert.assertEquals(500, reader.getNumberOfPages());
+		final Set<Integer> templates = new HashSet<>();
+		for (int i = 1; i <= reader.getNumberOfPages(); i++) {
+			templates.addAll(getNewXObjects(inReader, reader, i));
+			Assert.assertNotNull(reader.getPageN(i).getAsArray(PdfName.ANNOTS));
+		}
+		Assert.assertEquals(1, templates.size());
+		inReader.close();
+		reader.close();
+	}
+
+	private static byte[] createPdf(final int pages) throws DocumentException {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final Document doc = new Document();
+		PdfWriter.getInstance(doc, baos);
+		doc.open();
+		for (int i = 1; i <= pages; i++) {
+			doc.add(new Paragraph("Pagina " + i)); //$NON-NLS-1$
+			doc.newPage();
+		}
+		doc.close();
+		return baos.toByteArray();
+	}
+
 	/** Prueba completa de aplicaci&oacute;n de CSV.
 	 * @throws Exception En cualquier error. */
 	@SuppressWarnings("static-method")
@@ -371,6 +513,96 @@ public final class TestPdfUtils {
 		}
 
 	}
+
+	/** Prueba completa de aplicaci&oacute;n de CSV en una &uacute;nica pasada.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testCompletePipelinedCsv() throws Exception {
+
+		final byte[] inPdf = Files.readAllBytes(
+			Paths.get(
+				TestPdfUtils.class.getResource("/cosigned.pdf").toURI() //$NON-NLS-1$
+			)
+		);
+
+		final byte[] outPdf = PipelinedPdfCsvStamper.stampCsv(inPdf).getPdf();
+
+		final PdfReader reader = new PdfReader(outPdf);
+		Assert.assertEquals(1, reader.getAcroFields().getSignatureNames().size());
+		reader.close();
+
+		try (
+			final OutputStream fos = new FileOutputStream(
+				File.createTempFile("csved_pipelined_", ".pdf") //$NON-NLS-1$ //$NON-NLS-2$
+			)
+		) {
+			fos.write(outPdf);
+			fos.flush();
+		}
+
+	}
+
+	/** Prueba de estampaci&oacute;n en una &uacute;nica pasada de un PDF en disco.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testCompletePipelinedCsvOnDisk() throws Exception {
+
+		final Path inPdf = Paths.get(
+			TestPdfUtils.class.getResource("/cosigned.pdf").toURI() //$NON-NLS-1$
+		);
+		final Path outPdf = Files.createTempFile("csved_pipelined_disk_", ".pdf"); //$NON-NLS-1$ //$NON-NLS-2$
+
+		final PdfId pdfId = PipelinedPdfCsvStamper.stampCsv(inPdf, outPdf);
+		Assert.assertEquals(outPdf, pdfId.getPdfFile());
+		Assert.assertEquals(PdfExtraUtil.getPdfId(Files.readAllBytes(inPdf)), pdfId.getId());
+		Assert.assertEquals(Files.size(outPdf), pdfId.getPdfLength());
+
+		final PdfReader reader = new PdfReader(outPdf.toString());
+		Assert.assertEquals(1, reader.getAcroFields().getSignatureNames().size());
+		reader.close();
+
+	}
+
+	/** Prueba de estampaci&oacute;n incremental, conservando las firmas originales.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testCompletePipelinedCsvIncremental() throws Exception {
+
+		final byte[] inPdf = Files.readAllBytes(
+			Paths.get(
+				TestPdfUtils.class.getResource("/cosigned.pdf").toURI() //$NON-NLS-1$
+			)
+		);
+
+		final byte[] outPdf = PipelinedPdfCsvStamper.stampCsv(inPdf, true).getPdf();
+
+		// El PDF original se conserva intacto como primera revision
+		Assert.assertTrue(outPdf.length > inPdf.length);
+		for (int i = 0; i < inPdf.length; i++) {
+			Assert.assertEquals(inPdf[i], outPdf[i]);
+		}
+
+		final PdfReader reader = new PdfReader(outPdf);
+		final AcroFields af = reader.getAcroFields();
+		final List<String> names = af.getSignatureNames();
+		Assert.assertEquals(3, names.size());
+		// El sello del CSV es la firma de la ultima revision
+		String last = null;
+		for (final String name : names) {
+			Assert.assertTrue(af.verifySignature(name).verify());
+			if (last == null || af.getRevision(name) > af.getRevision(last)) {
+				last = name;
+			}
+		}
+		Assert.assertEquals(af.getTotalRevisions(), af.getRevision(last));
+		Assert.assertTrue(af.signatureCoversWholeDocument(last));
+		reader.close();
+
+	}
+
 	/** Prueba de la obtenci&oacute;n del identificador de un documento.
 	 * @throws Exception En cualquier error. */
 	@SuppressWarnings("static-method")
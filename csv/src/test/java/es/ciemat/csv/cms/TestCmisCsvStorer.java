@@ -0,0 +1,142 @@
+package es.ciemat.csv.cms;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import es.ciemat.csv.CsvStorerException;
+
+/** Pruebas de la subida de documentos al gestor documental, con subidas simuladas.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class TestCmisCsvStorer {
+
+	/** Subida simulada que puede esperar a otra y fallar. */
+	private static final class FakeUpload extends CmisCsvStorer.Upload {
+
+		final AtomicBoolean sent = new AtomicBoolean(false);
+		final AtomicBoolean rolledBack = new AtomicBoolean(false);
+		private final CountDownLatch started;
+		private final CountDownLatch waitFor;
+		private final boolean fail;
+
+		FakeUpload(final String name,
+				   final CountDownLatch startLatch,
+				   final CountDownLatch otherStartLatch,
+				   final boolean failUpload) {
+			super(name);
+			this.started = startLatch;
+			this.waitFor = otherStartLatch;
+			this.fail = failUpload;
+		}
+
+		FakeUpload(final String name, final boolean failUpload) {
+			this(name, new CountDownLatch(1), null, failUpload);
+		}
+
+		@Override
+		void send() throws IOException {
+			this.started.countDown();
+			if (this.waitFor != null) {
+				try {
+					// Solo termina si la otra subida ha empezado, es decir, si van en paralelo
+					if (!this.waitFor.await(10, TimeUnit.SECONDS)) {
+						throw new IOException("La otra subida no se ha ejecutado en paralelo"); //$NON-NLS-1$
+					}
+				}
+				catch (final InterruptedException e) {
+					throw new IOException(e);
+				}
+			}
+			if (this.fail) {
+				throw new IOException("Fallo simulado"); //$NON-NLS-1$
+			}
+			this.sent.set(true);
+		}
+
+		@Override
+		void rollback() {
+			this.rolledBack.set(true);
+		}
+	}
+
+	/** Prueba de la subida en paralelo de ambos documentos.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testParallelUpload() throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			// Cada subida espera a que empiece la otra
+			final CountDownLatch oriStarted = new CountDownLatch(1);
+			final CountDownLatch csvStarted = new CountDownLatch(1);
+			final FakeUpload ori = new FakeUpload("A_ORI.pdf", oriStarted, csvStarted, false); //$NON-NLS-1$
+			final FakeUpload csv = new FakeUpload("A_CSV.pdf", csvStarted, oriStarted, false); //$NON-NLS-1$
+			CmisCsvStorer.store(ori, csv, executor);
+			Assert.assertTrue(ori.sent.get());
+			Assert.assertTrue(csv.sent.get());
+			Assert.assertFalse(ori.rolledBack.get());
+			Assert.assertFalse(csv.rolledBack.get());
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/** Prueba de la eliminaci&oacute;n del documento subido cuando falla su pareja.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testCompensation() throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			// Falla el documento con CSV: se elimina el original
+			FakeUpload ori = new FakeUpload("B_ORI.pdf", false); //$NON-NLS-1$
+			FakeUpload csv = new FakeUpload("B_CSV.pdf", true); //$NON-NLS-1$
+			try {
+				CmisCsvStorer.store(ori, csv, executor);
+				Assert.fail("Deberia haber fallado el almacenamiento"); //$NON-NLS-1$
+			}
+			catch (final CsvStorerException e) {
+				// Correcto
+			}
+			Assert.assertTrue(ori.rolledBack.get());
+			Assert.assertFalse(csv.rolledBack.get());
+
+			// Falla el original: se elimina el documento con CSV
+			ori = new FakeUpload("C_ORI.pdf", true); //$NON-NLS-1$
+			csv = new FakeUpload("C_CSV.pdf", false); //$NON-NLS-1$
+			try {
+				CmisCsvStorer.store(ori, csv, executor);
+				Assert.fail("Deberia haber fallado el almacenamiento"); //$NON-NLS-1$
+			}
+			catch (final CsvStorerException e) {
+				// Correcto
+			}
+			Assert.assertFalse(ori.rolledBack.get());
+			Assert.assertTrue(csv.rolledBack.get());
+
+			// En secuencial, si falla el original no se sube el documento con CSV
+			ori = new FakeUpload("D_ORI.pdf", true); //$NON-NLS-1$
+			csv = new FakeUpload("D_CSV.pdf", false); //$NON-NLS-1$
+			try {
+				CmisCsvStorer.store(ori, csv, null);
+				Assert.fail("Deberia haber fallado el almacenamiento"); //$NON-NLS-1$
+			}
+			catch (final CsvStorerException e) {
+				// Correcto
+			}
+			Assert.assertFalse(csv.sent.get());
+			Assert.assertFalse(csv.rolledBack.get());
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+}
@@ -0,0 +1,209 @@
+package es.ciemat.csv.cms;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.chemistry.opencmis.client.api.Folder;
+import org.apache.chemistry.opencmis.client.api.OperationContext;
+import org.apache.chemistry.opencmis.client.api.Session;
+import org.apache.chemistry.opencmis.commons.exceptions.CmisConnectionException;
+import org.apache.chemistry.opencmis.commons.exceptions.CmisObjectNotFoundException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import es.ciemat.csv.cms.CmsSessionHolder.SessionSource;
+
+/** Pruebas de la sesi&oacute;n compartida con el gestor documental, usando un gestor
+ * simulado en memoria.
+ * @author Tom&aacute;s Garc&iacute;a-Mer&aacute;s. */
+public final class TestCmsSessionHolder {
+
+	private static final String FOLDER = "/csv"; //$NON-NLS-1$
+
+	/** Gestor documental simulado con una &uacute;nica carpeta. */
+	static final class FakeCms implements SessionSource {
+
+		final AtomicInteger sessionsOpened = new AtomicInteger();
+		final AtomicInteger pathLookups = new AtomicInteger();
+		final AtomicBoolean down = new AtomicBoolean(false);
+
+		/** Si se indica, las comprobaciones de la carpeta esperan a que se abra. */
+		volatile CountDownLatch refreshGate = null;
+		final CountDownLatch refreshing = new CountDownLatch(1);
+
+		@Override
+		public Session openSession() {
+			if (this.down.get()) {
+				throw new CmisConnectionException("Gestor caido"); //$NON-NLS-1$
+			}
+			this.sessionsOpened.incrementAndGet();
+			final Folder folder = proxy(Folder.class, new InvocationHandler() {
+				@Override
+				public Object invoke(final Object p, final Method m, final Object[] args) throws InterruptedException {
+					if ("refresh".equals(m.getName())) { //$NON-NLS-1$
+						final CountDownLatch gate = FakeCms.this.refreshGate;
+						if (gate != null) {
+							FakeCms.this.refreshing.countDown();
+							gate.await();
+						}
+						if (FakeCms.this.down.get()) {
+							throw new CmisConnectionException("Gestor caido"); //$NON-NLS-1$
+						}
+					}
+					if ("getPath".equals(m.getName())) { //$NON-NLS-1$
+						return FOLDER;
+					}
+					return null;
+				}
+			});
+			final OperationContext ctx = proxy(OperationContext.class, new InvocationHandler() {
+				@Override
+				public Object invoke(final Object p, final Method m, final Object[] args) {
+					return null;
+				}
+			});
+			return proxy(Session.class, new InvocationHandler() {
+				@Override
+				public Object invoke(final Object p, final Method m, final Object[] args) {
+					switch (m.getName()) {
+						case "createOperationContext": //$NON-NLS-1$
+							return ctx;
+						case "getObjectByPath": //$NON-NLS-1$
+							FakeCms.this.pathLookups.incrementAndGet();
+							if (FOLDER.equals(args[0])) {
+								return folder;
+							}
+							throw new CmisObjectNotFoundException(String.valueOf(args[0]));
+						case "getRootFolder": //$NON-NLS-1$
+							return folder;
+						default:
+							return null;
+					}
+				}
+			});
+		}
+
+		@SuppressWarnings("unchecked")
+		static <T> T proxy(final Class<T> iface, final InvocationHandler handler) {
+			return (T) Proxy.newProxyInstance(
+				TestCmsSessionHolder.class.getClassLoader(),
+				new Class<?>[] { iface },
+				handler
+			);
+		}
+	}
+
+	/** Prueba de la reutilizaci&oacute;n de la sesi&oacute;n y de la carpeta.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testSessionReuse() throws Exception {
+		final FakeCms cms = new FakeCms();
+		final CmsSessionHolder holder = new CmsSessionHolder(cms, FOLDER, CmsSessionHolder.DEFAULT_CHECK_INTERVAL);
+
+		final Session s1 = holder.getSession();
+		final Folder f1 = holder.getFolder();
+		for (int i = 0; i < 10; i++) {
+			Assert.assertSame(s1, holder.getSession());
+			Assert.assertSame(f1, holder.getFolder());
+		}
+		Assert.assertEquals(1, cms.sessionsOpened.get());
+		Assert.assertEquals(1, cms.pathLookups.get());
+	}
+
+	/** Prueba de la reconexi&oacute;n cuando la sesi&oacute;n deja de ser v&aacute;lida.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test
+	public void testReconnect() throws Exception {
+		final FakeCms cms = new FakeCms();
+		// Comprobacion de la sesion en cada uso
+		final CmsSessionHolder holder = new CmsSessionHolder(cms, FOLDER, -1);
+
+		final Session s1 = holder.getSession();
+		holder.getFolder();
+
+		// El gestor cae, la comprobacion falla y no se puede abrir una nueva sesion
+		cms.down.set(true);
+		try {
+			holder.getSession();
+			Assert.fail("Deberia haber fallado la conexion"); //$NON-NLS-1$
+		}
+		catch (final CmisConnectionException e) {
+			// Correcto
+		}
+
+		// El gestor vuelve, se abre una nueva sesion y se vuelve a obtener la carpeta
+		cms.down.set(false);
+		final Session s2 = holder.getSession();
+		Assert.assertNotSame(s1, s2);
+		holder.getFolder();
+		Assert.assertEquals(2, cms.sessionsOpened.get());
+		Assert.assertEquals(2, cms.pathLookups.get());
+
+		// Invalidacion explicita tras un error de conexion
+		holder.invalidate();
+		Assert.assertNotSame(s2, holder.getSession());
+		Assert.assertEquals(3, cms.sessionsOpened.get());
+	}
+
+	/** Prueba de que la comprobaci&oacute;n de la sesi&oacute;n no bloquea al resto de hilos y de que
+	 * el fallo de la comprobaci&oacute;n de una sesi&oacute;n ya sustituida no descarta la nueva.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test(timeout = 10000)
+	public void testCheckWithoutLock() throws Exception {
+		final FakeCms cms = new FakeCms();
+		final CmsSessionHolder holder = new CmsSessionHolder(cms, FOLDER, -1);
+		final Session s1 = holder.getSession();
+		holder.getFolder();
+
+		final CountDownLatch gate = new CountDownLatch(1);
+		cms.refreshGate = gate;
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			// Un hilo queda comprobando la sesion contra un gestor que no responde
+			final Future<Session> checking = executor.submit(new Callable<Session>() {
+				@Override
+				public Session call() {
+					return holder.getSession();
+				}
+			});
+			Assert.assertTrue(cms.refreshing.await(5, TimeUnit.SECONDS));
+
+			// Mientras tanto otro hilo descarta la sesion y abre una nueva sin esperar
+			holder.invalidate();
+			cms.refreshGate = null;
+			final Session s2 = holder.getSession();
+			Assert.assertNotSame(s1, s2);
+
+			// La comprobacion de la sesion anterior falla, pero se conserva la nueva
+			cms.down.set(true);
+			gate.countDown();
+			Assert.assertSame(s2, checking.get(5, TimeUnit.SECONDS));
+			Assert.assertEquals(2, cms.sessionsOpened.get());
+		}
+		finally {
+			gate.countDown();
+			executor.shutdownNow();
+		}
+	}
+
+	/** Prueba de error si la carpeta configurada no existe.
+	 * @throws Exception En cualquier error. */
+	@SuppressWarnings("static-method")
+	@Test(expected = CmsFolderNotFoundException.class)
+	public void testMissingFolder() throws Exception {
+		new CmsSessionHolder(new FakeCms(), "/noexiste", CmsSessionHolder.DEFAULT_CHECK_INTERVAL).getFolder(); //$NON-NLS-1$
+	}
+
+}